@@ -84,17 +84,12 @@ public class AllFileConverterImpl implements CADConverter {
         ProcessBuilder pb = new ProcessBuilder(args);
 
         try {
-            Process proc = pb.start();
+            ConverterUtils.ProcessResult result = ConverterUtils.executeProcess(pb);
+            String errorOutput = result.getErrorOutput();
 
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(proc.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(proc.getErrorStream());
+            LOGGER.info(result.getStdOutput());
 
-            LOGGER.info(stdOutput);
-
-            proc.waitFor();
-
-            if (proc.exitValue() == 0) {
+            if (result.getExitValue() == 0) {
                 return new ConversionResult(finalConvertedFile);
             } else {
                 throw new ConversionException(
@@ -80,17 +80,12 @@ public class DaeFileConverterImpl implements CADConverter {
         String[] args = {assimp, "export", tmpCadFile.toAbsolutePath().toString(), convertedFile.toString()};
         ProcessBuilder pb = new ProcessBuilder(args);
         try {
-            Process process = pb.start();
+            ConverterUtils.ProcessResult result = ConverterUtils.executeProcess(pb);
+            String errorOutput = result.getErrorOutput();
 
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(process.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(process.getErrorStream());
+            LOGGER.info(result.getStdOutput());
 
-            LOGGER.info(stdOutput);
-
-            process.waitFor();
-
-            if (process.exitValue() == 0) {
+            if (result.getExitValue() == 0) {
                 List<Path> materials = new ArrayList<>();
                 materials.add(convertedMtlFile);
                 return new ConversionResult(convertedFile, materials);
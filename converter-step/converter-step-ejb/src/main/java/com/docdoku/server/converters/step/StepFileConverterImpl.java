@@ -78,17 +78,12 @@ public class StepFileConverterImpl implements CADConverter {
         ProcessBuilder pb = new ProcessBuilder(args);
 
         try {
-            Process process = pb.start();
+            ConverterUtils.ProcessResult result = ConverterUtils.executeProcess(pb);
+            String errorOutput = result.getErrorOutput();
 
-            // Read buffers
-            String stdOutput = ConverterUtils.inputStreamToString(process.getInputStream());
-            String errorOutput = ConverterUtils.inputStreamToString(process.getErrorStream());
+            LOGGER.info(result.getStdOutput());
 
-            LOGGER.info(stdOutput);
-
-            process.waitFor();
-
-            if (process.exitValue() == 0) {
+            if (result.getExitValue() == 0) {
                 return new ConversionResult(tmpOBJFile);
             } else {
                 throw new ConversionException(
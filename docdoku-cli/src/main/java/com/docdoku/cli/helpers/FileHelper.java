@@ -23,6 +23,9 @@ package com.docdoku.cli.helpers;
 import com.docdoku.api.models.*;
 import com.docdoku.api.models.utils.LastIterationHelper;
 
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 import javax.security.auth.login.LoginException;
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -32,14 +35,20 @@ import java.net.URLEncoder;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
 
 public class FileHelper {
 
     private static final int CHUNK_SIZE = 1024*8;
     private static final int BUFFER_CAPACITY = 1024*32;
+    private static final int UPLOAD_CHUNK_SIZE = 1024*1024*8;
+    private static final int UPLOAD_THREADS = 4;
+    private static final int UPLOAD_ATTEMPTS = 3;
 
     private String login;
     private String password;
@@ -121,71 +130,148 @@ public class FileHelper {
         }
     }
 
-    private String uploadFile(File pLocalFile, String pURL) throws IOException, LoginException, NoSuchAlgorithmException {
-        InputStream in = null;
-        OutputStream out = null;
-        HttpURLConnection conn = null;
-        try {
-            //Hack for NTLM proxy
-            //perform a head method to negociate the NTLM proxy authentication
-            URL url = new URL(pURL);
-
-            output.printInfo(
-                    LangHelper.getLocalizedMessage("UploadingFile", locale)
-                            + " : "
-                            + pLocalFile.getName() + " "
-                            + LangHelper.getLocalizedMessage("To", locale) + " "
-                            + url.getHost());
-            performHeadHTTPMethod(url);
-
-
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setDoOutput(true);
-            conn.setUseCaches(false);
-            conn.setAllowUserInteraction(true);
-            conn.setRequestProperty("Connection", "Keep-Alive");
-            byte[] encoded = Base64.getEncoder().encode((login + ":" + password).getBytes("ISO-8859-1"));
-            conn.setRequestProperty("Authorization", "Basic " + new String(encoded, "US-ASCII"));
+    private String uploadFile(File pLocalFile, String pUploadsURL, String pCommitURL) throws IOException, LoginException, NoSuchAlgorithmException {
+        //Hack for NTLM proxy
+        //perform a head method to negociate the NTLM proxy authentication
+        URL url = new URL(pUploadsURL);
+
+        output.printInfo(
+                LangHelper.getLocalizedMessage("UploadingFile", locale)
+                        + " : "
+                        + pLocalFile.getName() + " "
+                        + LangHelper.getLocalizedMessage("To", locale) + " "
+                        + url.getHost());
+        performHeadHTTPMethod(url);
+
+        long fileLength = pLocalFile.length();
+        JsonObject upload = createUpload(pUploadsURL + "?fileName=" + URLEncoder.encode(pLocalFile.getName(), "UTF-8")
+                + "&length=" + fileLength + "&chunkSize=" + UPLOAD_CHUNK_SIZE);
+        String uploadURL = pUploadsURL + "/" + upload.getString("id");
+        int chunkSize = upload.getInt("chunkSize");
+
+        // The file is read once, sequentially, to compute its digest while the chunks are sent in parallel
+        ExecutorService executor = Executors.newFixedThreadPool(UPLOAD_THREADS);
+        Semaphore pendingChunks = new Semaphore(UPLOAD_THREADS * 2);
+        List<Future<Void>> chunks = new ArrayList<>();
+        MessageDigest md = MessageDigest.getInstance("MD5");
+
+        try (InputStream in = output.getMonitor(fileLength, new DigestInputStream(new BufferedInputStream(new FileInputStream(pLocalFile), BUFFER_CAPACITY), md))) {
+            for (long offset = 0; offset < fileLength; offset += chunkSize) {
+                byte[] chunk = readChunk(in, (int) Math.min(chunkSize, fileLength - offset));
+                long chunkOffset = offset;
+                pendingChunks.acquire();
+                chunks.add(executor.submit(() -> {
+                    try {
+                        uploadChunk(uploadURL, chunkOffset, chunk);
+                        return null;
+                    } finally {
+                        pendingChunks.release();
+                    }
+                }));
+            }
+            // Reaching the end of the file completes the progress
+            in.read(new byte[CHUNK_SIZE]);
+            for (Future<Void> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LoginException) {
+                throw (LoginException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
 
-            String lineEnd = "\r\n";
-            String twoHyphens = "--";
-            String boundary = "--------------------" + Long.toString(System.currentTimeMillis(), 16);
-            byte[] header = (twoHyphens + boundary + lineEnd + "Content-Disposition: form-data; name=\"upload\";" + " filename=\"" + pLocalFile.getName() + "\"" + lineEnd + lineEnd).getBytes("ISO-8859-1");
-            byte[] footer = (lineEnd + twoHyphens + boundary + twoHyphens + lineEnd).getBytes("ISO-8859-1");
+        commitUpload(pCommitURL.replace("{uploadId}", upload.getString("id")));
 
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "multipart/form-data;boundary=" + boundary);
-            long len = header.length + pLocalFile.length() + footer.length;
-            conn.setFixedLengthStreamingMode((int) len);
-            out = new BufferedOutputStream(conn.getOutputStream(), BUFFER_CAPACITY);
-            out.write(header);
+        byte[] digest = md.digest();
+        return Base64.getEncoder().encodeToString(digest);
+    }
 
-            byte[] data = new byte[CHUNK_SIZE];
-            int length;
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            in = output.getMonitor(pLocalFile.length(), new DigestInputStream(new BufferedInputStream(new FileInputStream(pLocalFile), BUFFER_CAPACITY),md));
-            while ((length = in.read(data)) != -1) {
-                out.write(data, 0, length);
+    private JsonObject createUpload(String pURL) throws IOException, LoginException {
+        HttpURLConnection conn = openConnection(new URL(pURL), "POST");
+        try {
+            manageHTTPCode(conn);
+            try (JsonReader reader = Json.createReader(conn.getInputStream())) {
+                return reader.readObject();
             }
+        } finally {
+            conn.disconnect();
+        }
+    }
 
-            out.write(footer);
-            out.flush();
+    private void uploadChunk(String pURL, long offset, byte[] chunk) throws IOException, LoginException, NoSuchAlgorithmException {
+        String md5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(chunk));
+        URL url = new URL(pURL + "?offset=" + offset);
+
+        for (int attempt = 1; ; attempt++) {
+            HttpURLConnection conn = openConnection(url, "PUT");
+            try {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/octet-stream");
+                conn.setRequestProperty("Content-MD5", md5);
+                conn.setFixedLengthStreamingMode(chunk.length);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(chunk);
+                }
+                manageHTTPCode(conn);
+                if (conn.getResponseCode() < 300) {
+                    return;
+                }
+                throw new IOException(conn.getResponseMessage());
+            } catch (IOException e) {
+                // The chunk is sent again, the ones already received are kept by the server
+                if (attempt == UPLOAD_ATTEMPTS) {
+                    throw e;
+                }
+            } finally {
+                conn.disconnect();
+            }
+        }
+    }
 
+    private void commitUpload(String pURL) throws IOException, LoginException {
+        HttpURLConnection conn = openConnection(new URL(pURL), "POST");
+        try {
             manageHTTPCode(conn);
-
-            byte[] digest = md.digest();
-            return Base64.getEncoder().encodeToString(digest);
-        } finally {
-            if(out!=null) {
-                out.close();
+            if (conn.getResponseCode() >= 300) {
+                throw new IOException(conn.getResponseMessage());
             }
-            if(in!=null) {
-                in.close();
-            }
-            if(conn!=null) {
-                conn.disconnect();
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static byte[] readChunk(InputStream in, int length) throws IOException {
+        byte[] chunk = new byte[length];
+        byte[] data = new byte[CHUNK_SIZE];
+        int read = 0;
+        while (read < length) {
+            // Progress monitors only follow read(byte[])
+            byte[] buffer = length - read < CHUNK_SIZE ? new byte[length - read] : data;
+            int count = in.read(buffer);
+            if (count == -1) {
+                throw new EOFException();
             }
+            System.arraycopy(buffer, 0, chunk, read, count);
+            read += count;
         }
+        return chunk;
+    }
+
+    private HttpURLConnection openConnection(URL url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setUseCaches(false);
+        conn.setAllowUserInteraction(true);
+        conn.setRequestProperty("Connection", "Keep-Alive");
+        byte[] encoded = Base64.getEncoder().encode((login + ":" + password).getBytes("ISO-8859-1"));
+        conn.setRequestProperty("Authorization", "Basic " + new String(encoded, "US-ASCII"));
+        conn.setRequestMethod(method);
+        return conn;
     }
 
     private void manageHTTPCode(HttpURLConnection conn) throws IOException, LoginException {
@@ -233,6 +319,13 @@ public class FileHelper {
                 + pRemoteFileName;
     }
 
+    private static String getUploadsURL(URL serverURL, String workspaceId) throws UnsupportedEncodingException {
+        return serverURL
+                + "/api/files/"
+                + URLEncoder.encode(workspaceId, "UTF-8") + "/"
+                + "uploads";
+    }
+
     public static String getPartURLUpload(URL serverURL, PartIterationDTO pPart) throws UnsupportedEncodingException, MalformedURLException {
         return serverURL
                 + "/api/files/"
@@ -260,7 +353,9 @@ public class FileHelper {
     }
 
     public void uploadNativeCADFile(URL serverURL, File cadFile, PartIterationDTO partIPK) throws IOException, LoginException, NoSuchAlgorithmException {
-        String digest = uploadFile(cadFile, FileHelper.getPartURLUpload(serverURL, partIPK));
+        // Files pushed from the command line are converted after the ones uploaded interactively
+        String digest = uploadFile(cadFile, FileHelper.getUploadsURL(serverURL, partIPK.getWorkspaceId()),
+                FileHelper.getPartURLUpload(serverURL, partIPK) + "uploads/{uploadId}?batch=true");
 
         File path = cadFile.getParentFile();
         MetaDirectoryManager meta = new MetaDirectoryManager(path);
@@ -351,7 +446,8 @@ public class FileHelper {
 
 
     public void uploadDocumentFile(URL serverURL, File file, DocumentIterationDTO docIPK) throws IOException, LoginException, NoSuchAlgorithmException {
-        String digest = uploadFile(file, FileHelper.getDocumentURLUpload(serverURL, docIPK));
+        String digest = uploadFile(file, FileHelper.getUploadsURL(serverURL, docIPK.getWorkspaceId()),
+                FileHelper.getDocumentURLUpload(serverURL, docIPK) + "/uploads/{uploadId}");
 
         File path = file.getParentFile();
         MetaDirectoryManager meta = new MetaDirectoryManager(path);
@@ -0,0 +1,98 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.common;
+
+import java.io.Serializable;
+
+/**
+ * Counters of the binary resource cache placed in front of the vault.
+ */
+public class BinaryCacheStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long hits;
+    private long misses;
+    private long admissions;
+    private long rejections;
+    private long evictions;
+    private long invalidations;
+    private long servedBytes;
+    private long cachedBytes;
+    private long capacity;
+
+    public BinaryCacheStats() {
+    }
+
+    public BinaryCacheStats(long hits, long misses, long admissions, long rejections, long evictions, long invalidations,
+                            long servedBytes, long cachedBytes, long capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.admissions = admissions;
+        this.rejections = rejections;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.servedBytes = servedBytes;
+        this.cachedBytes = cachedBytes;
+        this.capacity = capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getAdmissions() {
+        return admissions;
+    }
+
+    public long getRejections() {
+        return rejections;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public long getServedBytes() {
+        return servedBytes;
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
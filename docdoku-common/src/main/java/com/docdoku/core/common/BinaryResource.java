@@ -40,7 +40,7 @@ import java.util.Date;
  * @version 1.0, 02/06/08
  * @since   V1.0
  */
-@Table(name="BINARYRESOURCE")
+@Table(name="BINARYRESOURCE", indexes = {@Index(name = "INDEX_BINARYRESOURCE_HASH", columnList = "CONTENTHASH")})
 @Inheritance()
 @NamedQueries ({
         @NamedQuery(name="BinaryResource.diskUsageInPath", query = "SELECT sum(br.contentLength) FROM BinaryResource br WHERE br.fullName like :path")
@@ -55,6 +55,12 @@ public class BinaryResource implements Serializable, Comparable<BinaryResource>{
 
     @javax.persistence.Temporal(javax.persistence.TemporalType.TIMESTAMP)
     private Date lastModified;
+
+    /**
+     * Hex encoded SHA-256 of the file content, null if unknown.
+     */
+    @Column(name = "CONTENTHASH", length = 64)
+    private String contentHash;
     
     public BinaryResource() {
     }
@@ -214,4 +220,12 @@ public class BinaryResource implements Serializable, Comparable<BinaryResource>{
         this.lastModified = lastModified;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
 }
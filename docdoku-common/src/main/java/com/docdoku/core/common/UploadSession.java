@@ -0,0 +1,127 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * State of a resumable chunked upload. The file is split into chunks of
+ * <code>chunkSize</code> bytes, the last one being possibly shorter, which are
+ * received in any order until the upload is committed into a {@link BinaryResource}.
+ */
+public class UploadSession implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+    private String workspaceId;
+    private String login;
+    private String fileName;
+    private long length;
+    private int chunkSize;
+    private Date creationDate;
+    private BitSet receivedChunks = new BitSet();
+
+    public UploadSession() {
+    }
+
+    public UploadSession(String id, String workspaceId, String login, String fileName, long length, int chunkSize, Date creationDate) {
+        this.id = id;
+        this.workspaceId = workspaceId;
+        this.login = login;
+        this.fileName = fileName;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.creationDate = creationDate;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getWorkspaceId() {
+        return workspaceId;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    public BitSet getReceivedChunks() {
+        return receivedChunks;
+    }
+
+    public void setReceivedChunks(BitSet receivedChunks) {
+        this.receivedChunks = receivedChunks;
+    }
+
+    public int getChunkCount() {
+        return (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    public long getChunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public long getChunkLength(int index) {
+        return Math.min(chunkSize, length - getChunkOffset(index));
+    }
+
+    public long getReceivedLength() {
+        long received = 0;
+        for (int i = receivedChunks.nextSetBit(0); i >= 0 && i < getChunkCount(); i = receivedChunks.nextSetBit(i + 1)) {
+            received += getChunkLength(i);
+        }
+        return received;
+    }
+
+    public List<Long> getMissingOffsets() {
+        List<Long> offsets = new ArrayList<>();
+        for (int i = receivedChunks.nextClearBit(0); i < getChunkCount(); i = receivedChunks.nextClearBit(i + 1)) {
+            offsets.add(getChunkOffset(i));
+        }
+        return offsets;
+    }
+
+    public boolean isComplete() {
+        return receivedChunks.nextClearBit(0) >= getChunkCount();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.common;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a vault deduplication: the files moved to the content-addressed
+ * store and the space given back by the ones sharing an already stored content.
+ */
+public class VaultDeduplicationStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long scannedFiles;
+    private long deduplicatedFiles;
+    private long savedBytes;
+    private long removedBlobs;
+
+    public VaultDeduplicationStats() {
+    }
+
+    public long getScannedFiles() {
+        return scannedFiles;
+    }
+
+    public long getDeduplicatedFiles() {
+        return deduplicatedFiles;
+    }
+
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    public long getRemovedBlobs() {
+        return removedBlobs;
+    }
+
+    public void addScannedFile() {
+        scannedFiles++;
+    }
+
+    public void addDeduplicatedFile(long length) {
+        deduplicatedFiles++;
+        savedBytes += length;
+    }
+
+    public void addRemovedBlob() {
+        removedBlobs++;
+    }
+
+    @Override
+    public String toString() {
+        return scannedFiles + " files scanned, " + deduplicatedFiles + " deduplicated, "
+                + savedBytes + " bytes saved, " + removedBlobs + " unused blobs removed";
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.configuration;
+
+import com.docdoku.core.product.*;
+import com.docdoku.core.util.AlphanumericComparator;
+
+import java.util.*;
+
+/**
+ * Index of the effectivities which apply to a {@link ConfigurationItem}, telling which part revisions
+ * are effective for a serial number, a lot or a date.
+ *
+ * Serial number, lot and date ranges are kept in interval trees, a lookup costs O(log n + k) where
+ * n is the number of effectivities and k the number of matching revisions, instead of evaluating each
+ * effectivity of each revision met while walking the product structure.
+ *
+ * Date based effectivities without configuration item apply to any configuration item, they are indexed
+ * as well. The index is immutable and may be shared between threads.
+ */
+public class EffectivityIndex {
+
+    private static final Comparator<CharSequence> STRING_COMPARATOR = new AlphanumericComparator();
+
+    private final ConfigurationItemKey configurationItemKey;
+    private final IntervalTree<String, PartRevisionKey> serialNumberRanges;
+    private final IntervalTree<String, PartRevisionKey> lotRanges;
+    private final IntervalTree<Date, PartRevisionKey> dateRanges;
+
+    /**
+     * @param configurationItemKey the configuration item being indexed
+     * @param effectivities the effectivities held by each part revision, the ones not applying to the
+     *                      configuration item are ignored
+     */
+    public EffectivityIndex(ConfigurationItemKey configurationItemKey, Map<PartRevisionKey, ? extends Collection<Effectivity>> effectivities) {
+        this.configurationItemKey = configurationItemKey;
+
+        List<IntervalTree.Interval<String, PartRevisionKey>> serialNumberIntervals = new ArrayList<>();
+        List<IntervalTree.Interval<String, PartRevisionKey>> lotIntervals = new ArrayList<>();
+        List<IntervalTree.Interval<Date, PartRevisionKey>> dateIntervals = new ArrayList<>();
+
+        for (Map.Entry<PartRevisionKey, ? extends Collection<Effectivity>> entry : effectivities.entrySet()) {
+            PartRevisionKey partRevisionKey = entry.getKey();
+            for (Effectivity effectivity : entry.getValue()) {
+                ConfigurationItem configurationItem = effectivity.getConfigurationItem();
+                boolean sameConfigurationItem = configurationItem != null && configurationItemKey.equals(configurationItem.getKey());
+
+                if (effectivity instanceof SerialNumberBasedEffectivity) {
+                    SerialNumberBasedEffectivity serialEff = (SerialNumberBasedEffectivity) effectivity;
+                    if (sameConfigurationItem && serialEff.getStartNumber() != null) {
+                        serialNumberIntervals.add(new IntervalTree.Interval<>(serialEff.getStartNumber(), serialEff.getEndNumber(), partRevisionKey));
+                    }
+                } else if (effectivity instanceof LotBasedEffectivity) {
+                    LotBasedEffectivity lotEff = (LotBasedEffectivity) effectivity;
+                    if (sameConfigurationItem && lotEff.getStartLotId() != null) {
+                        lotIntervals.add(new IntervalTree.Interval<>(lotEff.getStartLotId(), lotEff.getEndLotId(), partRevisionKey));
+                    }
+                } else if (effectivity instanceof DateBasedEffectivity) {
+                    DateBasedEffectivity dateEff = (DateBasedEffectivity) effectivity;
+                    if ((configurationItem == null || sameConfigurationItem) && dateEff.getStartDate() != null) {
+                        dateIntervals.add(new IntervalTree.Interval<>(dateEff.getStartDate(), dateEff.getEndDate(), partRevisionKey));
+                    }
+                }
+            }
+        }
+
+        serialNumberRanges = new IntervalTree<>(STRING_COMPARATOR, serialNumberIntervals);
+        lotRanges = new IntervalTree<>(STRING_COMPARATOR, lotIntervals);
+        dateRanges = new IntervalTree<>(Comparator.naturalOrder(), dateIntervals);
+    }
+
+    public ConfigurationItemKey getConfigurationItemKey() {
+        return configurationItemKey;
+    }
+
+    public int size() {
+        return serialNumberRanges.size() + lotRanges.size() + dateRanges.size();
+    }
+
+    public Set<PartRevisionKey> getPartRevisionsForSerialNumber(String serialNumber) {
+        Set<PartRevisionKey> partRevisionKeys = new HashSet<>();
+        serialNumberRanges.stab(serialNumber, partRevisionKeys);
+        return partRevisionKeys;
+    }
+
+    public Set<PartRevisionKey> getPartRevisionsForLot(String lotId) {
+        Set<PartRevisionKey> partRevisionKeys = new HashSet<>();
+        lotRanges.stab(lotId, partRevisionKeys);
+        return partRevisionKeys;
+    }
+
+    public Set<PartRevisionKey> getPartRevisionsAt(Date date) {
+        Set<PartRevisionKey> partRevisionKeys = new HashSet<>();
+        dateRanges.stab(date, partRevisionKeys);
+        return partRevisionKeys;
+    }
+
+    /**
+     * Resolve the part revisions effective for each of the given serial numbers, in the order of the serial numbers.
+     */
+    public Map<String, Set<PartRevisionKey>> getPartRevisionsForSerialNumbers(Collection<String> serialNumbers) {
+        Map<String, Set<PartRevisionKey>> partRevisionKeys = new LinkedHashMap<>();
+        for (String serialNumber : serialNumbers) {
+            partRevisionKeys.computeIfAbsent(serialNumber, this::getPartRevisionsForSerialNumber);
+        }
+        return partRevisionKeys;
+    }
+}
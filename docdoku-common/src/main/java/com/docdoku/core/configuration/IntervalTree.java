@@ -0,0 +1,133 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Static interval tree answering which intervals contain a given point.
+ *
+ * Intervals are sorted by their lower bound and laid out as an implicit balanced tree, each node
+ * holding the greatest upper bound of its subtree. A null upper bound means the interval is not bounded.
+ * Both bounds are inclusive.
+ */
+class IntervalTree<K, V> {
+
+    private final Comparator<? super K> comparator;
+    private final List<Interval<K, V>> intervals;
+    private final List<K> maxUpperBounds;
+
+    IntervalTree(Comparator<? super K> comparator, Collection<Interval<K, V>> pIntervals) {
+        this.comparator = comparator;
+        intervals = new ArrayList<>(pIntervals);
+        intervals.sort((i1, i2) -> comparator.compare(i1.lowerBound, i2.lowerBound));
+        maxUpperBounds = new ArrayList<>(intervals.size());
+        for (int i = 0; i < intervals.size(); i++) {
+            maxUpperBounds.add(null);
+        }
+        computeMaxUpperBounds(0, intervals.size());
+    }
+
+    int size() {
+        return intervals.size();
+    }
+
+    /**
+     * Add to the result the values of the intervals containing the point.
+     */
+    void stab(K point, Collection<? super V> result) {
+        stab(point, 0, intervals.size(), result);
+    }
+
+    private void stab(K point, int low, int high, Collection<? super V> result) {
+        if (low >= high) {
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        K maxUpperBound = maxUpperBounds.get(middle);
+        if (maxUpperBound != null && comparator.compare(maxUpperBound, point) < 0) {
+            // No interval of this subtree reaches the point
+            return;
+        }
+
+        stab(point, low, middle, result);
+
+        Interval<K, V> interval = intervals.get(middle);
+        if (comparator.compare(interval.lowerBound, point) > 0) {
+            // Right subtree intervals start even later
+            return;
+        }
+        if (interval.upperBound == null || comparator.compare(interval.upperBound, point) >= 0) {
+            result.add(interval.value);
+        }
+
+        stab(point, middle + 1, high, result);
+    }
+
+    /**
+     * Compute the greatest upper bound of the subtree rooted in the middle of [low, high[, null meaning unbounded.
+     * Return whether the subtree is bounded.
+     */
+    private boolean computeMaxUpperBounds(int low, int high) {
+        if (low >= high) {
+            return true;
+        }
+        int middle = (low + high) >>> 1;
+        boolean leftBounded = computeMaxUpperBounds(low, middle);
+        boolean rightBounded = computeMaxUpperBounds(middle + 1, high);
+        K upperBound = intervals.get(middle).upperBound;
+
+        if (!leftBounded || !rightBounded || upperBound == null) {
+            maxUpperBounds.set(middle, null);
+            return false;
+        }
+
+        K max = upperBound;
+        if (low < middle) {
+            max = max(max, maxUpperBounds.get((low + middle) >>> 1));
+        }
+        if (middle + 1 < high) {
+            max = max(max, maxUpperBounds.get((middle + 1 + high) >>> 1));
+        }
+        maxUpperBounds.set(middle, max);
+        return true;
+    }
+
+    private K max(K k1, K k2) {
+        return comparator.compare(k1, k2) >= 0 ? k1 : k2;
+    }
+
+    static class Interval<K, V> {
+
+        private final K lowerBound;
+        private final K upperBound;
+        private final V value;
+
+        Interval(K lowerBound, K upperBound, V value) {
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.value = value;
+        }
+    }
+}
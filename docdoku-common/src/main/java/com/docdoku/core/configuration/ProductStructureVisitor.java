@@ -0,0 +1,47 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.configuration;
+
+import com.docdoku.core.product.Component;
+import com.docdoku.core.product.PartIteration;
+
+/**
+ * A product structure visitor receives the {@link Component}s of a filtered
+ * product structure one by one, in depth-first order, while the structure is
+ * being walked. It allows callers to stream the structure instead of waiting
+ * for the whole tree to be resolved.
+ *
+ * Only the components the user can read and for which a single
+ * {@link PartIteration} has been retained are reported.
+ */
+
+public interface ProductStructureVisitor {
+
+    /**
+     * Called when a component has been resolved, before its children are walked.
+     * The children of the supplied component are not yet available.
+     *
+     * @param component the resolved component, its retained iteration is never null
+     *
+     * @return true to walk the children of the component, false to skip the branch
+     */
+    boolean visit(Component component);
+}
@@ -49,9 +49,11 @@ import java.util.*;
         @NamedQuery(name = "DocumentRevision.findWithOpenedTasksForUser", query = "SELECT d FROM DocumentRevision d, Task t LEFT JOIN t.assignedUsers au LEFT JOIN t.assignedGroups ag LEFT JOIN ag.users agu WHERE t.activity.workflow = d.workflow AND d.workflow IS NOT NULL AND d.documentMasterWorkspaceId = :workspaceId AND ((au.login = :login AND au.workspaceId = :workspaceId) OR (agu.login = :login AND agu.workspaceId = :workspaceId)) AND t.status = com.docdoku.core.workflow.Task.Status.IN_PROGRESS"),
         @NamedQuery(name = "DocumentRevision.findByReferenceOrTitle", query = "SELECT d FROM DocumentRevision d WHERE (d.documentMasterId LIKE :id OR d.title LIKE :title) AND d.documentMasterWorkspaceId = :workspaceId"),
         @NamedQuery(name = "DocumentRevision.countByWorkspace", query = "SELECT COUNT(d) FROM DocumentRevision d WHERE d.documentMasterWorkspaceId = :workspaceId"),
-        @NamedQuery(name = "DocumentRevision.findByWorkspace", query = "SELECT dr FROM DocumentRevision dr WHERE dr.documentMasterWorkspaceId = :workspaceId AND dr.location.completePath NOT LIKE :excludedFolders ORDER BY dr.documentMasterId ASC"),
-        @NamedQuery(name = "DocumentRevision.findByWorkspace.filterACLEntry", query = "SELECT dr FROM DocumentRevision dr, ACL a WHERE dr.documentMasterWorkspaceId = :workspaceId and (dr.acl is null or exists(SELECT au from ACLUserEntry au WHERE au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN AND a = dr.acl AND a = au.acl) or exists(SELECT aug from ACLUserGroupEntry aug WHERE :user member of aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN AND a = dr.acl AND a = aug.acl)) AND dr.location.completePath NOT LIKE :excludedFolders ORDER BY dr.documentMasterId ASC"),
-        @NamedQuery(name = "DocumentRevision.countByWorkspace.filterACLEntry", query = "SELECT count(distinct dr) FROM DocumentRevision dr, ACL a WHERE dr.documentMasterWorkspaceId = :workspaceId and (dr.acl is null or exists(SELECT au from ACLUserEntry au  WHERE au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN AND a = dr.acl AND a = au.acl) or exists(SELECT aug from ACLUserGroupEntry aug  WHERE :user member of aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN AND a = dr.acl AND a = aug.acl)) AND dr.location.completePath NOT LIKE :excludedFolders"),
+        @NamedQuery(name = "DocumentRevision.findByWorkspace", query = "SELECT dr FROM DocumentRevision dr WHERE dr.documentMasterWorkspaceId = :workspaceId AND dr.location.completePath NOT LIKE :excludedFolders ORDER BY dr.documentMasterId ASC, dr.version ASC"),
+        @NamedQuery(name = "DocumentRevision.findByWorkspace.filterACLEntry", query = "SELECT dr FROM DocumentRevision dr WHERE dr.documentMasterWorkspaceId = :workspaceId AND (dr.acl IS NULL OR EXISTS(SELECT au FROM ACLUserEntry au WHERE au.acl = dr.acl AND au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN) OR (NOT EXISTS(SELECT aue FROM ACLUserEntry aue WHERE aue.acl = dr.acl AND aue.principal = :user) AND EXISTS(SELECT aug FROM ACLUserGroupEntry aug WHERE aug.acl = dr.acl AND :user MEMBER OF aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN))) AND dr.location.completePath NOT LIKE :excludedFolders ORDER BY dr.documentMasterId ASC, dr.version ASC"),
+        @NamedQuery(name = "DocumentRevision.findByWorkspaceAfter", query = "SELECT dr FROM DocumentRevision dr WHERE dr.documentMasterWorkspaceId = :workspaceId AND (dr.documentMasterId > :id OR (dr.documentMasterId = :id AND dr.version > :version)) AND dr.location.completePath NOT LIKE :excludedFolders ORDER BY dr.documentMasterId ASC, dr.version ASC"),
+        @NamedQuery(name = "DocumentRevision.findByWorkspaceAfter.filterACLEntry", query = "SELECT dr FROM DocumentRevision dr WHERE dr.documentMasterWorkspaceId = :workspaceId AND (dr.documentMasterId > :id OR (dr.documentMasterId = :id AND dr.version > :version)) AND (dr.acl IS NULL OR EXISTS(SELECT au FROM ACLUserEntry au WHERE au.acl = dr.acl AND au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN) OR (NOT EXISTS(SELECT aue FROM ACLUserEntry aue WHERE aue.acl = dr.acl AND aue.principal = :user) AND EXISTS(SELECT aug FROM ACLUserGroupEntry aug WHERE aug.acl = dr.acl AND :user MEMBER OF aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN))) AND dr.location.completePath NOT LIKE :excludedFolders ORDER BY dr.documentMasterId ASC, dr.version ASC"),
+        @NamedQuery(name = "DocumentRevision.countByWorkspace.filterACLEntry", query = "SELECT count(dr) FROM DocumentRevision dr WHERE dr.documentMasterWorkspaceId = :workspaceId AND (dr.acl IS NULL OR EXISTS(SELECT au FROM ACLUserEntry au WHERE au.acl = dr.acl AND au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN) OR (NOT EXISTS(SELECT aue FROM ACLUserEntry aue WHERE aue.acl = dr.acl AND aue.principal = :user) AND EXISTS(SELECT aug FROM ACLUserGroupEntry aug WHERE aug.acl = dr.acl AND :user MEMBER OF aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN))) AND dr.location.completePath NOT LIKE :excludedFolders"),
         @NamedQuery(name = "DocumentRevision.findByWorkflow", query = "SELECT d FROM DocumentRevision d WHERE d.workflow = :workflow")
 })
 public class DocumentRevision implements Serializable, Comparable<DocumentRevision> {
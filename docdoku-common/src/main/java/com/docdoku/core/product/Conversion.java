@@ -28,10 +28,23 @@ import java.util.Date;
 @IdClass(PartIterationKey.class)
 public class Conversion implements Serializable {
 
+    /**
+     * Priority of the conversions requested from the user interface
+     */
+    public static final int INTERACTIVE_PRIORITY = 10;
+
+    /**
+     * Priority of the conversions requested by batch imports
+     */
+    public static final int BATCH_PRIORITY = 0;
+
     @Id
     @OneToOne(optional = false, fetch = FetchType.EAGER)
     private PartIteration partIteration;
 
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date queueDate;
+
     @Temporal(TemporalType.TIMESTAMP)
     private Date startDate;
 
@@ -42,6 +55,16 @@ public class Conversion implements Serializable {
 
     private boolean succeed;
 
+    private int priority = INTERACTIVE_PRIORITY;
+
+    /**
+     * Node holding the pending conversion in its queues, it renews the claim date while holding it
+     */
+    private String claimedBy;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date claimDate;
+
     public Conversion() {
     }
 
@@ -49,6 +72,15 @@ public class Conversion implements Serializable {
         this(new Date(), null, true, false, partIteration);
     }
 
+    /**
+     * Create a queued conversion, its start date is set once a worker picks it.
+     */
+    public Conversion(PartIteration partIteration, int priority) {
+        this(null, null, true, false, partIteration);
+        this.queueDate = new Date();
+        this.priority = priority;
+    }
+
     public Conversion(Date startDate, Date endDate, boolean pending, boolean succeed, PartIteration partIteration) {
         this.startDate = startDate;
         this.endDate = endDate;
@@ -57,6 +89,14 @@ public class Conversion implements Serializable {
         this.partIteration = partIteration;
     }
 
+    public Date getQueueDate() {
+        return queueDate;
+    }
+
+    public void setQueueDate(Date queueDate) {
+        this.queueDate = queueDate;
+    }
+
     public Date getStartDate() {
         return startDate;
     }
@@ -73,6 +113,10 @@ public class Conversion implements Serializable {
         this.pending = pending;
     }
 
+    public boolean isQueued() {
+        return pending && startDate == null;
+    }
+
     public boolean isSucceed() {
         return succeed;
     }
@@ -89,6 +133,14 @@ public class Conversion implements Serializable {
         this.partIteration = partIteration;
     }
 
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
     public Date getEndDate() {
         return endDate;
     }
@@ -96,4 +148,20 @@ public class Conversion implements Serializable {
     public void setEndDate(Date endDate) {
         this.endDate = endDate;
     }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public Date getClaimDate() {
+        return claimDate;
+    }
+
+    public void setClaimDate(Date claimDate) {
+        this.claimDate = claimDate;
+    }
 }
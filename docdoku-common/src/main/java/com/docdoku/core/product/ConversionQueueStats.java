@@ -0,0 +1,100 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.docdoku.core.product;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the activity of a conversion queue. Conversions are queued per
+ * CAD file extension, each queue being served by a bounded number of workers.
+ */
+public class ConversionQueueStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private int workers;
+    private int queued;
+    private int running;
+    private long completed;
+    private long totalWaitTime;
+    private long maxWaitTime;
+    private long totalRunTime;
+
+    public ConversionQueueStats() {
+    }
+
+    public ConversionQueueStats(String name, int workers, int queued, int running, long completed, long totalWaitTime, long maxWaitTime, long totalRunTime) {
+        this.name = name;
+        this.workers = workers;
+        this.queued = queued;
+        this.running = running;
+        this.completed = completed;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.totalRunTime = totalRunTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the cumulated time, in milliseconds, the completed conversions spent in queue
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @return the cumulated time, in milliseconds, the completed conversions ran
+     */
+    public long getTotalRunTime() {
+        return totalRunTime;
+    }
+
+    public long getAverageWaitTime() {
+        return completed == 0 ? 0 : totalWaitTime / completed;
+    }
+
+    public long getAverageRunTime() {
+        return completed == 0 ? 0 : totalRunTime / completed;
+    }
+}
@@ -40,7 +40,9 @@ import java.io.Serializable;
 @NamedQueries({
         @NamedQuery(name = "Effectivity.removeEffectivitiesFromConfigurationItem", query = "DELETE FROM Effectivity e WHERE e.configurationItem.id = :configurationItemId AND e.configurationItem.workspace.id = :workspaceId"),
         @NamedQuery(name = "Effectivity.findPartRevisionHolder", query = "SELECT p FROM PartRevision p, Effectivity e WHERE e member of p.effectivities AND e.id = :effectivityId"),
-        @NamedQuery(name = "Effectivity.getEffectivitiesInWorkspace", query = "SELECT e FROM PartRevision p, Effectivity e WHERE e member of p.effectivities AND p.partMaster.workspace.id = :workspaceId")
+        @NamedQuery(name = "Effectivity.getEffectivitiesInWorkspace", query = "SELECT e FROM PartRevision p, Effectivity e WHERE e member of p.effectivities AND p.partMaster.workspace.id = :workspaceId"),
+        @NamedQuery(name = "Effectivity.findPartRevisionEffectivitiesOfConfigurationItem", query = "SELECT p.partMasterNumber, p.version, e FROM PartRevision p JOIN p.effectivities e LEFT JOIN e.configurationItem ci WHERE p.partMasterWorkspaceId = :workspaceId AND (e.configurationItem IS NULL OR ci.id = :configurationItemId)"),
+        @NamedQuery(name = "Effectivity.getPartRevisionEffectivitiesStateOfConfigurationItem", query = "SELECT COUNT(e), MAX(e.id), SUM(e.revision) FROM PartRevision p JOIN p.effectivities e LEFT JOIN e.configurationItem ci WHERE p.partMasterWorkspaceId = :workspaceId AND (e.configurationItem IS NULL OR ci.id = :configurationItemId)")
 })
 
 public abstract class Effectivity implements Serializable {
@@ -60,6 +62,8 @@ public abstract class Effectivity implements Serializable {
     })
     private ConfigurationItem configurationItem;
 
+    private int revision;
+
     public Effectivity() {
     }
 
@@ -98,4 +102,15 @@ public abstract class Effectivity implements Serializable {
         return configurationItem;
     }
 
+    /**
+     * Number of updates of the effectivity, letting caches detect changes of their content.
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    public void incrementRevision() {
+        revision++;
+    }
+
 }
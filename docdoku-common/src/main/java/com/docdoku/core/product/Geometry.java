@@ -42,6 +42,11 @@ import java.util.Date;
 @Entity
 public class Geometry extends BinaryResource{
 
+    /**
+     * Output format of the compact binary encoding stored as a generated file of the geometry.
+     */
+    public static final String COMPACT_MESH_FORMAT = "cmesh";
+
     /**
      * Starts at 0, smaller is greater.
      */
@@ -140,6 +145,13 @@ public class Geometry extends BinaryResource{
         this.zMax = zMax;
     }
 
+    /**
+     * @return the name of the generated file holding the compact binary encoding of this geometry
+     */
+    public String getCompactMeshName() {
+        return getName() + "." + COMPACT_MESH_FORMAT;
+    }
+
     @Override
     public int compareTo(BinaryResource pBinaryResource) {
         if (!(pBinaryResource instanceof Geometry)) {
@@ -46,6 +46,7 @@ import java.util.*;
         @NamedQuery(name="PartIteration.findUsedByAsSubstitute", query="SELECT p FROM PartIteration p JOIN p.components l JOIN l.substitutes s WHERE s.substitute = :partMaster"),
         @NamedQuery(name="PartIteration.findUsedByAsComponent", query="SELECT p FROM PartIteration p JOIN p.components l WHERE l.component = :partMaster"),
         @NamedQuery(name="PartIteration.findDistinctInstanceAttributes", query="SELECT DISTINCT p.instanceAttributes FROM PartIteration p WHERE p.partRevision.partMaster.workspace.id = :workspaceId"),
+        @NamedQuery(name="PartIteration.findConvertedByNativeCADHash", query="SELECT p FROM PartIteration p WHERE p.nativeCADFile.contentHash = :contentHash AND p.partRevision.partMaster.workspace.id = :workspaceId AND p <> :partIteration AND p.geometries IS NOT EMPTY AND NOT EXISTS (SELECT c FROM Conversion c WHERE c.partIteration = p AND (c.pending = true OR c.succeed = false))"),
         @NamedQuery(name="PartIteration.findWhereLOV", query="SELECT p FROM PartIteration p WHERE EXISTS ( SELECT i FROM InstanceAttributeTemplate i, ListOfValuesAttributeTemplate il WHERE i member of p.instanceAttributeTemplates AND i = il AND il.lov.name = :lovName AND il.lov.workspaceId = :workspace_id)")
 })
 @Entity
@@ -45,7 +45,9 @@ import java.util.List;
 @Entity
 @NamedQueries({
         @NamedQuery(name = "PartMaster.findByNameOrNumber", query = "SELECT pm FROM PartMaster pm WHERE (pm.name LIKE :partName OR pm.number LIKE :partNumber) AND pm.workspace.id = :workspaceId"),
-        @NamedQuery(name = "PartMaster.findByWorkspace", query = "SELECT pm FROM PartMaster pm WHERE pm.workspace.id = :workspaceId ORDER BY pm.creationDate DESC")
+        @NamedQuery(name = "PartMaster.findByWorkspace", query = "SELECT pm FROM PartMaster pm WHERE pm.workspace.id = :workspaceId ORDER BY pm.creationDate DESC"),
+        @NamedQuery(name = "PartMaster.findByWorkspaceAfterNumber", query = "SELECT pm FROM PartMaster pm WHERE pm.workspace.id = :workspaceId AND pm.number > :number ORDER BY pm.number"),
+        @NamedQuery(name = "PartMaster.findByNumbers", query = "SELECT DISTINCT pm FROM PartMaster pm LEFT JOIN FETCH pm.partRevisions WHERE pm.workspace.id = :workspaceId AND pm.number IN :numbers")
 })
 public class PartMaster implements Serializable {
 
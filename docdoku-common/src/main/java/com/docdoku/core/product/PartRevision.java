@@ -43,8 +43,11 @@ import java.util.*;
 @IdClass(PartRevisionKey.class)
 @Entity
 @NamedQueries({
-        @NamedQuery(name="PartRevision.findByWorkspace", query="SELECT pr FROM PartRevision pr WHERE pr.partMaster.workspace.id = :workspaceId ORDER BY pr.partMaster.number ASC"),
-        @NamedQuery(name="PartRevision.countByWorkspace.filterACLEntry", query="SELECT count(distinct pr) FROM PartRevision pr, ACL a WHERE pr.partMaster.workspace.id = :workspaceId and (pr.acl is null or exists(SELECT au from ACLUserEntry au WHERE au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN AND a = pr.acl AND a = au.acl ) or exists(SELECT aug from ACLUserGroupEntry aug WHERE :user member of aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN AND a = pr.acl AND a = aug.acl))"),
+        @NamedQuery(name="PartRevision.findByWorkspace", query="SELECT pr FROM PartRevision pr WHERE pr.partMaster.workspace.id = :workspaceId ORDER BY pr.partMasterNumber ASC, pr.version ASC"),
+        @NamedQuery(name="PartRevision.findByWorkspace.filterACLEntry", query="SELECT pr FROM PartRevision pr WHERE pr.partMasterWorkspaceId = :workspaceId AND (pr.acl IS NULL OR EXISTS(SELECT au FROM ACLUserEntry au WHERE au.acl = pr.acl AND au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN) OR (NOT EXISTS(SELECT aue FROM ACLUserEntry aue WHERE aue.acl = pr.acl AND aue.principal = :user) AND EXISTS(SELECT aug FROM ACLUserGroupEntry aug WHERE aug.acl = pr.acl AND :user MEMBER OF aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN))) ORDER BY pr.partMasterNumber ASC, pr.version ASC"),
+        @NamedQuery(name="PartRevision.findByWorkspaceAfter", query="SELECT pr FROM PartRevision pr WHERE pr.partMasterWorkspaceId = :workspaceId AND (pr.partMasterNumber > :number OR (pr.partMasterNumber = :number AND pr.version > :version)) ORDER BY pr.partMasterNumber ASC, pr.version ASC"),
+        @NamedQuery(name="PartRevision.findByWorkspaceAfter.filterACLEntry", query="SELECT pr FROM PartRevision pr WHERE pr.partMasterWorkspaceId = :workspaceId AND (pr.partMasterNumber > :number OR (pr.partMasterNumber = :number AND pr.version > :version)) AND (pr.acl IS NULL OR EXISTS(SELECT au FROM ACLUserEntry au WHERE au.acl = pr.acl AND au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN) OR (NOT EXISTS(SELECT aue FROM ACLUserEntry aue WHERE aue.acl = pr.acl AND aue.principal = :user) AND EXISTS(SELECT aug FROM ACLUserGroupEntry aug WHERE aug.acl = pr.acl AND :user MEMBER OF aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN))) ORDER BY pr.partMasterNumber ASC, pr.version ASC"),
+        @NamedQuery(name="PartRevision.countByWorkspace.filterACLEntry", query="SELECT count(pr) FROM PartRevision pr WHERE pr.partMasterWorkspaceId = :workspaceId AND (pr.acl IS NULL OR EXISTS(SELECT au FROM ACLUserEntry au WHERE au.acl = pr.acl AND au.principal = :user AND au.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN) OR (NOT EXISTS(SELECT aue FROM ACLUserEntry aue WHERE aue.acl = pr.acl AND aue.principal = :user) AND EXISTS(SELECT aug FROM ACLUserGroupEntry aug WHERE aug.acl = pr.acl AND :user MEMBER OF aug.principal.users AND aug.permission <> com.docdoku.core.security.ACLPermission.FORBIDDEN)))"),
         @NamedQuery(name="PartRevision.countByWorkspace", query="SELECT count(pr) FROM PartRevision pr WHERE pr.partMasterWorkspaceId = :workspaceId"),
         @NamedQuery(name="PartRevision.findByReferenceOrName", query="SELECT pr FROM PartRevision pr WHERE (pr.partMaster.number LIKE :partNumber OR pr.partMaster.name LIKE :partName) AND pr.partMaster.workspace.id = :workspaceId"),
         @NamedQuery(name="PartRevision.findByWorkflow", query="SELECT p FROM PartRevision p WHERE p.workflow = :workflow"),
@@ -22,6 +22,8 @@ package com.docdoku.core.product;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Morgan Guimard
@@ -47,7 +49,8 @@ import java.io.Serializable;
         @NamedQuery(name="PathToPathLink.findPathToPathLinkByPathListInProduct", query="SELECT DISTINCT p FROM ConfigurationItem ci JOIN ci.pathToPathLinks p WHERE ci = :configurationItem AND p.sourcePath in :paths AND p.targetPath in :paths"),
         @NamedQuery(name="PathToPathLink.findSourcesPathToPathLinkInProduct", query="SELECT DISTINCT p FROM ConfigurationItem ci JOIN ci.pathToPathLinks p WHERE ci = :configurationItem AND p.sourcePath = :source AND p.type = :type"),
         @NamedQuery(name="PathToPathLink.findSourcesPathToPathLinkInProductBaseline", query="SELECT DISTINCT p FROM ProductBaseline pb JOIN pb.pathToPathLinks p WHERE pb = :productBaseline AND p.sourcePath = :source AND p.type = :type"),
-        @NamedQuery(name="PathToPathLink.findLinksWherePartialPathIsPresent", query="SELECT DISTINCT p FROM PathToPathLink p WHERE p.targetPath LIKE :endOfChain OR p.targetPath LIKE :inChain OR p.sourcePath LIKE :endOfChain OR p.sourcePath LIKE :inChain"),
+        @NamedQuery(name="PathToPathLink.findLinksWherePartialPathIsPresent", query="SELECT DISTINCT p FROM PathToPathLink p JOIN p.segments s WHERE s.usageLinkId = :usageLinkId"),
+        @NamedQuery(name="PathToPathLink.findLinksWithoutSegments", query="SELECT p FROM PathToPathLink p WHERE p.id > :lastId AND p.segments IS EMPTY AND (p.sourcePath <> '-1' OR p.targetPath <> '-1') ORDER BY p.id"),
         @NamedQuery(name="PathToPathLink.isSourceInProductInstanceContext", query="SELECT p FROM PathToPathLink p JOIN ProductInstanceIteration pi WHERE pi = :productInstanceIteration AND p member of pi.pathToPathLinks AND p.sourcePath = :path"),
         @NamedQuery(name="PathToPathLink.isTargetInProductInstanceContext", query="SELECT p FROM PathToPathLink p JOIN ProductInstanceIteration pi WHERE pi = :productInstanceIteration AND p member of pi.pathToPathLinks AND p.targetPath = :path"),
         @NamedQuery(name="PathToPathLink.isSourceInConfigurationItemContext", query="SELECT p FROM PathToPathLink p JOIN ConfigurationItem ci WHERE ci = :configurationItem AND p member of ci.pathToPathLinks AND p.sourcePath = :path"),
@@ -67,6 +70,19 @@ public class PathToPathLink implements Serializable, Cloneable{
     @Lob
     private String description;
 
+    /**
+     * Usage links of both paths, kept in sync with them, see {@link #indexSegments()}
+     */
+    @ElementCollection(fetch = FetchType.LAZY)
+    @CollectionTable(
+            name = "PATHTOPATHLINK_SEGMENT",
+            joinColumns = {
+                    @JoinColumn(name = "PATHTOPATHLINK_ID", referencedColumnName = "ID")
+            },
+            indexes = {@Index(name = "INDEX_P2P_SEGMENT_USAGELINK", columnList = "USAGELINK_ID")}
+    )
+    private List<PathToPathLinkSegment> segments = new ArrayList<>();
+
     public PathToPathLink() {
     }
 
@@ -75,6 +91,7 @@ public class PathToPathLink implements Serializable, Cloneable{
         this.sourcePath = sourcePath;
         this.targetPath = targetPath;
         this.description = description;
+        indexSegments();
     }
 
     public int getId() {
@@ -91,6 +108,7 @@ public class PathToPathLink implements Serializable, Cloneable{
 
     public void setSourcePath(String pathFrom) {
         this.sourcePath = pathFrom;
+        indexSegments();
     }
 
     public String getTargetPath() {
@@ -99,6 +117,7 @@ public class PathToPathLink implements Serializable, Cloneable{
 
     public void setTargetPath(String pathTo) {
         this.targetPath = pathTo;
+        indexSegments();
     }
 
     public String getType() {
@@ -117,6 +136,30 @@ public class PathToPathLink implements Serializable, Cloneable{
         this.description = description;
     }
 
+    public List<PathToPathLinkSegment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Rebuild the segments from the source and target paths.
+     * Paths are made of usage links full ids following the root one: -1-u12-s5-u3
+     */
+    public void indexSegments() {
+        segments.clear();
+        addSegments(false, sourcePath);
+        addSegments(true, targetPath);
+    }
+
+    private void addSegments(boolean onTargetPath, String path) {
+        if (path == null || !path.startsWith("-1-")) {
+            return;
+        }
+        String[] usageLinkIds = path.substring(3).split("-");
+        for (int i = 0; i < usageLinkIds.length; i++) {
+            segments.add(new PathToPathLinkSegment(onTargetPath, i, usageLinkIds[i]));
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o){
@@ -148,6 +191,7 @@ public class PathToPathLink implements Serializable, Cloneable{
         } catch (CloneNotSupportedException e) {
             throw new InternalError();
         }
+        clone.segments = new ArrayList<>(segments);
         return clone;
     }
 
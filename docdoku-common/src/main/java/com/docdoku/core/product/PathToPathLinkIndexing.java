@@ -0,0 +1,66 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.product;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * Single row marking the indexing of the {@link PathToPathLink} segments.
+ *
+ * The row is locked by each indexing batch, so that nodes starting together index the
+ * remaining links one batch after the other instead of indexing the same links twice.
+ *
+ * @since V2.5
+ */
+@Table(name = "PATHTOPATHLINK_INDEXING")
+@Entity
+public class PathToPathLinkIndexing implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int UNIQUE_ID = 1;
+
+    @Id
+    private int id = UNIQUE_ID;
+
+    private boolean done;
+
+    public PathToPathLinkIndexing() {
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return true once every link stored before segments existed has been indexed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+}
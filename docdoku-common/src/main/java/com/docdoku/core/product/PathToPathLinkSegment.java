@@ -0,0 +1,68 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.product;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+/**
+ * One usage (or substitute) link met on the source or target path of a {@link PathToPathLink}.
+ * Segments are stored in their own indexed table so that the links going through a given
+ * usage link can be found with an equality lookup instead of pattern matching on the paths.
+ *
+ * @since V2.5
+ */
+@Embeddable
+public class PathToPathLinkSegment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Column(name = "TARGETPATH")
+    private boolean onTargetPath;
+
+    @Column(name = "POSITION")
+    private int position;
+
+    @Column(name = "USAGELINK_ID", length = 100)
+    private String usageLinkId;
+
+    public PathToPathLinkSegment() {
+    }
+
+    public PathToPathLinkSegment(boolean onTargetPath, int position, String usageLinkId) {
+        this.onTargetPath = onTargetPath;
+        this.position = position;
+        this.usageLinkId = usageLinkId;
+    }
+
+    public boolean isOnTargetPath() {
+        return onTargetPath;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getUsageLinkId() {
+        return usageLinkId;
+    }
+}
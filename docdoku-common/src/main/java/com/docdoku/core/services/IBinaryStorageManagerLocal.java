@@ -20,10 +20,12 @@
 
 package com.docdoku.core.services;
 
+import com.docdoku.core.common.BinaryCacheStats;
 import com.docdoku.core.common.BinaryResource;
 import com.docdoku.core.exceptions.FileNotFoundException;
 import com.docdoku.core.exceptions.StorageException;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
@@ -42,4 +44,8 @@ public interface IBinaryStorageManagerLocal {
     String getExternalStorageURI(BinaryResource binaryResource);
     String getShortenExternalStorageURI(BinaryResource binaryResource);
     void deleteWorkspaceFolder(String workspaceId, List<BinaryResource> binaryResourcesInWorkspace) throws StorageException;
+    File getUploadFolder(String workspaceId, String uploadId);
+    void moveData(File source, BinaryResource binaryResource) throws StorageException;
+    void deduplicateVault();
+    BinaryCacheStats getBinaryCacheStats();
 }
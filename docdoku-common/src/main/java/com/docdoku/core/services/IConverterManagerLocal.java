@@ -21,12 +21,19 @@
 package com.docdoku.core.services;
 
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.product.ConversionQueueStats;
 import com.docdoku.core.product.PartIterationKey;
 
+import java.util.List;
+
 /**
  *
  * @author Florent Garin
  */
 public interface IConverterManagerLocal {
     void convertCADFileToOBJ(PartIterationKey pPartIPK, BinaryResource cadFile) throws Exception;
+
+    void convertCADFileToOBJ(PartIterationKey pPartIPK, BinaryResource cadFile, int priority) throws Exception;
+
+    List<ConversionQueueStats> getConversionQueueStats();
 }
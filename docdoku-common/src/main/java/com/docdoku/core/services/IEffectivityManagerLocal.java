@@ -24,6 +24,9 @@ import com.docdoku.core.exceptions.*;
 import com.docdoku.core.product.*;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Frédéric Maury
@@ -47,4 +50,6 @@ public interface IEffectivityManagerLocal {
     LotBasedEffectivity updateLotBasedEffectivity(String workspaceId, int pId, String pName, String pDescription, String pStartLotId, String pEndLotId) throws UserNotFoundException, WorkspaceNotFoundException, WorkspaceNotEnabledException, AccessRightException, CreationException, EffectivityNotFoundException;
 
     void deleteEffectivity(String workspaceId, String partNumber, String version, int pId) throws EffectivityNotFoundException, UserNotFoundException, WorkspaceNotFoundException, WorkspaceNotEnabledException, AccessRightException, PartRevisionNotFoundException, UserNotActiveException;
+
+    Map<String, Set<PartRevisionKey>> resolveSerialNumbers(String workspaceId, String configurationItemId, List<String> serialNumbers) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, WorkspaceNotEnabledException, ConfigurationItemNotFoundException;
 }
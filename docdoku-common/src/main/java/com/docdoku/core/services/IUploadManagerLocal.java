@@ -0,0 +1,39 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.services;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.UploadSession;
+import com.docdoku.core.exceptions.*;
+
+import java.io.InputStream;
+
+/**
+ * Resumable uploads: the content is sent in checksummed chunks, in any order and
+ * possibly in parallel, then committed into the binary resource it belongs to.
+ */
+public interface IUploadManagerLocal {
+    UploadSession createUpload(String workspaceId, String fileName, long length, int chunkSize) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, NotAllowedException, StorageException;
+    UploadSession getUpload(String workspaceId, String uploadId) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, StorageException;
+    void writeChunk(String workspaceId, String uploadId, long offset, InputStream in, String md5) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, NotAllowedException, StorageException;
+    void commitUpload(String workspaceId, String uploadId, BinaryResource binaryResource) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, NotAllowedException, StorageException;
+    void abortUpload(String workspaceId, String uploadId) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, StorageException;
+}
@@ -23,6 +23,7 @@ package com.docdoku.core.services;
 import com.docdoku.core.common.*;
 import com.docdoku.core.exceptions.*;
 import com.docdoku.core.security.PasswordRecoveryRequest;
+import com.docdoku.core.security.WorkspaceAccessStats;
 import com.docdoku.core.security.WorkspaceUserGroupMembership;
 import com.docdoku.core.security.WorkspaceUserMembership;
 
@@ -96,6 +97,7 @@ public interface IUserManagerLocal{
     Account checkAdmin(Workspace pWorkspace) throws AccessRightException, AccountNotFoundException;
     User checkWorkspaceReadAccess(String pWorkspaceId) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException;
     User checkWorkspaceWriteAccess(String pWorkspaceId) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException;
+    WorkspaceAccessStats getWorkspaceAccessStats();
 
     UserGroup[] getUserGroupsForUser(UserKey userKey) throws UserNotFoundException;
 
@@ -0,0 +1,51 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered input stream of a file which also exposes the channel of the file.
+ *
+ * Readers aware of it can transfer any region of the file through {@link FileChannel#transferTo}
+ * instead of skipping and copying through a heap buffer. The channel is closed with the stream.
+ */
+public class FileChannelInputStream extends BufferedInputStream {
+
+    private final FileChannel channel;
+
+    public FileChannelInputStream(File file) throws FileNotFoundException {
+        this(new FileInputStream(file));
+    }
+
+    private FileChannelInputStream(FileInputStream in) {
+        super(in);
+        channel = in.getChannel();
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+}
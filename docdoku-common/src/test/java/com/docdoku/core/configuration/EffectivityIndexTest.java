@@ -0,0 +1,124 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.configuration;
+
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.product.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class EffectivityIndexTest {
+
+    private final Workspace workspace = new Workspace("ws");
+    private final ConfigurationItem configurationItem = new ConfigurationItem(null, workspace, "ci", null);
+    private final ConfigurationItem otherConfigurationItem = new ConfigurationItem(null, workspace, "other", null);
+
+    @Test
+    public void serialNumbersAndLotsTest() {
+        PartRevisionKey a = new PartRevisionKey("ws", "part", "A");
+        PartRevisionKey b = new PartRevisionKey("ws", "part", "B");
+        Map<PartRevisionKey, List<Effectivity>> effectivities = new HashMap<>();
+        effectivities.put(a, Arrays.asList(serialNumberEffectivity(configurationItem, "SN2", "SN10"), lotEffectivity(configurationItem, "L1", "L1")));
+        effectivities.put(b, Arrays.asList(serialNumberEffectivity(configurationItem, "SN11", null), serialNumberEffectivity(otherConfigurationItem, "SN1", null)));
+
+        EffectivityIndex index = new EffectivityIndex(configurationItem.getKey(), effectivities);
+
+        Assert.assertTrue(index.getPartRevisionsForSerialNumber("SN1").isEmpty());
+        // Serial numbers are compared as alphanumeric strings, SN9 comes before SN10
+        Assert.assertEquals(Collections.singleton(a), index.getPartRevisionsForSerialNumber("SN9"));
+        Assert.assertEquals(Collections.singleton(a), index.getPartRevisionsForSerialNumber("SN10"));
+        Assert.assertEquals(Collections.singleton(b), index.getPartRevisionsForSerialNumber("SN500"));
+        Assert.assertEquals(Collections.singleton(a), index.getPartRevisionsForLot("L1"));
+        Assert.assertTrue(index.getPartRevisionsForLot("L2").isEmpty());
+
+        Map<String, Set<PartRevisionKey>> resolved = index.getPartRevisionsForSerialNumbers(Arrays.asList("SN3", "SN1", "SN12"));
+        Assert.assertEquals(Arrays.asList("SN3", "SN1", "SN12"), new ArrayList<>(resolved.keySet()));
+        Assert.assertEquals(Collections.singleton(b), resolved.get("SN12"));
+    }
+
+    @Test
+    public void datesWithoutConfigurationItemApplyTest() {
+        PartRevisionKey a = new PartRevisionKey("ws", "part", "A");
+        PartRevisionKey b = new PartRevisionKey("ws", "part", "B");
+        Map<PartRevisionKey, List<Effectivity>> effectivities = new HashMap<>();
+        effectivities.put(a, Collections.singletonList(dateEffectivity(null, new Date(100), new Date(200))));
+        effectivities.put(b, Arrays.asList(dateEffectivity(configurationItem, new Date(150), null), dateEffectivity(otherConfigurationItem, new Date(0), null)));
+
+        EffectivityIndex index = new EffectivityIndex(configurationItem.getKey(), effectivities);
+
+        Assert.assertTrue(index.getPartRevisionsAt(new Date(50)).isEmpty());
+        Assert.assertEquals(Collections.singleton(a), index.getPartRevisionsAt(new Date(100)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b)), index.getPartRevisionsAt(new Date(200)));
+        Assert.assertEquals(Collections.singleton(b), index.getPartRevisionsAt(new Date(201)));
+    }
+
+    @Test
+    public void intervalTreeMatchesLinearScanTest() {
+        Random random = new Random(42);
+        List<IntervalTree.Interval<Integer, Integer>> intervals = new ArrayList<>();
+        List<int[]> bounds = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int lowerBound = random.nextInt(1000);
+            Integer upperBound = random.nextInt(10) == 0 ? null : lowerBound + random.nextInt(100);
+            intervals.add(new IntervalTree.Interval<>(lowerBound, upperBound, i));
+            bounds.add(new int[]{lowerBound, upperBound == null ? Integer.MAX_VALUE : upperBound});
+        }
+        IntervalTree<Integer, Integer> tree = new IntervalTree<>(Comparator.naturalOrder(), intervals);
+
+        for (int point = -1; point <= 1100; point++) {
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < bounds.size(); i++) {
+                if (bounds.get(i)[0] <= point && point <= bounds.get(i)[1]) {
+                    expected.add(i);
+                }
+            }
+            Set<Integer> actual = new HashSet<>();
+            tree.stab(point, actual);
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    private static SerialNumberBasedEffectivity serialNumberEffectivity(ConfigurationItem ci, String start, String end) {
+        SerialNumberBasedEffectivity effectivity = new SerialNumberBasedEffectivity();
+        effectivity.setConfigurationItem(ci);
+        effectivity.setStartNumber(start);
+        effectivity.setEndNumber(end);
+        return effectivity;
+    }
+
+    private static LotBasedEffectivity lotEffectivity(ConfigurationItem ci, String start, String end) {
+        LotBasedEffectivity effectivity = new LotBasedEffectivity();
+        effectivity.setConfigurationItem(ci);
+        effectivity.setStartLotId(start);
+        effectivity.setEndLotId(end);
+        return effectivity;
+    }
+
+    private static DateBasedEffectivity dateEffectivity(ConfigurationItem ci, Date start, Date end) {
+        DateBasedEffectivity effectivity = new DateBasedEffectivity();
+        effectivity.setConfigurationItem(ci);
+        effectivity.setStartDate(start);
+        effectivity.setEndDate(end);
+        return effectivity;
+    }
+}
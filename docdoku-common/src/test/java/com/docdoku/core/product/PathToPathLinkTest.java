@@ -0,0 +1,57 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.core.product;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PathToPathLinkTest {
+
+    @Test
+    public void segmentsFollowPathsTest() {
+        PathToPathLink link = new PathToPathLink("wire", "-1-u12-s5", "-1-u3", null);
+
+        List<PathToPathLinkSegment> segments = link.getSegments();
+        Assert.assertEquals(3, segments.size());
+        Assert.assertFalse(segments.get(0).isOnTargetPath());
+        Assert.assertEquals("u12", segments.get(0).getUsageLinkId());
+        Assert.assertEquals(1, segments.get(1).getPosition());
+        Assert.assertEquals("s5", segments.get(1).getUsageLinkId());
+        Assert.assertTrue(segments.get(2).isOnTargetPath());
+        Assert.assertEquals("u3", segments.get(2).getUsageLinkId());
+
+        link.setSourcePath("-1");
+        Assert.assertEquals(1, link.getSegments().size());
+        Assert.assertEquals("u3", link.getSegments().get(0).getUsageLinkId());
+    }
+
+    @Test
+    public void cloneHasItsOwnSegmentsTest() {
+        PathToPathLink link = new PathToPathLink("wire", "-1-u12", "-1-u3", null);
+        PathToPathLink clone = link.clone();
+
+        clone.setTargetPath("-1-u4");
+        Assert.assertEquals("u3", link.getSegments().get(1).getUsageLinkId());
+        Assert.assertEquals("u4", clone.getSegments().get(1).getUsageLinkId());
+    }
+}
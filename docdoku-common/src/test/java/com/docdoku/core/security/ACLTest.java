@@ -0,0 +1,96 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.core.security;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.UserGroup;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.document.DocumentRevision;
+import com.docdoku.core.product.PartRevision;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+public class ACLTest {
+
+    /**
+     * Group grants of the listing queries only apply when the ACL has no entry for the user.
+     */
+    private static final Pattern USER_ENTRY_OVERRIDES_GROUPS = Pattern.compile(
+            ".*EXISTS\\(SELECT au FROM ACLUserEntry au WHERE au\\.acl = (\\w+)\\.acl AND au\\.principal = :user AND au\\.permission <> com\\.docdoku\\.core\\.security\\.ACLPermission\\.FORBIDDEN\\)"
+                    + " OR \\(NOT EXISTS\\(SELECT aue FROM ACLUserEntry aue WHERE aue\\.acl = \\1\\.acl AND aue\\.principal = :user\\)"
+                    + " AND EXISTS\\(SELECT aug FROM ACLUserGroupEntry aug WHERE aug\\.acl = \\1\\.acl AND :user MEMBER OF aug\\.principal\\.users AND aug\\.permission <> com\\.docdoku\\.core\\.security\\.ACLPermission\\.FORBIDDEN\\)\\).*");
+
+    private User user;
+    private UserGroup group;
+    private ACL acl;
+
+    @Before
+    public void setup() {
+        Workspace workspace = new Workspace("TestWorkspace", new Account("admin", "admin", "admin@docdoku.com", "en", new Date(), null), "description", false);
+        user = new User(workspace, new Account("user1", "user1", "user1@docdoku.com", "en", new Date(), null));
+        group = new UserGroup(workspace, "group1");
+        group.addUser(user);
+        acl = new ACL();
+    }
+
+    @Test
+    public void forbiddenUserEntryOverridesGroupGrant() {
+        acl.addEntry(group, ACLPermission.FULL_ACCESS);
+        Assert.assertTrue(acl.hasReadAccess(user));
+        Assert.assertTrue(acl.hasWriteAccess(user));
+
+        acl.addEntry(user, ACLPermission.FORBIDDEN);
+        Assert.assertFalse(acl.hasReadAccess(user));
+        Assert.assertFalse(acl.hasWriteAccess(user));
+    }
+
+    @Test
+    public void userEntryOverridesForbiddenGroup() {
+        acl.addEntry(group, ACLPermission.FORBIDDEN);
+        Assert.assertFalse(acl.hasReadAccess(user));
+
+        acl.addEntry(user, ACLPermission.READ_ONLY);
+        Assert.assertTrue(acl.hasReadAccess(user));
+        Assert.assertFalse(acl.hasWriteAccess(user));
+    }
+
+    @Test
+    public void filterACLEntryQueriesLetUserEntryOverrideGroups() {
+        int checked = 0;
+        for (Class<?> entity : new Class<?>[]{PartRevision.class, DocumentRevision.class}) {
+            for (NamedQuery query : entity.getAnnotation(NamedQueries.class).value()) {
+                if (query.name().endsWith(".filterACLEntry")) {
+                    Assert.assertTrue(query.name(), USER_ENTRY_OVERRIDES_GROUPS.matcher(query.query()).matches());
+                    checked++;
+                }
+            }
+        }
+        Assert.assertEquals(6, checked);
+    }
+}
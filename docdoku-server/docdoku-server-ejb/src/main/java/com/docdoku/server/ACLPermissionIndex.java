@@ -0,0 +1,89 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.User;
+import com.docdoku.core.security.ACL;
+
+import javax.transaction.TransactionScoped;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Effective permissions granted by ACLs, resolved once per transaction.
+ *
+ * {@link ACL#hasReadAccess(User)} walks every group entry and scans the members of each group,
+ * and listings or tree walks check the same ACLs for every item. The index resolves the permission
+ * of a user on an ACL once and keeps it as a byte keyed by ACL id and login, following checks being
+ * a hash lookup. Like {@link WorkspaceAccessContext}, it is bound to the transaction: the ACLs it
+ * resolves are read by the transaction itself, so no change made elsewhere can be missed. Changes
+ * made in the current transaction must call {@link #invalidate(ACL)} or
+ * {@link #invalidateWorkspace(String)}, which apply at once.
+ */
+@TransactionScoped
+public class ACLPermissionIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte NONE = 0;
+    private static final byte READ = 1;
+    private static final byte WRITE = 2;
+
+    private final Map<Integer, Map<String, Byte>> acls = new HashMap<>();
+
+    public boolean hasReadAccess(User user, ACL acl) {
+        return getPermission(user, acl) >= READ;
+    }
+
+    public boolean hasWriteAccess(User user, ACL acl) {
+        return getPermission(user, acl) == WRITE;
+    }
+
+    /**
+     * Forget the permissions resolved for an ACL whose entries are changed in the current transaction.
+     */
+    public void invalidate(ACL acl) {
+        acls.remove(acl.getId());
+    }
+
+    /**
+     * Forget the permissions resolved in a workspace whose group memberships are changed in the
+     * current transaction.
+     */
+    public void invalidateWorkspace(String workspaceId) {
+        String prefix = getKey(workspaceId, "");
+        for (Map<String, Byte> permissions : acls.values()) {
+            permissions.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    private byte getPermission(User user, ACL acl) {
+        Map<String, Byte> permissions = acls.computeIfAbsent(acl.getId(), id -> new HashMap<>());
+        return permissions.computeIfAbsent(getKey(user.getWorkspaceId(), user.getLogin()),
+                key -> acl.hasWriteAccess(user) ? WRITE : acl.hasReadAccess(user) ? READ : NONE);
+    }
+
+    private static String getKey(String workspaceId, String login) {
+        return workspaceId + "/" + login;
+    }
+}
@@ -19,39 +19,64 @@
  */
 package com.docdoku.server;
 
+import com.docdoku.core.common.BinaryCacheStats;
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.VaultDeduplicationStats;
 import com.docdoku.core.exceptions.FileNotFoundException;
 import com.docdoku.core.exceptions.StorageException;
 import com.docdoku.core.security.UserGroupMapping;
 import com.docdoku.core.services.IBinaryStorageManagerLocal;
+import com.docdoku.server.storage.BinaryResourceCache;
+import com.docdoku.server.storage.CachingStorageProvider;
 import com.docdoku.server.storage.StorageProvider;
+import com.docdoku.server.storage.filesystem.ContentAddressedStorageProvider;
 import com.docdoku.server.storage.filesystem.FileStorageProvider;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.security.DeclareRoles;
+import javax.annotation.security.RolesAllowed;
+import javax.ejb.Asynchronous;
 import javax.ejb.Local;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-@DeclareRoles(UserGroupMapping.REGULAR_USER_ROLE_ID)
+@DeclareRoles({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
 @Local(IBinaryStorageManagerLocal.class)
 @Stateless(name = "BinaryStorageManagerBean")
 public class BinaryStorageManagerBean implements IBinaryStorageManagerLocal {
 
+    private static final Logger LOGGER = Logger.getLogger(BinaryStorageManagerBean.class.getName());
+
     @Inject
     private ConfigManager configManager;
 
+    @Inject
+    private BinaryResourceCache binaryResourceCache;
+
     private StorageProvider defaultStorageProvider;
 
     @PostConstruct
     private void init() {
-        StorageProvider fileStorageProvider = new FileStorageProvider(configManager.getVaultPath());
-        defaultStorageProvider = fileStorageProvider;
+        if (configManager.isVaultDeduplicationEnabled() && ContentAddressedStorageProvider.isSupported()) {
+            defaultStorageProvider = new ContentAddressedStorageProvider(configManager.getVaultPath());
+        } else {
+            if (configManager.isVaultDeduplicationEnabled()) {
+                LOGGER.log(Level.WARNING, "Vault deduplication needs hard links, falling back to plain file storage");
+            }
+            defaultStorageProvider = new FileStorageProvider(configManager.getVaultPath());
+        }
+        if (binaryResourceCache.isEnabled()) {
+            defaultStorageProvider = new CachingStorageProvider(defaultStorageProvider, binaryResourceCache);
+        }
     }
 
     @Override
@@ -181,4 +206,33 @@ public class BinaryStorageManagerBean implements IBinaryStorageManagerLocal {
         defaultStorageProvider.deleteWorkspaceFolder(workspaceId, binaryResourcesInWorkspace);
     }
 
+    @Override
+    public File getUploadFolder(String workspaceId, String uploadId) {
+        return defaultStorageProvider.getUploadFolder(workspaceId, uploadId);
+    }
+
+    @Override
+    public void moveData(File source, BinaryResource binaryResource) throws StorageException {
+        defaultStorageProvider.moveData(source, binaryResource);
+    }
+
+    @Override
+    @Asynchronous
+    @RolesAllowed(UserGroupMapping.ADMIN_ROLE_ID)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void deduplicateVault() {
+        try {
+            LOGGER.log(Level.INFO, "Vault deduplication started");
+            VaultDeduplicationStats stats = defaultStorageProvider.deduplicate();
+            LOGGER.log(Level.INFO, "Vault deduplication done: {0}", stats);
+        } catch (StorageException e) {
+            LOGGER.log(Level.SEVERE, "Vault deduplication failed", e);
+        }
+    }
+
+    @Override
+    @RolesAllowed(UserGroupMapping.ADMIN_ROLE_ID)
+    public BinaryCacheStats getBinaryCacheStats() {
+        return binaryResourceCache.getStats();
+    }
 }
@@ -43,4 +43,25 @@ public class ConfigManager {
         return String.valueOf(properties.get("vaultPath"));
     }
 
+    public boolean isVaultDeduplicationEnabled(){
+        return Boolean.parseBoolean(String.valueOf(properties.get("vaultDeduplication")));
+    }
+
+    public long getBinaryCacheSize(){
+        return getLong("binaryCacheSize");
+    }
+
+    public long getBinaryCacheMaxEntrySize(){
+        return getLong("binaryCacheMaxEntrySize");
+    }
+
+    private long getLong(String key){
+        Object value = properties.get(key);
+        try {
+            return value != null ? Long.parseLong(String.valueOf(value).trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
 }
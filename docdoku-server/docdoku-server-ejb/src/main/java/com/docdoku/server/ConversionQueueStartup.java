@@ -0,0 +1,103 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.exceptions.ApplicationException;
+import com.docdoku.core.product.Conversion;
+import com.docdoku.core.product.PartIterationKey;
+import com.docdoku.core.util.FileIO;
+import com.docdoku.server.dao.ConversionDAO;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues again the conversions left pending by stopped nodes.
+ *
+ * Conversion rows are the persistent state of the queues held by the {@link ConversionScheduler} of each node.
+ * Every minute, this node renews the claims of the conversions it holds, then claims and queues the pending
+ * conversions whose claim expired, with their priority and in their original order. The claim being a conditional
+ * update, a conversion is queued again by a single node.
+ */
+@Singleton
+@Startup
+public class ConversionQueueStartup {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Inject
+    private ConversionScheduler conversionScheduler;
+
+    @Inject
+    private ConversionWorkerBean conversionWorker;
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionQueueStartup.class.getName());
+
+    @PostConstruct
+    private void init() {
+        resumeConversions();
+    }
+
+    @Schedule(minute = "*", hour = "*", persistent = false)
+    private void checkClaims() {
+        conversionWorker.renewClaims();
+        resumeConversions();
+    }
+
+    private void resumeConversions() {
+        Date expiredBefore = new Date(System.currentTimeMillis() - ConversionWorkerBean.CLAIM_TIMEOUT);
+        List<Conversion> conversions = new ConversionDAO(em).findClaimableConversions(expiredBefore);
+        int count = 0;
+        for (Conversion conversion : conversions) {
+            BinaryResource cadBinaryResource = conversion.getPartIteration().getNativeCADFile();
+            PartIterationKey partIterationKey = conversion.getPartIteration().getKey();
+            if (cadBinaryResource != null && claim(partIterationKey)) {
+                conversionScheduler.submit(FileIO.getExtension(cadBinaryResource.getName()), conversion.getPriority(),
+                        () -> conversionWorker.convert(partIterationKey),
+                        () -> conversionWorker.rejectConversion(partIterationKey));
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOGGER.log(Level.INFO, "{0} pending conversions queued again", count);
+        }
+    }
+
+    private boolean claim(PartIterationKey partIterationKey) {
+        try {
+            return conversionWorker.claimConversion(partIterationKey);
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.product.ConversionQueueStats;
+import com.docdoku.server.converters.ConverterUtils;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounds the number of conversions running concurrently.
+ *
+ * Conversions are queued per CAD file extension, each queue having its own number of workers
+ * (see {@link ConverterUtils#getConversionWorkers(String)}). Queued conversions are served by
+ * priority, then in submission order. They wait in the queue without holding any thread and are
+ * handed to the managed executor once a worker is free.
+ *
+ * Queues live in this node only, the conversions they hold are claimed in database with the
+ * {@link #getNodeId() node id} so that no other node runs them.
+ */
+@ApplicationScoped
+public class ConversionScheduler {
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    private final ConcurrentMap<String, ConversionQueue> queues = new ConcurrentHashMap<>();
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionScheduler.class.getName());
+
+    /**
+     * Identifies this node, for the lifetime of the application.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Queues a conversion.
+     *
+     * @param queueName  the queue name, usually the CAD file extension
+     * @param priority   the conversion priority, higher values being served first
+     * @param conversion the conversion to run once a worker is free
+     * @param rejection  run instead of the conversion if the executor rejects it
+     */
+    public void submit(String queueName, int priority, Runnable conversion, Runnable rejection) {
+        ConversionQueue queue = queues.computeIfAbsent(queueName,
+                name -> new ConversionQueue(name, ConverterUtils.getConversionWorkers(name), executorService));
+        queue.submit(new Task(queue, priority, conversion, rejection));
+    }
+
+    public List<ConversionQueueStats> getStats() {
+        List<ConversionQueueStats> stats = new ArrayList<>();
+        for (ConversionQueue queue : queues.values()) {
+            stats.add(queue.getStats());
+        }
+        stats.sort(Comparator.comparing(ConversionQueueStats::getName));
+        return stats;
+    }
+
+    private static final class Task implements Runnable {
+
+        private final ConversionQueue queue;
+        private final int priority;
+        private final Runnable conversion;
+        private final Runnable rejection;
+        private final long queuedAt = System.currentTimeMillis();
+        private long sequence;
+        private long startedAt;
+
+        private Task(ConversionQueue queue, int priority, Runnable conversion, Runnable rejection) {
+            this.queue = queue;
+            this.priority = priority;
+            this.conversion = conversion;
+            this.rejection = rejection;
+        }
+
+        @Override
+        public void run() {
+            try {
+                conversion.run();
+            } finally {
+                queue.release(this);
+            }
+        }
+    }
+
+    private static final class ConversionQueue {
+
+        private static final Comparator<Task> ORDER = Comparator.<Task>comparingInt(t -> -t.priority)
+                .thenComparingLong(t -> t.sequence);
+
+        private final String name;
+        private final int workers;
+        private final Executor executor;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<Task> waiting = new PriorityQueue<>(ORDER);
+        private long sequence;
+        private int running;
+
+        private long completed;
+        private long totalWaitTime;
+        private long maxWaitTime;
+        private long totalRunTime;
+
+        private ConversionQueue(String name, int workers, Executor executor) {
+            this.name = name;
+            this.workers = workers;
+            this.executor = executor;
+        }
+
+        private void submit(Task task) {
+            lock.lock();
+            try {
+                task.sequence = sequence++;
+                waiting.add(task);
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+
+        private void release(Task task) {
+            lock.lock();
+            try {
+                running--;
+                completed++;
+                totalRunTime += System.currentTimeMillis() - task.startedAt;
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+
+        /**
+         * Hands the first waiting tasks to the executor while workers are free. Never throws, it runs on
+         * behalf of the submitter or of the task releasing its worker.
+         */
+        private void dispatch() {
+            Task task;
+            while ((task = poll()) != null) {
+                try {
+                    executor.execute(task);
+                } catch (RuntimeException e) {
+                    // Rejected by the executor, the worker is given back and the conversion ended
+                    LOGGER.log(Level.WARNING, "Conversion rejected by the executor in queue " + name, e);
+                    lock.lock();
+                    try {
+                        running--;
+                    } finally {
+                        lock.unlock();
+                    }
+                    reject(task);
+                }
+            }
+        }
+
+        private void reject(Task task) {
+            try {
+                task.rejection.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Cannot end the conversion rejected in queue " + name, e);
+            }
+        }
+
+        private Task poll() {
+            lock.lock();
+            try {
+                if (running >= workers || waiting.isEmpty()) {
+                    return null;
+                }
+                Task task = waiting.poll();
+                running++;
+                task.startedAt = System.currentTimeMillis();
+                long waitTime = task.startedAt - task.queuedAt;
+                totalWaitTime += waitTime;
+                maxWaitTime = Math.max(maxWaitTime, waitTime);
+                return task;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ConversionQueueStats getStats() {
+            lock.lock();
+            try {
+                return new ConversionQueueStats(name, workers, waiting.size(), running, completed, totalWaitTime,
+                        maxWaitTime, totalRunTime);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.exceptions.*;
+import com.docdoku.core.product.*;
+import com.docdoku.core.services.IBinaryStorageManagerLocal;
+import com.docdoku.core.util.FileIO;
+import com.docdoku.core.util.NamingConvention;
+import com.docdoku.server.converters.CADConverter;
+import com.docdoku.server.converters.CADConverter.ConversionException;
+import com.docdoku.server.converters.CompactMeshWriter;
+import com.docdoku.server.converters.ConversionResult;
+import com.docdoku.server.converters.GeometryParser;
+import com.docdoku.server.converters.Mesh;
+import com.docdoku.server.converters.MeshDecimator;
+import com.docdoku.server.dao.BinaryResourceDAO;
+import com.docdoku.server.dao.ConversionDAO;
+import com.docdoku.server.dao.PartIterationDAO;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the conversions queued by the {@link ConversionScheduler}.
+ *
+ * A conversion is run apart from the request which queued it, possibly after a restart of the
+ * application. The caller principal is then unknown: access rights are checked when the conversion
+ * is queued, the worker only writes the converted files to the part iteration being converted.
+ * No transaction is held while converting, each update of the part iteration is committed in its own.
+ *
+ * A pending conversion is run by the node which claimed it. The claim is renewed while the node holds the
+ * conversion in its queues, a claim not renewed for {@link #CLAIM_TIMEOUT} ms can be taken by another node.
+ */
+@Stateless(name = "ConversionWorkerBean")
+public class ConversionWorkerBean {
+
+    /**
+     * Delay after which a claim not renewed is considered as left by a stopped node
+     */
+    public static final long CLAIM_TIMEOUT = 5 * 60 * 1000L;
+
+    private List<CADConverter> converters = new ArrayList<>();
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Inject
+    private IBinaryStorageManagerLocal storageManager;
+
+    @Inject
+    private BeanLocator beanLocator;
+
+    @Inject
+    private ConversionScheduler conversionScheduler;
+
+    @Resource
+    private SessionContext ctx;
+
+    private static final float[] RATIO = new float[]{1f, 0.6f, 0.2f};
+
+    private static final Logger LOGGER = Logger.getLogger(ConversionWorkerBean.class.getName());
+
+    @PostConstruct
+    void init() {
+        // add external converters
+        converters.addAll(beanLocator.search(CADConverter.class));
+    }
+
+    /**
+     * Tells if a converter is able to handle the given CAD file.
+     */
+    public boolean canConvert(BinaryResource cadBinaryResource) {
+        return selectConverter(cadBinaryResource) != null;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void convert(PartIterationKey partIterationKey) {
+        ConversionWorkerBean worker = ctx.getBusinessObject(ConversionWorkerBean.class);
+
+        BinaryResource cadBinaryResource;
+        try {
+            cadBinaryResource = worker.startConversion(partIterationKey);
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.SEVERE, "Cannot start conversion of part iteration " + partIterationKey, e);
+            return;
+        }
+        if (cadBinaryResource == null) {
+            LOGGER.log(Level.FINE, "Conversion of part iteration " + partIterationKey + " no longer pending");
+            return;
+        }
+
+        CADConverter selectedConverter = selectConverter(cadBinaryResource);
+
+        boolean succeed = false;
+
+        if (selectedConverter != null) {
+            try {
+                succeed = doConversion(worker, cadBinaryResource, selectedConverter, partIterationKey);
+            } catch (StorageException e) {
+                LOGGER.log(Level.WARNING, "Unable to read from storage", e);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            } catch (ConversionException e) {
+                LOGGER.log(Level.WARNING, "Cannot convert " + cadBinaryResource.getName(), e);
+            }
+        } else {
+            LOGGER.log(Level.WARNING, "No CAD converter able to handle " + cadBinaryResource.getName());
+        }
+
+        try {
+            LOGGER.log(Level.FINE, "Conversion ended");
+            worker.endConversion(partIterationKey, succeed);
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
+    }
+
+    /**
+     * Claims the pending conversion for this node, returns false if another node holds it.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean claimConversion(PartIterationKey partIterationKey) throws PartIterationNotFoundException {
+        PartIteration partIteration = new PartIterationDAO(em).loadPartI(partIterationKey);
+        long now = System.currentTimeMillis();
+        return new ConversionDAO(em).claimConversion(partIteration, conversionScheduler.getNodeId(), new Date(now), new Date(now - CLAIM_TIMEOUT));
+    }
+
+    /**
+     * Renews the claims of the pending conversions held by this node.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void renewClaims() {
+        new ConversionDAO(em).renewClaims(conversionScheduler.getNodeId(), new Date());
+    }
+
+    /**
+     * Ends as failed a conversion the executor refused to run, it would stay pending otherwise.
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void rejectConversion(PartIterationKey partIterationKey) {
+        try {
+            ctx.getBusinessObject(ConversionWorkerBean.class).endConversion(partIterationKey, false);
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
+    }
+
+    /**
+     * Marks the conversion as started, returns the native CAD file to convert or null if the
+     * conversion is no longer pending.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public BinaryResource startConversion(PartIterationKey partIterationKey) throws PartIterationNotFoundException {
+        PartIteration partIteration = new PartIterationDAO(em).loadPartI(partIterationKey);
+        Conversion conversion = new ConversionDAO(em).findConversion(partIteration);
+        if (conversion == null || !conversion.isPending() || partIteration.getNativeCADFile() == null) {
+            return null;
+        }
+        conversion.setStartDate(new Date());
+        return partIteration.getNativeCADFile();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void endConversion(PartIterationKey partIterationKey, boolean succeed) throws PartIterationNotFoundException {
+        PartIteration partIteration = new PartIterationDAO(em).loadPartI(partIterationKey);
+        Conversion conversion = new ConversionDAO(em).findConversion(partIteration);
+        if (conversion != null) {
+            conversion.setPending(false);
+            conversion.setSucceed(succeed);
+            conversion.setEndDate(new Date());
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Geometry saveGeometryInPartIteration(PartIterationKey partIterationKey, String name, int quality, long size, double[] box) throws PartIterationNotFoundException, NotAllowedException, FileAlreadyExistsException, CreationException {
+        PartIteration partIteration = loadConvertedPartIteration(partIterationKey, name);
+        String fullName = getFullName(partIteration, name);
+
+        Geometry geometry = null;
+        for (Geometry geo : partIteration.getGeometries()) {
+            if (geo.getFullName().equals(fullName)) {
+                geometry = geo;
+                break;
+            }
+        }
+        if (geometry == null) {
+            geometry = new Geometry(quality, fullName, size, new Date());
+            new BinaryResourceDAO(em).createBinaryResource(geometry);
+            partIteration.addGeometry(geometry);
+        } else {
+            geometry.setContentLength(size);
+            geometry.setQuality(quality);
+            geometry.setLastModified(new Date());
+        }
+        if (box != null) {
+            geometry.setBox(box[0], box[1], box[2], box[3], box[4], box[5]);
+        }
+        return geometry;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public BinaryResource saveFileInPartIteration(PartIterationKey partIterationKey, String name, String subType, long size) throws PartIterationNotFoundException, NotAllowedException, FileAlreadyExistsException, CreationException {
+        PartIteration partIteration = loadConvertedPartIteration(partIterationKey, name);
+        String fullName = getFullName(partIteration, subType + "/" + name);
+
+        for (BinaryResource binaryResource : partIteration.getAttachedFiles()) {
+            if (binaryResource.getFullName().equals(fullName)) {
+                binaryResource.setContentLength(size);
+                binaryResource.setLastModified(new Date());
+                return binaryResource;
+            }
+        }
+        BinaryResource binaryResource = new BinaryResource(fullName, size, new Date());
+        new BinaryResourceDAO(em).createBinaryResource(binaryResource);
+        partIteration.addAttachedFile(binaryResource);
+        return binaryResource;
+    }
+
+    /**
+     * Converted files are only written to the last iteration of a part still checked out, as when
+     * uploaded by the user.
+     */
+    private PartIteration loadConvertedPartIteration(PartIterationKey partIterationKey, String name) throws PartIterationNotFoundException, NotAllowedException {
+        if (!NamingConvention.correctNameFile(name == null ? null : name.trim())) {
+            throw new NotAllowedException(Locale.getDefault(), "NotAllowedException9", name);
+        }
+        PartIteration partIteration = new PartIterationDAO(em).loadPartI(partIterationKey);
+        PartRevision partRevision = partIteration.getPartRevision();
+        if (!partRevision.isCheckedOut() || !partRevision.getLastIteration().equals(partIteration)) {
+            throw new NotAllowedException(Locale.getDefault(), "NotAllowedException4");
+        }
+        return partIteration;
+    }
+
+    private String getFullName(PartIteration partIteration, String name) {
+        PartRevision partRevision = partIteration.getPartRevision();
+        return partRevision.getWorkspaceId() + "/parts/" + partRevision.getPartNumber() + "/" + partRevision.getVersion() + "/" + partIteration.getIteration() + "/" + name;
+    }
+
+    private boolean doConversion(ConversionWorkerBean worker, BinaryResource cadBinaryResource, CADConverter selectedConverter, PartIterationKey pPartIPK) throws IOException, StorageException, ConversionException {
+
+        UUID uuid = UUID.randomUUID();
+        Path tempDir = Files.createDirectory(Paths.get("docdoku-" + uuid));
+        Path tmpCadFile = tempDir.resolve(cadBinaryResource.getName().trim());
+
+        // copy resource content to temp directory
+        try (InputStream in = storageManager.getBinaryResourceInputStream(cadBinaryResource)) {
+            Files.copy(in, tmpCadFile);
+            // convert file
+            try (ConversionResult conversionResult = selectedConverter.convert(tmpCadFile.toUri(), tempDir.toUri())) {
+                return handleConvertedFile(worker, conversionResult, pPartIPK);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+                return false;
+            } finally {
+                Files.list(tempDir).forEach((p) -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException e) {
+                        LOGGER.warning("Unable to delete " + p.getFileName());
+                    }
+                });
+            }
+        } finally {
+            Files.deleteIfExists(tempDir);
+        }
+    }
+
+    private boolean handleConvertedFile(ConversionWorkerBean worker, ConversionResult conversionResult, PartIterationKey pPartIPK) {
+
+        // manage converted file
+        Path convertedFile = conversionResult.getConvertedFile();
+        String fileName = convertedFile.getFileName().toString();
+
+        GeometryParser parser = new GeometryParser(convertedFile);
+        Mesh mesh = null;
+        double[] box;
+
+        try {
+            mesh = parser.readMesh();
+            box = parser.calculateBox();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the mesh of " + convertedFile.getFileName(), e);
+            box = new double[6];
+        }
+
+        // Full resolution, as converted
+        saveGeometryFile(worker, pPartIPK, 0, getLevelOfDetailName(fileName, 0), convertedFile, mesh, box);
+
+        // Lower resolutions, decimated in one pass
+        if (mesh != null && mesh.getTriangleCount() > 0) {
+            MeshDecimator decimator = new MeshDecimator(mesh);
+            for (int i = 1; i < RATIO.length; i++) {
+                Mesh lod = decimator.simplify(Math.round(mesh.getTriangleCount() * RATIO[i]));
+                LOGGER.log(Level.FINE, "Level of detail " + i + " decimated to " + lod.getTriangleCount() + " triangles");
+                saveGeometry(worker, pPartIPK, i, getLevelOfDetailName(fileName, i), lod, box);
+            }
+        }
+
+        // manage materials
+        for (Path material : conversionResult.getMaterials()) {
+            saveAttachedFile(worker, pPartIPK, material);
+        }
+
+        return true;
+
+    }
+
+    private String getLevelOfDetailName(String fileName, int quality) {
+        return fileName.replaceAll("\\.obj$", Math.round(RATIO[quality] * 100) + ".obj");
+    }
+
+    private CADConverter selectConverter(BinaryResource cadBinaryResource) {
+        String ext = FileIO.getExtension(cadBinaryResource.getName());
+        for (CADConverter converter : converters) {
+            if (converter.canConvertToOBJ(ext)) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    private void saveGeometryFile(ConversionWorkerBean worker, PartIterationKey partIPK, int quality, String name, Path file, Mesh mesh,
+                                  double[] box) {
+        try {
+            Geometry lod = worker.saveGeometryInPartIteration(partIPK, name, quality,
+                    Files.size(file), box);
+            try (OutputStream os = storageManager.getBinaryResourceOutputStream(lod)) {
+                Files.copy(file, os);
+                LOGGER.log(Level.INFO, "geometry saved");
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            }
+            if (mesh != null) {
+                saveCompactMesh(lod, mesh);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to get geometry file's size", e);
+        } catch (ApplicationException | StorageException e) {
+            LOGGER.log(Level.SEVERE, "Cannot save geometry to part iteration", e);
+        }
+    }
+
+    private void saveGeometry(ConversionWorkerBean worker, PartIterationKey partIPK, int quality, String name, Mesh mesh, double[] box) {
+        try {
+            Geometry lod = worker.saveGeometryInPartIteration(partIPK, name, quality, 0, box);
+            long length;
+            try (OutputStream os = storageManager.getBinaryResourceOutputStream(lod)) {
+                length = mesh.writeObj(os);
+            }
+            worker.saveGeometryInPartIteration(partIPK, name, quality, length, box);
+            LOGGER.log(Level.INFO, "geometry saved");
+            saveCompactMesh(lod, mesh);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+        } catch (ApplicationException | StorageException e) {
+            LOGGER.log(Level.SEVERE, "Cannot save geometry to part iteration", e);
+        }
+    }
+
+    private void saveCompactMesh(Geometry lod, Mesh mesh) {
+        try (OutputStream os = storageManager.getGeneratedFileOutputStream(lod, lod.getCompactMeshName())) {
+            CompactMeshWriter.write(mesh, os);
+        } catch (IOException | StorageException e) {
+            // The viewer falls back to the OBJ file
+            LOGGER.log(Level.WARNING, "Cannot save the compact mesh of " + lod.getFullName(), e);
+        }
+    }
+
+    private void saveAttachedFile(ConversionWorkerBean worker, PartIterationKey partIPK, Path file) {
+        try {
+            BinaryResource binaryResource = worker.saveFileInPartIteration(partIPK,
+                    file.getFileName().toString(), "attachedfiles", Files.size(file));
+            try (OutputStream os = storageManager.getBinaryResourceOutputStream(binaryResource)) {
+                Files.copy(file, os);
+                LOGGER.log(Level.INFO, "Attached file copied");
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to save attached file", e);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to get attached file's size", e);
+        } catch (ApplicationException | StorageException e) {
+            LOGGER.log(Level.SEVERE, "Cannot save attached file to part iteration", e);
+        }
+    }
+}
\ No newline at end of file
@@ -413,6 +413,23 @@ public class DocumentManagerBean implements IDocumentManagerLocal {
         return documentRevisions.toArray(new DocumentRevision[documentRevisions.size()]);
     }
 
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public DocumentRevision[] getFilteredDocumentsInWorkspaceAfter(String workspaceId, String afterId, String afterVersion, int pMaxResults) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
+        User user = userManager.checkWorkspaceReadAccess(workspaceId);
+        DocumentRevisionDAO documentRevisionDAO = new DocumentRevisionDAO(new Locale(user.getLanguage()), em);
+        List<DocumentRevision> docRs = user.isAdministrator()
+                ? documentRevisionDAO.getDocumentRevisionsAfter(workspaceId, afterId, afterVersion, pMaxResults)
+                : documentRevisionDAO.getDocumentRevisionsAfterFiltered(user, workspaceId, afterId, afterVersion, pMaxResults);
+        for (DocumentRevision docR : docRs) {
+            if (isCheckoutByAnotherUser(user, docR)) {
+                em.detach(docR);
+                docR.removeLastIteration();
+            }
+        }
+        return docRs.toArray(new DocumentRevision[docRs.size()]);
+    }
+
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
     @Override
     public int getDocumentsInWorkspaceCount(String workspaceId) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException, AccountNotFoundException {
@@ -21,24 +21,30 @@
 package com.docdoku.server;
 
 import com.docdoku.core.common.User;
+import com.docdoku.core.configuration.EffectivityIndex;
 import com.docdoku.core.exceptions.*;
 import com.docdoku.core.product.*;
 import com.docdoku.core.security.UserGroupMapping;
 import com.docdoku.core.services.*;
+import com.docdoku.server.configuration.EffectivityIndexCache;
 import com.docdoku.server.dao.ConfigurationItemDAO;
 import com.docdoku.server.dao.EffectivityDAO;
 import com.docdoku.server.dao.PartRevisionDAO;
+import com.docdoku.server.events.Created;
+import com.docdoku.server.events.EffectivityEvent;
+import com.docdoku.server.events.Removed;
+import com.docdoku.server.events.Updated;
 
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.Local;
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
+import javax.enterprise.util.AnnotationLiteral;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Set;
+import java.util.*;
 
 @DeclareRoles({UserGroupMapping.REGULAR_USER_ROLE_ID})
 @Local(IEffectivityManagerLocal.class)
@@ -59,6 +65,12 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
     @Inject
     private IProductManagerLocal productManager;
 
+    @Inject
+    private EffectivityIndexCache effectivityIndexCache;
+
+    @Inject
+    private Event<EffectivityEvent> effectivityEvent;
+
 
     @Override
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
@@ -97,6 +109,9 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         PartRevisionDAO partRevisionDAO = new PartRevisionDAO(em);
         partRevisionDAO.updateRevision(partRevision);
 
+        effectivityEvent.select(new AnnotationLiteral<Created>() {
+        }).fire(new EffectivityEvent(partRevision, serialNumberBasedEffectivity));
+
         return serialNumberBasedEffectivity;
     }
 
@@ -138,6 +153,9 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         partRevision.setEffectivities(effectivities);
         PartRevisionDAO partRevisionDAO = new PartRevisionDAO(em);
         partRevisionDAO.updateRevision(partRevision);
+
+        effectivityEvent.select(new AnnotationLiteral<Created>() {
+        }).fire(new EffectivityEvent(partRevision, dateBasedEffectivity));
         return dateBasedEffectivity;
     }
 
@@ -176,6 +194,9 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         PartRevisionDAO partRevisionDAO = new PartRevisionDAO(em);
         partRevisionDAO.updateRevision(partRevision);
 
+        effectivityEvent.select(new AnnotationLiteral<Created>() {
+        }).fire(new EffectivityEvent(partRevision, lotBasedEffectivity));
+
         return lotBasedEffectivity;
     }
 
@@ -247,6 +268,9 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         effectivity.setEndNumber(pEndNumber);
         effectivityDAO.updateEffectivity(effectivity);
 
+        effectivityEvent.select(new AnnotationLiteral<Updated>() {
+        }).fire(new EffectivityEvent(partRevision, effectivity));
+
         return effectivity;
     }
 
@@ -279,6 +303,9 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         effectivity.setEndDate(pEndDate);
         effectivityDAO.updateEffectivity(effectivity);
 
+        effectivityEvent.select(new AnnotationLiteral<Updated>() {
+        }).fire(new EffectivityEvent(partRevision, effectivity));
+
         return effectivity;
     }
 
@@ -311,6 +338,9 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         effectivity.setEndLotId(pEndLotId);
         effectivityDAO.updateEffectivity(effectivity);
 
+        effectivityEvent.select(new AnnotationLiteral<Updated>() {
+        }).fire(new EffectivityEvent(partRevision, effectivity));
+
         return effectivity;
     }
 
@@ -335,5 +365,33 @@ public class EffectivityManagerBean implements IEffectivityManagerLocal {
         partRevisionDAO.removePartRevisionEffectivity(partRevision, effectivity);
 
         effectivityDAO.removeEffectivity(effectivity);
+
+        effectivityEvent.select(new AnnotationLiteral<Removed>() {
+        }).fire(new EffectivityEvent(partRevision, effectivity));
+    }
+
+    @Override
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    public Map<String, Set<PartRevisionKey>> resolveSerialNumbers(String workspaceId, String configurationItemId, List<String> serialNumbers) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, WorkspaceNotEnabledException, ConfigurationItemNotFoundException {
+        User user = userManager.checkWorkspaceReadAccess(workspaceId);
+        Locale locale = new Locale(user.getLanguage());
+        EffectivityIndex effectivityIndex = loadEffectivityIndex(locale, new ConfigurationItemKey(workspaceId, configurationItemId));
+        return effectivityIndex.getPartRevisionsForSerialNumbers(serialNumbers);
+    }
+
+    private EffectivityIndex loadEffectivityIndex(Locale locale, ConfigurationItemKey configurationItemKey) throws ConfigurationItemNotFoundException {
+        EffectivityDAO effectivityDAO = new EffectivityDAO(locale, em);
+
+        // Read the state first, an index built from effectivities modified meanwhile is never served for a later state
+        String state = effectivityDAO.getPartRevisionEffectivitiesState(configurationItemKey);
+        new ConfigurationItemDAO(locale, em).loadConfigurationItem(configurationItemKey);
+
+        EffectivityIndex effectivityIndex = effectivityIndexCache.get(configurationItemKey, state);
+        if (effectivityIndex == null) {
+            Map<PartRevisionKey, List<Effectivity>> effectivities = effectivityDAO.findPartRevisionEffectivities(configurationItemKey);
+            effectivityIndex = new EffectivityIndex(configurationItemKey, effectivities);
+            effectivityIndexCache.put(state, effectivityIndex);
+        }
+        return effectivityIndex;
     }
 }
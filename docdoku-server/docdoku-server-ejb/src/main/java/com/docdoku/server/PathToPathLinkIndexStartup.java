@@ -0,0 +1,62 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.EJBException;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index the path to path links left without segments when the application starts.
+ *
+ * Partial path lookups only go through the segments, the deployment therefore waits for the
+ * indexing to complete rather than serving requests missing the links not yet indexed. Nodes starting
+ * together share the work through the lock taken by each batch. Once done, following startups only
+ * read the {@link com.docdoku.core.product.PathToPathLinkIndexing} row.
+ */
+@Singleton
+@Startup
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class PathToPathLinkIndexStartup {
+
+    @Inject
+    private PathToPathLinkIndexerBean pathToPathLinkIndexer;
+
+    private static final Logger LOGGER = Logger.getLogger(PathToPathLinkIndexStartup.class.getName());
+
+    @PostConstruct
+    private void init() {
+        if (pathToPathLinkIndexer.isPathToPathLinksIndexingDone()) {
+            return;
+        }
+        try {
+            pathToPathLinkIndexer.indexPathToPathLinks();
+        } catch (EJBException e) {
+            LOGGER.log(Level.WARNING, "Path to path links indexing stopped, it resumes at next startup or from the administration", e);
+        }
+    }
+}
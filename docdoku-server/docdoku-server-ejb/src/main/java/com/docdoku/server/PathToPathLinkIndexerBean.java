@@ -0,0 +1,99 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.product.PathToPathLinkIndexing;
+import com.docdoku.server.dao.PathToPathLinkDAO;
+
+import javax.annotation.Resource;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index the path segments of the path to path links stored before segments were maintained.
+ *
+ * Each batch is committed in its own transaction, the links indexed so far are kept if the
+ * indexing stops midway and the next run resumes with the remaining ones. Batches first lock the
+ * {@link PathToPathLinkIndexing} row (SELECT ... FOR UPDATE): nodes indexing at the same time run
+ * their batches one after the other, each one picking the links the previous batches left.
+ */
+@Stateless(name = "PathToPathLinkIndexerBean")
+public class PathToPathLinkIndexerBean {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(PathToPathLinkIndexerBean.class.getName());
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Resource
+    private SessionContext ctx;
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void indexPathToPathLinks() {
+        PathToPathLinkIndexerBean indexer = ctx.getBusinessObject(PathToPathLinkIndexerBean.class);
+        int batches = 0;
+        int lastId = indexer.indexPathToPathLinksBatch(0);
+        while (lastId > 0) {
+            batches++;
+            LOGGER.log(Level.INFO, "Path to path links indexed up to id {0}", lastId);
+            lastId = indexer.indexPathToPathLinksBatch(lastId);
+        }
+        LOGGER.log(Level.INFO, "Path to path links indexing done: {0} batches indexed", batches);
+    }
+
+    /**
+     * @return true once a run has indexed every remaining link
+     */
+    public boolean isPathToPathLinksIndexingDone() {
+        PathToPathLinkIndexing indexing = em.find(PathToPathLinkIndexing.class, PathToPathLinkIndexing.UNIQUE_ID);
+        return indexing != null && indexing.isDone();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int indexPathToPathLinksBatch(int lastId) {
+        PathToPathLinkIndexing indexing = lockIndexing();
+        int lastIndexedId = new PathToPathLinkDAO(em).indexPathToPathLinksSegments(lastId, BATCH_SIZE);
+        if (lastIndexedId == 0) {
+            indexing.setDone(true);
+        }
+        return lastIndexedId;
+    }
+
+    private PathToPathLinkIndexing lockIndexing() {
+        PathToPathLinkIndexing indexing = em.find(PathToPathLinkIndexing.class, PathToPathLinkIndexing.UNIQUE_ID, LockModeType.PESSIMISTIC_WRITE);
+        if (indexing == null) {
+            // First run: the row insertion is the lock, a concurrent first run fails on the primary key
+            indexing = new PathToPathLinkIndexing();
+            em.persist(indexing);
+            em.flush();
+        }
+        return indexing;
+    }
+}
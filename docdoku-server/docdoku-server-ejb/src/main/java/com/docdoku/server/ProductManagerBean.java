@@ -40,6 +40,7 @@ import com.docdoku.core.util.NamingConvention;
 import com.docdoku.core.util.Tools;
 import com.docdoku.core.workflow.*;
 import com.docdoku.server.configuration.PSFilterVisitor;
+import com.docdoku.server.configuration.ProductStructureResolver;
 import com.docdoku.server.configuration.filter.LatestPSFilter;
 import com.docdoku.server.configuration.filter.UpdatePartIterationPSFilter;
 import com.docdoku.server.configuration.filter.WIPPSFilter;
@@ -50,6 +51,7 @@ import com.docdoku.server.validation.AttributesConsistencyUtils;
 
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
+import javax.ejb.Asynchronous;
 import javax.ejb.Local;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -62,6 +64,8 @@ import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import java.text.ParseException;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -101,6 +105,15 @@ public class ProductManagerBean implements IProductManagerLocal {
     @Inject
     private Event<PartRevisionEvent> partRevisionEvent;
 
+    @Inject
+    private ACLPermissionIndex aclPermissionIndex;
+
+    @Inject
+    private PathToPathLinkIndexerBean pathToPathLinkIndexer;
+
+    @Inject
+    private ProductStructureResolver productStructureResolver;
+
     private static final Logger LOGGER = Logger.getLogger(ProductManagerBean.class.getName());
 
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
@@ -288,6 +301,7 @@ public class ProductManagerBean implements IProductManagerLocal {
                 Date lastModified = sourceFile.getLastModified();
                 String fullName = pWorkspaceId + "/parts/" + pm.getNumber() + "/A/1/nativecad/" + fileName;
                 BinaryResource targetFile = new BinaryResource(fullName, length, lastModified);
+                targetFile.setContentHash(sourceFile.getContentHash());
                 binDAO.createBinaryResource(targetFile);
                 ite.setNativeCADFile(targetFile);
                 try {
@@ -466,6 +480,7 @@ public class ProductManagerBean implements IProductManagerLocal {
                 Date lastModified = nativeCADFile.getLastModified();
                 String fullName = partR.getWorkspaceId() + "/parts/" + partR.getPartNumber() + "/" + partR.getVersion() + "/" + newPartIteration.getIteration() + "/nativecad/" + fileName;
                 BinaryResource targetFile = new BinaryResource(fullName, length, lastModified);
+                targetFile.setContentHash(nativeCADFile.getContentHash());
                 binDAO.createBinaryResource(targetFile);
                 newPartIteration.setNativeCADFile(targetFile);
             }
@@ -576,6 +591,12 @@ public class ProductManagerBean implements IProductManagerLocal {
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @Override
     public BinaryResource saveNativeCADInPartIteration(PartIterationKey pPartIPK, String pName, long pSize) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, NotAllowedException, PartRevisionNotFoundException, FileAlreadyExistsException, CreationException, WorkspaceNotEnabledException {
+        return saveNativeCADInPartIteration(pPartIPK, pName, pSize, null);
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public BinaryResource saveNativeCADInPartIteration(PartIterationKey pPartIPK, String pName, long pSize, String pContentHash) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, NotAllowedException, PartRevisionNotFoundException, FileAlreadyExistsException, CreationException, WorkspaceNotEnabledException {
         User user = userManager.checkWorkspaceReadAccess(pPartIPK.getWorkspaceId());
         Locale locale = new Locale(user.getLanguage());
         checkNameFileValidity(pName, locale);
@@ -591,12 +612,14 @@ public class ProductManagerBean implements IProductManagerLocal {
 
             if (nativeCADBinaryResource == null) {
                 nativeCADBinaryResource = new BinaryResource(fullName, pSize, new Date());
+                nativeCADBinaryResource.setContentHash(pContentHash);
                 binDAO.createBinaryResource(nativeCADBinaryResource);
                 partI.setNativeCADFile(nativeCADBinaryResource);
 
             } else if (nativeCADBinaryResource.getFullName().equals(fullName)) {
                 nativeCADBinaryResource.setContentLength(pSize);
                 nativeCADBinaryResource.setLastModified(new Date());
+                nativeCADBinaryResource.setContentHash(pContentHash);
 
             } else {
                 partI.setNativeCADFile(null);
@@ -609,6 +632,7 @@ public class ProductManagerBean implements IProductManagerLocal {
                 }
 
                 nativeCADBinaryResource = new BinaryResource(fullName, pSize, new Date());
+                nativeCADBinaryResource.setContentHash(pContentHash);
                 binDAO.createBinaryResource(nativeCADBinaryResource);
                 partI.setNativeCADFile(nativeCADBinaryResource);
             }
@@ -1044,6 +1068,7 @@ public class ProductManagerBean implements IProductManagerLocal {
                 partRevision.setACL(acl);
             } else {
                 aclFactory.updateACL(workspaceId, partRevision.getACL(), pACLUserEntries, pACLUserGroupEntries);
+                aclPermissionIndex.invalidate(partRevision.getACL());
             }
         } else {
             throw new AccessRightException(locale, user);
@@ -1065,6 +1090,7 @@ public class ProductManagerBean implements IProductManagerLocal {
             ACL acl = partRevision.getACL();
             if (acl != null) {
                 new ACLDAO(em).removeACLEntries(acl);
+                aclPermissionIndex.invalidate(acl);
                 partRevision.setACL(null);
             }
         } else {
@@ -1128,6 +1154,20 @@ public class ProductManagerBean implements IProductManagerLocal {
         return conversionDAO.findConversion(partIteration);
     }
 
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public PartIteration findConvertedPartIterationWithSameNativeCAD(PartIterationKey partIterationKey) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, PartRevisionNotFoundException, AccessRightException, PartIterationNotFoundException, WorkspaceNotEnabledException {
+        User user = checkPartRevisionReadAccess(partIterationKey.getPartRevision());
+        Locale locale = new Locale(user.getLanguage());
+        PartIterationDAO partIterationDAO = new PartIterationDAO(locale, em);
+        PartIteration partIteration = partIterationDAO.loadPartI(partIterationKey);
+        BinaryResource nativeCADFile = partIteration.getNativeCADFile();
+        if (nativeCADFile == null || nativeCADFile.getContentHash() == null) {
+            return null;
+        }
+        return partIterationDAO.findConvertedPartIteration(partIteration, nativeCADFile.getContentHash());
+    }
+
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
     @Override
@@ -1142,6 +1182,20 @@ public class ProductManagerBean implements IProductManagerLocal {
         return conversion;
     }
 
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+    @Override
+    public Conversion createConversion(PartIterationKey partIterationKey, int priority) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, PartRevisionNotFoundException, AccessRightException, PartIterationNotFoundException, CreationException, WorkspaceNotEnabledException {
+        User user = checkPartRevisionWriteAccess(partIterationKey.getPartRevision());
+        Locale locale = new Locale(user.getLanguage());
+        PartIterationDAO partIterationDAO = new PartIterationDAO(locale, em);
+        PartIteration partIteration = partIterationDAO.loadPartI(partIterationKey);
+        ConversionDAO conversionDAO = new ConversionDAO(locale, em);
+        Conversion conversion = new Conversion(partIteration, priority);
+        conversionDAO.createConversion(conversion);
+        return conversion;
+    }
+
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
     @Override
@@ -1556,6 +1610,7 @@ public class ProductManagerBean implements IProductManagerLocal {
             binDAO.removeBinaryResource(file);
 
             BinaryResource newFile = new BinaryResource(file.getNewFullName(pNewName), file.getContentLength(), file.getLastModified());
+            newFile.setContentHash(file.getContentHash());
 
             binDAO.createBinaryResource(newFile);
 
@@ -1998,32 +2053,44 @@ public class ProductManagerBean implements IProductManagerLocal {
     @Override
     public List<PartRevision> getPartRevisions(String pWorkspaceId, int start, int pMaxResults) throws UserNotFoundException, AccessRightException, WorkspaceNotFoundException, UserNotActiveException, WorkspaceNotEnabledException {
         User user = userManager.checkWorkspaceReadAccess(pWorkspaceId);
-        List<PartRevision> partRevisions;
+        PartRevisionDAO partRevisionDAO = new PartRevisionDAO(new Locale(user.getLanguage()), em);
 
         if (pMaxResults == 0) {
-            partRevisions = new PartRevisionDAO(new Locale(user.getLanguage()), em).getAllPartRevisions(pWorkspaceId);
-        } else {
-            partRevisions = new PartRevisionDAO(new Locale(user.getLanguage()), em).getPartRevisions(pWorkspaceId, start, pMaxResults);
+            List<PartRevision> filteredPartRevisions = new ArrayList<>();
+            for (PartRevision partRevision : partRevisionDAO.getAllPartRevisions(pWorkspaceId)) {
+                if (hasPartRevisionReadAccess(user, partRevision)) {
+                    filteredPartRevisions.add(partRevision);
+                }
+            }
+            return removeCheckedOutIterations(user, filteredPartRevisions);
         }
 
-        List<PartRevision> filteredPartRevisions = new ArrayList<>();
-
-        for (PartRevision partRevision : partRevisions) {
-            try {
-                checkPartRevisionReadAccess(partRevision.getKey());
-
-                if (isCheckoutByAnotherUser(user, partRevision)) {
-                    em.detach(partRevision);
-                    partRevision.removeLastIteration();
-                }
+        // Filter in the query so that a page always holds pMaxResults readable rows
+        List<PartRevision> partRevisions = user.isAdministrator()
+                ? partRevisionDAO.getPartRevisions(pWorkspaceId, start, pMaxResults)
+                : partRevisionDAO.getPartRevisionsFiltered(user, pWorkspaceId, start, pMaxResults);
+        return removeCheckedOutIterations(user, partRevisions);
+    }
 
-                filteredPartRevisions.add(partRevision);
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public List<PartRevision> getPartRevisionsAfter(String pWorkspaceId, String afterNumber, String afterVersion, int pMaxResults) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, WorkspaceNotEnabledException {
+        User user = userManager.checkWorkspaceReadAccess(pWorkspaceId);
+        PartRevisionDAO partRevisionDAO = new PartRevisionDAO(new Locale(user.getLanguage()), em);
+        List<PartRevision> partRevisions = user.isAdministrator()
+                ? partRevisionDAO.getPartRevisionsAfter(pWorkspaceId, afterNumber, afterVersion, pMaxResults)
+                : partRevisionDAO.getPartRevisionsAfterFiltered(user, pWorkspaceId, afterNumber, afterVersion, pMaxResults);
+        return removeCheckedOutIterations(user, partRevisions);
+    }
 
-            } catch (AccessRightException | PartRevisionNotFoundException e) {
-                LOGGER.log(Level.FINER, null, e);
+    private List<PartRevision> removeCheckedOutIterations(User user, List<PartRevision> partRevisions) {
+        for (PartRevision partRevision : partRevisions) {
+            if (isCheckoutByAnotherUser(user, partRevision)) {
+                em.detach(partRevision);
+                partRevision.removeLastIteration();
             }
         }
-        return filteredPartRevisions;
+        return partRevisions;
     }
 
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
@@ -2213,6 +2280,7 @@ public class ProductManagerBean implements IProductManagerLocal {
                 Date lastModified = nativeCADFile.getLastModified();
                 String fullName = partR.getWorkspaceId() + "/parts/" + partR.getPartNumber() + "/" + partR.getVersion() + "/1/nativecad/" + fileName;
                 BinaryResource targetFile = new BinaryResource(fullName, length, lastModified);
+                targetFile.setContentHash(nativeCADFile.getContentHash());
                 binDAO.createBinaryResource(targetFile);
                 firstPartI.setNativeCADFile(targetFile);
                 try {
@@ -2449,7 +2517,7 @@ public class ProductManagerBean implements IProductManagerLocal {
         }
 
         if (partRevision.getACL() != null) {
-            if (partRevision.getACL().hasWriteAccess(user)) {
+            if (aclPermissionIndex.hasWriteAccess(user, partRevision.getACL())) {
                 return true;
             }
             return false;
@@ -2467,6 +2535,12 @@ public class ProductManagerBean implements IProductManagerLocal {
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @Override
     public Component filterProductStructure(ConfigurationItemKey ciKey, ProductStructureFilter filter, List<PartLink> path, Integer pDepth) throws ConfigurationItemNotFoundException, WorkspaceNotFoundException, NotAllowedException, UserNotFoundException, UserNotActiveException, PartUsageLinkNotFoundException, AccessRightException, PartMasterNotFoundException, EntityConstraintException, WorkspaceNotEnabledException {
+        return filterProductStructure(ciKey, filter, path, pDepth, false);
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public Component filterProductStructure(ConfigurationItemKey ciKey, ProductStructureFilter filter, List<PartLink> path, Integer pDepth, boolean parallel) throws ConfigurationItemNotFoundException, WorkspaceNotFoundException, NotAllowedException, UserNotFoundException, UserNotActiveException, PartUsageLinkNotFoundException, AccessRightException, PartMasterNotFoundException, EntityConstraintException, WorkspaceNotEnabledException {
 
         User user = userManager.checkWorkspaceReadAccess(ciKey.getWorkspace());
         Locale locale = new Locale(user.getLanguage());
@@ -2510,6 +2584,8 @@ public class ProductManagerBean implements IProductManagerLocal {
             }
         };
 
+        psFilterVisitor.setResolver(productStructureResolver, parallel);
+
         if (path == null) {
             ConfigurationItem ci = new ConfigurationItemDAO(locale, em).loadConfigurationItem(ciKey);
             psFilterVisitor.visit(ci.getDesignItem(), pDepth);
@@ -2521,6 +2597,76 @@ public class ProductManagerBean implements IProductManagerLocal {
 
     }
 
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public void walkProductStructure(ConfigurationItemKey ciKey, ProductStructureFilter filter, List<PartLink> path, ProductStructureVisitor visitor) throws ConfigurationItemNotFoundException, WorkspaceNotFoundException, NotAllowedException, UserNotFoundException, UserNotActiveException, PartMasterNotFoundException, EntityConstraintException, WorkspaceNotEnabledException {
+
+        User user = userManager.checkWorkspaceReadAccess(ciKey.getWorkspace());
+        Locale locale = new Locale(user.getLanguage());
+
+        // ACL decisions are shared by all the usages of a part revision
+        Map<PartRevisionKey, Boolean> readAccess = new HashMap<>();
+
+        PSFilterVisitor psFilterVisitor = new PSFilterVisitor(em, user, filter) {
+            @Override
+            public void onIndeterminateVersion(PartMaster partMaster, List<PartIteration> partIterations) throws NotAllowedException {
+                // Unused here
+            }
+
+            @Override
+            public void onIndeterminatePath(List<PartLink> pCurrentPath, List<PartIteration> pCurrentPathPartIterations) {
+                // Unused here
+            }
+
+            @Override
+            public void onUnresolvedPath(List<PartLink> pCurrentPath, List<PartIteration> partIterations) throws NotAllowedException {
+                // Unused here
+            }
+
+            @Override
+            public void onBranchDiscovered(List<PartLink> pCurrentPath, List<PartIteration> copyPartIteration) {
+                // Unused here
+            }
+
+            @Override
+            public void onOptionalPath(List<PartLink> path, List<PartIteration> partIterations) {
+                // Unused here
+            }
+
+            @Override
+            public boolean onPathWalk(List<PartLink> path, List<PartMaster> parts) {
+                // Unused here
+                return true;
+            }
+
+            @Override
+            public void onUnresolvedVersion(PartMaster partMaster) {
+                // Unused here
+            }
+
+            @Override
+            public boolean onComponentResolved(Component component) {
+                PartIteration partIteration = component.getRetainedIteration();
+                if (partIteration == null) {
+                    return false;
+                }
+                PartRevision partRevision = partIteration.getPartRevision();
+                boolean canRead = readAccess.computeIfAbsent(partRevision.getKey(), key -> hasPartRevisionReadAccess(user, partRevision));
+                return canRead && visitor.visit(component);
+            }
+        };
+
+        psFilterVisitor.setResolver(productStructureResolver, false);
+
+        if (path == null) {
+            ConfigurationItem ci = new ConfigurationItemDAO(locale, em).loadConfigurationItem(ciKey);
+            psFilterVisitor.visit(ci.getDesignItem(), -1);
+        } else {
+            psFilterVisitor.visit(path, -1);
+        }
+
+    }
+
 
     @Override
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
@@ -2813,31 +2959,41 @@ public class ProductManagerBean implements IProductManagerLocal {
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @Override
     public List<PartRevision> searchPartRevisions(String workspaceId, Query query) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
+        List<PartRevision> parts = new ArrayList<>();
+        searchPartRevisions(workspaceId, query, false, parts::add);
+        return parts;
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public void searchPartRevisions(String workspaceId, Query query, Consumer<PartRevision> consumer) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
+        searchPartRevisions(workspaceId, query, true, consumer);
+    }
+
+    private void searchPartRevisions(String workspaceId, Query query, boolean detachPages, Consumer<PartRevision> consumer) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
         User user = userManager.checkWorkspaceReadAccess(workspaceId);
         Locale locale = new Locale(user.getLanguage());
 
         WorkspaceDAO workspaceDAO = new WorkspaceDAO(locale, em);
-        Workspace workspace = workspaceDAO.loadWorkspace(workspaceId);
+        workspaceDAO.loadWorkspace(workspaceId);
 
         QueryDAO queryDAO = new QueryDAO(locale, em);
-        List<PartRevision> parts = queryDAO.runQuery(workspace, query);
+        queryDAO.runQuery(workspaceId, query, QueryDAO.PAGE_SIZE, page -> {
+            for (PartRevision partR : page) {
 
-        ListIterator<PartRevision> ite = parts.listIterator();
-
-        while (ite.hasNext()) {
-            PartRevision partR = ite.next();
+                if (isCheckoutByAnotherUser(user, partR)) {
+                    em.detach(partR);
+                    partR.removeLastIteration();
+                }
 
-            if (isCheckoutByAnotherUser(user, partR)) {
-                em.detach(partR);
-                partR.removeLastIteration();
+                if (partR.getLastIteration() == null || hasPartRevisionReadAccess(user, partR)) {
+                    consumer.accept(partR);
+                }
             }
-
-            if (partR.getLastIteration() != null && !hasPartRevisionReadAccess(user, partR)) {
-                ite.remove();
+            if (detachPages) {
+                em.clear();
             }
-        }
-
-        return parts;
+        });
     }
 
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
@@ -3126,10 +3282,16 @@ public class ProductManagerBean implements IProductManagerLocal {
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @Override
     public List<QueryResultRow> filterProductBreakdownStructure(String workspaceId, Query query) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, ConfigurationItemNotFoundException, NotAllowedException, PartMasterNotFoundException, EntityConstraintException, WorkspaceNotEnabledException {
+        return filterProductBreakdownStructure(workspaceId, query, false);
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public List<QueryResultRow> filterProductBreakdownStructure(String workspaceId, Query query, boolean parallel) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, ConfigurationItemNotFoundException, NotAllowedException, PartMasterNotFoundException, EntityConstraintException, WorkspaceNotEnabledException {
         User user = userManager.checkWorkspaceReadAccess(workspaceId);
         List<QueryResultRow> rows = new ArrayList<>();
         for (QueryContext queryContext : query.getContexts()) {
-            rows.addAll(filterPBS(workspaceId, queryContext, user));
+            rows.addAll(filterPBS(workspaceId, queryContext, user, parallel));
         }
         return rows;
     }
@@ -3153,9 +3315,17 @@ public class ProductManagerBean implements IProductManagerLocal {
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @Override
     public Map<String, Set<BinaryResource>> getBinariesInTree(Integer baselineId, String workspaceId, ConfigurationItemKey ciKey, ProductStructureFilter psFilter, boolean exportNativeCADFiles, boolean exportDocumentLinks) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, ConfigurationItemNotFoundException, NotAllowedException, EntityConstraintException, PartMasterNotFoundException, WorkspaceNotEnabledException {
+        Map<String, Set<BinaryResource>> result = new HashMap<>();
+        walkBinariesInTree(baselineId, workspaceId, ciKey, psFilter, exportNativeCADFiles, exportDocumentLinks,
+                (folderName, binaryResource) -> result.computeIfAbsent(folderName, k -> new HashSet<>()).add(binaryResource));
+        return result;
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public void walkBinariesInTree(Integer baselineId, String workspaceId, ConfigurationItemKey ciKey, ProductStructureFilter psFilter, boolean exportNativeCADFiles, boolean exportDocumentLinks, BiConsumer<String, BinaryResource> consumer) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, ConfigurationItemNotFoundException, NotAllowedException, EntityConstraintException, PartMasterNotFoundException, WorkspaceNotEnabledException {
 
         User user = userManager.checkWorkspaceReadAccess(workspaceId);
-        Map<String, Set<BinaryResource>> result = new HashMap<>();
 
         Locale locale = new Locale(user.getLanguage());
 
@@ -3198,23 +3368,17 @@ public class ProductManagerBean implements IProductManagerLocal {
 
                     PartIteration partIteration = partIterations.get(0);
                     String partFolderName = partIteration.toString();
-                    Set<BinaryResource> binaryResources = result.get(partFolderName);
-
-                    if (binaryResources == null) {
-                        binaryResources = new HashSet<>();
-                        result.put(partFolderName, binaryResources);
-                    }
 
                     if (exportNativeCADFiles) {
                         BinaryResource nativeCADFile = partIteration.getNativeCADFile();
                         if (nativeCADFile != null) {
-                            binaryResources.add(nativeCADFile);
+                            consumer.accept(partFolderName, nativeCADFile);
                         }
 
                         if (exportDocumentLinks) {
                             for (BinaryResource attachedFile : partIteration.getAttachedFiles()) {
                                 if (attachedFile != null) {
-                                    binaryResources.add(attachedFile);
+                                    consumer.accept(partFolderName, attachedFile);
                                 }
                             }
                         }
@@ -3231,19 +3395,8 @@ public class ProductManagerBean implements IProductManagerLocal {
 
                                 String linkedDocumentFolderName = "links/" + lastCheckedInIteration.toString();
 
-                                Set<BinaryResource> linkedBinaryResources = result.get(linkedDocumentFolderName);
-
-                                if (linkedBinaryResources == null) {
-                                    linkedBinaryResources = new HashSet<>();
-                                    result.put(linkedDocumentFolderName, linkedBinaryResources);
-                                }
-
-                                Set<BinaryResource> attachedFiles = lastCheckedInIteration.getAttachedFiles();
-
-                                for (BinaryResource binary : attachedFiles) {
-                                    if (!linkedBinaryResources.contains(binary)) {
-                                        linkedBinaryResources.add(binary);
-                                    }
+                                for (BinaryResource binary : lastCheckedInIteration.getAttachedFiles()) {
+                                    consumer.accept(linkedDocumentFolderName, binary);
                                 }
 
                             }
@@ -3260,9 +3413,8 @@ public class ProductManagerBean implements IProductManagerLocal {
             }
         };
 
+        psFilterVisitor.setResolver(productStructureResolver, false);
         psFilterVisitor.visit(root, -1);
-
-        return result;
     }
 
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
@@ -3280,7 +3432,7 @@ public class ProductManagerBean implements IProductManagerLocal {
         return queryDAO.loadQuery(queryId);
     }
 
-    private List<QueryResultRow> filterPBS(String workspaceId, QueryContext queryContext, User user) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, ConfigurationItemNotFoundException, NotAllowedException, EntityConstraintException, PartMasterNotFoundException, WorkspaceNotEnabledException {
+    private List<QueryResultRow> filterPBS(String workspaceId, QueryContext queryContext, User user, boolean parallel) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, ConfigurationItemNotFoundException, NotAllowedException, EntityConstraintException, PartMasterNotFoundException, WorkspaceNotEnabledException {
 
         String configurationItemId = queryContext.getConfigurationItemId();
         String serialNumber = queryContext.getSerialNumber();
@@ -3301,7 +3453,8 @@ public class ProductManagerBean implements IProductManagerLocal {
         ConfigurationItem ci = new ConfigurationItemDAO(locale, em).loadConfigurationItem(ciKey);
         PartMaster root = ci.getDesignItem();
 
-        List<PathToPathLink> pathToPathLinks = ci.getPathToPathLinks();
+        // Paths met during the walk, used to resolve link ends without database access
+        Map<String, List<PartLink>> walkedPaths = new HashMap<>();
         PathDataIterationDAO pathDataIterationDAO = new PathDataIterationDAO(em);
 
         List<PathDataIteration> lastPathDataIterations = pathDataIterationDAO.getLastPathDataIterations(productInstanceIteration);
@@ -3360,19 +3513,7 @@ public class ProductManagerBean implements IProductManagerLocal {
                     row.setContext(queryContext);
                     row.setAmount(totalAmount);
 
-                    // try block and decodePath method are time consuming (db access) May need refactor
-                    for (PathToPathLink pathToPathLink : pathToPathLinks) {
-                        try {
-                            if (pathToPathLink.getSourcePath().equals(pathAsString)) {
-                                row.addSource(pathToPathLink.getType(), decodePath(ciKey, pathToPathLink.getTargetPath()));
-                            }
-                            if (pathToPathLink.getTargetPath().equals(pathAsString)) {
-                                row.addTarget(pathToPathLink.getType(), decodePath(ciKey, pathToPathLink.getTargetPath()));
-                            }
-                        } catch (WorkspaceNotFoundException | WorkspaceNotEnabledException | UserNotFoundException | ConfigurationItemNotFoundException | PartUsageLinkNotFoundException | UserNotActiveException e) {
-                            LOGGER.log(Level.SEVERE, null, e);
-                        }
-                    }
+                    walkedPaths.put(pathAsString, path);
 
                     if (finalProductInstanceIteration != null) {
                         row.setPathDataIteration(lastPathDataIterationsMap.get(pathAsString));
@@ -3388,10 +3529,61 @@ public class ProductManagerBean implements IProductManagerLocal {
             }
         };
 
+        psFilterVisitor.setResolver(productStructureResolver, parallel);
         psFilterVisitor.visit(root, -1);
+
+        // Link ends are resolved once the whole tree is known, the other end may be walked after the row
+        addPathToPathLinks(ciKey, rows, ci.getPathToPathLinks(), walkedPaths);
         return rows;
     }
 
+    /**
+     * Add to each row the other end of the path to path links it is the source or the target of.
+     * Sources receive the target paths, targets receive the source paths.
+     */
+    void addPathToPathLinks(ConfigurationItemKey ciKey, List<QueryResultRow> rows, List<PathToPathLink> pathToPathLinks, Map<String, List<PartLink>> walkedPaths) {
+        // Index links by both ends once, instead of scanning them all for every row
+        Map<String, List<PathToPathLink>> linksBySourcePath = new HashMap<>();
+        Map<String, List<PathToPathLink>> linksByTargetPath = new HashMap<>();
+        for (PathToPathLink pathToPathLink : pathToPathLinks) {
+            linksBySourcePath.computeIfAbsent(pathToPathLink.getSourcePath(), k -> new ArrayList<>()).add(pathToPathLink);
+            linksByTargetPath.computeIfAbsent(pathToPathLink.getTargetPath(), k -> new ArrayList<>()).add(pathToPathLink);
+        }
+
+        for (QueryResultRow row : rows) {
+            for (PathToPathLink pathToPathLink : linksBySourcePath.getOrDefault(row.getPath(), Collections.emptyList())) {
+                List<PartLink> targetPath = resolveWalkedPath(ciKey, walkedPaths, pathToPathLink.getTargetPath());
+                if (targetPath != null) {
+                    row.addSource(pathToPathLink.getType(), targetPath);
+                }
+            }
+            for (PathToPathLink pathToPathLink : linksByTargetPath.getOrDefault(row.getPath(), Collections.emptyList())) {
+                List<PartLink> sourcePath = resolveWalkedPath(ciKey, walkedPaths, pathToPathLink.getSourcePath());
+                if (sourcePath != null) {
+                    row.addTarget(pathToPathLink.getType(), sourcePath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the decoded path from the paths met during a structure walk, falling back to
+     * decodePath (and caching its result) for paths the walk did not reach.
+     * Returns null if the path cannot be decoded.
+     */
+    private List<PartLink> resolveWalkedPath(ConfigurationItemKey ciKey, Map<String, List<PartLink>> walkedPaths, String path) {
+        List<PartLink> decodedPath = walkedPaths.get(path);
+        if (decodedPath == null) {
+            try {
+                decodedPath = decodePath(ciKey, path);
+                walkedPaths.put(path, decodedPath);
+            } catch (WorkspaceNotFoundException | WorkspaceNotEnabledException | UserNotFoundException | ConfigurationItemNotFoundException | PartUsageLinkNotFoundException | UserNotActiveException e) {
+                LOGGER.log(Level.SEVERE, null, e);
+            }
+        }
+        return decodedPath;
+    }
+
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
     @Override
     public List<PartIteration> getInversePartsLink(DocumentRevisionKey docKey) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, DocumentRevisionNotFoundException, PartIterationNotFoundException, PartRevisionNotFoundException, WorkspaceNotEnabledException {
@@ -3539,6 +3731,13 @@ public class ProductManagerBean implements IProductManagerLocal {
         return new PathToPathLinkDAO(locale, em).getPathToPathLinkFromSourceAndTarget(configurationItem, sourcePath, targetPath);
     }
 
+    @Override
+    @Asynchronous
+    @RolesAllowed(UserGroupMapping.ADMIN_ROLE_ID)
+    public void indexPathToPathLinks() {
+        pathToPathLinkIndexer.indexPathToPathLinks();
+    }
+
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
     @Override
     public ProductInstanceMaster findProductByPathMaster(String workspaceId, PathDataMaster pathDataMaster) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
@@ -3690,7 +3889,7 @@ public class ProductManagerBean implements IProductManagerLocal {
         if (partRevision.getACL() == null) {                                                                                // Check if the part haven't ACL
             return userManager.checkWorkspaceWriteAccess(workspaceId);
         }
-        if (partRevision.getACL().hasWriteAccess(user)) {                                                                 // Check if the ACL grant write access
+        if (aclPermissionIndex.hasWriteAccess(user, partRevision.getACL())) {                                             // Check if the ACL grant write access
             return user;
         }
         throw new AccessRightException(new Locale(user.getLanguage()), user);                                            // Else throw a AccessRightException
@@ -3760,7 +3959,7 @@ public class ProductManagerBean implements IProductManagerLocal {
     }
 
     private boolean isACLGrantReadAccess(User user, PartRevision partRevision) {
-        return partRevision.getACL() == null || partRevision.getACL().hasReadAccess(user);
+        return partRevision.getACL() == null || aclPermissionIndex.hasReadAccess(user, partRevision.getACL());
     }
 
     private boolean isACLGrantReadAccess(User user, PartMasterTemplate template) {
@@ -3768,7 +3967,7 @@ public class ProductManagerBean implements IProductManagerLocal {
     }
 
     private boolean isACLGrantWriteAccess(User user, PartRevision partRevision) {
-        return partRevision.getACL() == null || partRevision.getACL().hasWriteAccess(user);
+        return partRevision.getACL() == null || aclPermissionIndex.hasWriteAccess(user, partRevision.getACL());
     }
 
     private boolean isCheckoutByUser(User user, PartRevision partRevision) {
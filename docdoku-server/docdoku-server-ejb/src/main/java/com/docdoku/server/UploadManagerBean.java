@@ -0,0 +1,263 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.UploadSession;
+import com.docdoku.core.common.User;
+import com.docdoku.core.exceptions.*;
+import com.docdoku.core.security.UserGroupMapping;
+import com.docdoku.core.services.IBinaryStorageManagerLocal;
+import com.docdoku.core.services.IUploadManagerLocal;
+import com.docdoku.core.services.IUserManagerLocal;
+import com.docdoku.core.util.FileIO;
+
+import javax.annotation.security.DeclareRoles;
+import javax.annotation.security.RolesAllowed;
+import javax.ejb.Local;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resumable chunked uploads. Each upload owns a folder in the vault holding the
+ * preallocated data file, one byte per chunk telling whether it has been received
+ * and the session descriptor, so that an interrupted upload can be resumed as long
+ * as the folder is there. Chunks are written at their offset through a file channel,
+ * the data file is then moved in place of the binary resource.
+ */
+@DeclareRoles(UserGroupMapping.REGULAR_USER_ROLE_ID)
+@Local(IUploadManagerLocal.class)
+@Stateless(name = "UploadManagerBean")
+public class UploadManagerBean implements IUploadManagerLocal {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final long UPLOAD_EXPIRATION = 7L * 24 * 60 * 60 * 1000;
+
+    private static final String DATA_FILE = "data";
+    private static final String CHUNKS_FILE = "chunks";
+    private static final String SESSION_FILE = "session.properties";
+
+    private static final Logger LOGGER = Logger.getLogger(UploadManagerBean.class.getName());
+
+    @Inject
+    private IUserManagerLocal userManager;
+
+    @Inject
+    private IBinaryStorageManagerLocal storageManager;
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public UploadSession createUpload(String workspaceId, String fileName, long length, int chunkSize) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, NotAllowedException, StorageException {
+        User user = userManager.checkWorkspaceWriteAccess(workspaceId);
+        Locale locale = new Locale(user.getLanguage());
+
+        int size = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        if (fileName == null || fileName.isEmpty() || length < 0 || size < MIN_CHUNK_SIZE || size > MAX_CHUNK_SIZE) {
+            throw new NotAllowedException(locale, "NotAllowedException72");
+        }
+
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), workspaceId, user.getLogin(), fileName, length, size, new Date());
+        File folder = storageManager.getUploadFolder(workspaceId, session.getId());
+        removeExpiredUploads(folder.getParentFile());
+
+        if (!folder.mkdirs()) {
+            throw new StorageException("Can't create upload folder " + folder.getAbsolutePath());
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("login", session.getLogin());
+        properties.setProperty("fileName", session.getFileName());
+        properties.setProperty("length", String.valueOf(session.getLength()));
+        properties.setProperty("chunkSize", String.valueOf(session.getChunkSize()));
+        properties.setProperty("creationDate", String.valueOf(session.getCreationDate().getTime()));
+
+        try (OutputStream out = new FileOutputStream(new File(folder, SESSION_FILE));
+             RandomAccessFile data = new RandomAccessFile(new File(folder, DATA_FILE), "rw");
+             RandomAccessFile chunks = new RandomAccessFile(new File(folder, CHUNKS_FILE), "rw")) {
+            properties.store(out, null);
+            // Chunks may arrive in any order, each one has to find its offset within the file
+            data.setLength(length);
+            chunks.setLength(session.getChunkCount());
+        } catch (IOException e) {
+            FileIO.rmDir(folder);
+            throw new StorageException("Can't create upload " + session.getId(), e);
+        }
+        return session;
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public UploadSession getUpload(String workspaceId, String uploadId) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, StorageException {
+        User user = userManager.checkWorkspaceWriteAccess(workspaceId);
+        return loadUpload(user, workspaceId, uploadId);
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public void writeChunk(String workspaceId, String uploadId, long offset, InputStream in, String md5) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, NotAllowedException, StorageException {
+        User user = userManager.checkWorkspaceWriteAccess(workspaceId);
+        Locale locale = new Locale(user.getLanguage());
+        UploadSession session = loadUpload(user, workspaceId, uploadId);
+
+        if (offset < 0 || offset % session.getChunkSize() != 0 || offset >= session.getLength()) {
+            throw new NotAllowedException(locale, "NotAllowedException69");
+        }
+
+        int index = (int) (offset / session.getChunkSize());
+        long length = session.getChunkLength(index);
+        File folder = storageManager.getUploadFolder(workspaceId, uploadId);
+
+        try (FileChannel chunks = FileChannel.open(new File(folder, CHUNKS_FILE).toPath(), StandardOpenOption.WRITE);
+             FileChannel data = FileChannel.open(new File(folder, DATA_FILE).toPath(), StandardOpenOption.WRITE)) {
+
+            // A chunk sent again is no longer valid until it has been fully rewritten
+            chunks.write(ByteBuffer.wrap(new byte[]{0}), index);
+
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            DigestInputStream digestInputStream = new DigestInputStream(in, digest);
+            ReadableByteChannel source = Channels.newChannel(digestInputStream);
+            long written = 0;
+            long transferred;
+            while (written < length && (transferred = data.transferFrom(source, offset + written, length - written)) > 0) {
+                written += transferred;
+            }
+
+            if (written != length || digestInputStream.read() != -1) {
+                throw new NotAllowedException(locale, "NotAllowedException69");
+            }
+            if (md5 != null && !md5.equals(Base64.getEncoder().encodeToString(digest.digest()))) {
+                throw new NotAllowedException(locale, "NotAllowedException70");
+            }
+
+            data.force(false);
+            chunks.write(ByteBuffer.wrap(new byte[]{1}), index);
+            chunks.force(false);
+
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new StorageException("Error writing chunk " + index + " of upload " + uploadId, e);
+        }
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public void commitUpload(String workspaceId, String uploadId, BinaryResource binaryResource) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, NotAllowedException, StorageException {
+        User user = userManager.checkWorkspaceWriteAccess(workspaceId);
+        UploadSession session = loadUpload(user, workspaceId, uploadId);
+
+        if (!session.isComplete()) {
+            throw new NotAllowedException(new Locale(user.getLanguage()), "NotAllowedException71");
+        }
+
+        File folder = storageManager.getUploadFolder(workspaceId, uploadId);
+        storageManager.moveData(new File(folder, DATA_FILE), binaryResource);
+        FileIO.rmDir(folder);
+    }
+
+    @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+    @Override
+    public void abortUpload(String workspaceId, String uploadId) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException, FileNotFoundException, StorageException {
+        User user = userManager.checkWorkspaceWriteAccess(workspaceId);
+        loadUpload(user, workspaceId, uploadId);
+        FileIO.rmDir(storageManager.getUploadFolder(workspaceId, uploadId));
+    }
+
+    private UploadSession loadUpload(User user, String workspaceId, String uploadId) throws FileNotFoundException, StorageException {
+        Locale locale = new Locale(user.getLanguage());
+        if (uploadId == null || !uploadId.matches("[0-9a-f\\-]{36}")) {
+            throw new FileNotFoundException(locale, uploadId);
+        }
+
+        File folder = storageManager.getUploadFolder(workspaceId, uploadId);
+        File sessionFile = new File(folder, SESSION_FILE);
+        if (!sessionFile.exists()) {
+            throw new FileNotFoundException(locale, uploadId);
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(sessionFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new StorageException("Can't read upload " + uploadId, e);
+        }
+
+        // Uploads of other users are not disclosed
+        if (!user.getLogin().equals(properties.getProperty("login"))) {
+            throw new FileNotFoundException(locale, uploadId);
+        }
+
+        UploadSession session = new UploadSession(uploadId, workspaceId, properties.getProperty("login"),
+                properties.getProperty("fileName"),
+                Long.parseLong(properties.getProperty("length")),
+                Integer.parseInt(properties.getProperty("chunkSize")),
+                new Date(Long.parseLong(properties.getProperty("creationDate"))));
+
+        try {
+            byte[] chunks = Files.readAllBytes(new File(folder, CHUNKS_FILE).toPath());
+            BitSet receivedChunks = new BitSet(chunks.length);
+            for (int i = 0; i < chunks.length; i++) {
+                if (chunks[i] != 0) {
+                    receivedChunks.set(i);
+                }
+            }
+            session.setReceivedChunks(receivedChunks);
+        } catch (IOException e) {
+            throw new StorageException("Can't read upload " + uploadId, e);
+        }
+        return session;
+    }
+
+    private void removeExpiredUploads(File uploadsFolder) {
+        File[] uploads = uploadsFolder.listFiles();
+        if (uploads == null) {
+            return;
+        }
+        long expiration = System.currentTimeMillis() - UPLOAD_EXPIRATION;
+        for (File upload : uploads) {
+            if (upload.isDirectory() && upload.lastModified() < expiration
+                    && new File(upload, CHUNKS_FILE).lastModified() < expiration) {
+                LOGGER.log(Level.INFO, "Removing expired upload {0}", upload.getName());
+                FileIO.rmDir(upload);
+            }
+        }
+    }
+}
@@ -64,17 +64,28 @@ public class UserManagerBean implements IUserManagerLocal {
     @Inject
     private IContextManagerLocal contextManager;
 
+    @Inject
+    private ACLPermissionIndex aclPermissionIndex;
+
     @Inject
     private IMailerLocal mailer;
 
     @Inject
     private IPlatformOptionsManagerLocal platformOptionsManager;
 
+    @Inject
+    private WorkspaceAccessContext workspaceAccessContext;
+
+    @Inject
+    private WorkspaceAccessMetrics workspaceAccessMetrics;
+
 
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
     @Override
     public void addUserInGroup(UserGroupKey pGroupKey, String pLogin) throws AccessRightException, UserGroupNotFoundException, AccountNotFoundException, WorkspaceNotFoundException, UserAlreadyExistsException, FolderAlreadyExistsException, CreationException {
         Account account = checkAdmin(pGroupKey.getWorkspaceId());
+        workspaceAccessContext.invalidate(pGroupKey.getWorkspaceId());
+        aclPermissionIndex.invalidateWorkspace(pGroupKey.getWorkspaceId());
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         User userToAdd = em.find(User.class, new UserKey(pGroupKey.getWorkspaceId(), pLogin));
         if (userToAdd == null) {
@@ -93,6 +104,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
     @Override
     public void addUserInWorkspace(String pWorkspaceId, String pLogin) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException, UserAlreadyExistsException, FolderAlreadyExistsException, CreationException {        Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         User userToAdd = em.find(User.class, new UserKey(pWorkspaceId, pLogin));
         Workspace workspace = em.getReference(Workspace.class, pWorkspaceId);
@@ -110,6 +122,8 @@ public class UserManagerBean implements IUserManagerLocal {
         Account account = new AccountDAO(em).loadAccount(contextManager.getCallerPrincipalLogin());
         Workspace workspace = new WorkspaceDAO(new Locale(account.getLanguage()), em).loadWorkspace(pWorkspaceId);
         checkAdmin(workspace, account);
+        workspaceAccessContext.invalidate(pWorkspaceId);
+        aclPermissionIndex.invalidateWorkspace(pWorkspaceId);
 
         Locale locale = new Locale(account.getLanguage());
         UserDAO userDAO = new UserDAO(locale, em);
@@ -126,6 +140,8 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void removeUserFromGroup(UserGroupKey pGroupKey, String[] pLogins) throws AccessRightException, UserGroupNotFoundException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pGroupKey.getWorkspaceId());
+        workspaceAccessContext.invalidate(pGroupKey.getWorkspaceId());
+        aclPermissionIndex.invalidateWorkspace(pGroupKey.getWorkspaceId());
         UserGroup group = new UserGroupDAO(new Locale(account.getLanguage()), em).loadUserGroup(pGroupKey);
         for (String login : pLogins) {
             User userToRemove = em.getReference(User.class, new UserKey(pGroupKey.getWorkspaceId(), login));
@@ -137,6 +153,8 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public UserGroup removeUserFromGroup(UserGroupKey pGroupKey, String login) throws AccessRightException, UserGroupNotFoundException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pGroupKey.getWorkspaceId());
+        workspaceAccessContext.invalidate(pGroupKey.getWorkspaceId());
+        aclPermissionIndex.invalidateWorkspace(pGroupKey.getWorkspaceId());
         UserGroup group = new UserGroupDAO(new Locale(account.getLanguage()), em).loadUserGroup(pGroupKey);
         User userToRemove = em.getReference(User.class, new UserKey(pGroupKey.getWorkspaceId(), login));
         group.removeUser(userToRemove);
@@ -298,6 +316,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void grantUserAccess(String pWorkspaceId, String[] pLogins, boolean pReadOnly) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         for (String login : pLogins) {
             WorkspaceUserMembership ms = userDAO.loadUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
@@ -311,6 +330,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public WorkspaceUserMembership grantUserAccess(String pWorkspaceId, String login, boolean pReadOnly) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         WorkspaceUserMembership ms = userDAO.loadUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
         if (ms != null) {
@@ -323,6 +343,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public WorkspaceUserGroupMembership grantGroupAccess(String pWorkspaceId, String groupId, boolean pReadOnly) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException, UserGroupNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserGroupDAO groupDAO = new UserGroupDAO(new Locale(account.getLanguage()), em);
         WorkspaceUserGroupMembership ms = groupDAO.loadUserGroupMembership(new WorkspaceUserGroupMembershipKey(pWorkspaceId, pWorkspaceId, groupId));
         if (ms != null) {
@@ -336,6 +357,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void grantGroupAccess(String pWorkspaceId, String[] pGroupIds, boolean pReadOnly) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException, UserGroupNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserGroupDAO groupDAO = new UserGroupDAO(new Locale(account.getLanguage()), em);
         for (String id : pGroupIds) {
             WorkspaceUserGroupMembership ms = groupDAO.loadUserGroupMembership(new WorkspaceUserGroupMembershipKey(pWorkspaceId, pWorkspaceId, id));
@@ -349,6 +371,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void activateUsers(String pWorkspaceId, String[] pLogins) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         Workspace workspace = em.getReference(Workspace.class, pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         for (String login : pLogins) {
@@ -361,6 +384,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void activateUserGroups(String pWorkspaceId, String[] pGroupIds) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         Workspace workspace = em.getReference(Workspace.class, pWorkspaceId);
         UserGroupDAO groupDAO = new UserGroupDAO(new Locale(account.getLanguage()), em);
         for (String id : pGroupIds) {
@@ -373,6 +397,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void activateUser(String pWorkspaceId, String login) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         Workspace workspace = em.getReference(Workspace.class, pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         User member = em.getReference(User.class, new UserKey(pWorkspaceId, login));
@@ -384,6 +409,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void activateUserGroup(String pWorkspaceId, String groupId) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         Workspace workspace = em.getReference(Workspace.class, pWorkspaceId);
         UserGroupDAO groupDAO = new UserGroupDAO(new Locale(account.getLanguage()), em);
         UserGroup member = em.getReference(UserGroup.class, new UserGroupKey(pWorkspaceId, groupId));
@@ -396,6 +422,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void passivateUserGroups(String pWorkspaceId, String[] pGroupIds) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserGroupDAO groupDAO = new UserGroupDAO(new Locale(account.getLanguage()), em);
         for (String id : pGroupIds) {
             groupDAO.removeUserGroupMembership(new WorkspaceUserGroupMembershipKey(pWorkspaceId, pWorkspaceId, id));
@@ -406,6 +433,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void passivateUsers(String pWorkspaceId, String[] pLogins) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         for (String login : pLogins) {
             userDAO.removeUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
@@ -416,6 +444,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void passivateUserGroup(String pWorkspaceId, String groupId) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserGroupDAO groupDAO = new UserGroupDAO(new Locale(account.getLanguage()), em);
         groupDAO.removeUserGroupMembership(new WorkspaceUserGroupMembershipKey(pWorkspaceId, pWorkspaceId, groupId));
 
@@ -425,6 +454,8 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void removeUsers(String pWorkspaceId, String[] pLogins) throws UserNotFoundException, AccessRightException, AccountNotFoundException, WorkspaceNotFoundException, FolderNotFoundException, EntityConstraintException, UserNotActiveException, DocumentRevisionNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
+        aclPermissionIndex.invalidateWorkspace(pWorkspaceId);
         Locale locale = new Locale(account.getLanguage());
         UserDAO userDAO = new UserDAO(locale, em);
 
@@ -441,6 +472,7 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void passivateUser(String pWorkspaceId, String login) throws AccessRightException, AccountNotFoundException, WorkspaceNotFoundException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
         UserDAO userDAO = new UserDAO(new Locale(account.getLanguage()), em);
         userDAO.removeUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
 
@@ -450,6 +482,8 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public void removeUserGroups(String pWorkspaceId, String[] pIds) throws UserGroupNotFoundException, AccessRightException, AccountNotFoundException, WorkspaceNotFoundException, EntityConstraintException {
         Account account = checkAdmin(pWorkspaceId);
+        workspaceAccessContext.invalidate(pWorkspaceId);
+        aclPermissionIndex.invalidateWorkspace(pWorkspaceId);
         Locale locale = new Locale(account.getLanguage());
         UserGroupDAO groupDAO = new UserGroupDAO(locale, em);
         for (String id : pIds) {
@@ -506,43 +540,44 @@ public class UserManagerBean implements IUserManagerLocal {
     @Override
     public User checkWorkspaceReadAccess(String pWorkspaceId) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
         String login = contextManager.getCallerPrincipalLogin();
-        UserDAO userDAO = new UserDAO(em);
-        WorkspaceUserMembership userMS = userDAO.loadUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
-        Workspace wks = new WorkspaceDAO(em).loadWorkspace(pWorkspaceId);
-        User user = userDAO.loadUser(new UserKey(pWorkspaceId, login));
-        Locale locale = new Locale(user.getLanguage());
+        WorkspaceAccessContext.WorkspaceAccess access = workspaceAccessContext.get(pWorkspaceId, login);
 
-        if (!wks.isEnabled()) {
-            throw new WorkspaceNotEnabledException(locale, pWorkspaceId);
-        } else if (userMS != null) {
-            user = userMS.getMember();
-        } else if (!wks.getAdmin().getLogin().equals(login)) {
-            WorkspaceUserGroupMembership[] groupMS = new UserGroupDAO(em).getUserGroupMemberships(pWorkspaceId, user);
-            if (groupMS.length == 0) {
-                throw new UserNotActiveException(locale, login);
-            }
+        if (access == null) {
+            User user = new UserDAO(em).loadUser(new UserKey(pWorkspaceId, login));
+            access = resolveWorkspaceAccess(pWorkspaceId, user);
         }
 
+        // Observers record every access, a cached resolution is still an access
         workspaceAccessEvent.select(new AnnotationLiteral<Read>() {
-        }).fire(new WorkspaceAccessEvent(user));
+        }).fire(new WorkspaceAccessEvent(access.getUser()));
+
+        if (!access.isAdministrator() && !access.isMember()) {
+            throw new UserNotActiveException(new Locale(access.getUser().getLanguage()), login);
+        }
 
-        return user;
+        return access.getUser();
     }
 
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
     @Override
     public User checkWorkspaceWriteAccess(String pWorkspaceId) throws UserNotFoundException, WorkspaceNotFoundException, AccessRightException, WorkspaceNotEnabledException {
         String login = contextManager.getCallerPrincipalLogin();
+        WorkspaceAccessContext.WorkspaceAccess access = workspaceAccessContext.get(pWorkspaceId, login);
 
-        UserDAO userDAO = new UserDAO(em);
-        User user = userDAO.loadUser(new UserKey(pWorkspaceId, login));
-        if (!hasWorkspaceWriteAccess(user, pWorkspaceId)) {
-            throw new AccessRightException(new Locale(user.getLanguage()), user);
+        if (access == null) {
+            User user = new UserDAO(em).loadUser(new UserKey(pWorkspaceId, login));
+            access = resolveWorkspaceAccess(pWorkspaceId, user);
         }
+
+        // Observers record every access, a cached resolution is still an access
         workspaceAccessEvent.select(new AnnotationLiteral<Write>() {
-        }).fire(new WorkspaceAccessEvent(user));
+        }).fire(new WorkspaceAccessEvent(access.getUser()));
+
+        if (access.isReadOnly()) {
+            throw new AccessRightException(new Locale(access.getUser().getLanguage()), access.getUser());
+        }
 
-        return user;
+        return access.getUser();
     }
 
     @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
@@ -550,33 +585,63 @@ public class UserManagerBean implements IUserManagerLocal {
     public boolean hasWorkspaceWriteAccess(User user, String pWorkspaceId) throws WorkspaceNotFoundException, WorkspaceNotEnabledException {
         String login = contextManager.getCallerPrincipalLogin();
 
-        UserDAO userDAO = new UserDAO(em);
+        // Administration and membership are those of the caller, the given user only brings its groups
+        if (!login.equals(user.getLogin())) {
+            return hasWorkspaceWriteAccess(login, user, pWorkspaceId);
+        }
+
+        WorkspaceAccessContext.WorkspaceAccess access = workspaceAccessContext.get(pWorkspaceId, login);
+        if (access == null) {
+            access = resolveWorkspaceAccess(pWorkspaceId, user);
+        }
+        return !access.isReadOnly();
+    }
 
+    private boolean hasWorkspaceWriteAccess(String login, User user, String pWorkspaceId) throws WorkspaceNotFoundException, WorkspaceNotEnabledException {
         Workspace wks = new WorkspaceDAO(em).loadWorkspace(pWorkspaceId);
         if (!wks.isEnabled()) {
             throw new WorkspaceNotEnabledException(new Locale(user.getLanguage()), pWorkspaceId);
         }
-        if (!wks.getAdmin().getLogin().equals(login)) {
-            WorkspaceUserMembership userMS = userDAO.loadUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
-            if (userMS != null) {
-                if (userMS.isReadOnly()) {
-                    return false;
-                }
-            } else {
-                WorkspaceUserGroupMembership[] groupMS = new UserGroupDAO(em).getUserGroupMemberships(pWorkspaceId, user);
-                boolean readOnly = true;
-                for (WorkspaceUserGroupMembership ms : groupMS) {
-                    if (!ms.isReadOnly()) {
-                        readOnly = false;
-                        break;
-                    }
-                }
-                if (readOnly) {
-                    return false;
-                }
+        if (wks.getAdmin().getLogin().equals(login)) {
+            return true;
+        }
+        WorkspaceUserMembership userMS = new UserDAO(em).loadUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
+        if (userMS != null) {
+            return !userMS.isReadOnly();
+        }
+        for (WorkspaceUserGroupMembership ms : new UserGroupDAO(em).getUserGroupMemberships(pWorkspaceId, user)) {
+            if (!ms.isReadOnly()) {
+                return true;
             }
         }
-        return true;
+        return false;
+    }
+
+    @RolesAllowed(UserGroupMapping.ADMIN_ROLE_ID)
+    @Override
+    public WorkspaceAccessStats getWorkspaceAccessStats() {
+        return workspaceAccessMetrics.getStats();
+    }
+
+    /**
+     * Load the memberships of a user in an enabled workspace, and keep them for the rest of the transaction.
+     */
+    private WorkspaceAccessContext.WorkspaceAccess resolveWorkspaceAccess(String pWorkspaceId, User user) throws WorkspaceNotFoundException, WorkspaceNotEnabledException {
+        String login = user.getLogin();
+        Workspace wks = new WorkspaceDAO(em).loadWorkspace(pWorkspaceId);
+        if (!wks.isEnabled()) {
+            throw new WorkspaceNotEnabledException(new Locale(user.getLanguage()), pWorkspaceId);
+        }
+
+        WorkspaceUserMembership userMS = new UserDAO(em).loadUserMembership(new WorkspaceUserMembershipKey(pWorkspaceId, pWorkspaceId, login));
+        WorkspaceUserGroupMembership[] groupMS = new WorkspaceUserGroupMembership[0];
+        if (userMS == null && !wks.getAdmin().getLogin().equals(login)) {
+            groupMS = new UserGroupDAO(em).getUserGroupMemberships(pWorkspaceId, user);
+        }
+
+        WorkspaceAccessContext.WorkspaceAccess access = new WorkspaceAccessContext.WorkspaceAccess(wks, user, userMS, groupMS);
+        workspaceAccessContext.put(access);
+        return access;
     }
 
 
@@ -0,0 +1,151 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.UserGroupKey;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.security.WorkspaceUserGroupMembership;
+import com.docdoku.core.security.WorkspaceUserMembership;
+
+import javax.inject.Inject;
+import javax.transaction.TransactionScoped;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Accesses of users to workspaces, resolved once per transaction.
+ *
+ * Manager methods check the workspace access of the caller before anything else, and often
+ * once per returned item. The first check of a transaction loads the memberships, the following
+ * ones reuse them. Being bound to the transaction, the cached users are still managed and no
+ * change made by another transaction can be missed. Changes made in the current transaction
+ * must call {@link #invalidate(String)}.
+ */
+@TransactionScoped
+public class WorkspaceAccessContext implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, WorkspaceAccess> accesses = new HashMap<>();
+
+    @Inject
+    private WorkspaceAccessMetrics metrics;
+
+    public WorkspaceAccess get(String workspaceId, String login) {
+        WorkspaceAccess access = accesses.get(getKey(workspaceId, login));
+        if (access != null) {
+            metrics.hit();
+        } else {
+            metrics.miss();
+        }
+        return access;
+    }
+
+    public void put(WorkspaceAccess access) {
+        accesses.put(getKey(access.getWorkspaceId(), access.getUser().getLogin()), access);
+    }
+
+    /**
+     * Forget the accesses resolved for a workspace, after a change of its memberships, groups,
+     * administrator or status.
+     */
+    public void invalidate(String workspaceId) {
+        if (accesses.values().removeIf(access -> access.getWorkspaceId().equals(workspaceId))) {
+            metrics.invalidation();
+        }
+    }
+
+    private static String getKey(String workspaceId, String login) {
+        return workspaceId + "/" + login;
+    }
+
+    /**
+     * Access of a user to an enabled workspace.
+     */
+    public static class WorkspaceAccess implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String workspaceId;
+        private final User user;
+        private final boolean administrator;
+        private final boolean member;
+        private final boolean readOnly;
+        private final Set<UserGroupKey> groups = new HashSet<>();
+
+        /**
+         * @param workspace        the workspace, enabled
+         * @param user             the user
+         * @param userMembership   the membership of the user, null if not a member on their own
+         * @param groupMemberships the memberships of the groups of the user, only needed when not a member on their own
+         */
+        public WorkspaceAccess(Workspace workspace, User user, WorkspaceUserMembership userMembership, WorkspaceUserGroupMembership[] groupMemberships) {
+            this.workspaceId = workspace.getId();
+            this.administrator = workspace.getAdmin().getLogin().equals(user.getLogin());
+
+            if (userMembership != null) {
+                this.user = userMembership.getMember();
+                this.member = true;
+                this.readOnly = !administrator && userMembership.isReadOnly();
+            } else {
+                this.user = user;
+                boolean readOnlyGroups = true;
+                for (WorkspaceUserGroupMembership groupMembership : groupMemberships) {
+                    groups.add(new UserGroupKey(groupMembership.getMemberWorkspaceId(), groupMembership.getMemberId()));
+                    readOnlyGroups &= groupMembership.isReadOnly();
+                }
+                this.member = groupMemberships.length > 0;
+                this.readOnly = !administrator && readOnlyGroups;
+            }
+        }
+
+        public String getWorkspaceId() {
+            return workspaceId;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public boolean isAdministrator() {
+            return administrator;
+        }
+
+        /**
+         * @return true if the user is an active member of the workspace, on their own or through a group
+         */
+        public boolean isMember() {
+            return member;
+        }
+
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        /**
+         * @return the groups granting access to the workspace, empty when the user is a member on his own
+         */
+        public Set<UserGroupKey> getGroups() {
+            return Collections.unmodifiableSet(groups);
+        }
+    }
+}
@@ -64,6 +64,9 @@ public class WorkspaceManagerBean implements IWorkspaceManagerLocal {
     @Inject
     private IIndexerManagerLocal indexerManager;
 
+    @Inject
+    private WorkspaceAccessContext workspaceAccessContext;
+
     private static final Logger LOGGER = Logger.getLogger(WorkspaceManagerBean.class.getName());
 
     @RolesAllowed(UserGroupMapping.ADMIN_ROLE_ID)
@@ -108,6 +111,7 @@ public class WorkspaceManagerBean implements IWorkspaceManagerLocal {
     public Workspace changeAdmin(String workspaceId, String login) throws WorkspaceNotFoundException, AccountNotFoundException, UserNotFoundException, UserNotActiveException, AccessRightException, WorkspaceNotEnabledException {
         Workspace workspace = new WorkspaceDAO(em).loadWorkspace(workspaceId);
         Account account = new AccountDAO(em).loadAccount(login);
+        workspaceAccessContext.invalidate(workspaceId);
 
         if (contextManager.isCallerInRole(UserGroupMapping.ADMIN_ROLE_ID)) {
             workspace.setAdmin(account);
@@ -129,6 +133,7 @@ public class WorkspaceManagerBean implements IWorkspaceManagerLocal {
     public Workspace enableWorkspace(String workspaceId, boolean enabled) throws WorkspaceNotFoundException {
         Workspace workspace = new WorkspaceDAO(em).loadWorkspace(workspaceId);
         workspace.setEnabled(enabled);
+        workspaceAccessContext.invalidate(workspaceId);
         return workspace;
     }
 
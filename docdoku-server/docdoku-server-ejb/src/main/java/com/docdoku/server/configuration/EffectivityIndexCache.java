@@ -0,0 +1,68 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.configuration;
+
+import com.docdoku.core.configuration.EffectivityIndex;
+import com.docdoku.core.product.ConfigurationItemKey;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Server wide cache of the {@link EffectivityIndex} of each configuration item.
+ *
+ * Indexes are stamped with the state of the effectivities they were built from, as stored in the
+ * database (see {@code EffectivityDAO#getPartRevisionEffectivitiesState}). The state must be read before
+ * loading the effectivities, and an index is only served for the state it was stamped with: changes
+ * committed on any node are then never missed.
+ */
+@ApplicationScoped
+public class EffectivityIndexCache {
+
+    private final ConcurrentMap<ConfigurationItemKey, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Get the index of the configuration item, or null if absent or built from another state.
+     */
+    public EffectivityIndex get(ConfigurationItemKey ciKey, String state) {
+        CacheEntry entry = entries.get(ciKey);
+        if (entry == null || !entry.state.equals(state)) {
+            return null;
+        }
+        return entry.index;
+    }
+
+    public void put(String state, EffectivityIndex index) {
+        entries.put(index.getConfigurationItemKey(), new CacheEntry(index, state));
+    }
+
+    private static class CacheEntry {
+
+        private final EffectivityIndex index;
+        private final String state;
+
+        CacheEntry(EffectivityIndex index, String state) {
+            this.index = index;
+            this.state = state;
+        }
+    }
+}
@@ -29,9 +29,7 @@ import com.docdoku.core.product.*;
 import com.docdoku.server.dao.PartMasterDAO;
 
 import javax.persistence.EntityManager;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
+import java.util.*;
 import java.util.logging.Logger;
 
 
@@ -48,6 +46,9 @@ public abstract class PSFilterVisitor {
     private Component component;
     private int stopAtDepth = -1;
     private boolean stopped = false;
+    private final Map<String, PartMaster> partMasterCache = new HashMap<>();
+    private ProductStructureResolver resolver;
+    private boolean parallel = false;
 
     public PSFilterVisitor(EntityManager pEm, User pUser, ProductStructureFilter pFilter)
             throws PartMasterNotFoundException, NotAllowedException, EntityConstraintException {
@@ -65,19 +66,9 @@ public abstract class PSFilterVisitor {
      * */
     public void visit(PartMaster pNodeFrom, Integer pStopAtDepth) throws PartMasterNotFoundException, EntityConstraintException, NotAllowedException {
 
-        setDepth(pStopAtDepth);
         List<PartLink> currentPath = new ArrayList<>();
-        List<PartMaster> currentPathParts = new ArrayList<>();
-        List<PartIteration> currentPathPartIterations = new ArrayList<>();
-
-        PartLink virtualLink = createVirtualRootLink(pNodeFrom);
-        currentPathParts.add(pNodeFrom);
-        currentPath.add(virtualLink);
-
-        component = new Component(pNodeFrom.getAuthor(),pNodeFrom,currentPath,null);
-        List<Component> result = getComponentsRecursively(component, currentPathPartIterations, currentPathParts, currentPath);
-        component.setComponents(result);
-
+        currentPath.add(createVirtualRootLink(pNodeFrom));
+        visitFrom(pNodeFrom, currentPath, pStopAtDepth);
     }
 
     /**
@@ -85,35 +76,58 @@ public abstract class PSFilterVisitor {
      * */
     public void visit(List<PartLink> pStartingPath, Integer pStopAtDepth) throws PartMasterNotFoundException, EntityConstraintException, NotAllowedException {
 
-        setDepth(pStopAtDepth);
-        List<PartLink> currentPath = pStartingPath;
-        List<PartMaster> currentPathParts = new ArrayList<>();
-        List<PartIteration> currentPathPartIterations = new ArrayList<>();
-
-        PartMaster rootNode = currentPath.get(currentPath.size() - 1).getComponent();
-        currentPathParts.add(rootNode);
-
-        component = new Component(rootNode.getAuthor(),rootNode,currentPath,null);
-        List<Component> result = getComponentsRecursively(component, currentPathPartIterations, currentPathParts, currentPath);
-        component.setComponents(result);
+        PartMaster rootNode = pStartingPath.get(pStartingPath.size() - 1).getComponent();
+        visitFrom(rootNode, pStartingPath, pStopAtDepth);
     }
 
     public void stop(){
         stopped = true;
     }
 
+    /**
+     * Resolve the structure with the given resolver before walking it, in parallel if asked.
+     * The walk then reads the eligible links from the resolved snapshot instead of filtering each path.
+     * */
+    public void setResolver(ProductStructureResolver pResolver, boolean pParallel) {
+        resolver = pResolver;
+        parallel = pParallel;
+    }
+
     private void setDepth(Integer pDepth){
         stopAtDepth = pDepth == null ? -1 : pDepth;
     }
 
-    private List<Component> getComponentsRecursively(Component currentComponent, List<PartIteration> pCurrentPathPartIterations, List<PartMaster> pCurrentPathParts, List<PartLink> pCurrentPath) throws PartMasterNotFoundException, NotAllowedException, EntityConstraintException {
+    private void visitFrom(PartMaster rootNode, List<PartLink> currentPath, Integer pStopAtDepth) throws PartMasterNotFoundException, EntityConstraintException, NotAllowedException {
+
+        setDepth(pStopAtDepth);
+
+        // Walk scoped state: links, parts and iterations of the current branch are pushed and popped while walking
+        partMasterCache.clear();
+        partMasterCache.put(rootNode.getNumber(), rootNode);
+        List<PartLink> currentPathLinks = new ArrayList<>(currentPath);
+        List<PartMaster> currentPathParts = new ArrayList<>();
+        Set<PartMaster> currentPathPartsSet = new HashSet<>();
+        List<PartIteration> currentPathPartIterations = new ArrayList<>();
+        currentPathParts.add(rootNode);
+        currentPathPartsSet.add(rootNode);
+
+        ProductStructureSnapshot snapshot = resolver == null ? null : resolver.resolve(filter, rootNode, currentPath, stopAtDepth, parallel, this::getPartMasters);
+        ProductStructureSnapshot.Node rootSnapshotNode = snapshot == null ? null : snapshot.getRoot();
+
+        component = new Component(rootNode.getAuthor(),rootNode,currentPath,null);
+        List<Component> result = getComponentsRecursively(component, rootSnapshotNode, currentPathPartIterations, currentPathParts, currentPathPartsSet, currentPathLinks);
+        component.setComponents(result);
+    }
+
+    private List<Component> getComponentsRecursively(Component currentComponent, ProductStructureSnapshot.Node snapshotNode, List<PartIteration> pCurrentPathPartIterations, List<PartMaster> pCurrentPathParts, Set<PartMaster> pCurrentPathPartsSet, List<PartLink> pCurrentPath) throws PartMasterNotFoundException, NotAllowedException, EntityConstraintException {
         List<Component> components = new ArrayList<>();
 
         if(stopped){
             return components;
         }
 
-        if(!onPathWalk(new ArrayList<>(pCurrentPath), new ArrayList<>(pCurrentPathParts))) {
+        // The component owns a copy of its path, the branch parts are only lent for the call
+        if(!onPathWalk(currentComponent.getPath(), Collections.unmodifiableList(pCurrentPathParts))) {
             return components;
         }
 
@@ -138,77 +152,153 @@ public abstract class PSFilterVisitor {
             currentComponent.setRetainedIteration(partIterations.get(0));
         }
 
+        if(!onComponentResolved(currentComponent)) {
+            return components;
+        }
+
+        boolean walkChildren = stopAtDepth == -1 || stopAtDepth >= currentDepth;
+
         // Visit them all, potentially diverging branches
         for (PartIteration partIteration : partIterations) {
 
-            // We know which iteration of current partMaster, add it to list
-            List<PartIteration> copyPartIteration = new ArrayList<>(pCurrentPathPartIterations);
-            copyPartIteration.add(partIteration);
+            // We know which iteration of current partMaster, add it to the branch
+            pCurrentPathPartIterations.add(partIteration);
+
+            ProductStructureSnapshot.IterationNode snapshotIteration = snapshotNode == null ? null : snapshotNode.getIteration(partIteration.getKey());
 
             // Is branch over ?
             if(partIteration.getComponents().isEmpty()){
-                onBranchDiscovered(new ArrayList<>(pCurrentPath),new ArrayList<>(copyPartIteration));
+                onBranchDiscovered(new ArrayList<>(pCurrentPath),new ArrayList<>(pCurrentPathPartIterations));
+            }
+
+            if(walkChildren){
+                prefetchPartMasters(partIteration);
             }
 
             // Navigate links
             for (PartUsageLink usageLink : partIteration.getComponents()) {
 
-                List<PartLink> currentPath = new ArrayList<>(pCurrentPath);
-                currentPath.add(usageLink);
+                pCurrentPath.add(usageLink);
+                int linkIndex = pCurrentPath.size() - 1;
 
-                // Filter the current path, potentially diverging branches
-                List<PartLink> eligiblePath = filter.filter(currentPath);
+                // Filter the current path, potentially diverging branches. Read it from the snapshot if resolved,
+                // the subtree is walked with the filter if the links changed since
+                ProductStructureSnapshot.UsageNode snapshotUsage = snapshotIteration == null ? null : snapshotIteration.getUsage(usageLink.getFullId());
+                List<PartLink> eligiblePath = snapshotUsage == null ? null : snapshotUsage.getEligibleLinks(usageLink);
+                if (eligiblePath == null) {
+                    snapshotUsage = null;
+                    eligiblePath = filter.filter(pCurrentPath);
+                }
 
                 if(eligiblePath.isEmpty() && !usageLink.isOptional()){
-                    onUnresolvedPath(new ArrayList<>(currentPath), new ArrayList<>(copyPartIteration));
+                    onUnresolvedPath(new ArrayList<>(pCurrentPath), new ArrayList<>(pCurrentPathPartIterations));
                 }
 
                 if(eligiblePath.size() > 1 ){
-                    onIndeterminatePath(new ArrayList<>(currentPath), new ArrayList<>(copyPartIteration));
+                    onIndeterminatePath(new ArrayList<>(pCurrentPath), new ArrayList<>(pCurrentPathPartIterations));
                 }
 
                 if (eligiblePath.size() == 1 && eligiblePath.get(0).isOptional()){
-                    onOptionalPath(new ArrayList<>(currentPath), new ArrayList<>(copyPartIteration));
+                    onOptionalPath(new ArrayList<>(pCurrentPath), new ArrayList<>(pCurrentPathPartIterations));
                 }
 
-                for(PartLink link : eligiblePath){
-                    List<PartLink> nextPath = new ArrayList<>(pCurrentPath);
-                    nextPath.add(link);
+                if (walkChildren) {
+
+                    for(int i = 0; i < eligiblePath.size(); i++){
 
-                    if (stopAtDepth == -1 || stopAtDepth >= currentDepth) {
+                        PartLink link = eligiblePath.get(i);
 
                         // Going on a new path
                         PartMaster pm = loadPartMaster(link.getComponent().getNumber());
 
                         // Run cyclic integrity check here
-                        if(pCurrentPathParts.contains(pm)){
+                        if(pCurrentPathPartsSet.contains(pm)){
                             throw new EntityConstraintException(locale,"EntityConstraintException12");
                         }
 
+                        pCurrentPath.set(linkIndex, link);
+
                         // Continue tree walking on pm
-                        List<PartMaster> copyPathParts = new ArrayList<>(pCurrentPathParts);
-                        List<PartLink> copyPath = new ArrayList<>(nextPath);
-                        List<PartIteration> copyPartIterations = new ArrayList<>(copyPartIteration);
-                        copyPathParts.add(pm);
+                        pCurrentPathParts.add(pm);
+                        pCurrentPathPartsSet.add(pm);
 
                         // Recursive
-                        Component subComponent= new Component(pm.getAuthor(), pm, copyPath, null);
-                        subComponent.setComponents(getComponentsRecursively(subComponent, copyPartIterations, copyPathParts, copyPath));
+                        Component subComponent= new Component(pm.getAuthor(), pm, new ArrayList<>(pCurrentPath), null);
+                        ProductStructureSnapshot.Node snapshotChild = snapshotUsage == null ? null : snapshotUsage.getChild(i);
+                        subComponent.setComponents(getComponentsRecursively(subComponent, snapshotChild, pCurrentPathPartIterations, pCurrentPathParts, pCurrentPathPartsSet, pCurrentPath));
                         components.add(subComponent);
-                    }
 
+                        pCurrentPathParts.remove(pCurrentPathParts.size() - 1);
+                        pCurrentPathPartsSet.remove(pm);
+                    }
                 }
 
+                pCurrentPath.remove(linkIndex);
             }
+
+            pCurrentPathPartIterations.remove(pCurrentPathPartIterations.size() - 1);
         }
 
         return components;
     }
 
+    /**
+     * Load in a single query the part masters used by the given iteration,
+     * either as components or as substitutes, which are not yet known by the walk.
+     * */
+    private void prefetchPartMasters(PartIteration partIteration) {
+        Set<String> numbers = new HashSet<>();
+        for (PartUsageLink usageLink : partIteration.getComponents()) {
+            addIfUnknown(numbers, usageLink.getComponent());
+            for (PartSubstituteLink substituteLink : usageLink.getSubstitutes()) {
+                addIfUnknown(numbers, substituteLink.getSubstitute());
+            }
+        }
+        if (!numbers.isEmpty()) {
+            for (PartMaster partMaster : partMasterDAO.loadPartMasters(workspaceId, numbers)) {
+                partMasterCache.put(partMaster.getNumber(), partMaster);
+            }
+        }
+    }
 
+    /**
+     * Get the part masters of the given numbers, loading in batches those not yet known by the walk.
+     * */
+    private Map<String, PartMaster> getPartMasters(Collection<String> numbers) {
+        Set<String> unknownNumbers = new HashSet<>();
+        for (String number : numbers) {
+            if (!partMasterCache.containsKey(number)) {
+                unknownNumbers.add(number);
+            }
+        }
+        if (!unknownNumbers.isEmpty()) {
+            for (PartMaster partMaster : partMasterDAO.loadPartMasters(workspaceId, unknownNumbers)) {
+                partMasterCache.put(partMaster.getNumber(), partMaster);
+            }
+        }
+        Map<String, PartMaster> partMasters = new HashMap<>();
+        for (String number : numbers) {
+            PartMaster partMaster = partMasterCache.get(number);
+            if (partMaster != null) {
+                partMasters.put(number, partMaster);
+            }
+        }
+        return partMasters;
+    }
+
+    private void addIfUnknown(Set<String> numbers, PartMaster partMaster) {
+        if (partMaster != null && !partMasterCache.containsKey(partMaster.getNumber())) {
+            numbers.add(partMaster.getNumber());
+        }
+    }
 
     private PartMaster loadPartMaster(String partNumber) throws PartMasterNotFoundException {
-        return partMasterDAO.loadPartM(new PartMasterKey(workspaceId, partNumber));
+        PartMaster partMaster = partMasterCache.get(partNumber);
+        if (partMaster == null) {
+            partMaster = partMasterDAO.loadPartM(new PartMasterKey(workspaceId, partNumber));
+            partMasterCache.put(partNumber, partMaster);
+        }
+        return partMaster;
     }
 
     private PartLink createVirtualRootLink(PartMaster pNodeFrom) {
@@ -278,6 +368,15 @@ public abstract class PSFilterVisitor {
         return component;
     }
 
+    /**
+     * Called once the retained iteration of the current component is known (it stays null when
+     * the version is unresolved or indeterminate), before its children are walked.
+     * Return false to skip the branch. Default implementation walks everything.
+     * */
+    public boolean onComponentResolved(Component component) {
+        return true;
+    }
+
     /**
      * Abstracts
      * */
@@ -288,5 +387,10 @@ public abstract class PSFilterVisitor {
     public abstract void onUnresolvedPath(List<PartLink> pCurrentPath, List<PartIteration> partIterations) throws NotAllowedException;
     public abstract void onBranchDiscovered(List<PartLink> pCurrentPath, List<PartIteration> copyPartIteration);
     public abstract void onOptionalPath(List<PartLink> path, List<PartIteration> partIterations);
+    /**
+     * Called when a component is reached. The path is the one of the component and must not be modified,
+     * the parts are a read-only view of the current branch which is only valid during the call.
+     * Return false to skip the branch.
+     * */
     public abstract boolean onPathWalk(List<PartLink> path, List<PartMaster> parts);
 }
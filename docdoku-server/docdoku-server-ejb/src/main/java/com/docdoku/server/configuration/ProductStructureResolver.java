@@ -0,0 +1,134 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.configuration;
+
+import com.docdoku.core.configuration.ProductStructureFilter;
+import com.docdoku.core.product.PartLink;
+import com.docdoku.core.product.PartMaster;
+import com.docdoku.core.util.Tools;
+import com.docdoku.server.configuration.spec.ProductBaselineConfigSpec;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Resolves product structures into {@link ProductStructureSnapshot}, sibling subtrees being resolved
+ * in parallel by the managed executor. The executor tasks only handle ids, the entities are loaded
+ * and filtered beforehand by the caller.
+ *
+ * Snapshots of baselines are kept, by baseline id, starting path and depth. A baseline structure never changes
+ * once created and its baselined parts cannot be deleted, entries never get stale and stay valid on any node.
+ * The least recently used snapshots are evicted above {@link #MAX_CACHED_NODES} components.
+ */
+@ApplicationScoped
+public class ProductStructureResolver {
+
+    private static final int MAX_CACHED_NODES = 500000;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    private final LinkedHashMap<SnapshotKey, ProductStructureSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedNodes = 0;
+
+    /**
+     * Get the snapshot of the structure below the given part master,
+     * or null if the structure has to be walked with the filter.
+     */
+    public ProductStructureSnapshot resolve(ProductStructureFilter filter, PartMaster rootNode, List<PartLink> rootPath, int stopAtDepth,
+                                            boolean parallel, Function<Collection<String>, Map<String, PartMaster>> partMasterLoader) {
+
+        if (!ProductStructureSnapshot.isSupported(filter)) {
+            return null;
+        }
+
+        // Only persisted baselines are cached
+        int productBaselineId = filter instanceof ProductBaselineConfigSpec ? ((ProductBaselineConfigSpec) filter).getProductBaseline().getId() : 0;
+        if (productBaselineId == 0) {
+            return parallel ? ProductStructureSnapshot.build(filter, rootNode, rootPath, stopAtDepth, partMasterLoader, executorService) : null;
+        }
+
+        SnapshotKey key = new SnapshotKey(productBaselineId, Tools.getPathAsString(rootPath), stopAtDepth);
+        ProductStructureSnapshot snapshot = get(key);
+        if (snapshot != null) {
+            // Attach the part masters of the snapshot to the caller's persistence context in batches
+            partMasterLoader.apply(snapshot.getPartNumbers());
+            return snapshot;
+        }
+
+        snapshot = ProductStructureSnapshot.build(filter, rootNode, rootPath, stopAtDepth, partMasterLoader, parallel ? executorService : null);
+        if (snapshot != null) {
+            put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    private synchronized ProductStructureSnapshot get(SnapshotKey key) {
+        return snapshots.get(key);
+    }
+
+    private synchronized void put(SnapshotKey key, ProductStructureSnapshot snapshot) {
+        if (snapshot.size() > MAX_CACHED_NODES) {
+            return;
+        }
+        ProductStructureSnapshot previous = snapshots.put(key, snapshot);
+        cachedNodes += snapshot.size() - (previous == null ? 0 : previous.size());
+
+        Iterator<ProductStructureSnapshot> eldest = snapshots.values().iterator();
+        while (cachedNodes > MAX_CACHED_NODES) {
+            cachedNodes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private static final class SnapshotKey {
+
+        private final int productBaselineId;
+        private final String rootPath;
+        private final int depth;
+
+        private SnapshotKey(int productBaselineId, String rootPath, int depth) {
+            this.productBaselineId = productBaselineId;
+            this.rootPath = rootPath;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            SnapshotKey that = (SnapshotKey) o;
+            return productBaselineId == that.productBaselineId && depth == that.depth && rootPath.equals(that.rootPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productBaselineId, rootPath, depth);
+        }
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.configuration;
+
+import com.docdoku.core.configuration.ProductBaseline;
+import com.docdoku.core.configuration.ProductInstanceIteration;
+import com.docdoku.core.configuration.ProductStructureFilter;
+import com.docdoku.core.product.*;
+import com.docdoku.core.util.Tools;
+import com.docdoku.server.configuration.filter.LatestPSFilter;
+import com.docdoku.server.configuration.filter.LatestReleasedPSFilter;
+import com.docdoku.server.configuration.filter.ReleasedPSFilter;
+import com.docdoku.server.configuration.filter.WIPPSFilter;
+import com.docdoku.server.configuration.spec.ProductBaselineConfigSpec;
+import com.docdoku.server.configuration.spec.ProductInstanceConfigSpec;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Immutable, id only view of a filtered product structure: for each component, the keys of the iterations
+ * retained by the filter and, for each of their usage links, the full ids of the eligible links and the
+ * components they lead to.
+ *
+ * A snapshot is built in two phases. The part masters are loaded level by level and filtered in the
+ * caller's transaction, only ids are kept out of them. The paths are then resolved out of these ids,
+ * sibling subtrees possibly on other threads as no entity is involved anymore. The {@link PSFilterVisitor}
+ * walks the snapshot alongside its own entities and falls back to its filter wherever they differ.
+ *
+ * Only the filters whose path rule is known are supported, see {@link #isSupported(ProductStructureFilter)}.
+ */
+public final class ProductStructureSnapshot {
+
+    /**
+     * Depth of the components resolved as separate tasks, the caller resolves the levels above
+     */
+    private static final int FORK_DEPTH = 3;
+
+    private final Node root;
+    private final Set<String> partNumbers;
+    private final int size;
+
+    private ProductStructureSnapshot(Node root, Set<String> partNumbers) {
+        this.root = root;
+        this.partNumbers = Collections.unmodifiableSet(partNumbers);
+        this.size = root == null ? 0 : root.count();
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Numbers of the part masters reached by the snapshot
+     */
+    public Set<String> getPartNumbers() {
+        return partNumbers;
+    }
+
+    /**
+     * Number of components in the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    public static boolean isSupported(ProductStructureFilter filter) {
+        return PathRule.of(filter) != null;
+    }
+
+    /**
+     * Build the snapshot of the structure below the given part master.
+     *
+     * @param filter the filter of the walk, it must be supported
+     * @param rootNode the part master to start from
+     * @param rootPath the path of the part master
+     * @param stopAtDepth the depth to stop at, -1 for the whole structure
+     * @param partMasterLoader gets the part masters of the given numbers, in the caller's transaction
+     * @param executorService runs the subtrees resolution, the caller resolves everything if null
+     * @return the snapshot, or null if the resolution has been interrupted
+     */
+    public static ProductStructureSnapshot build(ProductStructureFilter filter, PartMaster rootNode, List<PartLink> rootPath, int stopAtDepth,
+                                                 Function<Collection<String>, Map<String, PartMaster>> partMasterLoader, ExecutorService executorService) {
+
+        PathRule rule = PathRule.of(filter);
+        if (rule == null) {
+            throw new IllegalArgumentException("Unsupported product structure filter " + filter.getClass().getName());
+        }
+
+        Map<String, PartData> parts = loadParts(filter, rule, rootNode, stopAtDepth, partMasterLoader);
+        Resolution resolution = new Resolution(parts, rule, stopAtDepth, executorService);
+        String rootPathAsString = Tools.getPathAsString(rootPath);
+        Node root = resolution.resolveNode(rootNode.getNumber(), new Branch(rootNode.getNumber(), null), rootPathAsString, 1, executorService != null);
+
+        if (!resolution.awaitPending()) {
+            return null;
+        }
+        return new ProductStructureSnapshot(root, parts.keySet());
+    }
+
+    /**
+     * First phase, in the caller's transaction: filter the part masters level by level and keep their ids
+     */
+    private static Map<String, PartData> loadParts(ProductStructureFilter filter, PathRule rule, PartMaster rootNode, int stopAtDepth,
+                                                   Function<Collection<String>, Map<String, PartMaster>> partMasterLoader) {
+
+        Map<String, PartData> parts = new HashMap<>();
+        Collection<PartMaster> level = Collections.singletonList(rootNode);
+        int depth = 1;
+
+        while (!level.isEmpty()) {
+            boolean walkChildren = stopAtDepth == -1 || stopAtDepth >= depth;
+            Set<String> nextNumbers = new LinkedHashSet<>();
+
+            for (PartMaster partMaster : level) {
+                List<IterationData> iterations = new ArrayList<>();
+                for (PartIteration partIteration : filter.filter(partMaster)) {
+                    List<LinkData> links = new ArrayList<>();
+                    for (PartUsageLink usageLink : partIteration.getComponents()) {
+                        List<LinkData> substitutes = new ArrayList<>();
+                        for (PartSubstituteLink substituteLink : usageLink.getSubstitutes()) {
+                            substitutes.add(new LinkData(substituteLink.getFullId(), substituteLink.getSubstitute().getNumber(), false, Collections.emptyList()));
+                        }
+                        LinkData link = new LinkData(usageLink.getFullId(), usageLink.getComponent().getNumber(), usageLink.isOptional(), substitutes);
+                        links.add(link);
+
+                        if (walkChildren) {
+                            nextNumbers.add(link.componentNumber);
+                            if (rule.retainsSubstitutes()) {
+                                for (LinkData substitute : substitutes) {
+                                    nextNumbers.add(substitute.componentNumber);
+                                }
+                            }
+                        }
+                    }
+                    iterations.add(new IterationData(partIteration.getKey(), links));
+                }
+                parts.put(partMaster.getNumber(), new PartData(iterations));
+            }
+
+            nextNumbers.removeAll(parts.keySet());
+            level = nextNumbers.isEmpty() ? Collections.emptyList() : partMasterLoader.apply(nextNumbers).values();
+            depth++;
+        }
+
+        return parts;
+    }
+
+    /**
+     * Second phase: resolve the paths out of the ids, the subtrees at {@link #FORK_DEPTH} being resolved by the executor
+     */
+    private static final class Resolution {
+
+        private final Map<String, PartData> parts;
+        private final PathRule rule;
+        private final int stopAtDepth;
+        private final ExecutorService executorService;
+        private final List<PendingNode> pendingNodes = new ArrayList<>();
+
+        private Resolution(Map<String, PartData> parts, PathRule rule, int stopAtDepth, ExecutorService executorService) {
+            this.parts = parts;
+            this.rule = rule;
+            this.stopAtDepth = stopAtDepth;
+            this.executorService = executorService;
+        }
+
+        private Node resolveNode(String partNumber, Branch branch, String path, int depth, boolean fork) {
+            PartData part = parts.get(partNumber);
+            if (part == null) {
+                return null;
+            }
+
+            boolean walkChildren = stopAtDepth == -1 || stopAtDepth >= depth;
+            List<IterationNode> iterations = new ArrayList<>(part.iterations.size());
+
+            for (IterationData iteration : part.iterations) {
+                Map<String, UsageNode> usages = new HashMap<>();
+                for (LinkData usage : iteration.links) {
+                    List<LinkData> eligibleLinks = rule.select(path, usage);
+                    List<String> eligibleIds = new ArrayList<>(eligibleLinks.size());
+                    Node[] children = new Node[eligibleLinks.size()];
+
+                    for (int i = 0; i < eligibleLinks.size(); i++) {
+                        LinkData link = eligibleLinks.get(i);
+                        eligibleIds.add(link.fullId);
+                        // Cycles are left to the walk, which reports them
+                        if (walkChildren && !branch.contains(link.componentNumber)) {
+                            resolveChild(children, i, link.componentNumber, new Branch(link.componentNumber, branch), path + "-" + link.fullId, depth + 1, fork);
+                        }
+                    }
+                    usages.put(usage.fullId, new UsageNode(eligibleIds, children));
+                }
+                iterations.add(new IterationNode(iteration.key, usages));
+            }
+
+            return new Node(iterations);
+        }
+
+        private void resolveChild(Node[] children, int index, String partNumber, Branch branch, String path, int depth, boolean fork) {
+            if (fork && depth == FORK_DEPTH) {
+                try {
+                    Future<Node> future = executorService.submit(() -> resolveNode(partNumber, branch, path, depth, false));
+                    pendingNodes.add(new PendingNode(children, index, future));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Executor is saturated, resolve it here
+                }
+            }
+            children[index] = resolveNode(partNumber, branch, path, depth, fork);
+        }
+
+        /**
+         * Wait for the subtrees resolved by the executor, return false if interrupted
+         */
+        private boolean awaitPending() {
+            try {
+                for (PendingNode pendingNode : pendingNodes) {
+                    pendingNode.children[pendingNode.index] = pendingNode.future.get();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelPending();
+                return false;
+            } catch (ExecutionException e) {
+                cancelPending();
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        private void cancelPending() {
+            for (PendingNode pendingNode : pendingNodes) {
+                pendingNode.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Which of a usage link and its substitutes are eligible for a path, knowing the ids only.
+     * Mirrors the filter(path) method of the supported filters.
+     */
+    private abstract static class PathRule {
+
+        abstract boolean retainsSubstitutes();
+
+        abstract List<LinkData> select(String parentPath, LinkData usage);
+
+        static PathRule of(ProductStructureFilter filter) {
+            if (filter instanceof WIPPSFilter) {
+                return new NominalRule(((WIPPSFilter) filter).isDiverge());
+            }
+            if (filter instanceof LatestPSFilter) {
+                return new NominalRule(((LatestPSFilter) filter).isDiverge());
+            }
+            if (filter instanceof ReleasedPSFilter) {
+                return new NominalRule(((ReleasedPSFilter) filter).isDiverge());
+            }
+            if (filter instanceof LatestReleasedPSFilter) {
+                return new NominalRule(((LatestReleasedPSFilter) filter).isDiverge());
+            }
+            if (filter instanceof ProductBaselineConfigSpec) {
+                ProductBaseline productBaseline = ((ProductBaselineConfigSpec) filter).getProductBaseline();
+                return new RetainedLinksRule(productBaseline.getOptionalUsageLinks(), productBaseline.getSubstituteLinks());
+            }
+            if (filter instanceof ProductInstanceConfigSpec && ((ProductInstanceConfigSpec) filter).getProductInstanceIteration() != null) {
+                ProductInstanceIteration productInstanceIteration = ((ProductInstanceConfigSpec) filter).getProductInstanceIteration();
+                return new RetainedLinksRule(productInstanceIteration.getOptionalUsageLinks(), productInstanceIteration.getSubstituteLinks());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The usage link, and its substitutes if diverging
+     */
+    private static final class NominalRule extends PathRule {
+
+        private final boolean diverge;
+
+        private NominalRule(boolean diverge) {
+            this.diverge = diverge;
+        }
+
+        @Override
+        boolean retainsSubstitutes() {
+            return diverge;
+        }
+
+        @Override
+        List<LinkData> select(String parentPath, LinkData usage) {
+            if (!diverge || usage.substitutes.isEmpty()) {
+                return Collections.singletonList(usage);
+            }
+            List<LinkData> links = new ArrayList<>();
+            links.add(usage);
+            links.addAll(usage.substitutes);
+            return links;
+        }
+    }
+
+    /**
+     * The optional links and substitutes retained by a baseline or a product instance
+     */
+    private static final class RetainedLinksRule extends PathRule {
+
+        private final Set<String> optionalUsageLinks;
+        private final Set<String> substituteLinks;
+
+        private RetainedLinksRule(Set<String> optionalUsageLinks, Set<String> substituteLinks) {
+            this.optionalUsageLinks = new HashSet<>(optionalUsageLinks);
+            this.substituteLinks = new HashSet<>(substituteLinks);
+        }
+
+        @Override
+        boolean retainsSubstitutes() {
+            return !substituteLinks.isEmpty();
+        }
+
+        @Override
+        List<LinkData> select(String parentPath, LinkData usage) {
+            if (usage.optional && !optionalUsageLinks.contains(parentPath + "-" + usage.fullId)) {
+                return Collections.emptyList();
+            }
+            for (LinkData substitute : usage.substitutes) {
+                if (substituteLinks.contains(parentPath + "-" + substitute.fullId)) {
+                    return Collections.singletonList(substitute);
+                }
+            }
+            return Collections.singletonList(usage);
+        }
+    }
+
+    /**
+     * A component of the snapshot
+     */
+    public static final class Node {
+
+        private final List<IterationNode> iterations;
+
+        private Node(List<IterationNode> iterations) {
+            this.iterations = iterations;
+        }
+
+        /**
+         * Get the given retained iteration, or null if the filter did not retain it when building the snapshot
+         */
+        public IterationNode getIteration(PartIterationKey key) {
+            for (IterationNode iteration : iterations) {
+                if (iteration.key.equals(key)) {
+                    return iteration;
+                }
+            }
+            return null;
+        }
+
+        private int count() {
+            int count = 1;
+            for (IterationNode iteration : iterations) {
+                for (UsageNode usage : iteration.usages.values()) {
+                    for (Node child : usage.children) {
+                        if (child != null) {
+                            count += child.count();
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    public static final class IterationNode {
+
+        private final PartIterationKey key;
+        private final Map<String, UsageNode> usages;
+
+        private IterationNode(PartIterationKey key, Map<String, UsageNode> usages) {
+            this.key = key;
+            this.usages = usages;
+        }
+
+        public UsageNode getUsage(String usageLinkFullId) {
+            return usages.get(usageLinkFullId);
+        }
+    }
+
+    public static final class UsageNode {
+
+        private final List<String> eligibleLinks;
+        private final Node[] children;
+
+        private UsageNode(List<String> eligibleLinks, Node[] children) {
+            this.eligibleLinks = eligibleLinks;
+            this.children = children;
+        }
+
+        /**
+         * Map the eligible links to the given usage link or its substitutes,
+         * null if one of them is not found anymore.
+         */
+        public List<PartLink> getEligibleLinks(PartUsageLink usageLink) {
+            List<PartLink> links = new ArrayList<>(eligibleLinks.size());
+            for (String fullId : eligibleLinks) {
+                PartLink link = findLink(usageLink, fullId);
+                if (link == null) {
+                    return null;
+                }
+                links.add(link);
+            }
+            return links;
+        }
+
+        /**
+         * Get the component reached through the eligible link at the given index,
+         * null if it has not been resolved.
+         */
+        public Node getChild(int index) {
+            return children[index];
+        }
+
+        private static PartLink findLink(PartUsageLink usageLink, String fullId) {
+            if (fullId.equals(usageLink.getFullId())) {
+                return usageLink;
+            }
+            for (PartSubstituteLink substituteLink : usageLink.getSubstitutes()) {
+                if (fullId.equals(substituteLink.getFullId())) {
+                    return substituteLink;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class PartData {
+        private final List<IterationData> iterations;
+
+        private PartData(List<IterationData> iterations) {
+            this.iterations = iterations;
+        }
+    }
+
+    private static final class IterationData {
+        private final PartIterationKey key;
+        private final List<LinkData> links;
+
+        private IterationData(PartIterationKey key, List<LinkData> links) {
+            this.key = key;
+            this.links = links;
+        }
+    }
+
+    private static final class LinkData {
+        private final String fullId;
+        private final String componentNumber;
+        private final boolean optional;
+        private final List<LinkData> substitutes;
+
+        private LinkData(String fullId, String componentNumber, boolean optional, List<LinkData> substitutes) {
+            this.fullId = fullId;
+            this.componentNumber = componentNumber;
+            this.optional = optional;
+            this.substitutes = substitutes;
+        }
+    }
+
+    private static final class PendingNode {
+        private final Node[] children;
+        private final int index;
+        private final Future<Node> future;
+
+        private PendingNode(Node[] children, int index, Future<Node> future) {
+            this.children = children;
+            this.index = index;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Part numbers of the current branch, shared by the subtrees
+     */
+    private static final class Branch {
+        private final String partNumber;
+        private final Branch parent;
+
+        private Branch(String partNumber, Branch parent) {
+            this.partNumber = partNumber;
+            this.parent = parent;
+        }
+
+        private boolean contains(String number) {
+            for (Branch branch = this; branch != null; branch = branch.parent) {
+                if (branch.partNumber.equals(number)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
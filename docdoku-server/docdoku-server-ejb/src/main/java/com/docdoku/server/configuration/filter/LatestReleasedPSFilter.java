@@ -62,6 +62,10 @@ public class LatestReleasedPSFilter implements ProductStructureFilter, Serializa
         this.user = user;
     }
 
+    public boolean isDiverge() {
+        return diverge;
+    }
+
     @Override
     public List<PartIteration> filter(PartMaster part) {
         PartRevision partRevision = part.getLastReleasedRevision();
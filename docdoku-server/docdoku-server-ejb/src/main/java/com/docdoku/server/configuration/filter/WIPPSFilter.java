@@ -59,6 +59,10 @@ public class WIPPSFilter implements ProductStructureFilter, Serializable {
         this.user = user;
     }
 
+    public boolean isDiverge() {
+        return diverge;
+    }
+
     @Override
     public List<PartIteration> filter(PartMaster part) {
         List<PartIteration> partIterations = new ArrayList<>();
@@ -26,6 +26,8 @@ import com.docdoku.core.product.PartIteration;
 import com.docdoku.core.product.PartRevision;
 
 import javax.persistence.*;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class ConversionDAO {
@@ -68,6 +70,35 @@ public class ConversionDAO {
         }
     }
 
+    /**
+     * Pending conversions never claimed, or whose claim has not been renewed since the given date.
+     */
+    public List<Conversion> findClaimableConversions(Date expiredBefore) {
+        return em.createQuery("SELECT c FROM Conversion c WHERE c.pending = true AND (c.claimDate IS NULL OR c.claimDate < :expiredBefore) ORDER BY c.priority DESC, c.queueDate", Conversion.class)
+                .setParameter("expiredBefore", expiredBefore, TemporalType.TIMESTAMP)
+                .getResultList();
+    }
+
+    /**
+     * Claims the pending conversion for the given node unless another one holds a claim renewed since the
+     * given date. The update being conditional, a single node succeeds.
+     */
+    public boolean claimConversion(PartIteration partIteration, String nodeId, Date claimDate, Date expiredBefore) {
+        return em.createQuery("UPDATE Conversion c SET c.claimedBy = :nodeId, c.claimDate = :claimDate WHERE c.partIteration = :partIteration AND c.pending = true AND (c.claimDate IS NULL OR c.claimDate < :expiredBefore)")
+                .setParameter("nodeId", nodeId)
+                .setParameter("claimDate", claimDate, TemporalType.TIMESTAMP)
+                .setParameter("partIteration", partIteration)
+                .setParameter("expiredBefore", expiredBefore, TemporalType.TIMESTAMP)
+                .executeUpdate() == 1;
+    }
+
+    public int renewClaims(String nodeId, Date claimDate) {
+        return em.createQuery("UPDATE Conversion c SET c.claimDate = :claimDate WHERE c.claimedBy = :nodeId AND c.pending = true")
+                .setParameter("claimDate", claimDate, TemporalType.TIMESTAMP)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+    }
+
     public void deleteConversion(Conversion conversion) {
         em.remove(conversion);
         em.flush();
@@ -81,4 +81,15 @@ public class DocumentMasterDAO {
                                                  .setParameter("workspaceId",workspaceId)
                                                  .getResultList();
     }
+
+    /**
+     * Keyset pagination over the document masters of a workspace, ordered by id
+     */
+    public List<DocumentMaster> getPageByWorkspace(String workspaceId, String afterId, int maxResults) {
+        return em.createNamedQuery("DocumentMaster.findByWorkspaceAfterId",DocumentMaster.class)
+                                                 .setParameter("workspaceId",workspaceId)
+                                                 .setParameter("id",afterId)
+                                                 .setMaxResults(maxResults)
+                                                 .getResultList();
+    }
 }
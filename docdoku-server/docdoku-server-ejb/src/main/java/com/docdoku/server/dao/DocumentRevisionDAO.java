@@ -235,7 +235,7 @@ public class DocumentRevisionDAO {
     }
 
     public List<DocumentRevision> getDocumentRevisionsFiltered(User user, String workspaceId, int start, int pMaxResults) {
-        int maxResults = (pMaxResults<1) ? pMaxResults : MAX_RESULTS;
+        int maxResults = getMaxResults(pMaxResults);
 
         String excludedFolders = workspaceId + "/~%";
 
@@ -250,6 +250,35 @@ public class DocumentRevisionDAO {
         return query.getResultList();
     }
 
+    /**
+     * Seeks the page of document revisions following the given (id, version) key,
+     * so that deep pages cost the same as the first one.
+     */
+    public List<DocumentRevision> getDocumentRevisionsAfter(String workspaceId, String id, String version, int pMaxResults) {
+        return em.createNamedQuery("DocumentRevision.findByWorkspaceAfter", DocumentRevision.class)
+                .setParameter("workspaceId", workspaceId)
+                .setParameter("id", id)
+                .setParameter("version", version)
+                .setParameter("excludedFolders", workspaceId + "/~%")
+                .setMaxResults(getMaxResults(pMaxResults))
+                .getResultList();
+    }
+
+    public List<DocumentRevision> getDocumentRevisionsAfterFiltered(User user, String workspaceId, String id, String version, int pMaxResults) {
+        return em.createNamedQuery("DocumentRevision.findByWorkspaceAfter.filterACLEntry", DocumentRevision.class)
+                .setParameter("workspaceId", workspaceId)
+                .setParameter("user", user)
+                .setParameter("id", id)
+                .setParameter("version", version)
+                .setParameter("excludedFolders", workspaceId + "/~%")
+                .setMaxResults(getMaxResults(pMaxResults))
+                .getResultList();
+    }
+
+    private static int getMaxResults(int pMaxResults) {
+        return (pMaxResults < 1 || pMaxResults > MAX_RESULTS) ? MAX_RESULTS : pMaxResults;
+    }
+
     public int getDocumentRevisionsCountFiltered(User user, String workspaceId) {
 
         String excludedFolders = workspaceId + "/~%";
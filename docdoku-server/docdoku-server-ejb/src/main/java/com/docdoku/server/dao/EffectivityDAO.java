@@ -23,12 +23,13 @@ package com.docdoku.server.dao;
 import com.docdoku.core.exceptions.CreationException;
 import com.docdoku.core.exceptions.EffectivityAlreadyExistsException;
 import com.docdoku.core.exceptions.EffectivityNotFoundException;
+import com.docdoku.core.product.ConfigurationItemKey;
 import com.docdoku.core.product.Effectivity;
 import com.docdoku.core.product.PartRevision;
+import com.docdoku.core.product.PartRevisionKey;
 
 import javax.persistence.*;
-import java.util.List;
-import java.util.Locale;
+import java.util.*;
 
 public class EffectivityDAO {
     private EntityManager em;
@@ -54,6 +55,7 @@ public class EffectivityDAO {
     }
 
     public void updateEffectivity(Effectivity effectivity) {
+        effectivity.incrementRevision();
         em.merge(effectivity);
         em.flush();
     }
@@ -91,6 +93,36 @@ public class EffectivityDAO {
         }
     }
 
+    /**
+     * Get the effectivities which may apply to the configuration item, grouped by the part revision holding them.
+     * Date based effectivities without configuration item are included.
+     */
+    public Map<PartRevisionKey, List<Effectivity>> findPartRevisionEffectivities(ConfigurationItemKey pKey) {
+        TypedQuery<Object[]> query = em.createNamedQuery("Effectivity.findPartRevisionEffectivitiesOfConfigurationItem", Object[].class);
+        query.setParameter("workspaceId", pKey.getWorkspace());
+        query.setParameter("configurationItemId", pKey.getId());
+
+        Map<PartRevisionKey, List<Effectivity>> effectivities = new HashMap<>();
+        for (Object[] row : query.getResultList()) {
+            PartRevisionKey partRevisionKey = new PartRevisionKey(pKey.getWorkspace(), (String) row[0], (String) row[1]);
+            effectivities.computeIfAbsent(partRevisionKey, key -> new ArrayList<>()).add((Effectivity) row[2]);
+        }
+        return effectivities;
+    }
+
+    /**
+     * State of the effectivities returned by {@link #findPartRevisionEffectivities(ConfigurationItemKey)}:
+     * their count, highest id and sum of revisions. Identities being generated in increasing order,
+     * the state changes with any effectivity added, removed or updated.
+     */
+    public String getPartRevisionEffectivitiesState(ConfigurationItemKey pKey) {
+        Object[] state = em.createNamedQuery("Effectivity.getPartRevisionEffectivitiesStateOfConfigurationItem", Object[].class)
+                .setParameter("workspaceId", pKey.getWorkspace())
+                .setParameter("configurationItemId", pKey.getId())
+                .getSingleResult();
+        return state[0] + "/" + state[1] + "/" + state[2];
+    }
+
     public void removeEffectivityConstraints(String workspaceId) {
         TypedQuery<Effectivity> query = em.createNamedQuery("Effectivity.getEffectivitiesInWorkspace", Effectivity.class);
         query.setParameter("workspaceId", workspaceId);
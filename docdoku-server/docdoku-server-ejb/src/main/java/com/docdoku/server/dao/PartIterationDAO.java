@@ -100,6 +100,20 @@ public class PartIterationDAO {
         return usedByParts;
     }
 
+    /**
+     * Find another part iteration of the same workspace whose native CAD file has the given content,
+     * and which has been successfully converted.
+     */
+    public PartIteration findConvertedPartIteration(PartIteration pPartI, String pContentHash) {
+        List<PartIteration> partIterations = em.createNamedQuery("PartIteration.findConvertedByNativeCADHash", PartIteration.class)
+                .setParameter("contentHash", pContentHash)
+                .setParameter("workspaceId", pPartI.getWorkspaceId())
+                .setParameter("partIteration", pPartI)
+                .setMaxResults(1)
+                .getResultList();
+        return partIterations.isEmpty() ? null : partIterations.get(0);
+    }
+
 
     public List<PartIteration> findAllPartIterationFromLOV(ListOfValuesKey lovKey) {
         return em.createNamedQuery("PartIteration.findWhereLOV", PartIteration.class)
@@ -28,6 +28,8 @@ import com.docdoku.core.product.PartMasterKey;
 import com.docdoku.core.product.PartRevision;
 
 import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.logging.Level;
@@ -39,6 +41,9 @@ public class PartMasterDAO {
     private Locale mLocale;
     private static final Logger LOGGER = Logger.getLogger(PartMasterDAO.class.getName());
 
+    // Keep IN clauses within the limits of the database drivers
+    private static final int MAX_NUMBERS_PER_QUERY = 500;
+
     public PartMasterDAO(Locale pLocale, EntityManager pEM) {
         em = pEM;
         mLocale = pLocale;
@@ -59,6 +64,22 @@ public class PartMasterDAO {
         }
     }
 
+    /**
+     * Load in as few queries as possible the part masters of the given numbers, with their revisions.
+     * Unknown numbers are silently ignored.
+     */
+    public List<PartMaster> loadPartMasters(String pWorkspaceId, Collection<String> pNumbers) {
+        List<PartMaster> partMasters = new ArrayList<>();
+        List<String> numbers = new ArrayList<>(pNumbers);
+        for (int i = 0; i < numbers.size(); i += MAX_NUMBERS_PER_QUERY) {
+            partMasters.addAll(em.createNamedQuery("PartMaster.findByNumbers", PartMaster.class)
+                    .setParameter("workspaceId", pWorkspaceId)
+                    .setParameter("numbers", numbers.subList(i, Math.min(i + MAX_NUMBERS_PER_QUERY, numbers.size())))
+                    .getResultList());
+        }
+        return partMasters;
+    }
+
     public PartMaster getPartMRef(PartMasterKey pKey) throws PartMasterNotFoundException {
         try {
             return em.getReference(PartMaster.class, pKey);
@@ -152,4 +173,15 @@ public class PartMasterDAO {
                 .setParameter("workspaceId",workspaceId)
                 .getResultList();
     }
+
+    /**
+     * Keyset pagination over the part masters of a workspace, ordered by number
+     */
+    public List<PartMaster> getPageByWorkspace(String workspaceId, String afterNumber, int maxResults) {
+        return em.createNamedQuery("PartMaster.findByWorkspaceAfterNumber",PartMaster.class)
+                .setParameter("workspaceId",workspaceId)
+                .setParameter("number",afterNumber)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
 }
\ No newline at end of file
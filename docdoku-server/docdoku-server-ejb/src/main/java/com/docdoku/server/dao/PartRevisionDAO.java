@@ -94,6 +94,38 @@ public class PartRevisionDAO {
                 .getResultList();
     }
 
+    public List<PartRevision> getPartRevisionsFiltered(User caller, String pWorkspaceId, int pStart, int pMaxResults) {
+        return em.createNamedQuery("PartRevision.findByWorkspace.filterACLEntry", PartRevision.class)
+                .setParameter("workspaceId", pWorkspaceId)
+                .setParameter("user", caller)
+                .setFirstResult(pStart)
+                .setMaxResults(pMaxResults)
+                .getResultList();
+    }
+
+    /**
+     * Seeks the page of part revisions following the given (number, version) key,
+     * so that deep pages cost the same as the first one.
+     */
+    public List<PartRevision> getPartRevisionsAfter(String pWorkspaceId, String pNumber, String pVersion, int pMaxResults) {
+        return em.createNamedQuery("PartRevision.findByWorkspaceAfter", PartRevision.class)
+                .setParameter("workspaceId", pWorkspaceId)
+                .setParameter("number", pNumber)
+                .setParameter("version", pVersion)
+                .setMaxResults(pMaxResults)
+                .getResultList();
+    }
+
+    public List<PartRevision> getPartRevisionsAfterFiltered(User caller, String pWorkspaceId, String pNumber, String pVersion, int pMaxResults) {
+        return em.createNamedQuery("PartRevision.findByWorkspaceAfter.filterACLEntry", PartRevision.class)
+                .setParameter("workspaceId", pWorkspaceId)
+                .setParameter("user", caller)
+                .setParameter("number", pNumber)
+                .setParameter("version", pVersion)
+                .setMaxResults(pMaxResults)
+                .getResultList();
+    }
+
     public List<PartRevision> getAllPartRevisions(String pWorkspaceId) {
         return em.createNamedQuery("PartRevision.findByWorkspace", PartRevision.class)
                 .setParameter("workspaceId", pWorkspaceId)
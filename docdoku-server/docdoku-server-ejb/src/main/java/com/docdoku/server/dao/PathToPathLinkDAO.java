@@ -206,11 +206,28 @@ public class PathToPathLinkDAO {
 
     public List<PathToPathLink> getPathToPathLinksFromPartialPath(String usageLinkId){
         return em.createNamedQuery("PathToPathLink.findLinksWherePartialPathIsPresent", PathToPathLink.class)
-                .setParameter("inChain", "%" + usageLinkId + "-%")
-                .setParameter("endOfChain", "%" + usageLinkId)
+                .setParameter("usageLinkId", usageLinkId)
                 .getResultList();
     }
 
+    /**
+     * Index the segments of the next links stored before segments existed, following the given link id.
+     * Returns the id of the last link indexed, or 0 if none remain.
+     */
+    public int indexPathToPathLinksSegments(int lastId, int batchSize) {
+        List<PathToPathLink> pathToPathLinks = em.createNamedQuery("PathToPathLink.findLinksWithoutSegments", PathToPathLink.class)
+                .setParameter("lastId", lastId)
+                .setMaxResults(batchSize)
+                .getResultList();
+        int lastIndexedId = 0;
+        for (PathToPathLink pathToPathLink : pathToPathLinks) {
+            pathToPathLink.indexSegments();
+            lastIndexedId = pathToPathLink.getId();
+        }
+        em.flush();
+        return lastIndexedId;
+    }
+
     public void removePathToPathLinks(String usageLinkId) {
 
         List<PathToPathLink> pathToPathLinks = getPathToPathLinksFromPartialPath(usageLinkId);
@@ -0,0 +1,409 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.dao;
+
+import com.docdoku.core.product.PartRevisionStatus;
+import com.docdoku.core.query.QueryRule;
+import com.docdoku.core.util.DateUtils;
+
+import java.text.ParseException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Compile the rules of a saved {@link com.docdoku.core.query.Query} to a parameterized JPQL query on part revisions.
+ *
+ * The JPQL text only depends on the shape of the rules (conditions, fields, operators, types and values count),
+ * rule values are bound as parameters. Compiled queries are cached by shape, and their JPQL text is stable so the
+ * persistence provider parse cache is hit too.
+ *
+ * Revisions without any checked in iteration are filtered by the query, and iteration level rules are evaluated
+ * in a correlated sub query: each matching revision is returned once, no de-duplication is needed.
+ */
+class QueryCompiler {
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final Pattern ATTRIBUTE_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    private static final String SELECT = "SELECT pr FROM PartRevision pr JOIN pr.partMaster pm"
+            + " WHERE pr.partMasterWorkspaceId = :workspaceId"
+            + " AND (pr.checkOutUser IS NULL OR SIZE(pr.partIterations) > 1)";
+
+    private static final String AFTER = " AND (pr.partMasterNumber > :number OR (pr.partMasterNumber = :number AND pr.version > :version))";
+
+    private static final String ORDER_BY = " ORDER BY pr.partMasterNumber ASC, pr.version ASC";
+
+    private static final Map<String, CompiledQuery> CACHE = Collections.synchronizedMap(new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private final StringBuilder jpql = new StringBuilder();
+    private final List<Binding> bindings = new ArrayList<>();
+    private int ruleIndex;
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * Get the compiled query for given root rule, compiling it if no query with the same shape has been compiled yet.
+     * Throws IllegalArgumentException if the rules cannot be compiled.
+     */
+    static CompiledQuery compile(QueryRule queryRule) {
+        String shape = getShape(queryRule);
+        CompiledQuery compiledQuery = CACHE.get(shape);
+        if (compiledQuery == null) {
+            compiledQuery = new QueryCompiler().doCompile(queryRule);
+            CACHE.put(shape, compiledQuery);
+        }
+        return compiledQuery;
+    }
+
+    private CompiledQuery doCompile(QueryRule queryRule) {
+        if (queryRule != null && queryRule.getCondition() != null) {
+            jpql.append(" AND EXISTS (SELECT pi FROM PartIteration pi WHERE pi.partRevision = pr AND ");
+            appendRule(queryRule);
+            jpql.append(")");
+        }
+        String where = jpql.toString();
+        return new CompiledQuery(SELECT + where + ORDER_BY, SELECT + where + AFTER + ORDER_BY, bindings);
+    }
+
+    private static String getShape(QueryRule queryRule) {
+        StringBuilder shape = new StringBuilder();
+        if (queryRule != null && queryRule.getCondition() != null) {
+            appendShape(queryRule, shape);
+        }
+        return shape.toString();
+    }
+
+    private static void appendShape(QueryRule queryRule, StringBuilder shape) {
+        if (queryRule.hasSubRules()) {
+            shape.append(queryRule.getCondition()).append('(');
+            for (QueryRule subRule : queryRule.getSubQueryRules()) {
+                appendShape(subRule, shape);
+                shape.append(',');
+            }
+            shape.append(')');
+        } else {
+            shape.append('[').append(queryRule.getField())
+                    .append('|').append(queryRule.getOperator())
+                    .append('|').append(queryRule.getType())
+                    .append('|').append(queryRule.getValues() != null ? queryRule.getValues().size() : 0)
+                    .append(']');
+        }
+    }
+
+    /**
+     * Rules are numbered in depth first order, the same order is used when binding values
+     */
+    static List<QueryRule> getLeafRules(QueryRule queryRule) {
+        List<QueryRule> leafRules = new ArrayList<>();
+        if (queryRule != null && queryRule.getCondition() != null) {
+            collectLeafRules(queryRule, leafRules);
+        }
+        return leafRules;
+    }
+
+    private static void collectLeafRules(QueryRule queryRule, List<QueryRule> leafRules) {
+        if (queryRule.hasSubRules()) {
+            for (QueryRule subRule : queryRule.getSubQueryRules()) {
+                collectLeafRules(subRule, leafRules);
+            }
+        } else {
+            leafRules.add(queryRule);
+        }
+    }
+
+    private void appendRule(QueryRule queryRule) {
+
+        if (!queryRule.hasSubRules()) {
+            int index = ruleIndex++;
+            if (queryRule.getField() == null) {
+                // Empty group
+                jpql.append("1 = 1");
+            } else {
+                appendRulePredicate(index, queryRule);
+            }
+            return;
+        }
+
+        String condition = queryRule.getCondition();
+        if (!"OR".equals(condition) && !"AND".equals(condition)) {
+            throw new IllegalArgumentException();
+        }
+
+        jpql.append('(');
+        boolean first = true;
+        for (QueryRule subRule : queryRule.getSubQueryRules()) {
+            if (!first) {
+                jpql.append(' ').append(condition).append(' ');
+            }
+            first = false;
+            appendRule(subRule);
+        }
+        jpql.append(')');
+    }
+
+    private void appendRulePredicate(int index, QueryRule queryRule) {
+
+        String field = queryRule.getField();
+        String operator = queryRule.getOperator();
+        int valuesCount = queryRule.getValues() != null ? queryRule.getValues().size() : 0;
+        String type = queryRule.getType();
+
+        if (field.startsWith("pm.")) {
+            appendPredicate(index, "pm." + checkAttribute(field.substring(3)), operator, valuesCount, type);
+        } else if (field.startsWith("pr.")) {
+            appendPartRevisionPredicate(index, field.substring(3), operator, valuesCount, type);
+        } else if (field.startsWith("author.")) {
+            appendPredicate(index, "pr.author." + checkAttribute(field.substring(7)), operator, valuesCount, type);
+        } else if (field.startsWith("attr-TEXT.")) {
+            appendInstanceAttributePredicate(index, "InstanceTextAttribute", field.substring(10), "a.textValue", operator, valuesCount, "string");
+        } else if (field.startsWith("attr-LONG_TEXT.")) {
+            appendInstanceAttributePredicate(index, "InstanceLongTextAttribute", field.substring(15), "a.longTextValue", operator, valuesCount, "string");
+        } else if (field.startsWith("attr-DATE.")) {
+            appendInstanceAttributePredicate(index, "InstanceDateAttribute", field.substring(10), "a.dateValue", operator, valuesCount, "date");
+        } else if (field.startsWith("attr-BOOLEAN.")) {
+            appendInstanceEqualityPredicate(index, "InstanceBooleanAttribute", field.substring(13), "a.booleanValue", operator, valuesCount, Boolean::parseBoolean);
+        } else if (field.startsWith("attr-URL.")) {
+            appendInstanceAttributePredicate(index, "InstanceURLAttribute", field.substring(9), "a.urlValue", operator, valuesCount, "string");
+        } else if (field.startsWith("attr-NUMBER.")) {
+            appendInstanceAttributePredicate(index, "InstanceNumberAttribute", field.substring(12), "a.numberValue", operator, valuesCount, "double");
+        } else if (field.startsWith("attr-LOV.")) {
+            appendInstanceEqualityPredicate(index, "InstanceListOfValuesAttribute", field.substring(9), "a.indexValue", operator, valuesCount, Integer::parseInt);
+        } else if (field.startsWith("attr-PART_NUMBER.")) {
+            appendInstanceAttributePredicate(index, "InstancePartNumberAttribute", field.substring(17), "a.partMasterValue.number", operator, valuesCount, "string");
+        } else {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private void appendPartRevisionPredicate(int index, String field, String operator, int valuesCount, String type) {
+        if ("checkInDate".equals(field)) {
+            jpql.append("(SIZE(pr.partIterations) = pi.iteration AND ");
+            appendPredicate(index, "pi.checkInDate", operator, valuesCount, type);
+            jpql.append(')');
+        } else if ("status".equals(field) && valuesCount == 1) {
+            appendPredicate(index, "pr.status", operator, valuesCount, "status");
+        } else if ("tags".equals(field)) {
+            jpql.append("EXISTS (SELECT t FROM Tag t WHERE t MEMBER OF pr.tags AND t.label IN ")
+                    .append(bind(index, QueryRule::getValues))
+                    .append(')');
+        } else if ("linkedDocuments".equals(field)) {
+            // should be ignored, always true for the moment
+            jpql.append("1 = 1");
+        } else {
+            appendPredicate(index, "pr." + checkAttribute(field), operator, valuesCount, type);
+        }
+    }
+
+    private void appendInstanceAttributePredicate(int index, String attributeClass, String name, String valueField, String operator, int valuesCount, String type) {
+        appendInstanceAttributeStart(index, attributeClass, name);
+        appendPredicate(index, valueField, operator, valuesCount, type);
+        jpql.append(')');
+    }
+
+    private void appendInstanceEqualityPredicate(int index, String attributeClass, String name, String valueField, String operator, int valuesCount, Function<String, Object> parser) {
+        if (valuesCount != 1 || !("equal".equals(operator) || "not_equal".equals(operator))) {
+            throw new IllegalArgumentException();
+        }
+        appendInstanceAttributeStart(index, attributeClass, name);
+        jpql.append(valueField)
+                .append("equal".equals(operator) ? " = " : " <> ")
+                .append(bind(index, rule -> parser.apply(rule.getValues().get(0))))
+                .append(')');
+    }
+
+    private void appendInstanceAttributeStart(int index, String attributeClass, String name) {
+        jpql.append("EXISTS (SELECT a FROM ").append(attributeClass)
+                .append(" a WHERE a MEMBER OF pi.instanceAttributes AND a.name = ")
+                .append(bind(index, rule -> name))
+                .append(" AND ");
+    }
+
+    private void appendPredicate(int index, String path, String operator, int valuesCount, String type) {
+
+        String valueType = type != null ? type : "string";
+        boolean comparable = "date".equals(valueType) || "double".equals(valueType);
+
+        if (valuesCount == 0) {
+            throw new IllegalArgumentException();
+        }
+
+        switch (operator) {
+            case "between":
+                if (valuesCount == 2 && comparable) {
+                    jpql.append(path).append(" BETWEEN ").append(bind(index, rule -> getOperand(rule, valueType, 0)))
+                            .append(" AND ").append(bind(index, rule -> getOperand(rule, valueType, 1)));
+                    return;
+                }
+                break;
+            case "equal":
+                if ("date".equals(valueType)) {
+                    // Whole day
+                    jpql.append(path).append(" BETWEEN ").append(bind(index, rule -> getOperand(rule, valueType, 0)))
+                            .append(" AND ").append(bind(index, rule -> getNextDay((Date) getOperand(rule, valueType, 0))));
+                } else {
+                    jpql.append(path).append(" = ").append(bind(index, rule -> getOperand(rule, valueType, 0)));
+                }
+                return;
+            case "not_equal":
+                jpql.append(path).append(" <> ").append(bind(index, rule -> getOperand(rule, valueType, 0)));
+                return;
+            case "contains":
+            case "not_contains":
+                appendLike(index, path, operator.startsWith("not_"), "%", valueType, "%");
+                return;
+            case "begins_with":
+            case "not_begins_with":
+                appendLike(index, path, operator.startsWith("not_"), "", valueType, "%");
+                return;
+            case "ends_with":
+            case "not_ends_with":
+                appendLike(index, path, operator.startsWith("not_"), "%", valueType, "");
+                return;
+            case "less":
+                appendComparison(index, path, " < ", comparable, valueType);
+                return;
+            case "less_or_equal":
+                appendComparison(index, path, " <= ", comparable, valueType);
+                return;
+            case "greater":
+                appendComparison(index, path, " > ", comparable, valueType);
+                return;
+            case "greater_or_equal":
+                appendComparison(index, path, " >= ", comparable, valueType);
+                return;
+            default:
+                break;
+        }
+
+        throw new IllegalArgumentException();
+    }
+
+    private void appendLike(int index, String path, boolean negated, String prefix, String valueType, String suffix) {
+        jpql.append(path).append(negated ? " NOT LIKE " : " LIKE ")
+                .append(bind(index, rule -> prefix + getOperand(rule, valueType, 0) + suffix));
+    }
+
+    private void appendComparison(int index, String path, String comparison, boolean comparable, String valueType) {
+        if (!comparable) {
+            throw new IllegalArgumentException();
+        }
+        jpql.append(path).append(comparison).append(bind(index, rule -> getOperand(rule, valueType, 0)));
+    }
+
+    private String bind(int index, Function<QueryRule, Object> value) {
+        bindings.add(new Binding(index, value));
+        return ":p" + bindings.size();
+    }
+
+    private static String checkAttribute(String attribute) {
+        // Attribute names are part of the query text, make sure nothing else can be injected
+        if (!ATTRIBUTE_NAME.matcher(attribute).matches()) {
+            throw new IllegalArgumentException();
+        }
+        return attribute;
+    }
+
+    private static Object getOperand(QueryRule rule, String type, int valueIndex) {
+        String value = rule.getValues().get(valueIndex);
+        switch (type) {
+            case "date":
+                try {
+                    return DateUtils.parse(value);
+                } catch (ParseException e) {
+                    throw new IllegalArgumentException();
+                }
+            case "double":
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException();
+                }
+            case "status":
+                return PartRevisionStatus.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    private static Date getNextDay(Date date) {
+        Calendar c = Calendar.getInstance();
+        c.setTime(date);
+        c.add(Calendar.DATE, 1);
+        return c.getTime();
+    }
+
+    private static class Binding {
+
+        private final int ruleIndex;
+        private final Function<QueryRule, Object> value;
+
+        Binding(int ruleIndex, Function<QueryRule, Object> value) {
+            this.ruleIndex = ruleIndex;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Compiled form of a query: JPQL text for the first page and for the pages following a given revision,
+     * and the way rule values are bound to the query parameters.
+     */
+    static class CompiledQuery {
+
+        private final String jpql;
+        private final String jpqlAfter;
+        private final List<Binding> bindings;
+
+        private CompiledQuery(String jpql, String jpqlAfter, List<Binding> bindings) {
+            this.jpql = jpql;
+            this.jpqlAfter = jpqlAfter;
+            this.bindings = bindings;
+        }
+
+        String getJpql() {
+            return jpql;
+        }
+
+        String getJpqlAfter() {
+            return jpqlAfter;
+        }
+
+        /**
+         * Get the parameters values for given root rule, it must have the shape of the compiled rule.
+         */
+        Map<String, Object> getParameters(QueryRule queryRule) {
+            List<QueryRule> leafRules = getLeafRules(queryRule);
+            Map<String, Object> parameters = new HashMap<>();
+            for (int i = 0; i < bindings.size(); i++) {
+                Binding binding = bindings.get(i);
+                parameters.put("p" + (i + 1), binding.value.apply(leafRules.get(binding.ruleIndex)));
+            }
+            return parameters;
+        }
+    }
+}
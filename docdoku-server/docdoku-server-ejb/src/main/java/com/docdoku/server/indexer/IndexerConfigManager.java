@@ -57,4 +57,21 @@ public class IndexerConfigManager {
     public Integer getPort() {
         return Integer.parseInt(properties.getProperty("port"));
     }
-}
\ No newline at end of file
+
+    public Integer getReindexPageSize() {
+        return getIntegerProperty("reindex_page_size", 50);
+    }
+
+    public Integer getBulkActions() {
+        return getIntegerProperty("bulk_actions", 500);
+    }
+
+    public Integer getBulkSizeInMB() {
+        return getIntegerProperty("bulk_size_mb", 5);
+    }
+
+    private Integer getIntegerProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
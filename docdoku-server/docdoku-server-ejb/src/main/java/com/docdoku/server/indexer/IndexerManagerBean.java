@@ -34,9 +34,13 @@ import com.docdoku.core.services.IIndexerManagerLocal;
 import com.docdoku.core.services.IMailerLocal;
 import com.docdoku.server.dao.*;
 import org.elasticsearch.ResourceAlreadyExistsException;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.update.UpdateRequestBuilder;
@@ -44,31 +48,44 @@ import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.NoNodeAvailableException;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 
+import javax.annotation.Resource;
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.Asynchronous;
 import javax.ejb.Local;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * @author Morgan Guimard
  */
 @Stateless(name = "IndexerManagerBean")
 @Local(IIndexerManagerLocal.class)
+@LocalBean
 @DeclareRoles({UserGroupMapping.REGULAR_USER_ROLE_ID, UserGroupMapping.ADMIN_ROLE_ID})
 public class IndexerManagerBean implements IIndexerManagerLocal {
 
@@ -90,8 +107,16 @@ public class IndexerManagerBean implements IIndexerManagerLocal {
     @Inject
     private IBinaryStorageManagerLocal storageManager;
 
+    @Resource
+    private ManagedExecutorService executorService;
+
+    @Resource
+    private SessionContext ctx;
+
     private static final String I18N_CONF = "com.docdoku.core.i18n.LocalStrings";
 
+    private static final long BULK_CLOSE_TIMEOUT_MINUTES = 10;
+
     private static final Logger LOGGER = Logger.getLogger(IndexerManagerBean.class.getName());
 
 
@@ -251,41 +276,70 @@ public class IndexerManagerBean implements IIndexerManagerLocal {
     @Override
     @Asynchronous
     @RolesAllowed({UserGroupMapping.ADMIN_ROLE_ID})
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void indexAllWorkspacesData() {
         Account account = null;
 
         try {
             account = accountManager.getMyAccount();
-            BulkRequestBuilder bulkRequest = indexerClient.prepareBulk();
             WorkspaceDAO wDAO = new WorkspaceDAO(em);
-
+            List<String> workspaceIds = new ArrayList<>();
             for (Workspace workspace : wDAO.getAll()) {
-                bulkRequest = bulkWorkspaceRequestBuilder(bulkRequest, workspace.getId());
+                workspaceIds.add(workspace.getId());
             }
 
-            if (bulkRequest.numberOfActions() > 0) {
-                BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-                if (bulkResponse.hasFailures()) {
-                    String failureMessage = bulkResponse.buildFailureMessage();
-                    LOGGER.log(Level.SEVERE, "Failures while bulk indexing all workspaces: \n" + failureMessage);
-                    mailer.sendBulkIndexationFailure(account, failureMessage);
-                } else {
-                    mailer.sendBulkIndexationSuccess(account);
+            BulkFailureListener listener = new BulkFailureListener();
+            BulkProcessor bulkProcessor = createBulkProcessor(listener);
+            try {
+                for (String workspaceId : workspaceIds) {
+                    ReindexCheckpoint checkpoint = getCheckpoint(workspaceId);
+                    if (checkpoint == null) {
+                        checkpoint = new ReindexCheckpoint(workspaceId);
+                    } else if (checkpoint.isDone()) {
+                        LOGGER.log(Level.INFO, "Workspace [" + workspaceId + "] already reindexed, skipping");
+                        continue;
+                    } else {
+                        LOGGER.log(Level.INFO, "Resuming reindexation of workspace [" + workspaceId + "] from " + checkpoint);
+                    }
+                    reindexWorkspace(checkpoint, bulkProcessor, listener);
+                    if (listener.getError() != null) {
+                        break;
+                    }
                 }
+            } finally {
+                closeBulkProcessor(bulkProcessor);
+            }
+
+            if (listener.getError() != null) {
+                // Aborted, the checkpoints are kept for the next run to resume from
+                throw listener.getError();
+            }
+            workspaceIds.forEach(this::deleteCheckpoint);
+
+            if (listener.hasFailures()) {
+                LOGGER.log(Level.SEVERE, "Failures while bulk indexing all workspaces: \n" + listener.getFailureMessage());
+                mailer.sendBulkIndexationFailure(account, listener.getFailureMessage());
             } else {
-                LOGGER.log(Level.INFO, "No actions for all workspaces index request, ignoring");
+                mailer.sendBulkIndexationSuccess(account);
             }
         } catch (NoNodeAvailableException e) {
             LOGGER.log(Level.WARNING, "Cannot index all workspaces: The ElasticSearch server doesn't seem to respond");
             mailer.sendBulkIndexationFailure(account, getString("IndexerNotAvailableForRequest", new Locale(account.getLanguage())));
         } catch (AccountNotFoundException e) {
             LOGGER.log(Level.SEVERE, null, e);
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Cannot index all workspaces", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException | ElasticsearchException e) {
+            LOGGER.log(Level.SEVERE, "Cannot index all workspaces", e);
+            mailer.sendBulkIndexationFailure(account, e.getMessage());
         }
     }
 
     @Override
     @Asynchronous
     @RolesAllowed({UserGroupMapping.ADMIN_ROLE_ID, UserGroupMapping.REGULAR_USER_ROLE_ID})
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void indexWorkspaceData(String workspaceId) {
 
         Account account;
@@ -298,31 +352,46 @@ public class IndexerManagerBean implements IIndexerManagerLocal {
         }
 
         try {
-            // Clear workspace if exists, or recreate
-            doDeleteWorkspaceIndex(workspaceId);
-
-            BulkRequestBuilder bulkRequest = indexerClient.prepareBulk();
-            bulkWorkspaceRequestBuilder(bulkRequest, workspaceId);
+            ReindexCheckpoint checkpoint = getCheckpoint(workspaceId);
+            if (checkpoint == null || checkpoint.isDone()) {
+                // Clear workspace if exists, or recreate
+                doDeleteWorkspaceIndex(workspaceId);
+                checkpoint = new ReindexCheckpoint(workspaceId);
+            } else {
+                LOGGER.log(Level.INFO, "Resuming reindexation of workspace [" + workspaceId + "] from " + checkpoint);
+            }
 
-            if (bulkRequest.numberOfActions() > 0) {
+            BulkFailureListener listener = new BulkFailureListener();
+            BulkProcessor bulkProcessor = createBulkProcessor(listener);
+            try {
+                reindexWorkspace(checkpoint, bulkProcessor, listener);
+            } finally {
+                closeBulkProcessor(bulkProcessor);
+            }
 
-                BulkResponse bulkResponse = bulkRequest.execute().actionGet();
+            if (listener.getError() != null) {
+                // Aborted, the checkpoints are kept for the next run to resume from
+                throw listener.getError();
+            }
+            deleteCheckpoint(workspaceId);
 
-                if (bulkResponse.hasFailures()) {
-                    String failureMessage = bulkResponse.buildFailureMessage();
-                    LOGGER.log(Level.SEVERE, "Failures while bulk indexing workspace [" + workspaceId + "]: \n" + failureMessage);
-                    mailer.sendBulkIndexationFailure(account, failureMessage);
-                } else {
-                    mailer.sendBulkIndexationSuccess(account);
-                }
+            if (listener.hasFailures()) {
+                LOGGER.log(Level.SEVERE, "Failures while bulk indexing workspace [" + workspaceId + "]: \n" + listener.getFailureMessage());
+                mailer.sendBulkIndexationFailure(account, listener.getFailureMessage());
             } else {
-                LOGGER.log(Level.INFO, "No data to index for workspace [" + workspaceId + "]");
+                mailer.sendBulkIndexationSuccess(account);
             }
         } catch (NoNodeAvailableException e) {
             LOGGER.log(Level.WARNING, "Cannot index all workspaces: The ElasticSearch server doesn't seem to respond");
             mailer.sendBulkIndexationFailure(account, getString("IndexerNotAvailableForRequest", new Locale(account.getLanguage())));
         } catch (AccountNotFoundException e) {
             LOGGER.log(Level.SEVERE, null, e);
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Cannot index workspace [" + workspaceId + "]", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException | ElasticsearchException e) {
+            LOGGER.log(Level.SEVERE, "Cannot index workspace [" + workspaceId + "]", e);
+            mailer.sendBulkIndexationFailure(account, e.getMessage());
         }
     }
 
@@ -394,53 +463,153 @@ public class IndexerManagerBean implements IIndexerManagerLocal {
 
     }
 
-    private BulkRequestBuilder bulkWorkspaceRequestBuilder(BulkRequestBuilder pBulkRequest, String workspaceId) {
-        BulkRequestBuilder bulkRequest = pBulkRequest;
+    /**
+     * Sends the checked in iterations of a workspace to the bulk processor, page by page, from the
+     * given checkpoint. Each page is read in its own transaction, no transaction nor persistence
+     * context is held for the whole reindexation.
+     */
+    private void reindexWorkspace(ReindexCheckpoint checkpoint, BulkProcessor bulkProcessor, BulkFailureListener listener) throws InterruptedException, ExecutionException, IOException {
+        String workspaceId = checkpoint.getWorkspaceId();
         String index = IndexerUtils.formatIndexName(workspaceId);
 
         try {
             createIndex(index);
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Cannot create index for workspace [" + workspaceId + "]", e);
-        } catch (NoNodeAvailableException e) {
-            LOGGER.log(Level.WARNING, "Cannot create index for workspace [" + workspaceId + "] The ElasticSearch server doesn't seem to respond");
         } catch (ResourceAlreadyExistsException e) {
-            LOGGER.log(Level.WARNING, "Index already exists for workspace [" + workspaceId + "]", e);
+            LOGGER.log(Level.INFO, "Index already exists for workspace [" + workspaceId + "]");
         }
 
-        bulkRequest = bulkDocumentsIndexRequestBuilder(bulkRequest, workspaceId);
-        bulkRequest = bulkPartsIndexRequestBuilder(bulkRequest, workspaceId);
+        IndexerManagerBean indexer = ctx.getBusinessObject(IndexerManagerBean.class);
+        int pageSize = indexerConfigManager.getReindexPageSize();
+        long start = System.currentTimeMillis();
+        long iterations = 0;
+
+        while (checkpoint.getPhase() == ReindexCheckpoint.Phase.DOCUMENTS && listener.getError() == null) {
+            iterations += indexer.reindexDocumentsPage(checkpoint, bulkProcessor, pageSize);
+        }
+
+        while (checkpoint.getPhase() == ReindexCheckpoint.Phase.PARTS && listener.getError() == null) {
+            iterations += indexer.reindexPartsPage(checkpoint, bulkProcessor, pageSize);
+        }
 
-        return bulkRequest;
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        LOGGER.log(Level.INFO, "Workspace [" + workspaceId + "] reindexed: " + checkpoint.getDocumentIterations()
+                + " document iterations and " + checkpoint.getPartIterations() + " part iterations, "
+                + iterations + " in " + elapsed / 1000 + " s for this run (" + iterations * 1000 / elapsed + " iterations/s)");
     }
 
-    private BulkRequestBuilder bulkDocumentsIndexRequestBuilder(BulkRequestBuilder pBulkRequest, String workspaceId) {
-        DocumentMasterDAO docMasterDAO = new DocumentMasterDAO(em);
-        for (DocumentMaster docM : docMasterDAO.getAllByWorkspace(workspaceId)) {
+    /**
+     * Sends the checked in document iterations of the page following the checkpoint, then advances it.
+     * Returns the number of iterations sent.
+     */
+    @RolesAllowed({UserGroupMapping.ADMIN_ROLE_ID, UserGroupMapping.REGULAR_USER_ROLE_ID})
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int reindexDocumentsPage(ReindexCheckpoint checkpoint, BulkProcessor bulkProcessor, int pageSize) throws InterruptedException, ExecutionException, IOException {
+        List<DocumentMaster> page = new DocumentMasterDAO(em).getPageByWorkspace(checkpoint.getWorkspaceId(), checkpoint.getLastKey(), pageSize);
+        List<DocumentIteration> documentIterations = new ArrayList<>();
+        for (DocumentMaster docM : page) {
             for (DocumentRevision docR : docM.getDocumentRevisions()) {
-                docR.getDocumentIterations().stream().filter(documentIteration -> documentIteration.getCheckInDate() != null).forEach(documentIteration -> {
-                    pBulkRequest.add(indexRequest(documentIteration));
-                });
+                docR.getDocumentIterations().stream().filter(documentIteration -> documentIteration.getCheckInDate() != null).forEach(documentIterations::add);
             }
         }
-        return pBulkRequest;
+
+        List<Future<Map<String, String>>> contentInputs = submitContentInputs(documentIterations.stream().map(DocumentIteration::getAttachedFiles).collect(Collectors.toList()));
+        for (int i = 0; i < documentIterations.size(); i++) {
+            bulkProcessor.add(indexRequest(documentIterations.get(i), contentInputs.get(i).get()).request());
+        }
+
+        String lastKey = page.isEmpty() ? "" : page.get(page.size() - 1).getId();
+        checkpoint.advance(lastKey, documentIterations.size(), page.size() < pageSize);
+        bulkProcessor.add(checkpointRequest(checkpoint).request());
+        return documentIterations.size();
     }
 
-    private BulkRequestBuilder bulkPartsIndexRequestBuilder(BulkRequestBuilder pBulkRequest, String workspaceId) {
-        PartMasterDAO partMasterDAO = new PartMasterDAO(em);
-        for (PartMaster partMaster : partMasterDAO.getAllByWorkspace(workspaceId)) {
+    /**
+     * Sends the checked in part iterations of the page following the checkpoint, then advances it.
+     * Returns the number of iterations sent.
+     */
+    @RolesAllowed({UserGroupMapping.ADMIN_ROLE_ID, UserGroupMapping.REGULAR_USER_ROLE_ID})
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int reindexPartsPage(ReindexCheckpoint checkpoint, BulkProcessor bulkProcessor, int pageSize) throws InterruptedException, ExecutionException, IOException {
+        List<PartMaster> page = new PartMasterDAO(em).getPageByWorkspace(checkpoint.getWorkspaceId(), checkpoint.getLastKey(), pageSize);
+        List<PartIteration> partIterations = new ArrayList<>();
+        for (PartMaster partMaster : page) {
             for (PartRevision partRev : partMaster.getPartRevisions()) {
-                partRev.getPartIterations().stream().filter(partIteration -> partIteration.getCheckInDate() != null).forEach(partIteration -> {
-                    pBulkRequest.add(indexRequest(partIteration));
-                });
+                partRev.getPartIterations().stream().filter(partIteration -> partIteration.getCheckInDate() != null).forEach(partIterations::add);
             }
         }
-        return pBulkRequest;
+
+        List<Future<Map<String, String>>> contentInputs = submitContentInputs(partIterations.stream().map(PartIteration::getAttachedFiles).collect(Collectors.toList()));
+        for (int i = 0; i < partIterations.size(); i++) {
+            bulkProcessor.add(indexRequest(partIterations.get(i), contentInputs.get(i).get()).request());
+        }
+
+        String lastKey = page.isEmpty() ? "" : page.get(page.size() - 1).getNumber();
+        checkpoint.advance(lastKey, partIterations.size(), page.size() < pageSize);
+        bulkProcessor.add(checkpointRequest(checkpoint).request());
+        return partIterations.size();
     }
 
+    /**
+     * Extracts the text of the attached files of each iteration in parallel.
+     * Attached files are lazy collections, they are loaded here on the caller thread: the entity manager
+     * must not be used from the executor threads.
+     */
+    private List<Future<Map<String, String>>> submitContentInputs(List<Set<BinaryResource>> attachedFiles) {
+        List<Future<Map<String, String>>> contentInputs = new ArrayList<>();
+        for (Set<BinaryResource> files : attachedFiles) {
+            Set<BinaryResource> loadedFiles = new HashSet<>(files);
+            contentInputs.add(executorService.submit(() -> getContentInputs(loadedFiles)));
+        }
+        return contentInputs;
+    }
+
+    private BulkProcessor createBulkProcessor(BulkProcessor.Listener listener) {
+        // No concurrent requests: bulks are sent in order, so a checkpoint never gets ahead of its iterations
+        return BulkProcessor.builder(indexerClient, listener)
+                .setBulkActions(indexerConfigManager.getBulkActions())
+                .setBulkSize(new ByteSizeValue(indexerConfigManager.getBulkSizeInMB(), ByteSizeUnit.MB))
+                .setConcurrentRequests(0)
+                .build();
+    }
+
+    private void closeBulkProcessor(BulkProcessor bulkProcessor) throws InterruptedException {
+        if (!bulkProcessor.awaitClose(BULK_CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            LOGGER.log(Level.WARNING, "Timeout while waiting for the last bulk request");
+        }
+    }
+
+    private ReindexCheckpoint getCheckpoint(String workspaceId) {
+        try {
+            GetResponse response = indexerClient.prepareGet(IndexerUtils.formatIndexName(workspaceId),
+                    ReindexCheckpoint.TYPE, ReindexCheckpoint.ID).get();
+            return response.isExists() ? ReindexCheckpoint.fromSource(workspaceId, response.getSource()) : null;
+        } catch (IndexNotFoundException e) {
+            return null;
+        }
+    }
+
+    private void deleteCheckpoint(String workspaceId) {
+        try {
+            indexerClient.prepareDelete(IndexerUtils.formatIndexName(workspaceId),
+                    ReindexCheckpoint.TYPE, ReindexCheckpoint.ID).get();
+        } catch (IndexNotFoundException e) {
+            LOGGER.log(Level.FINE, "No checkpoint to delete for workspace [" + workspaceId + "]", e);
+        }
+    }
+
+    private IndexRequestBuilder checkpointRequest(ReindexCheckpoint checkpoint) throws IOException {
+        return indexerClient.prepareIndex(IndexerUtils.formatIndexName(checkpoint.getWorkspaceId()),
+                ReindexCheckpoint.TYPE, ReindexCheckpoint.ID)
+                .setSource(checkpoint.toJSON());
+    }
 
     private UpdateRequestBuilder indexRequest(DocumentIteration documentIteration) throws NoNodeAvailableException {
-        Map<String, String> contentInputs = getContentInputs(documentIteration.getAttachedFiles());
+        return indexRequest(documentIteration, getContentInputs(documentIteration.getAttachedFiles()));
+    }
+
+    private UpdateRequestBuilder indexRequest(DocumentIteration documentIteration, Map<String, String> contentInputs) throws NoNodeAvailableException {
         XContentBuilder jsonDoc = IndexerMapping.documentIterationToJSON(documentIteration, contentInputs);
         return indexerClient.prepareUpdate(IndexerUtils.formatIndexName(documentIteration.getWorkspaceId()),
                 IndexerMapping.DOCUMENT_TYPE, documentIteration.getKey().toString())
@@ -448,7 +617,10 @@ public class IndexerManagerBean implements IIndexerManagerLocal {
     }
 
     private UpdateRequestBuilder indexRequest(PartIteration partIteration) {
-        Map<String, String> contentInputs = getContentInputs(partIteration.getAttachedFiles());
+        return indexRequest(partIteration, getContentInputs(partIteration.getAttachedFiles()));
+    }
+
+    private UpdateRequestBuilder indexRequest(PartIteration partIteration, Map<String, String> contentInputs) {
         XContentBuilder jsonDoc = IndexerMapping.partIterationToJSON(partIteration, contentInputs);
         return indexerClient.prepareUpdate(IndexerUtils.formatIndexName(partIteration.getWorkspaceId()),
                 IndexerMapping.PART_TYPE, partIteration.getKey().toString())
@@ -545,4 +717,46 @@ public class IndexerManagerBean implements IIndexerManagerLocal {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Collects the failures of the bulk requests sent by a {@link BulkProcessor}
+     */
+    private static class BulkFailureListener implements BulkProcessor.Listener {
+
+        private final StringBuilder failureMessage = new StringBuilder();
+        private volatile RuntimeException error;
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            LOGGER.log(Level.FINE, "Sending bulk request of " + request.numberOfActions() + " actions");
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            if (response.hasFailures()) {
+                synchronized (failureMessage) {
+                    failureMessage.append(response.buildFailureMessage());
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            // The whole request failed, most likely because the cluster is unreachable: stop there
+            error = failure instanceof RuntimeException ? (RuntimeException) failure : new ElasticsearchException(failure);
+        }
+
+        public boolean hasFailures() {
+            return failureMessage.length() > 0;
+        }
+
+        public String getFailureMessage() {
+            synchronized (failureMessage) {
+                return failureMessage.toString();
+            }
+        }
+
+        public RuntimeException getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.docdoku.server.indexer;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Progress of a workspace reindexation, stored in the workspace index itself so it is
+ * dropped along with the index.
+ * <p>
+ * Masters are walked in key order, documents first then parts. The checkpoint is sent in
+ * the same bulk stream as the iterations it covers, so it never gets ahead of them:
+ * resuming may index a page twice, which is harmless since requests are upserts.
+ */
+public class ReindexCheckpoint {
+
+    public enum Phase {
+        DOCUMENTS, PARTS, DONE
+    }
+
+    protected static final String TYPE = "reindex";
+    protected static final String ID = "checkpoint";
+
+    private static final String PHASE_KEY = "phase";
+    private static final String LAST_KEY = "lastKey";
+    private static final String DOCUMENT_ITERATIONS_KEY = "documentIterations";
+    private static final String PART_ITERATIONS_KEY = "partIterations";
+
+    private final String workspaceId;
+    private Phase phase = Phase.DOCUMENTS;
+    private String lastKey = "";
+    private long documentIterations;
+    private long partIterations;
+
+    public ReindexCheckpoint(String workspaceId) {
+        this.workspaceId = workspaceId;
+    }
+
+    public static ReindexCheckpoint fromSource(String workspaceId, Map<String, Object> source) {
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(workspaceId);
+        checkpoint.phase = Phase.valueOf((String) source.get(PHASE_KEY));
+        checkpoint.lastKey = (String) source.get(LAST_KEY);
+        checkpoint.documentIterations = ((Number) source.get(DOCUMENT_ITERATIONS_KEY)).longValue();
+        checkpoint.partIterations = ((Number) source.get(PART_ITERATIONS_KEY)).longValue();
+        return checkpoint;
+    }
+
+    public XContentBuilder toJSON() throws IOException {
+        return XContentFactory.jsonBuilder()
+                .startObject()
+                .field(PHASE_KEY, phase.name())
+                .field(LAST_KEY, lastKey)
+                .field(DOCUMENT_ITERATIONS_KEY, documentIterations)
+                .field(PART_ITERATIONS_KEY, partIterations)
+                .endObject();
+    }
+
+    public String getWorkspaceId() {
+        return workspaceId;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public String getLastKey() {
+        return lastKey;
+    }
+
+    public long getDocumentIterations() {
+        return documentIterations;
+    }
+
+    public long getPartIterations() {
+        return partIterations;
+    }
+
+    public boolean isDone() {
+        return phase == Phase.DONE;
+    }
+
+    /**
+     * Records a page of masters, moving to the next phase when it is the last one.
+     *
+     * @param lastPageKey the key of the last master of the page
+     * @param iterations  the number of iterations sent for the page
+     * @param lastPage    whether there are no more masters in the current phase
+     */
+    public void advance(String lastPageKey, int iterations, boolean lastPage) {
+        if (phase == Phase.DOCUMENTS) {
+            documentIterations += iterations;
+        } else if (phase == Phase.PARTS) {
+            partIterations += iterations;
+        }
+        if (lastPage) {
+            phase = phase == Phase.DOCUMENTS ? Phase.PARTS : Phase.DONE;
+            lastKey = "";
+        } else {
+            lastKey = lastPageKey;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return workspaceId + "/" + phase + "/" + lastKey;
+    }
+}
@@ -33,6 +33,7 @@ import com.docdoku.core.services.IProductBaselineManagerLocal;
 import com.docdoku.core.services.IProductManagerLocal;
 import com.docdoku.core.services.IUserManagerLocal;
 import com.docdoku.core.util.Tools;
+import com.docdoku.server.ACLPermissionIndex;
 import com.docdoku.server.configuration.PSFilterVisitor;
 import com.docdoku.server.configuration.filter.LatestPSFilter;
 import com.docdoku.server.configuration.filter.ReleasedPSFilter;
@@ -63,6 +64,9 @@ public class ProductBaselineManagerBean implements IProductBaselineManagerLocal
     @Inject
     private IProductManagerLocal productManager;
 
+    @Inject
+    private ACLPermissionIndex aclPermissionIndex;
+
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
     @Override
     public ProductBaseline createBaseline(ConfigurationItemKey ciKey, String name, ProductBaselineType pType, String description, List<PartIterationKey> partIterationKeys, List<String> substituteLinks, List<String> optionalUsageLinks) throws UserNotFoundException, AccessRightException, WorkspaceNotFoundException, ConfigurationItemNotFoundException, PartRevisionNotReleasedException, PartIterationNotFoundException, UserNotActiveException, NotAllowedException, EntityConstraintException, PartMasterNotFoundException, CreationException, BaselineNotFoundException, PathToPathLinkAlreadyExistsException, WorkspaceNotEnabledException {
@@ -508,6 +512,7 @@ public class ProductBaselineManagerBean implements IProductBaselineManagerLocal
             productConfiguration.setAcl(acl);
         } else {
             aclFactory.updateACL(workspaceId, productConfiguration.getAcl(), userEntries, groupEntries);
+            aclPermissionIndex.invalidate(productConfiguration.getAcl());
         }
     }
 
@@ -519,7 +524,7 @@ public class ProductBaselineManagerBean implements IProductBaselineManagerLocal
         if (productConfiguration.getAcl() == null) {
             // Check if the item haven't ACL
             return userManager.checkWorkspaceWriteAccess(workspaceId);
-        } else if (productConfiguration.getAcl().hasWriteAccess(user)) {
+        } else if (aclPermissionIndex.hasWriteAccess(user, productConfiguration.getAcl())) {
             // Check if there is a write access
             return user;
         } else {
@@ -537,7 +542,7 @@ public class ProductBaselineManagerBean implements IProductBaselineManagerLocal
         if (productConfiguration.getAcl() == null) {
             // Check if the item haven't ACL
             return userManager.checkWorkspaceReadAccess(workspaceId);
-        } else if (productConfiguration.getAcl().hasReadAccess(user)) {
+        } else if (aclPermissionIndex.hasReadAccess(user, productConfiguration.getAcl())) {
             // Check if there is a write access
             return user;
         } else {
@@ -564,6 +569,7 @@ public class ProductBaselineManagerBean implements IProductBaselineManagerLocal
         ACL acl = productConfiguration.getAcl();
         if (acl != null) {
             new ACLDAO(em).removeACLEntries(acl);
+            aclPermissionIndex.invalidate(acl);
             productConfiguration.setAcl(null);
         }
 
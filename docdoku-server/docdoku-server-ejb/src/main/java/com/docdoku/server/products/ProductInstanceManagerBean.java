@@ -35,6 +35,7 @@ import com.docdoku.core.services.IProductInstanceManagerLocal;
 import com.docdoku.core.services.IUserManagerLocal;
 import com.docdoku.core.util.NamingConvention;
 import com.docdoku.core.util.Tools;
+import com.docdoku.server.ACLPermissionIndex;
 import com.docdoku.server.LogDocument;
 import com.docdoku.server.configuration.PSFilterVisitor;
 import com.docdoku.server.configuration.spec.ProductBaselineConfigSpec;
@@ -72,6 +73,9 @@ public class ProductInstanceManagerBean implements IProductInstanceManagerLocal
     @Inject
     private IBinaryStorageManagerLocal storageManager;
 
+    @Inject
+    private ACLPermissionIndex aclPermissionIndex;
+
     private static final Logger LOGGER = Logger.getLogger(ProductInstanceManagerBean.class.getName());
 
     @RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
@@ -611,6 +615,7 @@ public class ProductInstanceManagerBean implements IProductInstanceManagerLocal
             prodInstM.setAcl(acl);
         } else {
             aclFactory.updateACL(workspaceId, prodInstM.getAcl(), userEntries, groupEntries);
+            aclPermissionIndex.invalidate(prodInstM.getAcl());
         }
     }
 
@@ -632,6 +637,7 @@ public class ProductInstanceManagerBean implements IProductInstanceManagerLocal
         ACL acl = prodInstM.getAcl();
         if (acl != null) {
             new ACLDAO(em).removeACLEntries(acl);
+            aclPermissionIndex.invalidate(acl);
             prodInstM.setAcl(null);
         }
     }
@@ -1237,7 +1243,7 @@ public class ProductInstanceManagerBean implements IProductInstanceManagerLocal
         if (prodInstM.getAcl() == null) {
             // Check if the item has no ACL
             return userManager.checkWorkspaceReadAccess(workspaceId);
-        } else if (prodInstM.getAcl().hasReadAccess(user)) {
+        } else if (aclPermissionIndex.hasReadAccess(user, prodInstM.getAcl())) {
             // Check if there is a write access
             return user;
         } else {
@@ -1254,7 +1260,7 @@ public class ProductInstanceManagerBean implements IProductInstanceManagerLocal
         if (prodInstM.getAcl() == null) {
             // Check if the item haven't ACL
             return userManager.checkWorkspaceWriteAccess(workspaceId);
-        } else if (prodInstM.getAcl().hasWriteAccess(user)) {
+        } else if (aclPermissionIndex.hasWriteAccess(user, prodInstM.getAcl())) {
             // Check if there is a write access
             return user;
         } else {
@@ -1264,7 +1270,7 @@ public class ProductInstanceManagerBean implements IProductInstanceManagerLocal
     }
 
     private boolean isACLGrantReadAccess(User user, ProductInstanceMaster productInstanceMaster) {
-        return user.isAdministrator() || productInstanceMaster.getAcl().hasReadAccess(user);
+        return user.isAdministrator() || aclPermissionIndex.hasReadAccess(user, productInstanceMaster.getAcl());
     }
 
     private void checkNameValidity(String name, Locale locale) throws NotAllowedException {
@@ -0,0 +1,259 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.storage;
+
+import com.docdoku.core.common.BinaryCacheStats;
+import com.docdoku.server.ConfigManager;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Server wide cache of binary resource contents, kept off-heap in direct buffers.
+ *
+ * Entries are evicted in least recently used order, but a new content only takes the
+ * place of the entries it would evict when it has been requested more often than each
+ * of them (TinyLFU admission), so that a scan of cold files does not flush the hot ones.
+ *
+ * Contents are keyed by binary resource full name. Every write, copy, move, rename or
+ * deletion going through {@link CachingStorageProvider} invalidates them; a content
+ * loaded while an invalidation happens is not kept. Changes made by other nodes sharing
+ * the vault do not go through this cache: each hit checks that the size and last
+ * modification time of the file are still those read before its content was loaded.
+ */
+@ApplicationScoped
+public class BinaryResourceCache {
+
+    public static final long DEFAULT_MAX_ENTRY_SIZE = 16L * 1024 * 1024;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final AtomicLong invalidationCounter = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder servedBytes = new LongAdder();
+
+    private long capacity;
+    private long maxEntrySize;
+    private long size;
+    private FrequencySketch sketch;
+
+    @Inject
+    private ConfigManager configManager;
+
+    public BinaryResourceCache() {
+    }
+
+    public BinaryResourceCache(long capacity, long maxEntrySize) {
+        configure(capacity, maxEntrySize);
+    }
+
+    @PostConstruct
+    private void init() {
+        configure(configManager.getBinaryCacheSize(), configManager.getBinaryCacheMaxEntrySize());
+    }
+
+    private void configure(long pCapacity, long pMaxEntrySize) {
+        capacity = Math.max(0, pCapacity);
+        maxEntrySize = Math.min(pMaxEntrySize > 0 ? pMaxEntrySize : DEFAULT_MAX_ENTRY_SIZE, Integer.MAX_VALUE);
+        // Sized for the number of small entries the cache could hold
+        sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1, capacity / (64 * 1024))));
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * @return a read only view of the cached content, or null on a miss or if the file has changed since
+     */
+    public ByteBuffer get(String key) {
+        sketch.increment(key);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && !entry.isValid()) {
+            synchronized (this) {
+                if (entries.remove(key, entry)) {
+                    size -= entry.content.limit();
+                }
+            }
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        servedBytes.add(entry.content.limit());
+        return entry.content.asReadOnlyBuffer();
+    }
+
+    /**
+     * The stamp to hand back to {@link #put} once the content has been loaded.
+     */
+    public long getStamp() {
+        return invalidationCounter.get();
+    }
+
+    /**
+     * Whether a content of this length would be admitted, checked before loading it.
+     */
+    public boolean isAdmissible(String key, long length) {
+        if (!isEnabled() || length > maxEntrySize || length > capacity) {
+            return false;
+        }
+        boolean admissible;
+        synchronized (this) {
+            admissible = selectVictims(key, length) != null;
+        }
+        if (!admissible) {
+            rejections.increment();
+        }
+        return admissible;
+    }
+
+    /**
+     * @param lastModified the last modification time of the file, read before loading the content
+     */
+    public void put(String key, File file, long lastModified, ByteBuffer content, long stamp) {
+        long length = content.limit();
+        synchronized (this) {
+            List<String> victims = isEnabled() && length <= maxEntrySize ? selectVictims(key, length) : null;
+            // Invalidated while being loaded, the content may be outdated
+            if (victims == null || stamp != invalidationCounter.get()) {
+                rejections.increment();
+                return;
+            }
+            for (String victim : victims) {
+                size -= entries.remove(victim).content.limit();
+                evictions.increment();
+            }
+            Entry previous = entries.put(key, new Entry(file, lastModified, content));
+            if (previous != null) {
+                size -= previous.content.limit();
+            }
+            size += length;
+        }
+        admissions.increment();
+    }
+
+    public void invalidate(String key) {
+        invalidationCounter.incrementAndGet();
+        synchronized (this) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                size -= entry.content.limit();
+            }
+        }
+    }
+
+    public void invalidateFile(File file) {
+        invalidationCounter.incrementAndGet();
+        synchronized (this) {
+            removeIf(entry -> entry.getValue().file.equals(file));
+        }
+    }
+
+    public void invalidatePrefix(String prefix) {
+        invalidationCounter.incrementAndGet();
+        synchronized (this) {
+            removeIf(entry -> entry.getKey().startsWith(prefix));
+        }
+    }
+
+    public BinaryCacheStats getStats() {
+        long cachedBytes;
+        synchronized (this) {
+            cachedBytes = size;
+        }
+        return new BinaryCacheStats(hits.sum(), misses.sum(), admissions.sum(), rejections.sum(), evictions.sum(),
+                invalidationCounter.get(), servedBytes.sum(), cachedBytes, capacity);
+    }
+
+    /**
+     * @return the entries to evict to make room for the candidate, or null if it is not admitted
+     */
+    private List<String> selectVictims(String key, long length) {
+        List<String> victims = new ArrayList<>();
+        Entry current = entries.get(key);
+        long free = capacity - size + (current != null ? current.content.limit() : 0);
+        if (free >= length) {
+            return victims;
+        }
+        int candidateFrequency = sketch.frequency(key);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            if (sketch.frequency(entry.getKey()) >= candidateFrequency) {
+                return null;
+            }
+            victims.add(entry.getKey());
+            free += entry.getValue().content.limit();
+            if (free >= length) {
+                return victims;
+            }
+        }
+        return null;
+    }
+
+    private void removeIf(Predicate<Map.Entry<String, Entry>> predicate) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (predicate.test(entry)) {
+                size -= entry.getValue().content.limit();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final File file;
+        private final long lastModified;
+        private final ByteBuffer content;
+
+        Entry(File file, long lastModified, ByteBuffer content) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+
+        boolean isValid() {
+            return file.lastModified() == lastModified && file.length() == content.limit();
+        }
+    }
+}
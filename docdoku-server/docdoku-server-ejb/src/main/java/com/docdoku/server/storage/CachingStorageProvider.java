@@ -0,0 +1,194 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.storage;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.VaultDeduplicationStats;
+import com.docdoku.core.exceptions.FileNotFoundException;
+import com.docdoku.core.exceptions.StorageException;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Read-through cache in front of a storage provider: binary resources read often
+ * enough are served from {@link BinaryResourceCache} instead of the vault. Every
+ * operation changing a binary resource invalidates its cached content, and cached
+ * contents are checked against the size and modification time of their file.
+ */
+public class CachingStorageProvider implements StorageProvider {
+
+    private final StorageProvider delegate;
+    private final BinaryResourceCache cache;
+
+    public CachingStorageProvider(StorageProvider delegate, BinaryResourceCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public InputStream getBinaryResourceInputStream(BinaryResource pBinaryResource) throws StorageException, FileNotFoundException {
+        String key = pBinaryResource.getFullName();
+        ByteBuffer cached = cache.get(key);
+        if (cached != null) {
+            return new ByteBufferInputStream(cached);
+        }
+
+        long stamp = cache.getStamp();
+        File file = delegate.getBinaryResourceFile(pBinaryResource);
+        if (!cache.isAdmissible(key, file.length())) {
+            return delegate.getBinaryResourceInputStream(pBinaryResource);
+        }
+
+        // Read before loading, a content changed meanwhile is not served again
+        long lastModified = file.lastModified();
+        ByteBuffer content = load(file);
+        cache.put(key, file, lastModified, content, stamp);
+        return new ByteBufferInputStream(content.asReadOnlyBuffer());
+    }
+
+    @Override
+    public File getBinaryResourceFile(BinaryResource pBinaryResource) throws StorageException, FileNotFoundException {
+        return delegate.getBinaryResourceFile(pBinaryResource);
+    }
+
+    @Override
+    public OutputStream getBinaryResourceOutputStream(BinaryResource pBinaryResource) throws StorageException {
+        String key = pBinaryResource.getFullName();
+        cache.invalidate(key);
+        return new FilterOutputStream(delegate.getBinaryResourceOutputStream(pBinaryResource)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Reads made while writing may have cached a partial content
+                    cache.invalidate(key);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void copyData(BinaryResource pSourceBinaryResource, BinaryResource pTargetBinaryResource) throws StorageException, FileNotFoundException {
+        delegate.copyData(pSourceBinaryResource, pTargetBinaryResource);
+        cache.invalidate(pTargetBinaryResource.getFullName());
+    }
+
+    @Override
+    public File copyFile(File file, BinaryResource pTargetBinaryResource) throws StorageException, FileNotFoundException {
+        File target = delegate.copyFile(file, pTargetBinaryResource);
+        cache.invalidate(pTargetBinaryResource.getFullName());
+        return target;
+    }
+
+    @Override
+    public void delData(BinaryResource pBinaryResource) throws StorageException {
+        delegate.delData(pBinaryResource);
+        cache.invalidate(pBinaryResource.getFullName());
+    }
+
+    @Override
+    public String getExternalResourceURI(BinaryResource binaryResource) {
+        return delegate.getExternalResourceURI(binaryResource);
+    }
+
+    @Override
+    public String getShortenExternalResourceURI(BinaryResource binaryResource) {
+        return delegate.getShortenExternalResourceURI(binaryResource);
+    }
+
+    @Override
+    public void deleteWorkspaceFolder(String workspaceId, List<BinaryResource> binaryResourcesInWorkspace) throws StorageException {
+        delegate.deleteWorkspaceFolder(workspaceId, binaryResourcesInWorkspace);
+        cache.invalidatePrefix(workspaceId + "/");
+    }
+
+    @Override
+    public void renameData(File file, String pNewName) throws StorageException {
+        delegate.renameData(file, pNewName);
+        cache.invalidateFile(file);
+        cache.invalidateFile(new File(file.getParentFile(), pNewName));
+    }
+
+    @Override
+    public boolean exists(BinaryResource binaryResource, String generatedFileName) {
+        return delegate.exists(binaryResource, generatedFileName);
+    }
+
+    @Override
+    public Date getLastModified(BinaryResource binaryResource, String generatedFileName) throws FileNotFoundException {
+        return delegate.getLastModified(binaryResource, generatedFileName);
+    }
+
+    @Override
+    public InputStream getGeneratedFileInputStream(BinaryResource pBinaryResource, String generatedFileName) throws StorageException, FileNotFoundException {
+        return delegate.getGeneratedFileInputStream(pBinaryResource, generatedFileName);
+    }
+
+    @Override
+    public OutputStream getGeneratedFileOutputStream(BinaryResource binaryResource, String generatedFileName) throws StorageException {
+        return delegate.getGeneratedFileOutputStream(binaryResource, generatedFileName);
+    }
+
+    @Override
+    public File getUploadFolder(String workspaceId, String uploadId) {
+        return delegate.getUploadFolder(workspaceId, uploadId);
+    }
+
+    @Override
+    public void moveData(File source, BinaryResource pTargetBinaryResource) throws StorageException {
+        delegate.moveData(source, pTargetBinaryResource);
+        cache.invalidate(pTargetBinaryResource.getFullName());
+    }
+
+    @Override
+    public VaultDeduplicationStats deduplicate() throws StorageException {
+        return delegate.deduplicate();
+    }
+
+    private ByteBuffer load(File file) throws StorageException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer content = ByteBuffer.allocateDirect((int) channel.size());
+            int read;
+            do {
+                read = channel.read(content);
+            } while (read >= 0 && content.hasRemaining());
+            content.flip();
+            return content;
+        } catch (IOException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+}
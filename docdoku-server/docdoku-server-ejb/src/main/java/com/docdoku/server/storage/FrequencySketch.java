@@ -0,0 +1,91 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.storage;
+
+/**
+ * Approximate access frequencies, as used by TinyLFU admission. Four rows of 4-bit
+ * counters are indexed by different hashes of the key, the estimate being the
+ * smallest of them. Counters are halved once enough accesses have been recorded so
+ * that the frequencies follow the recent popularity of the keys.
+ */
+class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_FREQUENCY = 15;
+
+    private final long[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, expectedKeys) - 1) << 1;
+        // 16 counters of 4 bits per long
+        table = new long[ROWS][Math.max(1, width / 16)];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    synchronized int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, getCounter(row, index(hash, row)));
+        }
+        return frequency;
+    }
+
+    synchronized void increment(Object key) {
+        int hash = key.hashCode();
+        boolean incremented = false;
+        for (int row = 0; row < ROWS; row++) {
+            int index = index(hash, row);
+            if (getCounter(row, index) < MAX_FREQUENCY) {
+                table[row][index >>> 4] += 1L << ((index & 15) << 2);
+                incremented = true;
+            }
+        }
+        if (incremented && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (long[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (row[i] >>> 1) & RESET_MASK;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int getCounter(int row, int index) {
+        return (int) ((table[row][index >>> 4] >>> ((index & 15) << 2)) & 0xFL);
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+}
@@ -21,6 +21,7 @@
 package com.docdoku.server.storage;
 
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.VaultDeduplicationStats;
 import com.docdoku.core.exceptions.FileNotFoundException;
 import com.docdoku.core.exceptions.StorageException;
 
@@ -45,4 +46,7 @@ public interface StorageProvider {
     Date getLastModified(BinaryResource binaryResource, String generatedFileName) throws FileNotFoundException;
     InputStream getGeneratedFileInputStream(BinaryResource pBinaryResource, String generatedFileName) throws StorageException, FileNotFoundException;
     OutputStream getGeneratedFileOutputStream(BinaryResource binaryResource, String generatedFileName) throws StorageException;
+    File getUploadFolder(String workspaceId, String uploadId);
+    void moveData(File source, BinaryResource pTargetBinaryResource) throws StorageException;
+    VaultDeduplicationStats deduplicate() throws StorageException;
 }
@@ -0,0 +1,293 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.storage.filesystem;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.VaultDeduplicationStats;
+import com.docdoku.core.exceptions.FileNotFoundException;
+import com.docdoku.core.exceptions.StorageException;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * File storage where identical contents are stored once. Each content is kept as a
+ * blob named after its SHA-256 hash in the <code>.blobs</code> folder of the vault,
+ * and binary resources are hard links to their blob. Copying a binary resource
+ * only creates a link, and the number of links of a blob is its reference count:
+ * once the last binary resource is removed, the blob goes with it.
+ *
+ * Contents are never modified in place since they may be shared, a new content is
+ * written aside then linked in place of the previous one.
+ */
+public class ContentAddressedStorageProvider extends FileStorageProvider {
+
+    private static final String BLOBS_FOLDER = ".blobs";
+    private static final String TEMP_FOLDER = "tmp";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(ContentAddressedStorageProvider.class.getName());
+
+    private final Path blobsPath;
+
+    public ContentAddressedStorageProvider(String vaultPath) {
+        super(vaultPath);
+        blobsPath = Paths.get(vaultPath, BLOBS_FOLDER);
+    }
+
+    /**
+     * Link counts are needed to know whether a blob is still referenced.
+     */
+    public static boolean isSupported() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    }
+
+    @Override
+    public OutputStream getBinaryResourceOutputStream(BinaryResource pBinaryResource) throws StorageException {
+        Path target = Paths.get(getVirtualPath(pBinaryResource));
+        try {
+            Path content = createTempPath();
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            return new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(content)), digest) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        super.close();
+                        store(content, toHex(digest.digest()), target);
+                    }
+                }
+            };
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new StorageException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void copyData(BinaryResource pSourceBinaryResource, BinaryResource pTargetBinaryResource) throws StorageException, FileNotFoundException {
+        Path source = Paths.get(getVirtualPath(pSourceBinaryResource));
+        if (Files.exists(source)) {
+            try {
+                link(source, Paths.get(getVirtualPath(pTargetBinaryResource)));
+            } catch (IOException e) {
+                throw new StorageException("Error copying " + pSourceBinaryResource.getFullName() + " to " + pTargetBinaryResource.getFullName(), e);
+            }
+        } else {
+            throw new FileNotFoundException("Can't find source file to copy " + pSourceBinaryResource.getFullName());
+        }
+    }
+
+    @Override
+    public File copyFile(File source, BinaryResource pTargetBinaryResource) throws StorageException, FileNotFoundException {
+        if (source.exists()) {
+            Path target = Paths.get(getVirtualPath(pTargetBinaryResource));
+            try {
+                link(source.toPath(), target);
+                return target.toFile();
+            } catch (IOException e) {
+                throw new StorageException("Error copying " + source.getAbsolutePath() + " to " + pTargetBinaryResource.getFullName(), e);
+            }
+        } else {
+            throw new FileNotFoundException("Can't find source file to copy " + source.getAbsolutePath());
+        }
+    }
+
+    @Override
+    public void moveData(File source, BinaryResource pTargetBinaryResource) throws StorageException {
+        try {
+            store(source.toPath(), hash(source.toPath()), Paths.get(getVirtualPath(pTargetBinaryResource)));
+        } catch (IOException e) {
+            throw new StorageException("Error moving " + source.getAbsolutePath() + " to " + pTargetBinaryResource.getFullName(), e);
+        }
+    }
+
+    @Override
+    public void delData(BinaryResource pBinaryResource) {
+        Path file = Paths.get(getVirtualPath(pBinaryResource));
+        try {
+            // The blob and this file are the last links to the content
+            if (Files.exists(file) && getLinkCount(file) == 2) {
+                Path blob = getBlobPath(hash(file));
+                if (Files.exists(blob) && Files.isSameFile(blob, file)) {
+                    Files.delete(blob);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't release the blob of " + pBinaryResource.getFullName(), e);
+        }
+        super.delData(pBinaryResource);
+    }
+
+    @Override
+    public VaultDeduplicationStats deduplicate() throws StorageException {
+        VaultDeduplicationStats stats = new VaultDeduplicationStats();
+        Path vault = Paths.get(getVaultPath());
+        try {
+            Files.walkFileTree(vault, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // Skip the blobs, the generated files and the pending uploads
+                    String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                    boolean upload = dir.getParent() != null && vault.equals(dir.getParent().getParent()) && "uploads".equals(name);
+                    return dir.equals(blobsPath) || name.startsWith("_") || upload ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && !vault.equals(file.getParent())) {
+                        deduplicate(file, attrs, stats);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            removeUnusedBlobs(stats);
+        } catch (IOException e) {
+            throw new StorageException("Error deduplicating vault " + getVaultPath(), e);
+        }
+        return stats;
+    }
+
+    private void deduplicate(Path file, BasicFileAttributes attrs, VaultDeduplicationStats stats) throws IOException {
+        stats.addScannedFile();
+        Path blob = getBlobPath(hash(file));
+
+        if (Files.exists(blob) && Files.isSameFile(blob, file)) {
+            return;
+        }
+
+        BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+        if (current.size() != attrs.size() || !current.lastModifiedTime().equals(attrs.lastModifiedTime())) {
+            // Modified while hashing, left to the next run
+            return;
+        }
+
+        if (Files.exists(blob)) {
+            long released = getLinkCount(file) == 1 ? attrs.size() : 0;
+            link(blob, file);
+            stats.addDeduplicatedFile(released);
+        } else {
+            Files.createDirectories(blob.getParent());
+            Files.createLink(blob, file);
+        }
+    }
+
+    private void removeUnusedBlobs(VaultDeduplicationStats stats) throws IOException {
+        if (!Files.exists(blobsPath)) {
+            return;
+        }
+        Path tempPath = blobsPath.resolve(TEMP_FOLDER);
+        Files.walkFileTree(blobsPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(tempPath) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path blob, BasicFileAttributes attrs) throws IOException {
+                if (getLinkCount(blob) == 1) {
+                    Files.delete(blob);
+                    stats.addRemovedBlob();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Stores a content under its hash, unless it is already known, and links it at
+     * the target path in a single rename. The content is linked rather than moved to
+     * the blob so that it stays referenced until the target is in place.
+     */
+    private void store(Path content, String hash, Path target) throws IOException {
+        Path blob = getBlobPath(hash);
+        Files.createDirectories(blob.getParent());
+        try {
+            Files.createLink(blob, content);
+        } catch (FileAlreadyExistsException e) {
+            // Same content already stored
+        }
+        try {
+            link(blob, target);
+        } catch (NoSuchFileException e) {
+            // The blob has just been released, the content stays unshared until the next deduplication
+            link(content, target);
+        }
+        Files.delete(content);
+    }
+
+    private void link(Path existing, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path link = createTempPath();
+        Files.createLink(link, existing);
+        try {
+            Files.move(link, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(link);
+            throw e;
+        }
+    }
+
+    private Path createTempPath() throws IOException {
+        Path tempPath = blobsPath.resolve(TEMP_FOLDER);
+        Files.createDirectories(tempPath);
+        return tempPath.resolve(UUID.randomUUID().toString());
+    }
+
+    private Path getBlobPath(String hash) {
+        return blobsPath.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static int getLinkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+
+    private static String hash(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -21,14 +21,19 @@
 package com.docdoku.server.storage.filesystem;
 
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.VaultDeduplicationStats;
 import com.docdoku.core.exceptions.FileNotFoundException;
 import com.docdoku.core.exceptions.StorageException;
+import com.docdoku.core.util.FileChannelInputStream;
 import com.docdoku.core.util.FileIO;
 import com.docdoku.core.util.Tools;
 import com.docdoku.server.storage.StorageProvider;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
@@ -183,7 +188,36 @@ public class FileStorageProvider implements StorageProvider {
         }
     }
 
-    private String getVirtualPath(BinaryResource pBinaryResource) {
+    @Override
+    public VaultDeduplicationStats deduplicate() throws StorageException {
+        throw new StorageException("Vault deduplication is not enabled");
+    }
+
+    @Override
+    public File getUploadFolder(String workspaceId, String uploadId) {
+        return new File(vaultPath + "/" + workspaceId + "/uploads/" + uploadId);
+    }
+
+    @Override
+    public void moveData(File source, BinaryResource pTargetBinaryResource) throws StorageException {
+        File target = new File(getVirtualPath(pTargetBinaryResource));
+        target.getParentFile().mkdirs();
+        try {
+            try {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Error moving " + source.getAbsolutePath() + " to " + pTargetBinaryResource.getFullName(), e);
+        }
+    }
+
+    protected String getVaultPath() {
+        return vaultPath;
+    }
+
+    protected String getVirtualPath(BinaryResource pBinaryResource) {
         String normalizedName = Tools.unAccent(pBinaryResource.getFullName());
         return this.vaultPath + "/" + normalizedName;
     }
@@ -201,7 +235,7 @@ public class FileStorageProvider implements StorageProvider {
     private InputStream getInputStream(File file) throws StorageException, FileNotFoundException {
         if (file.exists()) {
             try {
-                return new BufferedInputStream(new FileInputStream(file));
+                return new FileChannelInputStream(file);
             } catch (java.io.FileNotFoundException e) {
                 throw new StorageException(e.getMessage(), e);
             }
@@ -0,0 +1,97 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.UserGroup;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.security.ACL;
+import com.docdoku.core.security.ACLPermission;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class ACLPermissionIndexTest {
+
+    private static final String WORKSPACE_ID = "TestWorkspace";
+
+    private ACLPermissionIndex index;
+    private User reader;
+    private User writer;
+    private UserGroup group;
+    private ACL acl;
+
+    @Before
+    public void setup() {
+        index = new ACLPermissionIndex();
+        Account account = new Account("admin", "admin", "admin@docdoku.com", "en", new Date(), null);
+        Workspace workspace = new Workspace(WORKSPACE_ID, account, "pDescription", false);
+        reader = new User(workspace, new Account("reader", "reader", "reader@docdoku.com", "en", new Date(), null));
+        writer = new User(workspace, new Account("writer", "writer", "writer@docdoku.com", "en", new Date(), null));
+        group = new UserGroup(workspace, "group");
+        group.addUser(reader);
+
+        acl = new ACL();
+        acl.setId(1);
+        acl.addEntry(group, ACLPermission.READ_ONLY);
+        acl.addEntry(writer, ACLPermission.FULL_ACCESS);
+    }
+
+    @Test
+    public void resolvePermissionsTest() {
+        Assert.assertTrue(index.hasReadAccess(reader, acl));
+        Assert.assertFalse(index.hasWriteAccess(reader, acl));
+        Assert.assertTrue(index.hasReadAccess(writer, acl));
+        Assert.assertTrue(index.hasWriteAccess(writer, acl));
+    }
+
+    @Test
+    public void invalidateACLTest() {
+        Assert.assertTrue(index.hasReadAccess(reader, acl));
+
+        acl.addEntry(reader, ACLPermission.FORBIDDEN);
+        Assert.assertTrue("Resolved permissions are kept until invalidated", index.hasReadAccess(reader, acl));
+
+        index.invalidate(acl);
+        Assert.assertFalse(index.hasReadAccess(reader, acl));
+    }
+
+    @Test
+    public void invalidateWorkspaceTest() {
+        Assert.assertTrue(index.hasReadAccess(reader, acl));
+
+        group.removeUser(reader);
+        index.invalidateWorkspace(WORKSPACE_ID);
+        Assert.assertFalse(index.hasReadAccess(reader, acl));
+    }
+
+    @Test
+    public void invalidateOtherWorkspaceTest() {
+        Assert.assertTrue(index.hasReadAccess(reader, acl));
+
+        group.removeUser(reader);
+        index.invalidateWorkspace("OtherWorkspace");
+        Assert.assertTrue("Only the permissions of the given workspace are forgotten", index.hasReadAccess(reader, acl));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.product.ConversionQueueStats;
+import com.docdoku.server.converters.ConverterUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConversionSchedulerTest {
+
+    @Mock
+    ManagedExecutorService executorService;
+
+    @InjectMocks
+    ConversionScheduler scheduler;
+
+    private final List<Runnable> dispatched = new ArrayList<>();
+    private final List<String> rejected = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        // Keep the dispatched conversions, run by the test
+        doAnswer(invocation -> dispatched.add((Runnable) invocation.getArguments()[0]))
+                .when(executorService).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void conversionsWaitForAFreeWorkerTest() {
+        int workers = ConverterUtils.getConversionWorkers("dae");
+        List<String> ran = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            scheduler.submit("dae", 0, () -> ran.add("running"), () -> rejected.add("running"));
+        }
+        scheduler.submit("dae", 0, () -> ran.add("low"), () -> rejected.add("low"));
+        scheduler.submit("dae", 10, () -> ran.add("high"), () -> rejected.add("high"));
+
+        // Queued conversions hold no thread until a worker is free
+        Assert.assertEquals(workers, dispatched.size());
+        ConversionQueueStats stats = scheduler.getStats().get(0);
+        Assert.assertEquals(workers, stats.getRunning());
+        Assert.assertEquals(2, stats.getQueued());
+
+        // Each completion hands the next conversion, by priority
+        for (int i = 0; i < dispatched.size(); i++) {
+            dispatched.get(i).run();
+        }
+        Assert.assertEquals(workers + 2, ran.size());
+        Assert.assertEquals("high", ran.get(workers));
+        Assert.assertEquals("low", ran.get(workers + 1));
+
+        stats = scheduler.getStats().get(0);
+        Assert.assertEquals(0, stats.getRunning());
+        Assert.assertEquals(0, stats.getQueued());
+        Assert.assertEquals(workers + 2, stats.getCompleted());
+        Assert.assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    public void rejectedConversionIsEndedTest() {
+        doThrow(new RejectedExecutionException("shutting down")).when(executorService).execute(any(Runnable.class));
+
+        // Nothing is thrown to the submitter, the conversion is ended and its worker given back
+        scheduler.submit("obj", 0, () -> {
+        }, () -> rejected.add("rejected"));
+
+        Assert.assertEquals(Collections.singletonList("rejected"), rejected);
+        ConversionQueueStats stats = scheduler.getStats().get(0);
+        Assert.assertEquals(0, stats.getRunning());
+        Assert.assertEquals(0, stats.getQueued());
+    }
+
+    @Test
+    public void failedConversionReleasesItsWorkerTest() {
+        int workers = ConverterUtils.getConversionWorkers("step");
+        for (int i = 0; i < workers; i++) {
+            scheduler.submit("step", 0, () -> {
+                throw new IllegalStateException("converter crashed");
+            }, () -> rejected.add("crashed"));
+        }
+        scheduler.submit("step", 0, () -> {
+        }, () -> rejected.add("next"));
+
+        try {
+            dispatched.get(0).run();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // The next conversion is dispatched anyway
+            Assert.assertEquals(workers + 1, dispatched.size());
+        }
+    }
+}
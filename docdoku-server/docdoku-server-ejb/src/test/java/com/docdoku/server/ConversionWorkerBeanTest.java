@@ -0,0 +1,184 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.product.Geometry;
+import com.docdoku.core.product.PartIterationKey;
+import com.docdoku.core.services.IBinaryStorageManagerLocal;
+import com.docdoku.server.converters.CADConverter;
+import com.docdoku.server.converters.ConversionResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.ejb.SessionContext;
+import javax.persistence.EntityManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConversionWorkerBeanTest {
+
+    @Mock
+    BeanLocator locator;
+
+    @Mock
+    EntityManager em;
+
+    @Mock
+    IBinaryStorageManagerLocal storage;
+
+    @Mock
+    SessionContext ctx;
+
+    @InjectMocks
+    ConversionWorkerBean bean;
+
+    @Mock
+    ConversionWorkerBean worker;
+
+    @Mock
+    PartIterationKey ipk;
+
+    @Mock
+    BinaryResource cadBinRes;
+
+    @Mock
+    CADConverter conv;
+
+    @Mock
+    ConversionResult result;
+
+    @Mock
+    Geometry lod;
+
+    @Mock
+    BinaryResource attachedFile;
+
+    @Before
+    public void setup() throws Exception {
+        // Transactional steps go through the business object
+        when(ctx.getBusinessObject(ConversionWorkerBean.class)).thenReturn(worker);
+        when(worker.startConversion(ipk)).thenReturn(cadBinRes);
+
+        when(cadBinRes.getName()).thenReturn("foo.dae");
+        when(storage.getBinaryResourceInputStream(cadBinRes))
+                .thenReturn(new ByteArrayInputStream("fake content".getBytes()));
+
+        when(worker.saveGeometryInPartIteration(eq(ipk), anyString(), anyInt(), anyLong(), any(double[].class)))
+                .thenReturn(lod);
+        when(storage.getBinaryResourceOutputStream(lod)).thenReturn(new ByteArrayOutputStream());
+        when(storage.getGeneratedFileOutputStream(eq(lod), any())).thenReturn(new ByteArrayOutputStream());
+
+        when(worker.saveFileInPartIteration(eq(ipk), anyString(), eq("attachedfiles"), anyLong()))
+                .thenReturn(attachedFile, attachedFile);
+        when(storage.getBinaryResourceOutputStream(attachedFile)).thenReturn(new ByteArrayOutputStream());
+
+        when(conv.canConvertToOBJ("dae")).thenReturn(true);
+
+        when(result.getConvertedFile()).thenReturn(Paths.get("src/test/resources/fake.obj"));
+        when(result.getMaterials()).thenReturn(Arrays.asList(Paths.get("src/test/resources/fake.obj.1.mtl"),
+                Paths.get("src/test/resources/fake.obj.2.mtl")));
+
+        when(conv.convert(any(URI.class), any(URI.class))).thenReturn(result);
+
+        when(locator.search(CADConverter.class)).thenReturn(Arrays.asList(conv));
+
+        bean.init();
+    }
+
+    @Test
+    public void testNominalConvert() throws Exception {
+        // * test *
+        bean.convert(ipk);
+        verify(locator).search(CADConverter.class);
+        verify(conv).canConvertToOBJ("dae");
+        verify(conv).convert(any(URI.class), any(URI.class));
+        // Full resolution, then size-less creation and length update of both decimated levels
+        verify(worker).saveGeometryInPartIteration(eq(ipk), anyString(), eq(0), anyLong(), any(double[].class));
+        verify(worker, times(2)).saveGeometryInPartIteration(eq(ipk), anyString(), eq(1), anyLong(), any(double[].class));
+        verify(worker, times(2)).saveGeometryInPartIteration(eq(ipk), anyString(), eq(2), anyLong(), any(double[].class));
+        verify(storage, times(3)).getBinaryResourceOutputStream(lod);
+        verify(storage, times(3)).getGeneratedFileOutputStream(eq(lod), any());
+        verify(worker, times(2)).saveFileInPartIteration(eq(ipk), anyString(), eq("attachedfiles"), anyLong());
+        verify(storage, times(2)).getBinaryResourceOutputStream(attachedFile);
+        verify(worker).endConversion(ipk, true);
+    }
+
+    @Test
+    public void testNoConverter() throws Exception {
+        // * setup *
+        when(cadBinRes.getName()).thenReturn("foo.unknown");
+
+        // * test *
+        bean.convert(ipk);
+
+        verify(conv).canConvertToOBJ("unknown");
+        verify(conv, never()).convert(any(), any());
+        verify(worker, never()).saveGeometryInPartIteration(any(), anyString(), anyInt(), anyLong(), any());
+        verify(worker, never()).saveFileInPartIteration(any(), anyString(), anyString(), anyLong());
+        verify(storage, never()).getBinaryResourceOutputStream(any());
+        verify(worker).endConversion(ipk, false);
+    }
+
+    @Test
+    public void testNoLongerPending() throws Exception {
+        // * setup *
+        when(worker.startConversion(ipk)).thenReturn(null);
+
+        // * test *
+        bean.convert(ipk);
+
+        verify(conv, never()).convert(any(), any());
+        verify(worker, never()).endConversion(any(), anyBoolean());
+    }
+
+    @Test
+    public void testBrokenConvert() throws Exception {
+        // * setup *
+        when(conv.convert(any(URI.class), any(URI.class))).thenThrow(new CADConverter.ConversionException("error"));
+
+        // * test *
+        bean.convert(ipk);
+
+        verify(conv).canConvertToOBJ("dae");
+        verify(conv).convert(any(URI.class), any(URI.class));
+        verify(worker, never()).saveGeometryInPartIteration(any(), anyString(), anyInt(), anyLong(), any());
+        verify(worker, never()).saveFileInPartIteration(any(), anyString(), anyString(), anyLong());
+        verify(storage, never()).getBinaryResourceOutputStream(any());
+        verify(worker).endConversion(ipk, false);
+    }
+
+}
@@ -1,27 +1,20 @@
 package com.docdoku.server;
 
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.product.Conversion;
 import com.docdoku.core.product.Geometry;
-import com.docdoku.core.product.PartIteration;
 import com.docdoku.core.product.PartIterationKey;
+import com.docdoku.core.product.PartIteration;
 import com.docdoku.core.services.IBinaryStorageManagerLocal;
 import com.docdoku.core.services.IProductManagerLocal;
-import com.docdoku.server.converters.CADConverter;
-import com.docdoku.server.converters.ConversionResult;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import javax.persistence.EntityManager;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.net.URI;
-import java.nio.file.Paths;
-import java.util.Arrays;
-
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
@@ -33,16 +26,16 @@ import static org.mockito.Mockito.*;
 public class ConverterBeanTest {
 
     @Mock
-    BeanLocator locator;
+    IProductManagerLocal product;
 
     @Mock
-    EntityManager em;
+    IBinaryStorageManagerLocal storage;
 
     @Mock
-    IProductManagerLocal product;
+    ConversionScheduler scheduler;
 
     @Mock
-    IBinaryStorageManagerLocal storage;
+    ConversionWorkerBean worker;
 
     @InjectMocks
     ConverterBean bean;
@@ -50,94 +43,94 @@ public class ConverterBeanTest {
     @Mock
     PartIterationKey ipk;
 
-    @Mock
-    PartIteration partIter;
-
     @Mock
     BinaryResource cadBinRes;
 
-    @Mock
-    CADConverter conv;
-
-    @Mock
-    ConversionResult result;
-
     @Mock
     Geometry lod;
 
-    @Mock
-    BinaryResource attachedFile;
-
     @Before
     public void setup() throws Exception {
         when(cadBinRes.getName()).thenReturn("foo.dae");
-        when(em.find(PartIteration.class, ipk)).thenReturn(partIter);
-        when(storage.getBinaryResourceInputStream(cadBinRes))
-                .thenReturn(new ByteArrayInputStream("fake content".getBytes()));
-
+        when(worker.canConvert(cadBinRes)).thenReturn(true);
+        when(worker.claimConversion(ipk)).thenReturn(true);
         when(product.saveGeometryInPartIteration(eq(ipk), anyString(), anyInt(), anyLong(), any(double[].class)))
                 .thenReturn(lod);
-        when(storage.getBinaryResourceOutputStream(lod)).thenReturn(new ByteArrayOutputStream());
-
-        when(product.saveFileInPartIteration(eq(ipk), anyString(), eq("attachedfiles"), anyLong()))
-                .thenReturn(attachedFile, attachedFile);
-        when(storage.getBinaryResourceOutputStream(attachedFile)).thenReturn(new ByteArrayOutputStream());
-
-        when(conv.canConvertToOBJ("dae")).thenReturn(true);
+    }
 
-        when(result.getConvertedFile()).thenReturn(Paths.get("src/test/resources/fake.obj"));
-        when(result.getMaterials()).thenReturn(Arrays.asList(Paths.get("src/test/resources/fake.obj.1.mtl"),
-                Paths.get("src/test/resources/fake.obj.2.mtl")));
+    @Test
+    public void testQueuedConvert() throws Exception {
+        // * test *
+        bean.convertCADFileToOBJ(ipk, cadBinRes, Conversion.BATCH_PRIORITY);
+
+        verify(product).createConversion(ipk, Conversion.BATCH_PRIORITY);
+        verify(worker).claimConversion(ipk);
+        ArgumentCaptor<Runnable> conversion = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Runnable> rejection = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).submit(eq("dae"), eq(Conversion.BATCH_PRIORITY), conversion.capture(), rejection.capture());
+        verify(worker, never()).convert(any());
+
+        // The worker runs the conversion once dispatched
+        conversion.getValue().run();
+        verify(worker).convert(ipk);
+
+        // A conversion rejected by the executor is ended
+        rejection.getValue().run();
+        verify(worker).rejectConversion(ipk);
+    }
 
-        when(conv.convert(any(URI.class), any(URI.class))).thenReturn(result);
+    @Test
+    public void testClaimedByAnotherNode() throws Exception {
+        // * setup *
+        when(worker.claimConversion(ipk)).thenReturn(false);
 
-        when(locator.search(CADConverter.class)).thenReturn(Arrays.asList(conv));
+        // * test *
+        bean.convertCADFileToOBJ(ipk, cadBinRes);
 
-        bean.init();
+        verify(product).createConversion(ipk, Conversion.INTERACTIVE_PRIORITY);
+        verify(scheduler, never()).submit(anyString(), anyInt(), any(), any());
     }
 
     @Test
-    public void testNominalConvert() throws Exception {
+    public void testNoConverter() throws Exception {
+        // * setup *
+        when(worker.canConvert(cadBinRes)).thenReturn(false);
+
         // * test *
         bean.convertCADFileToOBJ(ipk, cadBinRes);
-        verify(locator).search(CADConverter.class);
-        verify(conv).canConvertToOBJ("dae");
-        verify(conv).convert(any(URI.class), any(URI.class));
-        verify(product).saveGeometryInPartIteration(eq(ipk), anyString(), anyInt(), anyLong(), any(double[].class));
-        verify(storage).getBinaryResourceOutputStream(lod);
-        verify(product, times(2)).saveFileInPartIteration(eq(ipk), anyString(), eq("attachedfiles"), anyLong());
-        verify(storage, times(2)).getBinaryResourceOutputStream(attachedFile);
+
+        verify(scheduler, never()).submit(anyString(), anyInt(), any(), any());
+        verify(product).endConversion(ipk, false);
     }
 
     @Test
-    public void testNoConverter() throws Exception {
+    public void testAlreadyPending() throws Exception {
         // * setup *
-        when(cadBinRes.getName()).thenReturn("foo.unknown");
+        Conversion pending = new Conversion(new PartIteration(), Conversion.INTERACTIVE_PRIORITY);
+        when(product.getConversion(ipk)).thenReturn(pending);
 
         // * test *
         bean.convertCADFileToOBJ(ipk, cadBinRes);
 
-        verify(locator).search(CADConverter.class);
-        verify(conv).canConvertToOBJ("unknown");
-        verify(conv, never()).convert(any(), any());
-        verify(product, never()).saveGeometryInPartIteration(any(), anyString(), anyInt(), anyLong(), any());
-        verify(product, never()).saveFileInPartIteration(any(), anyString(), anyString(), anyLong());
-        verify(storage, never()).getBinaryResourceOutputStream(any());
+        verify(product, never()).createConversion(any(), anyInt());
+        verify(scheduler, never()).submit(anyString(), anyInt(), any(), any());
     }
 
     @Test
-    public void testBrokenConvert() throws Exception {
+    public void testAlreadyConvertedFile() throws Exception {
         // * setup *
-        when(conv.convert(any(URI.class), any(URI.class))).thenThrow(new CADConverter.ConversionException("error"));
+        PartIteration source = new PartIteration();
+        Geometry sourceGeometry = new Geometry(0, "wks/parts/foo/A/1/foo100.obj", 42, null);
+        source.addGeometry(sourceGeometry);
+        when(product.findConvertedPartIterationWithSameNativeCAD(ipk)).thenReturn(source);
 
         // * test *
         bean.convertCADFileToOBJ(ipk, cadBinRes);
 
-        verify(conv).canConvertToOBJ("dae");
-        verify(conv).convert(any(URI.class), any(URI.class));
-        verify(product, never()).saveGeometryInPartIteration(any(), anyString(), anyInt(), anyLong(), any());
-        verify(product, never()).saveFileInPartIteration(any(), anyString(), anyString(), anyLong());
-        verify(storage, never()).getBinaryResourceOutputStream(any());
+        verify(scheduler, never()).submit(anyString(), anyInt(), any(), any());
+        verify(product).saveGeometryInPartIteration(eq(ipk), eq("foo100.obj"), eq(0), eq(42L), any(double[].class));
+        verify(storage).copyData(sourceGeometry, lod);
+        verify(product).endConversion(ipk, true);
     }
 
 }
@@ -0,0 +1,122 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.product.ConfigurationItem;
+import com.docdoku.core.product.ConfigurationItemKey;
+import com.docdoku.core.product.PartRevisionKey;
+import com.docdoku.core.product.SerialNumberBasedEffectivity;
+import com.docdoku.core.services.IUserManagerLocal;
+import com.docdoku.server.configuration.EffectivityIndexCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class EffectivityManagerBeanTest {
+
+    private static final String WORKSPACE_ID = "TestWorkspace";
+    private static final String CI_ID = "CI";
+
+    @InjectMocks
+    private EffectivityManagerBean effectivityManager = new EffectivityManagerBean();
+    @Mock
+    private EntityManager em;
+    @Mock
+    private IUserManagerLocal userManager;
+    @Spy
+    private EffectivityIndexCache effectivityIndexCache = new EffectivityIndexCache();
+
+    @Mock
+    private TypedQuery<Object[]> stateQuery;
+    @Mock
+    private TypedQuery<Object[]> effectivitiesQuery;
+
+    private SerialNumberBasedEffectivity effectivity;
+    private PartRevisionKey partRevisionKey;
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+        Workspace workspace = new Workspace(WORKSPACE_ID, new Account("admin", "admin", "admin@docdoku.com", "en", new Date(), null), "description", false);
+        User user = new User(workspace, new Account("user1", "user1", "user1@docdoku.com", "en", new Date(), null));
+        ConfigurationItemKey ciKey = new ConfigurationItemKey(WORKSPACE_ID, CI_ID);
+        ConfigurationItem configurationItem = new ConfigurationItem(user, workspace, CI_ID, "description");
+
+        effectivity = new SerialNumberBasedEffectivity();
+        effectivity.setConfigurationItem(configurationItem);
+        effectivity.setStartNumber("1");
+        effectivity.setEndNumber("10");
+        partRevisionKey = new PartRevisionKey(WORKSPACE_ID, "PART-001", "A");
+
+        Mockito.when(userManager.checkWorkspaceReadAccess(WORKSPACE_ID)).thenReturn(user);
+        Mockito.when(em.find(ConfigurationItem.class, ciKey)).thenReturn(configurationItem);
+        Mockito.when(em.createNamedQuery("Effectivity.getPartRevisionEffectivitiesStateOfConfigurationItem", Object[].class)).thenReturn(stateQuery);
+        Mockito.when(em.createNamedQuery("Effectivity.findPartRevisionEffectivitiesOfConfigurationItem", Object[].class)).thenReturn(effectivitiesQuery);
+        Mockito.when(stateQuery.setParameter(anyString(), Mockito.any())).thenReturn(stateQuery);
+        Mockito.when(effectivitiesQuery.setParameter(anyString(), Mockito.any())).thenReturn(effectivitiesQuery);
+        Mockito.when(stateQuery.getSingleResult()).thenReturn(new Object[]{1L, 1, 0L});
+        Mockito.when(effectivitiesQuery.getResultList()).thenReturn(Collections.singletonList(new Object[]{"PART-001", "A", effectivity}));
+    }
+
+    @Test
+    public void indexIsReusedWhileEffectivitiesAreUnchanged() throws Exception {
+        Assert.assertEquals(Collections.singleton(partRevisionKey), resolve("5"));
+        Assert.assertEquals(Collections.singleton(partRevisionKey), resolve("5"));
+
+        Mockito.verify(stateQuery, Mockito.times(2)).getSingleResult();
+        Mockito.verify(effectivitiesQuery, Mockito.times(1)).getResultList();
+    }
+
+    @Test
+    public void indexIsRebuiltWhenTheStoredStateChanges() throws Exception {
+        Assert.assertEquals(Collections.singleton(partRevisionKey), resolve("5"));
+
+        // Updated by another node, only the database tells
+        effectivity.setEndNumber("3");
+        Mockito.when(stateQuery.getSingleResult()).thenReturn(new Object[]{1L, 1, 1L});
+
+        Assert.assertTrue(resolve("5").isEmpty());
+        Mockito.verify(effectivitiesQuery, Mockito.times(2)).getResultList();
+    }
+
+    private Set<PartRevisionKey> resolve(String serialNumber) throws Exception {
+        Map<String, Set<PartRevisionKey>> partRevisions = effectivityManager.resolveSerialNumbers(WORKSPACE_ID, CI_ID, Collections.singletonList(serialNumber));
+        return partRevisions.getOrDefault(serialNumber, Collections.emptySet());
+    }
+}
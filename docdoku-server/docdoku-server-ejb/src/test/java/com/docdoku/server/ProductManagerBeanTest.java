@@ -27,6 +27,7 @@ import com.docdoku.core.document.DocumentRevisionKey;
 import com.docdoku.core.exceptions.*;
 import com.docdoku.core.meta.*;
 import com.docdoku.core.product.*;
+import com.docdoku.core.query.QueryResultRow;
 import com.docdoku.core.services.IContextManagerLocal;
 import com.docdoku.core.services.IIndexerManagerLocal;
 import com.docdoku.core.services.IUserManagerLocal;
@@ -82,6 +83,9 @@ public class ProductManagerBeanTest {
     @Mock
     private TypedQuery<ConfigurationItem> configurationItemTypedQuery;
 
+    @Mock
+    private TypedQuery<PartMaster> partMasterTypedQuery;
+
     @Spy
     private PathToPathLinkDAO pathToPathLinkDAO = new PathToPathLinkDAO(Locale.getDefault(),em);
 
@@ -321,6 +325,9 @@ public class ProductManagerBeanTest {
         cyclicAssemblyRule = new CyclicAssemblyRule("user1");
         Mockito.when(em.find(PartMaster.class, cyclicAssemblyRule.getP1().getKey())).thenReturn(cyclicAssemblyRule.getP1());
         Mockito.when(em.find(PartMaster.class, cyclicAssemblyRule.getP2().getKey())).thenReturn(cyclicAssemblyRule.getP2());
+        Mockito.when(em.createNamedQuery("PartMaster.findByNumbers", PartMaster.class)).thenReturn(partMasterTypedQuery);
+        Mockito.when(partMasterTypedQuery.setParameter(Matchers.anyString(), Matchers.any())).thenReturn(partMasterTypedQuery);
+        Mockito.when(partMasterTypedQuery.getResultList()).thenReturn(Arrays.asList(cyclicAssemblyRule.getP1(), cyclicAssemblyRule.getP2()));
         Mockito.when(userManager.checkWorkspaceReadAccess(Matchers.anyString())).thenReturn(cyclicAssemblyRule.getUser());
 
         thrown.expect(EntityConstraintException.class);
@@ -355,6 +362,43 @@ public class ProductManagerBeanTest {
 
     }
 
+    @Test
+    public void pathToPathLinksMapOtherEndOfRows() throws Exception {
+        ConfigurationItemKey ciKey = new ConfigurationItemKey(ProductUtil.WORKSPACE_ID, "CI");
+        List<PartLink> sourcePath = Collections.singletonList(Mockito.mock(PartLink.class));
+        List<PartLink> targetPath = Collections.singletonList(Mockito.mock(PartLink.class));
+        List<PartLink> unwalkedPath = Collections.singletonList(Mockito.mock(PartLink.class));
+
+        QueryResultRow sourceRow = new QueryResultRow();
+        sourceRow.setPath("u1");
+        QueryResultRow targetRow = new QueryResultRow();
+        targetRow.setPath("u2");
+        Map<String, List<PartLink>> walkedPaths = new HashMap<>();
+        walkedPaths.put("u1", sourcePath);
+        walkedPaths.put("u2", targetPath);
+
+        List<PathToPathLink> pathToPathLinks = Arrays.asList(
+                new PathToPathLink("wired", "u1", "u2", null),
+                new PathToPathLink("cabled", "u1", "u9", null),
+                new PathToPathLink("cabled", "u2", "u9", null));
+
+        ProductManagerBean bean = Mockito.spy(productManagerBean);
+        Mockito.doReturn(unwalkedPath).when(bean).decodePath(ciKey, "u9");
+
+        bean.addPathToPathLinks(ciKey, Arrays.asList(sourceRow, targetRow), pathToPathLinks, walkedPaths);
+
+        // Sources receive the target path, targets receive the source path
+        Assert.assertEquals(targetPath, sourceRow.getSources().get("wired").get(0).getPath());
+        Assert.assertEquals(sourcePath, targetRow.getTargets().get("wired").get(0).getPath());
+        Assert.assertNull(sourceRow.getTargets().get("wired"));
+        Assert.assertNull(targetRow.getSources().get("wired"));
+
+        // Ends the walk did not reach are decoded once
+        Assert.assertEquals(unwalkedPath, sourceRow.getSources().get("cabled").get(0).getPath());
+        Assert.assertEquals(unwalkedPath, targetRow.getSources().get("cabled").get(0).getPath());
+        Mockito.verify(bean, Mockito.times(1)).decodePath(ciKey, "u9");
+    }
+
     @Test(expected = NotAllowedException.class)
     public void getPartIterationCheckedOutByOther() throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, PartRevisionNotFoundException, AccessRightException, PartIterationNotFoundException, NotAllowedException, WorkspaceNotEnabledException {
         Mockito.when(userManager.checkWorkspaceReadAccess(partRevision.getKey().getPartMaster().getWorkspace())).thenReturn(user2);
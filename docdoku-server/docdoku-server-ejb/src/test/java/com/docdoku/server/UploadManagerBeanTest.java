@@ -0,0 +1,126 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.UploadSession;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.exceptions.NotAllowedException;
+import com.docdoku.core.services.IBinaryStorageManagerLocal;
+import com.docdoku.core.services.IUserManagerLocal;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Random;
+
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class UploadManagerBeanTest {
+
+    private static final String WORKSPACE_ID = "TestWorkspace";
+    private static final int CHUNK_SIZE = UploadManagerBean.MIN_CHUNK_SIZE;
+
+    @Rule
+    public TemporaryFolder vault = new TemporaryFolder();
+
+    @InjectMocks
+    private UploadManagerBean uploadManager;
+    @Mock
+    private IUserManagerLocal userManager;
+    @Mock
+    private IBinaryStorageManagerLocal storageManager;
+
+    private File target;
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+        Account account = new Account("user1", "user1", "user1@docdoku.com", "en", new Date(), null);
+        Workspace workspace = new Workspace(WORKSPACE_ID, account, "pDescription", false);
+        User user = new User(workspace, account);
+        target = new File(vault.getRoot(), "target");
+
+        Mockito.when(userManager.checkWorkspaceWriteAccess(WORKSPACE_ID)).thenReturn(user);
+        Mockito.when(storageManager.getUploadFolder(Mockito.eq(WORKSPACE_ID), Mockito.anyString()))
+                .thenAnswer(invocation -> new File(vault.getRoot(), WORKSPACE_ID + "/uploads/" + invocation.getArguments()[1]));
+        Mockito.doAnswer(invocation -> Files.move(((File) invocation.getArguments()[0]).toPath(), target.toPath()))
+                .when(storageManager).moveData(Mockito.any(File.class), Mockito.any(BinaryResource.class));
+    }
+
+    @Test
+    public void uploadChunksInAnyOrderTest() throws Exception {
+        byte[] content = new byte[CHUNK_SIZE * 2 + 100];
+        new Random(42).nextBytes(content);
+
+        UploadSession session = uploadManager.createUpload(WORKSPACE_ID, "model.stp", content.length, CHUNK_SIZE);
+        Assert.assertEquals(3, session.getChunkCount());
+
+        writeChunk(session, 2, content);
+        writeChunk(session, 0, content);
+
+        UploadSession pending = uploadManager.getUpload(WORKSPACE_ID, session.getId());
+        Assert.assertFalse(pending.isComplete());
+        Assert.assertEquals(Arrays.asList((long) CHUNK_SIZE), pending.getMissingOffsets());
+        Assert.assertEquals(CHUNK_SIZE + 100, pending.getReceivedLength());
+
+        writeChunk(session, 1, content);
+        Assert.assertTrue(uploadManager.getUpload(WORKSPACE_ID, session.getId()).isComplete());
+
+        uploadManager.commitUpload(WORKSPACE_ID, session.getId(), new BinaryResource("model.stp", content.length, new Date()));
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test(expected = NotAllowedException.class)
+    public void rejectCorruptedChunkTest() throws Exception {
+        byte[] content = new byte[CHUNK_SIZE];
+        UploadSession session = uploadManager.createUpload(WORKSPACE_ID, "model.stp", content.length, CHUNK_SIZE);
+        String md5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(new byte[]{1}));
+        uploadManager.writeChunk(WORKSPACE_ID, session.getId(), 0, new ByteArrayInputStream(content), md5);
+    }
+
+    @Test(expected = NotAllowedException.class)
+    public void rejectIncompleteCommitTest() throws Exception {
+        UploadSession session = uploadManager.createUpload(WORKSPACE_ID, "model.stp", CHUNK_SIZE, CHUNK_SIZE);
+        uploadManager.commitUpload(WORKSPACE_ID, session.getId(), new BinaryResource("model.stp", CHUNK_SIZE, new Date()));
+    }
+
+    private void writeChunk(UploadSession session, int index, byte[] content) throws Exception {
+        int offset = (int) session.getChunkOffset(index);
+        byte[] chunk = Arrays.copyOfRange(content, offset, offset + (int) session.getChunkLength(index));
+        String md5 = Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(chunk));
+        uploadManager.writeChunk(WORKSPACE_ID, session.getId(), offset, new ByteArrayInputStream(chunk), md5);
+    }
+}
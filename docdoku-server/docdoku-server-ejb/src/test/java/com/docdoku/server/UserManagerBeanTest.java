@@ -0,0 +1,150 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.UserKey;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.exceptions.AccessRightException;
+import com.docdoku.core.security.WorkspaceUserMembership;
+import com.docdoku.core.security.WorkspaceUserMembershipKey;
+import com.docdoku.core.services.IContextManagerLocal;
+import com.docdoku.server.events.WorkspaceAccessEvent;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+
+import javax.enterprise.event.Event;
+import javax.persistence.EntityManager;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.Date;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class UserManagerBeanTest {
+
+    private static final String WORKSPACE_ID = "TestWorkspace";
+    private static final String ADMIN_LOGIN = "admin";
+    private static final String USER_LOGIN = "user1";
+    private static final String USER_LANGUAGE = "en";
+
+    @InjectMocks
+    private UserManagerBean userManager = new UserManagerBean();
+
+    @InjectMocks
+    private WorkspaceAccessContext workspaceAccessContext = new WorkspaceAccessContext();
+
+    @Spy
+    private WorkspaceAccessMetrics workspaceAccessMetrics = new WorkspaceAccessMetrics();
+
+    @Mock
+    private EntityManager em;
+    @Mock
+    private IContextManagerLocal contextManager;
+    @Mock
+    private ACLPermissionIndex aclPermissionIndex;
+    @Mock
+    private Event<WorkspaceAccessEvent> workspaceAccessEvent;
+
+    private Account adminAccount;
+    private User user;
+    private WorkspaceUserMembership userMembership;
+    private WorkspaceUserMembershipKey userMembershipKey;
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+        setField(userManager, "workspaceAccessContext", workspaceAccessContext);
+        // Events of several types cannot be told apart by @InjectMocks
+        setField(userManager, "workspaceAccessEvent", workspaceAccessEvent);
+
+        adminAccount = new Account(ADMIN_LOGIN, ADMIN_LOGIN, "admin@docdoku.com", USER_LANGUAGE, new Date(), null);
+        Workspace workspace = new Workspace(WORKSPACE_ID, adminAccount, "description", false);
+        workspace.setEnabled(true);
+        user = new User(workspace, new Account(USER_LOGIN, USER_LOGIN, "user1@docdoku.com", USER_LANGUAGE, new Date(), null));
+        userMembership = new WorkspaceUserMembership(workspace, user);
+        userMembershipKey = new WorkspaceUserMembershipKey(WORKSPACE_ID, WORKSPACE_ID, USER_LOGIN);
+
+        Mockito.when(em.find(Workspace.class, WORKSPACE_ID)).thenReturn(workspace);
+        Mockito.when(em.find(Account.class, ADMIN_LOGIN)).thenReturn(adminAccount);
+        Mockito.when(em.find(User.class, new UserKey(WORKSPACE_ID, USER_LOGIN))).thenReturn(user);
+        Mockito.when(em.find(WorkspaceUserMembership.class, userMembershipKey)).thenReturn(userMembership);
+        Mockito.when(workspaceAccessEvent.select(Mockito.<Annotation>anyVararg())).thenReturn(workspaceAccessEvent);
+    }
+
+    @Test
+    public void accessIsResolvedOncePerTransaction() throws Exception {
+        Mockito.when(contextManager.getCallerPrincipalLogin()).thenReturn(USER_LOGIN);
+
+        Assert.assertEquals(user, userManager.checkWorkspaceReadAccess(WORKSPACE_ID));
+        Assert.assertEquals(user, userManager.checkWorkspaceWriteAccess(WORKSPACE_ID));
+        Assert.assertTrue(userManager.hasWorkspaceWriteAccess(user, WORKSPACE_ID));
+
+        Mockito.verify(em, Mockito.times(1)).find(WorkspaceUserMembership.class, userMembershipKey);
+        Mockito.verify(workspaceAccessMetrics, Mockito.times(1)).miss();
+        Mockito.verify(workspaceAccessMetrics, Mockito.times(2)).hit();
+        // Every check is an access, cached or not
+        Mockito.verify(workspaceAccessEvent, Mockito.times(2)).fire(any(WorkspaceAccessEvent.class));
+    }
+
+    @Test
+    public void membershipChangeInvalidatesAccess() throws Exception {
+        Mockito.when(contextManager.getCallerPrincipalLogin()).thenReturn(USER_LOGIN);
+        userManager.checkWorkspaceWriteAccess(WORKSPACE_ID);
+
+        Mockito.when(contextManager.getCallerPrincipalLogin()).thenReturn(ADMIN_LOGIN);
+        userManager.grantUserAccess(WORKSPACE_ID, USER_LOGIN, true);
+        Mockito.verify(workspaceAccessMetrics, Mockito.times(1)).invalidation();
+
+        Mockito.when(contextManager.getCallerPrincipalLogin()).thenReturn(USER_LOGIN);
+        try {
+            userManager.checkWorkspaceWriteAccess(WORKSPACE_ID);
+            Assert.fail("Read only member should not have write access");
+        } catch (AccessRightException e) {
+            Mockito.verify(workspaceAccessMetrics, Mockito.times(2)).miss();
+        }
+        Assert.assertFalse(userManager.hasWorkspaceWriteAccess(user, WORKSPACE_ID));
+    }
+
+    @Test
+    public void writeAccessIsTheCallerOne() throws Exception {
+        userMembership.setReadOnly(true);
+        Mockito.when(contextManager.getCallerPrincipalLogin()).thenReturn(ADMIN_LOGIN);
+
+        // The administrator may write whatever the memberships of the given user
+        Assert.assertTrue(userManager.hasWorkspaceWriteAccess(user, WORKSPACE_ID));
+        Mockito.verify(workspaceAccessMetrics, Mockito.never()).miss();
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.configuration;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.configuration.ProductBaseline;
+import com.docdoku.core.configuration.ProductStructureFilter;
+import com.docdoku.core.exceptions.EntityConstraintException;
+import com.docdoku.core.exceptions.NotAllowedException;
+import com.docdoku.core.exceptions.PartMasterNotFoundException;
+import com.docdoku.core.product.*;
+import com.docdoku.core.util.Tools;
+import com.docdoku.server.configuration.filter.WIPPSFilter;
+import com.docdoku.server.configuration.spec.ProductBaselineConfigSpec;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PSFilterVisitorTest {
+
+    @Mock
+    ManagedExecutorService executorService;
+
+    @Mock
+    EntityManager em;
+
+    @Mock
+    TypedQuery<PartMaster> query;
+
+    @InjectMocks
+    ProductStructureResolver resolver;
+
+    private final Workspace workspace = new Workspace("workspace");
+    private final Map<String, PartMaster> parts = new HashMap<>();
+    private ExecutorService pool;
+    private User user;
+    private PartMaster root;
+    private PartUsageLink rootToA;
+    private PartUsageLink rootToB;
+    private PartUsageLink aToSecondC;
+    private PartUsageLink bToA;
+    private PartUsageLink bToD;
+    private PartSubstituteLink secondCToE;
+    private int linkId = 0;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        user = new User(workspace, new Account("user1", "user1", "user1@docdoku.com", "en", new Date(), null));
+
+        // root -> (A -> (C, C or E), B -> (A -> (C, C or E), D))
+        root = createPart("ROOT");
+        PartMaster a = createPart("A");
+        PartMaster b = createPart("B");
+        PartMaster c = createPart("C");
+        PartMaster d = createPart("D");
+        PartMaster e = createPart("E");
+        rootToA = addLink(root, a);
+        rootToB = addLink(root, b);
+        addLink(a, c);
+        aToSecondC = addLink(a, c);
+        bToA = addLink(b, a);
+        bToD = addLink(b, d);
+        secondCToE = addSubstitute(aToSecondC, e);
+
+        Mockito.when(em.createNamedQuery("PartMaster.findByNumbers", PartMaster.class)).thenReturn(query);
+        Mockito.when(query.setParameter(Matchers.eq("workspaceId"), Matchers.any())).thenReturn(query);
+        Mockito.when(query.setParameter(Matchers.eq("numbers"), Matchers.any())).thenAnswer(invocation -> {
+            List<PartMaster> result = new ArrayList<>();
+            for (String number : (Collection<String>) invocation.getArguments()[1]) {
+                result.add(parts.get(number));
+            }
+            Mockito.when(query.getResultList()).thenReturn(result);
+            return query;
+        });
+
+        // Subtrees are resolved by a real pool
+        pool = Executors.newFixedThreadPool(4);
+        Mockito.when(executorService.submit(Matchers.any(Callable.class)))
+                .thenAnswer(invocation -> pool.submit((Callable<?>) invocation.getArguments()[0]));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void parallelWalkMatchesSequentialWalk() throws Exception {
+        WIPPSFilter filter = new WIPPSFilter(user);
+        List<String> sequentialPaths = new ArrayList<>();
+        Component sequential = walk(filter, false, -1, sequentialPaths);
+
+        // Paths are read from the snapshot, not filtered again
+        WIPPSFilter snapshotFilter = Mockito.spy(filter);
+        List<String> parallelPaths = new ArrayList<>();
+        Component parallel = walk(snapshotFilter, true, -1, parallelPaths);
+
+        Assert.assertEquals(9, sequentialPaths.size());
+        Assert.assertEquals(sequentialPaths, parallelPaths);
+        Assert.assertEquals(describe(sequential), describe(parallel));
+        Mockito.verify(executorService, Mockito.atLeastOnce()).submit(Matchers.any(Callable.class));
+        Mockito.verify(snapshotFilter, Mockito.never()).filter(Matchers.anyListOf(PartLink.class));
+    }
+
+    @Test
+    public void parallelWalkFollowsDivergingSubstitutes() throws Exception {
+        WIPPSFilter filter = new WIPPSFilter(user, true);
+        List<String> sequentialPaths = new ArrayList<>();
+        Component sequential = walk(filter, false, -1, sequentialPaths);
+
+        List<String> parallelPaths = new ArrayList<>();
+        Component parallel = walk(filter, true, -1, parallelPaths);
+
+        Assert.assertEquals(11, sequentialPaths.size());
+        Assert.assertEquals(sequentialPaths, parallelPaths);
+        Assert.assertEquals(describe(sequential), describe(parallel));
+    }
+
+    @Test
+    public void parallelWalkFollowsBaselinedLinks() throws Exception {
+        bToD.setOptional(true);
+        ProductBaseline productBaseline = new ProductBaseline();
+        for (PartMaster partMaster : parts.values()) {
+            productBaseline.addBaselinedPart(partMaster.getLastRevision().getLastIteration());
+        }
+        // Substitute retained below B only, optional link to D is not retained
+        productBaseline.addSubstituteLink(Tools.getPathAsString(Arrays.asList(rootLink(), rootToB, bToA, secondCToE)));
+        ProductBaselineConfigSpec filter = new ProductBaselineConfigSpec(productBaseline);
+
+        List<String> sequentialPaths = new ArrayList<>();
+        Component sequential = walk(filter, false, -1, sequentialPaths);
+
+        List<String> parallelPaths = new ArrayList<>();
+        Component parallel = walk(filter, true, -1, parallelPaths);
+
+        Assert.assertEquals(8, sequentialPaths.size());
+        Assert.assertTrue(sequentialPaths.contains(Tools.getPathAsString(Arrays.asList(rootLink(), rootToB, bToA, secondCToE))));
+        Assert.assertTrue(sequentialPaths.contains(Tools.getPathAsString(Arrays.asList(rootLink(), rootToA, aToSecondC))));
+        Assert.assertEquals(sequentialPaths, parallelPaths);
+        Assert.assertEquals(describe(sequential), describe(parallel));
+    }
+
+    @Test
+    public void baselineSnapshotIsReused() throws Exception {
+        ProductBaseline productBaseline = new ProductBaseline();
+        productBaseline.setId(1);
+        for (PartMaster partMaster : parts.values()) {
+            productBaseline.addBaselinedPart(partMaster.getLastRevision().getLastIteration());
+        }
+
+        List<String> firstPaths = new ArrayList<>();
+        Component first = walk(new ProductBaselineConfigSpec(productBaseline), false, -1, firstPaths);
+
+        // Parts are only filtered by the walk, the structure is not resolved again
+        ProductBaselineConfigSpec filter = Mockito.spy(new ProductBaselineConfigSpec(productBaseline));
+        List<String> secondPaths = new ArrayList<>();
+        Component second = walk(filter, false, -1, secondPaths);
+
+        Assert.assertEquals(9, firstPaths.size());
+        Assert.assertEquals(firstPaths, secondPaths);
+        Assert.assertEquals(describe(first), describe(second));
+        Mockito.verify(filter, Mockito.times(9)).filterPartIteration(Matchers.any(PartMaster.class));
+        Mockito.verify(filter, Mockito.never()).filterPartLink(Matchers.anyListOf(PartLink.class));
+        Mockito.verify(executorService, Mockito.never()).submit(Matchers.any(Callable.class));
+    }
+
+    @Test
+    public void parallelWalkHonoursDepth() throws Exception {
+        WIPPSFilter filter = new WIPPSFilter(user);
+        List<String> sequentialPaths = new ArrayList<>();
+        Component sequential = walk(filter, false, 1, sequentialPaths);
+
+        List<String> parallelPaths = new ArrayList<>();
+        Component parallel = walk(filter, true, 1, parallelPaths);
+
+        Assert.assertEquals(3, sequentialPaths.size());
+        Assert.assertEquals(sequentialPaths, parallelPaths);
+        Assert.assertEquals(describe(sequential), describe(parallel));
+    }
+
+    @Test(expected = EntityConstraintException.class)
+    public void parallelWalkDetectsCycles() throws Exception {
+        addLink(parts.get("D"), parts.get("B"));
+        walk(new WIPPSFilter(user), true, -1, new ArrayList<>());
+    }
+
+    private Component walk(ProductStructureFilter filter, boolean parallel, int depth, List<String> walkedPaths) throws PartMasterNotFoundException, NotAllowedException, EntityConstraintException {
+        PSFilterVisitor visitor = new PSFilterVisitor(em, user, filter) {
+            @Override
+            public void onIndeterminateVersion(PartMaster partMaster, List<PartIteration> partIterations) {
+            }
+
+            @Override
+            public void onUnresolvedVersion(PartMaster partMaster) {
+            }
+
+            @Override
+            public void onIndeterminatePath(List<PartLink> pCurrentPath, List<PartIteration> pCurrentPathPartIterations) {
+            }
+
+            @Override
+            public void onUnresolvedPath(List<PartLink> pCurrentPath, List<PartIteration> partIterations) {
+            }
+
+            @Override
+            public void onBranchDiscovered(List<PartLink> pCurrentPath, List<PartIteration> copyPartIteration) {
+            }
+
+            @Override
+            public void onOptionalPath(List<PartLink> path, List<PartIteration> partIterations) {
+            }
+
+            @Override
+            public boolean onPathWalk(List<PartLink> path, List<PartMaster> parts) {
+                walkedPaths.add(Tools.getPathAsString(path));
+                return true;
+            }
+        };
+        visitor.setResolver(resolver, parallel);
+        visitor.visit(root, depth);
+        return visitor.getComponent();
+    }
+
+    private String describe(Component component) {
+        StringBuilder sb = new StringBuilder(Tools.getPathAsString(component.getPath()));
+        sb.append('(');
+        for (Component child : component.getComponents()) {
+            sb.append(describe(child));
+        }
+        return sb.append(')').toString();
+    }
+
+    private PartLink rootLink() {
+        return new PartUsageLink(root, 1, null, false) {
+            @Override
+            public String getFullId() {
+                return "-1";
+            }
+        };
+    }
+
+    private PartMaster createPart(String number) {
+        PartMaster partMaster = new PartMaster(workspace, number);
+        PartRevision partRevision = new PartRevision(partMaster, "A", user);
+        partRevision.setPartIterations(new ArrayList<>(Collections.singletonList(new PartIteration(partRevision, user))));
+        partMaster.setPartRevisions(new ArrayList<>(Collections.singletonList(partRevision)));
+        parts.put(number, partMaster);
+        return partMaster;
+    }
+
+    private PartUsageLink addLink(PartMaster from, PartMaster to) {
+        PartUsageLink link = new PartUsageLink(to, 1, null, false);
+        link.setId(++linkId);
+        from.getLastRevision().getLastIteration().getComponents().add(link);
+        return link;
+    }
+
+    private PartSubstituteLink addSubstitute(PartUsageLink usageLink, PartMaster substitute) {
+        PartSubstituteLink link = new PartSubstituteLink();
+        link.setId(++linkId);
+        link.setSubstitute(substitute);
+        usageLink.getSubstitutes().add(link);
+        return link;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.dao;
+
+import com.docdoku.core.product.PathToPathLink;
+import com.docdoku.core.product.PathToPathLinkSegment;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Micro-benchmark of the partial path lookup against an in-memory store: the segment lookup
+ * (an equality on the indexed USAGELINK_ID column) is compared to the former LIKE patterns,
+ * which had to be matched against the paths of every link.
+ */
+public class PathToPathLinkDAOTest {
+
+    private static final Logger LOGGER = Logger.getLogger(PathToPathLinkDAOTest.class.getName());
+
+    private static final int LINKS = 200000;
+    private static final int USAGE_LINKS = 5000;
+    private static final int LOOKUPS = 100;
+
+    private List<PathToPathLink> pathToPathLinks;
+    private Map<String, Set<PathToPathLink>> segmentIndex;
+    private PathToPathLinkDAO pathToPathLinkDAO;
+    private Random random;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        random = new Random(42);
+        pathToPathLinks = new ArrayList<>(LINKS);
+        segmentIndex = new HashMap<>();
+        for (int i = 0; i < LINKS; i++) {
+            PathToPathLink pathToPathLink = new PathToPathLink("wire", randomPath(), randomPath(), null);
+            pathToPathLinks.add(pathToPathLink);
+            for (PathToPathLinkSegment segment : pathToPathLink.getSegments()) {
+                segmentIndex.computeIfAbsent(segment.getUsageLinkId(), k -> new LinkedHashSet<>()).add(pathToPathLink);
+            }
+        }
+
+        // The named query answers from the segment index, as the database does from INDEX_P2P_SEGMENT_USAGELINK
+        EntityManager em = Mockito.mock(EntityManager.class);
+        TypedQuery<PathToPathLink> query = Mockito.mock(TypedQuery.class);
+        String[] usageLinkId = new String[1];
+        Mockito.when(em.createNamedQuery("PathToPathLink.findLinksWherePartialPathIsPresent", PathToPathLink.class)).thenReturn(query);
+        Mockito.when(query.setParameter(Mockito.eq("usageLinkId"), Mockito.anyString())).thenAnswer(invocation -> {
+            usageLinkId[0] = (String) invocation.getArguments()[1];
+            return query;
+        });
+        Mockito.when(query.getResultList()).thenAnswer(invocation ->
+                new ArrayList<>(segmentIndex.getOrDefault(usageLinkId[0], Collections.emptySet())));
+
+        pathToPathLinkDAO = new PathToPathLinkDAO(em);
+    }
+
+    @Test
+    public void partialPathLookupBenchmarkTest() {
+        List<String> usageLinkIds = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            usageLinkIds.add(randomUsageLinkId());
+        }
+
+        // Same links as the former patterns
+        for (String usageLinkId : usageLinkIds.subList(0, 20)) {
+            Assert.assertEquals(new HashSet<>(findWithPatterns(usageLinkId)),
+                    new HashSet<>(pathToPathLinkDAO.getPathToPathLinksFromPartialPath(usageLinkId)));
+        }
+
+        long segmentsTime = time(usageLinkIds, pathToPathLinkDAO::getPathToPathLinksFromPartialPath);
+        long patternsTime = time(usageLinkIds, this::findWithPatterns);
+
+        LOGGER.log(Level.INFO, "Partial path lookups among {0} links: {1} ms with segments, {2} ms with patterns",
+                new Object[]{LINKS, segmentsTime / 1000000, patternsTime / 1000000});
+        Assert.assertTrue(segmentsTime < patternsTime);
+    }
+
+    /**
+     * The former query: targetPath or sourcePath LIKE '%-id' or LIKE '%-id-%'
+     */
+    private List<PathToPathLink> findWithPatterns(String usageLinkId) {
+        String endOfChain = "-" + usageLinkId;
+        String inChain = "-" + usageLinkId + "-";
+        return pathToPathLinks.stream()
+                .filter(p -> p.getTargetPath().endsWith(endOfChain) || p.getTargetPath().contains(inChain)
+                        || p.getSourcePath().endsWith(endOfChain) || p.getSourcePath().contains(inChain))
+                .collect(Collectors.toList());
+    }
+
+    private long time(List<String> usageLinkIds, Function<String, List<PathToPathLink>> lookup) {
+        long start = System.nanoTime();
+        int found = 0;
+        for (String usageLinkId : usageLinkIds) {
+            found += lookup.apply(usageLinkId).size();
+        }
+        Assert.assertTrue(found > 0);
+        return System.nanoTime() - start;
+    }
+
+    private String randomPath() {
+        StringBuilder path = new StringBuilder("-1");
+        int depth = 1 + random.nextInt(5);
+        for (int i = 0; i < depth; i++) {
+            path.append('-').append(randomUsageLinkId());
+        }
+        return path.toString();
+    }
+
+    private String randomUsageLinkId() {
+        return (random.nextInt(10) == 0 ? "s" : "u") + random.nextInt(USAGE_LINKS);
+    }
+}
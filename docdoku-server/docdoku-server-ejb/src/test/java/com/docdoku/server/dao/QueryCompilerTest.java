@@ -0,0 +1,99 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.dao;
+
+import com.docdoku.core.query.QueryRule;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class QueryCompilerTest {
+
+    @Test
+    public void compileWithoutRulesTest() {
+        QueryCompiler.CompiledQuery compiledQuery = QueryCompiler.compile(new QueryRule());
+
+        Assert.assertFalse(compiledQuery.getJpql().contains("EXISTS"));
+        Assert.assertTrue(compiledQuery.getJpql().contains("pr.checkOutUser IS NULL OR SIZE(pr.partIterations) > 1"));
+        Assert.assertTrue(compiledQuery.getJpqlAfter().contains("pr.partMasterNumber > :number"));
+        Assert.assertTrue(compiledQuery.getParameters(new QueryRule()).isEmpty());
+    }
+
+    @Test
+    public void compileRulesTest() {
+        QueryRule root = group("AND",
+                rule("pm.number", "begins_with", "string", "P-"),
+                group("OR",
+                        rule("attr-TEXT.color", "equal", "string", "red"),
+                        rule("pr.checkInDate", "between", "date", "2017-01-01T00:00:00.000Z", "2017-02-01T00:00:00.000Z")));
+
+        QueryCompiler.CompiledQuery compiledQuery = QueryCompiler.compile(root);
+        String jpql = compiledQuery.getJpql();
+
+        Assert.assertTrue(jpql.contains("(pm.number LIKE :p1 AND (EXISTS (SELECT a FROM InstanceTextAttribute a WHERE a MEMBER OF pi.instanceAttributes AND a.name = :p2 AND a.textValue = :p3) OR (SIZE(pr.partIterations) = pi.iteration AND pi.checkInDate BETWEEN :p4 AND :p5)))"));
+
+        Map<String, Object> parameters = compiledQuery.getParameters(root);
+        Assert.assertEquals("P-%", parameters.get("p1"));
+        Assert.assertEquals("color", parameters.get("p2"));
+        Assert.assertEquals("red", parameters.get("p3"));
+        Assert.assertEquals(5, parameters.size());
+    }
+
+    @Test
+    public void sameShapeSharesCompiledQueryTest() {
+        QueryRule first = group("AND", rule("pr.version", "equal", "string", "A"));
+        QueryRule second = group("AND", rule("pr.version", "equal", "string", "B"));
+
+        QueryCompiler.CompiledQuery compiledQuery = QueryCompiler.compile(first);
+        Assert.assertSame(compiledQuery, QueryCompiler.compile(second));
+        Assert.assertEquals("B", compiledQuery.getParameters(second).get("p1"));
+        Assert.assertNotSame(compiledQuery, QueryCompiler.compile(group("OR", rule("pr.version", "equal", "string", "A"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidFieldTest() {
+        QueryCompiler.compile(group("AND", rule("pr.version = pr.version OR 1", "equal", "string", "A")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidOperatorTest() {
+        QueryCompiler.compile(group("AND", rule("pm.number", "less", "string", "A")));
+    }
+
+    private static QueryRule group(String condition, QueryRule... subRules) {
+        QueryRule queryRule = new QueryRule();
+        queryRule.setCondition(condition);
+        queryRule.setSubQueryRules(Arrays.asList(subRules));
+        return queryRule;
+    }
+
+    private static QueryRule rule(String field, String operator, String type, String... values) {
+        QueryRule queryRule = new QueryRule();
+        queryRule.setField(field);
+        queryRule.setOperator(operator);
+        queryRule.setType(type);
+        queryRule.setValues(values.length > 0 ? Arrays.asList(values) : Collections.emptyList());
+        return queryRule;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.storage;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.server.storage.filesystem.FileStorageProvider;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+public class CachingStorageProviderTest {
+
+    private static final int SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder vault = new TemporaryFolder();
+
+    private BinaryResourceCache cache;
+    private CachingStorageProvider storageProvider;
+
+    @Before
+    public void setup() {
+        cache = new BinaryResourceCache(2 * SIZE, SIZE);
+        storageProvider = new CachingStorageProvider(new FileStorageProvider(vault.getRoot().getAbsolutePath()), cache);
+    }
+
+    @Test
+    public void readThroughTest() throws Exception {
+        BinaryResource geometry = write("ws/parts/P1/A/1/geometry.obj", (byte) 1, SIZE);
+
+        Assert.assertArrayEquals(content((byte) 1, SIZE), read(geometry));
+        Assert.assertArrayEquals(content((byte) 1, SIZE), read(geometry));
+
+        Assert.assertEquals(1, cache.getStats().getHits());
+        Assert.assertEquals(1, cache.getStats().getMisses());
+        Assert.assertEquals(SIZE, cache.getStats().getCachedBytes());
+    }
+
+    @Test
+    public void invalidateOnWriteAndDeleteTest() throws Exception {
+        BinaryResource geometry = write("ws/parts/P1/A/1/geometry.obj", (byte) 1, SIZE);
+        read(geometry);
+
+        write(geometry.getFullName(), (byte) 2, SIZE);
+        Assert.assertArrayEquals(content((byte) 2, SIZE), read(geometry));
+
+        storageProvider.delData(geometry);
+        Assert.assertEquals(0, cache.getStats().getCachedBytes());
+    }
+
+    @Test
+    public void invalidateOnRenameTest() throws Exception {
+        BinaryResource geometry = write("ws/parts/P1/A/1/geometry.obj", (byte) 1, SIZE);
+        read(geometry);
+
+        File file = storageProvider.getBinaryResourceFile(geometry);
+        storageProvider.renameData(file, "renamed.obj");
+        Assert.assertEquals(0, cache.getStats().getCachedBytes());
+    }
+
+    @Test
+    public void invalidateOnExternalChangeTest() throws Exception {
+        BinaryResource geometry = write("ws/parts/P1/A/1/geometry.obj", (byte) 1, SIZE);
+        read(geometry);
+
+        // Written by another node sharing the vault, the cache is not told
+        File file = storageProvider.getBinaryResourceFile(geometry);
+        long lastModified = file.lastModified();
+        FileUtils.writeByteArrayToFile(file, content((byte) 2, SIZE));
+        Assert.assertTrue(file.setLastModified(lastModified + 1000));
+
+        Assert.assertArrayEquals(content((byte) 2, SIZE), read(geometry));
+        Assert.assertEquals(2, cache.getStats().getMisses());
+
+        FileUtils.writeByteArrayToFile(file, content((byte) 3, SIZE / 2));
+        Assert.assertTrue(file.setLastModified(lastModified + 1000));
+        Assert.assertArrayEquals("A size change is enough", content((byte) 3, SIZE / 2), read(geometry));
+    }
+
+    @Test
+    public void frequentEntriesAreKeptTest() throws Exception {
+        BinaryResource hot1 = write("ws/hot1", (byte) 1, SIZE);
+        BinaryResource hot2 = write("ws/hot2", (byte) 2, SIZE);
+        BinaryResource cold = write("ws/cold", (byte) 3, SIZE);
+
+        for (int i = 0; i < 5; i++) {
+            read(hot1);
+            read(hot2);
+        }
+        read(cold);
+
+        Assert.assertEquals("A file read once does not evict the hot ones", 1, cache.getStats().getRejections());
+        Assert.assertEquals(2 * SIZE, cache.getStats().getCachedBytes());
+        Assert.assertEquals(0, cache.getStats().getEvictions());
+    }
+
+    @Test
+    public void largeFilesAreNotCachedTest() throws Exception {
+        BinaryResource large = write("ws/large", (byte) 1, 2 * SIZE);
+        Assert.assertArrayEquals(content((byte) 1, 2 * SIZE), read(large));
+        Assert.assertEquals(0, cache.getStats().getCachedBytes());
+    }
+
+    private BinaryResource write(String fullName, byte value, int length) throws Exception {
+        BinaryResource binaryResource = new BinaryResource(fullName, length, new Date());
+        try (OutputStream out = storageProvider.getBinaryResourceOutputStream(binaryResource)) {
+            out.write(content(value, length));
+        }
+        return binaryResource;
+    }
+
+    private byte[] read(BinaryResource binaryResource) throws Exception {
+        try (InputStream in = storageProvider.getBinaryResourceInputStream(binaryResource)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static byte[] content(byte value, int length) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, value);
+        return content;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.storage.filesystem;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.VaultDeduplicationStats;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.stream.Stream;
+
+public class ContentAddressedStorageProviderTest {
+
+    private static final byte[] CONTENT = "ISO-10303-21;".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder vault = new TemporaryFolder();
+
+    private ContentAddressedStorageProvider storageProvider;
+
+    @Before
+    public void setup() {
+        Assume.assumeTrue(ContentAddressedStorageProvider.isSupported());
+        storageProvider = new ContentAddressedStorageProvider(vault.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void sameContentIsStoredOnceTest() throws Exception {
+        BinaryResource first = write("ws/parts/P1/A/1/nativecad/part.stp", CONTENT);
+        BinaryResource second = write("ws/parts/P2/A/1/nativecad/part.stp", CONTENT);
+
+        Assert.assertTrue(Files.isSameFile(path(first), path(second)));
+        Assert.assertEquals(1, countBlobs());
+    }
+
+    @Test
+    public void copyAndDeleteTest() throws Exception {
+        BinaryResource source = write("ws/parts/P1/A/1/nativecad/part.stp", CONTENT);
+        BinaryResource copy = new BinaryResource("ws/parts/P1/A/2/nativecad/part.stp", CONTENT.length, new Date());
+        storageProvider.copyData(source, copy);
+        Assert.assertTrue(Files.isSameFile(path(source), path(copy)));
+
+        storageProvider.delData(source);
+        Assert.assertEquals("The blob is still referenced by the copy", 1, countBlobs());
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path(copy)));
+
+        storageProvider.delData(copy);
+        Assert.assertEquals(0, countBlobs());
+    }
+
+    @Test
+    public void rewriteDoesNotAlterCopiesTest() throws Exception {
+        BinaryResource source = write("ws/documents/D1/A/1/doc.txt", CONTENT);
+        BinaryResource copy = new BinaryResource("ws/documents/D1/A/2/doc.txt", CONTENT.length, new Date());
+        storageProvider.copyData(source, copy);
+
+        byte[] update = "updated".getBytes(StandardCharsets.UTF_8);
+        write(copy.getFullName(), update);
+
+        Assert.assertArrayEquals(CONTENT, Files.readAllBytes(path(source)));
+        Assert.assertArrayEquals(update, Files.readAllBytes(path(copy)));
+    }
+
+    @Test
+    public void deduplicateExistingVaultTest() throws Exception {
+        File first = new File(vault.getRoot(), "ws/parts/P1/A/1/nativecad/part.stp");
+        File second = new File(vault.getRoot(), "ws/parts/P1/A/2/nativecad/part.stp");
+        first.getParentFile().mkdirs();
+        second.getParentFile().mkdirs();
+        Files.write(first.toPath(), CONTENT);
+        Files.write(second.toPath(), CONTENT);
+
+        VaultDeduplicationStats stats = storageProvider.deduplicate();
+
+        Assert.assertEquals(2, stats.getScannedFiles());
+        Assert.assertEquals(1, stats.getDeduplicatedFiles());
+        Assert.assertEquals(CONTENT.length, stats.getSavedBytes());
+        Assert.assertTrue(Files.isSameFile(first.toPath(), second.toPath()));
+        Assert.assertEquals(1, countBlobs());
+    }
+
+    private BinaryResource write(String fullName, byte[] content) throws Exception {
+        BinaryResource binaryResource = new BinaryResource(fullName, content.length, new Date());
+        try (OutputStream out = storageProvider.getBinaryResourceOutputStream(binaryResource)) {
+            out.write(content);
+        }
+        return binaryResource;
+    }
+
+    private Path path(BinaryResource binaryResource) {
+        return new File(vault.getRoot(), binaryResource.getFullName()).toPath();
+    }
+
+    private long countBlobs() throws Exception {
+        Path blobs = new File(vault.getRoot(), ".blobs").toPath();
+        try (Stream<Path> files = Files.walk(blobs)) {
+            return files.filter(Files::isRegularFile).filter(path -> !path.getParent().endsWith("tmp")).count();
+        }
+    }
+}
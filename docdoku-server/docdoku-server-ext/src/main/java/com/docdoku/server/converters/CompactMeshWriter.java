@@ -0,0 +1,243 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a {@link Mesh} in a compact binary format meant to be loaded straight into typed arrays.
+ * <p>
+ * All values are little endian:
+ * <pre>
+ * header (48 bytes)
+ *   0  char[4]    magic "CMSH"
+ *   4  uint8      version
+ *   5  uint8      flags, bit 0 set when normals are present
+ *   6  uint16     material group count
+ *   8  uint32     vertex count
+ *   12 uint32     triangle count
+ *   16 float32[6] bounding box, min x y z then max x y z
+ *   40 uint32     index data length in bytes
+ *   44 uint32     reserved
+ * positions   uint16[3] per vertex, quantized in the bounding box
+ * normals     int8[2] per vertex, octahedral encoding
+ * indices     per index, the difference with the previous index, zigzag then varint encoded
+ * groups      per material group, uint32 first triangle, uint32 triangle count,
+ *             uint16 name length then the name bytes
+ * </pre>
+ */
+public class CompactMeshWriter {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'C', 'M', 'S', 'H'};
+    private static final int HEADER_SIZE = 48;
+    private static final int FLAG_NORMALS = 1;
+    private static final int QUANTIZATION_MAX = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompactMeshWriter() {
+    }
+
+    /**
+     * Writes the mesh, triangles being grouped by material. The stream is not closed.
+     *
+     * @param mesh         the mesh to write
+     * @param outputStream the stream to write to
+     * @return the number of bytes written
+     */
+    public static long write(Mesh mesh, OutputStream outputStream) throws IOException {
+        int vertexCount = mesh.getVertexCount();
+        int triangleCount = mesh.getTriangleCount();
+        float[] positions = mesh.getPositions();
+        int[] indices = mesh.getIndices();
+        int[] triangleMaterials = mesh.getTriangleMaterials();
+        int[] order = mesh.sortTrianglesByMaterial();
+
+        float[] box = computeBox(positions);
+        byte[] indexData = encodeIndices(indices, order);
+        byte[] normals = encodeNormals(computeNormals(positions, indices), vertexCount);
+
+        BufferedOutputStream out = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        long length = 0;
+
+        // Material groups, in triangle order
+        ByteBuffer groups = newBuffer(16);
+        int groupCount = 0;
+        int groupStart = 0;
+        for (int i = 1; i <= triangleCount; i++) {
+            if (i == triangleCount || triangleMaterials[order[i]] != triangleMaterials[order[groupStart]]) {
+                int material = triangleMaterials[order[groupStart]];
+                byte[] name = material == -1 ? new byte[0]
+                        : mesh.getMaterials().get(material).getBytes(StandardCharsets.ISO_8859_1);
+                groups = ensureRemaining(groups, 10 + name.length);
+                groups.putInt(groupStart).putInt(i - groupStart).putShort((short) name.length).put(name);
+                groupCount++;
+                groupStart = i;
+            }
+        }
+
+        ByteBuffer header = newBuffer(HEADER_SIZE);
+        header.put(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) FLAG_NORMALS)
+                .putShort((short) groupCount)
+                .putInt(vertexCount)
+                .putInt(triangleCount);
+        for (float value : box) {
+            header.putFloat(value);
+        }
+        header.putInt(indexData.length).putInt(0);
+        out.write(header.array());
+        length += HEADER_SIZE;
+
+        ByteBuffer quantized = newBuffer(6 * vertexCount);
+        for (int i = 0; i < positions.length; i++) {
+            int axis = i % 3;
+            float range = box[axis + 3] - box[axis];
+            int value = range > 0 ? Math.round((positions[i] - box[axis]) / range * QUANTIZATION_MAX) : 0;
+            quantized.putShort((short) Math.max(0, Math.min(QUANTIZATION_MAX, value)));
+        }
+        out.write(quantized.array());
+        length += quantized.capacity();
+
+        out.write(normals);
+        length += normals.length;
+
+        out.write(indexData);
+        length += indexData.length;
+
+        out.write(groups.array(), 0, groups.position());
+        length += groups.position();
+
+        out.flush();
+        return length;
+    }
+
+    private static float[] computeBox(float[] positions) {
+        if (positions.length == 0) {
+            return new float[6];
+        }
+        float[] box = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int i = 0; i < positions.length; i++) {
+            int axis = i % 3;
+            box[axis] = Math.min(box[axis], positions[i]);
+            box[axis + 3] = Math.max(box[axis + 3], positions[i]);
+        }
+        return box;
+    }
+
+    /**
+     * Area weighted vertex normals, not normalized
+     */
+    private static float[] computeNormals(float[] positions, int[] indices) {
+        float[] normals = new float[positions.length];
+        for (int i = 0; i < indices.length; i += 3) {
+            int a = 3 * indices[i];
+            int b = 3 * indices[i + 1];
+            int c = 3 * indices[i + 2];
+            float e1x = positions[b] - positions[a];
+            float e1y = positions[b + 1] - positions[a + 1];
+            float e1z = positions[b + 2] - positions[a + 2];
+            float e2x = positions[c] - positions[a];
+            float e2y = positions[c + 1] - positions[a + 1];
+            float e2z = positions[c + 2] - positions[a + 2];
+            float nx = e1y * e2z - e1z * e2y;
+            float ny = e1z * e2x - e1x * e2z;
+            float nz = e1x * e2y - e1y * e2x;
+            for (int v : new int[]{a, b, c}) {
+                normals[v] += nx;
+                normals[v + 1] += ny;
+                normals[v + 2] += nz;
+            }
+        }
+        return normals;
+    }
+
+    private static byte[] encodeNormals(float[] normals, int vertexCount) {
+        byte[] encoded = new byte[2 * vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            float x = normals[3 * v];
+            float y = normals[3 * v + 1];
+            float z = normals[3 * v + 2];
+            float sum = Math.abs(x) + Math.abs(y) + Math.abs(z);
+            if (sum == 0) {
+                z = 1;
+                sum = 1;
+            }
+            // Project on the octahedron, then fold the lower half
+            x /= sum;
+            y /= sum;
+            z /= sum;
+            if (z < 0) {
+                float fx = (1 - Math.abs(y)) * (x >= 0 ? 1 : -1);
+                float fy = (1 - Math.abs(x)) * (y >= 0 ? 1 : -1);
+                x = fx;
+                y = fy;
+            }
+            encoded[2 * v] = (byte) Math.round(x * 127);
+            encoded[2 * v + 1] = (byte) Math.round(y * 127);
+        }
+        return encoded;
+    }
+
+    private static byte[] encodeIndices(int[] indices, int[] order) {
+        ByteBuffer buffer = newBuffer(Math.max(16, indices.length * 2));
+        int previous = 0;
+        for (int t : order) {
+            for (int corner = 0; corner < 3; corner++) {
+                int index = indices[3 * t + corner];
+                int delta = index - previous;
+                previous = index;
+                int zigzag = (delta << 1) ^ (delta >> 31);
+                buffer = ensureRemaining(buffer, 5);
+                while ((zigzag & ~0x7F) != 0) {
+                    buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+                    zigzag >>>= 7;
+                }
+                buffer.put((byte) zigzag);
+            }
+        }
+        byte[] encoded = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int remaining) {
+        if (buffer.remaining() >= remaining) {
+            return buffer;
+        }
+        ByteBuffer grown = newBuffer(Math.max(buffer.capacity() * 2, buffer.position() + remaining));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
@@ -22,15 +22,134 @@ package com.docdoku.server.converters;
 
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This ConverterUtils class expose util methods around files conversion
  */
 public class ConverterUtils {
 
+    private static final Logger LOGGER = Logger.getLogger(ConverterUtils.class.getName());
+
+    private static final String CONF_PROPERTIES = "/com/docdoku/server/converters/utils/conf.properties";
+    private static final Properties CONF = new Properties();
+    private static final long DEFAULT_TIMEOUT = 3600;
+    private static final int DEFAULT_WORKERS = 2;
+
+    static {
+        try (InputStream inputStream = ConverterUtils.class.getResourceAsStream(CONF_PROPERTIES)) {
+            CONF.load(inputStream);
+        } catch (IOException | NullPointerException e) {
+            LOGGER.log(Level.SEVERE, null, e);
+        }
+    }
+
     private ConverterUtils() {
     }
 
+    /**
+     * Outputs and exit value of an external process
+     */
+    public static class ProcessResult {
+
+        private final int exitValue;
+        private final String stdOutput;
+        private final String errorOutput;
+
+        ProcessResult(int exitValue, String stdOutput, String errorOutput) {
+            this.exitValue = exitValue;
+            this.stdOutput = stdOutput;
+            this.errorOutput = errorOutput;
+        }
+
+        public int getExitValue() {
+            return exitValue;
+        }
+
+        public String getStdOutput() {
+            return stdOutput;
+        }
+
+        public String getErrorOutput() {
+            return errorOutput;
+        }
+    }
+
+    /**
+     * Returns the time, in seconds, an external conversion process is allowed to run.
+     */
+    public static long getConversionTimeout() {
+        try {
+            return Long.parseLong(CONF.getProperty("conversionTimeout", String.valueOf(DEFAULT_TIMEOUT)).trim());
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Invalid conversionTimeout, using " + DEFAULT_TIMEOUT, e);
+            return DEFAULT_TIMEOUT;
+        }
+    }
+
+    /**
+     * Returns the number of conversions of the given CAD file extension allowed to run concurrently.
+     * The <code>conversionWorkers.&lt;extension&gt;</code> property overrides <code>conversionWorkers</code>.
+     */
+    public static int getConversionWorkers(String extension) {
+        String workers = CONF.getProperty("conversionWorkers." + extension,
+                CONF.getProperty("conversionWorkers", String.valueOf(DEFAULT_WORKERS)));
+        try {
+            return Math.max(1, Integer.parseInt(workers.trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Invalid conversionWorkers, using " + DEFAULT_WORKERS, e);
+            return DEFAULT_WORKERS;
+        }
+    }
+
+    /**
+     * Starts the given process and waits for it, at most the conversion timeout.
+     * Outputs are redirected to temporary files so that the process never blocks on a full pipe.
+     * The process is killed if it times out or if the waiting thread is interrupted.
+     *
+     * @param pb the process to start
+     * @return the process exit value and outputs
+     * @throws IOException if the process cannot be started or timed out
+     * @throws InterruptedException if the waiting thread has been interrupted
+     */
+    public static ProcessResult executeProcess(ProcessBuilder pb) throws IOException, InterruptedException {
+        Path stdOutputFile = Files.createTempFile("docdoku-process", ".out");
+        Path errorOutputFile = Files.createTempFile("docdoku-process", ".err");
+        try {
+            pb.redirectOutput(stdOutputFile.toFile());
+            if (!pb.redirectErrorStream()) {
+                pb.redirectError(errorOutputFile.toFile());
+            }
+
+            Process process = pb.start();
+            long timeout = getConversionTimeout();
+            boolean ended;
+            try {
+                ended = process.waitFor(timeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                throw e;
+            }
+            if (!ended) {
+                process.destroyForcibly();
+                throw new IOException("Process " + pb.command().get(0) + " killed after " + timeout + " seconds");
+            }
+
+            return new ProcessResult(process.exitValue(),
+                    new String(Files.readAllBytes(stdOutputFile), StandardCharsets.UTF_8),
+                    new String(Files.readAllBytes(errorOutputFile), StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(stdOutputFile);
+            Files.deleteIfExists(errorOutputFile);
+        }
+    }
+
     /**
      * Returns input stream content as String.
      * Use it to get info and error messages from process output
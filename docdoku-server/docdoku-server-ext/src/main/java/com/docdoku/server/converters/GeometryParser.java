@@ -17,79 +17,425 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.docdoku.server.converters;
 
-import jdk.nashorn.api.scripting.ScriptObjectMirror;
-
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * This GeometryParser class allows to compute geometric data for given file
- * It relies on Nashorn to compute the bounding box
+ * <p>
+ * The OBJ file is scanned once, byte by byte, from a reused buffer. Vertex coordinates
+ * are parsed in place and folded into the bounding box, no line is ever materialized,
+ * so the memory footprint does not depend on the file size.
+ * <p>
+ * The same scan can also collect the triangles of the file into a {@link Mesh}.
  *
  * @author Morgan Guimard
  */
 public class GeometryParser {
 
-    private static final Logger LOGGER = Logger.getLogger(GeometryParser.class.getName());
-    private final Path convertedFile;
+    private static final int BUFFER_SIZE = 256 * 1024;
 
-    private final ScriptEngineManager factory = new ScriptEngineManager();
-    private final ScriptEngine engine = factory.getEngineByName("nashorn");
+    // Powers of ten exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
 
-    private final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    private static final int MAX_MANTISSA_DIGITS = 18;
 
+    private static final String USE_MATERIAL = "usemtl";
+    private static final String MATERIAL_LIBRARY = "mtllib";
 
-    public GeometryParser(Path convertedFile) {
+    private enum State {
+        LINE_START, KEYWORD_V, KEYWORD_F, VERTEX, FACE, STATEMENT, SKIP
+    }
 
-        this.convertedFile = convertedFile;
+    private final Path convertedFile;
 
-        List<String> scripts = Arrays.asList(
-                "com/docdoku/server/converters/box-calculator.js",
-                "META-INF/resources/webjars/three.js/r70/three.js"
-        );
+    private boolean parsed;
+    private boolean meshParsed;
 
-        scripts.stream().forEach((script) -> {
-            try {
-                loadFile(script);
-            } catch (ScriptException e) {
-                LOGGER.log(Level.SEVERE, "Cannot load script : " + script, e);
-            }
-        });
+    private final double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    private final double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    private long vertexCount;
+    private long faceCount;
 
-    }
+    // Scanner state, kept between buffers
+    private State state = State.LINE_START;
+    private final double[] coordinates = new double[3];
+    private int coordinateIndex;
+    private int faceTokens;
+    private boolean inToken;
+
+    // Mesh being collected, if requested
+    private boolean collectMesh;
+    private float[] positions;
+    private int positionCount;
+    private int[] indices;
+    private int indexCount;
+    private int[] triangleMaterials;
+    private List<String> materials;
+    private List<String> materialLibraries;
+    private int currentMaterial;
+    private final StringBuilder statement = new StringBuilder();
+
+    // Face vertex being parsed
+    private int faceIndex;
+    private boolean negativeFaceIndex;
+    private boolean faceIndexEnded;
+    private int firstFaceVertex;
+    private int previousFaceVertex;
+
+    // Number being parsed
+    private boolean negative;
+    private long mantissa;
+    private int mantissaDigits;
+    private int decimalExponent;
+    private boolean inFraction;
+    private boolean inExponent;
+    private boolean negativeExponent;
+    private int exponent;
+    private boolean invalidNumber;
 
+    public GeometryParser(Path convertedFile) {
+        this.convertedFile = convertedFile;
+    }
 
     /**
      * Computes the bounding box of given 3D OBJ file
      *
      * @return an array of double representing the bounding box min and max values
      */
-    public double[] calculateBox() throws IOException, ScriptException, NoSuchMethodException {
-        final Invocable invocable = (Invocable) engine;
-        final InputStream inputStream = Files.newInputStream(convertedFile);
-        String data = ConverterUtils.inputStreamToString(inputStream);
-        ScriptObjectMirror scriptObjectMirror = (ScriptObjectMirror) invocable.invokeFunction("calculateBox", data);
-        return scriptObjectMirror.to(double[].class);
+    public double[] calculateBox() throws IOException {
+        parse();
+        if (vertexCount == 0) {
+            return new double[6];
+        }
+        return new double[]{min[0], min[1], min[2], max[0], max[1], max[2]};
+    }
+
+    /**
+     * @return the number of vertices declared in the OBJ file
+     */
+    public long getVertexCount() throws IOException {
+        parse();
+        return vertexCount;
+    }
+
+    /**
+     * @return the number of triangles of the OBJ file, polygons being counted as triangle fans
+     */
+    public long getFaceCount() throws IOException {
+        parse();
+        return faceCount;
+    }
+
+    /**
+     * Reads the triangles of given 3D OBJ file, polygons being split as triangle fans.
+     * Normals and texture coordinates are not kept, faces keep their material.
+     *
+     * @return the mesh of the OBJ file
+     */
+    public Mesh readMesh() throws IOException {
+        if (!meshParsed) {
+            collectMesh = true;
+            positions = new float[3 * 1024];
+            indices = new int[3 * 1024];
+            triangleMaterials = new int[1024];
+            materials = new ArrayList<>();
+            materialLibraries = new ArrayList<>();
+            currentMaterial = -1;
+            parsed = false;
+            parse();
+            meshParsed = true;
+        }
+        int triangleCount = indexCount / 3;
+        return new Mesh(Arrays.copyOf(positions, positionCount), Arrays.copyOf(indices, indexCount),
+                Arrays.copyOf(triangleMaterials, triangleCount), materials, materialLibraries);
+    }
+
+    private void parse() throws IOException {
+        if (parsed) {
+            return;
+        }
+        reset();
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try (FileChannel channel = FileChannel.open(convertedFile, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    accept(bytes[i]);
+                }
+                buffer.clear();
+            }
+        }
+        accept((byte) '\n');
+        parsed = true;
+    }
+
+    private void reset() {
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        vertexCount = 0;
+        faceCount = 0;
+        positionCount = 0;
+        indexCount = 0;
+        state = State.LINE_START;
+    }
+
+    private void accept(byte b) {
+        boolean endOfLine = b == '\n' || b == '\r';
+        boolean blank = b == ' ' || b == '\t';
+
+        switch (state) {
+            case LINE_START:
+                if (b == 'v') {
+                    state = State.KEYWORD_V;
+                } else if (b == 'f') {
+                    state = State.KEYWORD_F;
+                } else if (collectMesh && (b == 'u' || b == 'm')) {
+                    statement.setLength(0);
+                    statement.append((char) b);
+                    state = State.STATEMENT;
+                } else if (!blank && !endOfLine) {
+                    state = State.SKIP;
+                }
+                break;
+
+            case STATEMENT:
+                if (endOfLine) {
+                    endStatement();
+                    state = State.LINE_START;
+                } else {
+                    statement.append((char) (b & 0xFF));
+                }
+                break;
+
+            case KEYWORD_V:
+                if (blank) {
+                    coordinateIndex = 0;
+                    inToken = false;
+                    state = State.VERTEX;
+                } else {
+                    state = endOfLine ? State.LINE_START : State.SKIP;
+                }
+                break;
+
+            case KEYWORD_F:
+                if (blank) {
+                    faceTokens = 0;
+                    inToken = false;
+                    state = State.FACE;
+                } else {
+                    state = endOfLine ? State.LINE_START : State.SKIP;
+                }
+                break;
+
+            case VERTEX:
+                if (blank || endOfLine) {
+                    if (inToken) {
+                        endNumber();
+                    }
+                    if (endOfLine) {
+                        endVertex();
+                        state = State.LINE_START;
+                    }
+                } else {
+                    if (!inToken) {
+                        startNumber();
+                    }
+                    acceptDigit(b);
+                }
+                break;
+
+            case FACE:
+                if (blank || endOfLine) {
+                    if (inToken && collectMesh) {
+                        endFaceVertex();
+                    }
+                    inToken = false;
+                    if (endOfLine) {
+                        if (faceTokens > 2) {
+                            faceCount += faceTokens - 2;
+                        }
+                        state = State.LINE_START;
+                    }
+                } else {
+                    if (!inToken) {
+                        inToken = true;
+                        faceTokens++;
+                        faceIndex = 0;
+                        negativeFaceIndex = false;
+                        faceIndexEnded = false;
+                    }
+                    if (collectMesh) {
+                        acceptFaceDigit(b);
+                    }
+                }
+                break;
+
+            case SKIP:
+                if (endOfLine) {
+                    state = State.LINE_START;
+                }
+                break;
+        }
+    }
+
+    private void startNumber() {
+        inToken = true;
+        negative = false;
+        mantissa = 0;
+        mantissaDigits = 0;
+        decimalExponent = 0;
+        inFraction = false;
+        inExponent = false;
+        negativeExponent = false;
+        exponent = 0;
+        invalidNumber = false;
+    }
+
+    private void acceptDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            int digit = b - '0';
+            if (inExponent) {
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + digit;
+                }
+            } else if (mantissaDigits < MAX_MANTISSA_DIGITS) {
+                if (mantissa != 0 || digit != 0) {
+                    mantissaDigits++;
+                }
+                mantissa = mantissa * 10 + digit;
+                if (inFraction) {
+                    decimalExponent--;
+                }
+            } else if (!inFraction) {
+                // Extra integer digits only scale the value
+                decimalExponent++;
+            }
+        } else if (b == '.' && !inFraction && !inExponent) {
+            inFraction = true;
+        } else if ((b == 'e' || b == 'E') && !inExponent) {
+            inExponent = true;
+        } else if (b == '-' || b == '+') {
+            if (inExponent) {
+                negativeExponent = b == '-';
+            } else {
+                negative = b == '-';
+            }
+        } else {
+            invalidNumber = true;
+        }
+    }
+
+    private void endNumber() {
+        inToken = false;
+        if (coordinateIndex >= coordinates.length) {
+            return;
+        }
+        if (invalidNumber) {
+            // Not a vertex line for us, drop the remaining coordinates
+            coordinateIndex = coordinates.length + 1;
+            return;
+        }
+        int scale = decimalExponent + (negativeExponent ? -exponent : exponent);
+        double value = mantissa;
+        if (scale < 0) {
+            value = -scale < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-scale] : value * Math.pow(10, scale);
+        } else if (scale > 0) {
+            value = scale < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[scale] : value * Math.pow(10, scale);
+        }
+        coordinates[coordinateIndex++] = negative ? -value : value;
     }
 
+    private void endVertex() {
+        // Optional w coordinate is ignored, incomplete or malformed vertices are skipped
+        if (coordinateIndex != coordinates.length) {
+            return;
+        }
+        vertexCount++;
+        for (int i = 0; i < coordinates.length; i++) {
+            min[i] = Math.min(min[i], coordinates[i]);
+            max[i] = Math.max(max[i], coordinates[i]);
+        }
+        if (collectMesh) {
+            if (positionCount + 3 > positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            for (double coordinate : coordinates) {
+                positions[positionCount++] = (float) coordinate;
+            }
+        }
+    }
 
-    private void loadFile(String script) throws ScriptException {
-        final InputStream inputStream = loader.getResourceAsStream(script);
-        final InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-        engine.eval(inputStreamReader);
+    private void acceptFaceDigit(byte b) {
+        // Only the vertex index is read, texture and normal indices are ignored
+        if (faceIndexEnded) {
+            return;
+        }
+        if (b >= '0' && b <= '9') {
+            faceIndex = faceIndex * 10 + (b - '0');
+        } else if (b == '-') {
+            negativeFaceIndex = true;
+        } else {
+            faceIndexEnded = true;
+        }
+    }
+
+    private void endFaceVertex() {
+        // OBJ indices start at 1, negative indices are relative to the last vertex
+        int vertex = negativeFaceIndex ? (int) vertexCount - faceIndex : faceIndex - 1;
+        if (faceTokens == 1) {
+            firstFaceVertex = vertex;
+        } else if (faceTokens > 2) {
+            addTriangle(firstFaceVertex, previousFaceVertex, vertex);
+        }
+        previousFaceVertex = vertex;
+    }
+
+    private void addTriangle(int v0, int v1, int v2) {
+        if (v0 < 0 || v1 < 0 || v2 < 0 || v0 >= vertexCount || v1 >= vertexCount || v2 >= vertexCount) {
+            return;
+        }
+        if (indexCount + 3 > indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+            triangleMaterials = Arrays.copyOf(triangleMaterials, triangleMaterials.length * 2);
+        }
+        triangleMaterials[indexCount / 3] = currentMaterial;
+        indices[indexCount++] = v0;
+        indices[indexCount++] = v1;
+        indices[indexCount++] = v2;
+    }
+
+    private void endStatement() {
+        String line = statement.toString().trim();
+        int separator = line.indexOf(' ');
+        if (separator == -1) {
+            separator = line.indexOf('\t');
+        }
+        if (separator == -1) {
+            return;
+        }
+        String keyword = line.substring(0, separator);
+        String value = line.substring(separator + 1).trim();
+        if (USE_MATERIAL.equals(keyword)) {
+            currentMaterial = materials.indexOf(value);
+            if (currentMaterial == -1) {
+                currentMaterial = materials.size();
+                materials.add(value);
+            }
+        } else if (MATERIAL_LIBRARY.equals(keyword)) {
+            materialLibraries.add(value);
+        }
     }
 }
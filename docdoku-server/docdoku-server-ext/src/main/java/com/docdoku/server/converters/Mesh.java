@@ -0,0 +1,189 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Triangle mesh stored in primitive arrays
+ * <p>
+ * Vertex positions are stored as x, y, z triplets and triangles as triplets of vertex indices.
+ * Each triangle refers to its material by index in the materials list, -1 meaning no material.
+ */
+public class Mesh {
+
+    // Names are read byte per byte, writing them back in ISO-8859-1 restores the original bytes
+    private static final Charset NAMES_CHARSET = StandardCharsets.ISO_8859_1;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final float[] positions;
+    private final int[] indices;
+    private final int[] triangleMaterials;
+    private final List<String> materials;
+    private final List<String> materialLibraries;
+
+    public Mesh(float[] positions, int[] indices, int[] triangleMaterials, List<String> materials,
+                List<String> materialLibraries) {
+        this.positions = positions;
+        this.indices = indices;
+        this.triangleMaterials = triangleMaterials;
+        this.materials = Collections.unmodifiableList(materials);
+        this.materialLibraries = Collections.unmodifiableList(materialLibraries);
+    }
+
+    public float[] getPositions() {
+        return positions;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int[] getTriangleMaterials() {
+        return triangleMaterials;
+    }
+
+    public List<String> getMaterials() {
+        return materials;
+    }
+
+    public List<String> getMaterialLibraries() {
+        return materialLibraries;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    /**
+     * Writes this mesh in the OBJ format, triangles being grouped by material.
+     * The stream is not closed.
+     *
+     * @param outputStream the stream to write to
+     * @return the number of bytes written
+     */
+    public long writeObj(OutputStream outputStream) throws IOException {
+        ObjWriter writer = new ObjWriter(outputStream);
+
+        for (String materialLibrary : materialLibraries) {
+            writer.append("mtllib ").append(materialLibrary).newLine();
+        }
+
+        for (int i = 0; i < positions.length; i += 3) {
+            writer.append("v ").append(positions[i]).append(' ')
+                    .append(positions[i + 1]).append(' ')
+                    .append(positions[i + 2]).newLine();
+        }
+
+        int previousMaterial = -1;
+        for (int t : sortTrianglesByMaterial()) {
+            int material = triangleMaterials[t];
+            if (material != previousMaterial) {
+                writer.append("usemtl ").append(materials.get(material)).newLine();
+                previousMaterial = material;
+            }
+            writer.append("f ").append(indices[3 * t] + 1).append(' ')
+                    .append(indices[3 * t + 1] + 1).append(' ')
+                    .append(indices[3 * t + 2] + 1).newLine();
+        }
+
+        writer.flush();
+        return writer.getLength();
+    }
+
+    /**
+     * @return the triangle indices, triangles without material first, then grouped by material
+     */
+    int[] sortTrianglesByMaterial() {
+        int[] offsets = new int[materials.size() + 2];
+        for (int material : triangleMaterials) {
+            offsets[material + 2]++;
+        }
+        for (int i = 2; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        int[] order = new int[triangleMaterials.length];
+        for (int t = 0; t < triangleMaterials.length; t++) {
+            order[offsets[triangleMaterials[t] + 1]++] = t;
+        }
+        return order;
+    }
+
+    private static final class ObjWriter {
+
+        private final OutputStream outputStream;
+        private final StringBuilder buffer = new StringBuilder(WRITE_BUFFER_SIZE);
+        private long length;
+
+        private ObjWriter(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        private ObjWriter append(String value) {
+            buffer.append(value);
+            return this;
+        }
+
+        private ObjWriter append(float value) {
+            buffer.append(value);
+            return this;
+        }
+
+        private ObjWriter append(int value) {
+            buffer.append(value);
+            return this;
+        }
+
+        private ObjWriter append(char value) {
+            buffer.append(value);
+            return this;
+        }
+
+        private ObjWriter newLine() throws IOException {
+            buffer.append('\n');
+            if (buffer.length() >= WRITE_BUFFER_SIZE) {
+                flush();
+            }
+            return this;
+        }
+
+        private void flush() throws IOException {
+            byte[] bytes = buffer.toString().getBytes(NAMES_CHARSET);
+            outputStream.write(bytes);
+            length += bytes.length;
+            buffer.setLength(0);
+        }
+
+        private long getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters;
+
+import java.util.Arrays;
+
+/**
+ * Quadric error metric mesh simplification
+ * <p>
+ * Edges are collapsed by increasing error, each vertex carrying the sum of the quadrics of its
+ * adjacent planes (Garland &amp; Heckbert). Rather than maintaining a priority queue, every
+ * iteration collapses the edges under a growing error threshold, the adjacency being rebuilt
+ * every few iterations. Collapses that would flip a triangle or move a border vertex inside the
+ * mesh are rejected.
+ * <p>
+ * Simplification is progressive: {@link #simplify(int)} may be called with decreasing targets,
+ * each call going on from the previous result, so all levels of detail are produced in one pass.
+ */
+public class MeshDecimator {
+
+    private static final int MAX_ITERATIONS = 100;
+    private static final int ADJACENCY_UPDATE_PERIOD = 5;
+    private static final double AGGRESSIVENESS = 7;
+    private static final double MIN_NORMAL_DOT = 0.2;
+    private static final double MAX_EDGES_DOT = 0.999;
+
+    private final Mesh mesh;
+
+    // Vertices
+    private final int vertexCount;
+    private final double[] positions;
+    private final double[] quadrics;
+    private final boolean[] border;
+    private final int[] referenceStart;
+    private final int[] referenceCount;
+
+    // Triangles
+    private int triangleCount;
+    private int remainingTriangles;
+    private final int[] triangles;
+    private final int[] materials;
+    private final double[] normals;
+    private final double[] errors;
+    private final boolean[] deleted;
+    private final boolean[] dirty;
+
+    // Vertex to triangle references
+    private int[] referenceTriangles;
+    private int[] referenceCorners;
+    private int references;
+
+    private boolean initialized;
+
+    // Scratch buffers
+    private final double[] quadric = new double[10];
+    private final double[] collapsePosition = new double[3];
+    private final double[] candidate = new double[3];
+    private boolean[] removed0 = new boolean[16];
+    private boolean[] removed1 = new boolean[16];
+
+    public MeshDecimator(Mesh mesh) {
+        this.mesh = mesh;
+
+        vertexCount = mesh.getVertexCount();
+        float[] meshPositions = mesh.getPositions();
+        positions = new double[meshPositions.length];
+        for (int i = 0; i < meshPositions.length; i++) {
+            positions[i] = meshPositions[i];
+        }
+        quadrics = new double[10 * vertexCount];
+        border = new boolean[vertexCount];
+        referenceStart = new int[vertexCount];
+        referenceCount = new int[vertexCount];
+
+        triangleCount = mesh.getTriangleCount();
+        remainingTriangles = triangleCount;
+        triangles = mesh.getIndices().clone();
+        materials = mesh.getTriangleMaterials().clone();
+        normals = new double[3 * triangleCount];
+        errors = new double[4 * triangleCount];
+        deleted = new boolean[triangleCount];
+        dirty = new boolean[triangleCount];
+
+        referenceTriangles = new int[3 * triangleCount];
+        referenceCorners = new int[3 * triangleCount];
+    }
+
+    /**
+     * Collapses edges until the mesh has at most the given number of triangles, or until no
+     * collapse is possible anymore.
+     *
+     * @param targetTriangleCount the wanted number of triangles
+     * @return the simplified mesh
+     */
+    public Mesh simplify(int targetTriangleCount) {
+        for (int iteration = 0; iteration < MAX_ITERATIONS && remainingTriangles > targetTriangleCount; iteration++) {
+
+            if (iteration % ADJACENCY_UPDATE_PERIOD == 0) {
+                updateMesh();
+            }
+
+            Arrays.fill(dirty, 0, triangleCount, false);
+
+            // Low errors first, more and more aggressive
+            double threshold = 1e-9 * Math.pow(iteration + 3d, AGGRESSIVENESS);
+
+            for (int t = 0; t < triangleCount && remainingTriangles > targetTriangleCount; t++) {
+                if (errors[4 * t + 3] > threshold || deleted[t] || dirty[t]) {
+                    continue;
+                }
+                for (int corner = 0; corner < 3; corner++) {
+                    if (errors[4 * t + corner] < threshold && collapse(t, corner)) {
+                        break;
+                    }
+                }
+            }
+        }
+        return toMesh();
+    }
+
+    private boolean collapse(int t, int corner) {
+        int i0 = triangles[3 * t + corner];
+        int i1 = triangles[3 * t + (corner + 1) % 3];
+
+        if (border[i0] != border[i1]) {
+            return false;
+        }
+
+        computeError(i0, i1, collapsePosition);
+
+        removed0 = ensureCapacity(removed0, referenceCount[i0]);
+        removed1 = ensureCapacity(removed1, referenceCount[i1]);
+        if (flipped(collapsePosition, i0, i1, removed0) || flipped(collapsePosition, i1, i0, removed1)) {
+            return false;
+        }
+
+        // i1 is merged into i0
+        System.arraycopy(collapsePosition, 0, positions, 3 * i0, 3);
+        for (int k = 0; k < 10; k++) {
+            quadrics[10 * i0 + k] += quadrics[10 * i1 + k];
+        }
+
+        int start = references;
+        updateTriangles(i0, i0, removed0);
+        updateTriangles(i0, i1, removed1);
+        int count = references - start;
+        if (count <= referenceCount[i0]) {
+            // Fits in the previous slot, reuse it
+            System.arraycopy(referenceTriangles, start, referenceTriangles, referenceStart[i0], count);
+            System.arraycopy(referenceCorners, start, referenceCorners, referenceStart[i0], count);
+        } else {
+            referenceStart[i0] = start;
+        }
+        referenceCount[i0] = count;
+        return true;
+    }
+
+    /**
+     * Tells if moving vertex <code>v</code> to <code>p</code> would flip one of its triangles.
+     * Triangles shared with <code>other</code> are flagged in <code>removed</code>, they disappear with the collapse.
+     */
+    private boolean flipped(double[] p, int v, int other, boolean[] removed) {
+        for (int k = 0; k < referenceCount[v]; k++) {
+            int r = referenceStart[v] + k;
+            int t = referenceTriangles[r];
+            if (deleted[t]) {
+                continue;
+            }
+            int corner = referenceCorners[r];
+            int id1 = triangles[3 * t + (corner + 1) % 3];
+            int id2 = triangles[3 * t + (corner + 2) % 3];
+
+            if (id1 == other || id2 == other) {
+                removed[k] = true;
+                continue;
+            }
+            removed[k] = false;
+
+            double d1x = positions[3 * id1] - p[0];
+            double d1y = positions[3 * id1 + 1] - p[1];
+            double d1z = positions[3 * id1 + 2] - p[2];
+            double l1 = Math.sqrt(d1x * d1x + d1y * d1y + d1z * d1z);
+            double d2x = positions[3 * id2] - p[0];
+            double d2y = positions[3 * id2 + 1] - p[1];
+            double d2z = positions[3 * id2 + 2] - p[2];
+            double l2 = Math.sqrt(d2x * d2x + d2y * d2y + d2z * d2z);
+            if (l1 == 0 || l2 == 0) {
+                return true;
+            }
+            d1x /= l1;
+            d1y /= l1;
+            d1z /= l1;
+            d2x /= l2;
+            d2y /= l2;
+            d2z /= l2;
+
+            if (Math.abs(d1x * d2x + d1y * d2y + d1z * d2z) > MAX_EDGES_DOT) {
+                return true;
+            }
+
+            double nx = d1y * d2z - d1z * d2y;
+            double ny = d1z * d2x - d1x * d2z;
+            double nz = d1x * d2y - d1y * d2x;
+            double ln = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (ln == 0) {
+                return true;
+            }
+            double dot = (nx * normals[3 * t] + ny * normals[3 * t + 1] + nz * normals[3 * t + 2]) / ln;
+            if (dot < MIN_NORMAL_DOT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the triangles of vertex <code>v</code> to vertex <code>i0</code>, dropping the removed ones.
+     */
+    private void updateTriangles(int i0, int v, boolean[] removed) {
+        for (int k = 0; k < referenceCount[v]; k++) {
+            int r = referenceStart[v] + k;
+            int t = referenceTriangles[r];
+            if (deleted[t]) {
+                continue;
+            }
+            if (removed[k]) {
+                deleted[t] = true;
+                remainingTriangles--;
+                continue;
+            }
+            int corner = referenceCorners[r];
+            triangles[3 * t + corner] = i0;
+            dirty[t] = true;
+            computeTriangleErrors(t);
+            addReference(t, corner);
+        }
+    }
+
+    private void addReference(int t, int corner) {
+        if (references == referenceTriangles.length) {
+            int capacity = Math.max(16, references * 2);
+            referenceTriangles = Arrays.copyOf(referenceTriangles, capacity);
+            referenceCorners = Arrays.copyOf(referenceCorners, capacity);
+        }
+        referenceTriangles[references] = t;
+        referenceCorners[references] = corner;
+        references++;
+    }
+
+    /**
+     * Compacts the triangles and rebuilds the vertex to triangle references.
+     * The first call also computes borders, quadrics and errors.
+     */
+    private void updateMesh() {
+        if (initialized) {
+            int kept = 0;
+            for (int t = 0; t < triangleCount; t++) {
+                if (deleted[t]) {
+                    continue;
+                }
+                System.arraycopy(triangles, 3 * t, triangles, 3 * kept, 3);
+                System.arraycopy(normals, 3 * t, normals, 3 * kept, 3);
+                System.arraycopy(errors, 4 * t, errors, 4 * kept, 4);
+                materials[kept] = materials[t];
+                deleted[kept] = false;
+                kept++;
+            }
+            triangleCount = kept;
+        }
+
+        Arrays.fill(referenceCount, 0);
+        for (int i = 0; i < 3 * triangleCount; i++) {
+            referenceCount[triangles[i]]++;
+        }
+        int start = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            referenceStart[v] = start;
+            start += referenceCount[v];
+            referenceCount[v] = 0;
+        }
+        references = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[3 * t + corner];
+                int r = referenceStart[v] + referenceCount[v];
+                referenceTriangles[r] = t;
+                referenceCorners[r] = corner;
+                referenceCount[v]++;
+            }
+            references += 3;
+        }
+
+        if (!initialized) {
+            findBorders();
+            computeQuadrics();
+            for (int t = 0; t < triangleCount; t++) {
+                computeTriangleErrors(t);
+            }
+            initialized = true;
+        }
+    }
+
+    /**
+     * Border vertices are the ends of edges used by a single triangle
+     */
+    private void findBorders() {
+        int[] neighbours = new int[16];
+        int[] occurrences = new int[16];
+        for (int v = 0; v < vertexCount; v++) {
+            int neighbourCount = 0;
+            for (int k = 0; k < referenceCount[v]; k++) {
+                int t = referenceTriangles[referenceStart[v] + k];
+                for (int corner = 0; corner < 3; corner++) {
+                    int id = triangles[3 * t + corner];
+                    int n = 0;
+                    while (n < neighbourCount && neighbours[n] != id) {
+                        n++;
+                    }
+                    if (n == neighbourCount) {
+                        if (neighbourCount == neighbours.length) {
+                            neighbours = Arrays.copyOf(neighbours, neighbourCount * 2);
+                            occurrences = Arrays.copyOf(occurrences, neighbourCount * 2);
+                        }
+                        neighbours[n] = id;
+                        occurrences[n] = 0;
+                        neighbourCount++;
+                    }
+                    occurrences[n]++;
+                }
+            }
+            for (int n = 0; n < neighbourCount; n++) {
+                if (occurrences[n] == 1) {
+                    border[neighbours[n]] = true;
+                }
+            }
+        }
+    }
+
+    private void computeQuadrics() {
+        for (int t = 0; t < triangleCount; t++) {
+            int a = 3 * triangles[3 * t];
+            int b = 3 * triangles[3 * t + 1];
+            int c = 3 * triangles[3 * t + 2];
+
+            double e1x = positions[b] - positions[a];
+            double e1y = positions[b + 1] - positions[a + 1];
+            double e1z = positions[b + 2] - positions[a + 2];
+            double e2x = positions[c] - positions[a];
+            double e2y = positions[c + 1] - positions[a + 1];
+            double e2z = positions[c + 2] - positions[a + 2];
+
+            double nx = e1y * e2z - e1z * e2y;
+            double ny = e1z * e2x - e1x * e2z;
+            double nz = e1x * e2y - e1y * e2x;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+            normals[3 * t] = nx;
+            normals[3 * t + 1] = ny;
+            normals[3 * t + 2] = nz;
+
+            double d = -(nx * positions[a] + ny * positions[a + 1] + nz * positions[a + 2]);
+            for (int corner = 0; corner < 3; corner++) {
+                addPlane(triangles[3 * t + corner], nx, ny, nz, d);
+            }
+        }
+    }
+
+    private void addPlane(int v, double a, double b, double c, double d) {
+        int q = 10 * v;
+        quadrics[q] += a * a;
+        quadrics[q + 1] += a * b;
+        quadrics[q + 2] += a * c;
+        quadrics[q + 3] += a * d;
+        quadrics[q + 4] += b * b;
+        quadrics[q + 5] += b * c;
+        quadrics[q + 6] += b * d;
+        quadrics[q + 7] += c * c;
+        quadrics[q + 8] += c * d;
+        quadrics[q + 9] += d * d;
+    }
+
+    private void computeTriangleErrors(int t) {
+        double min = Double.MAX_VALUE;
+        for (int corner = 0; corner < 3; corner++) {
+            double error = computeError(triangles[3 * t + corner], triangles[3 * t + (corner + 1) % 3], candidate);
+            errors[4 * t + corner] = error;
+            min = Math.min(min, error);
+        }
+        errors[4 * t + 3] = min;
+    }
+
+    /**
+     * Computes the error of collapsing the edge (v1, v2), and the position minimizing it.
+     */
+    private double computeError(int v1, int v2, double[] p) {
+        for (int k = 0; k < 10; k++) {
+            quadric[k] = quadrics[10 * v1 + k] + quadrics[10 * v2 + k];
+        }
+        double[] q = quadric;
+
+        double det = det(q, 0, 1, 2, 1, 4, 5, 2, 5, 7);
+        if (det != 0 && !(border[v1] && border[v2])) {
+            p[0] = -1 / det * det(q, 1, 2, 3, 4, 5, 6, 5, 7, 8);
+            p[1] = 1 / det * det(q, 0, 2, 3, 1, 5, 6, 2, 7, 8);
+            p[2] = -1 / det * det(q, 0, 1, 3, 1, 4, 6, 2, 5, 8);
+            return vertexError(q, p[0], p[1], p[2]);
+        }
+
+        // Pick the best of both ends and the middle
+        int a = 3 * v1;
+        int b = 3 * v2;
+        double mx = (positions[a] + positions[b]) / 2;
+        double my = (positions[a + 1] + positions[b + 1]) / 2;
+        double mz = (positions[a + 2] + positions[b + 2]) / 2;
+        double error1 = vertexError(q, positions[a], positions[a + 1], positions[a + 2]);
+        double error2 = vertexError(q, positions[b], positions[b + 1], positions[b + 2]);
+        double error3 = vertexError(q, mx, my, mz);
+        double error = Math.min(error1, Math.min(error2, error3));
+        if (error == error1) {
+            p[0] = positions[a];
+            p[1] = positions[a + 1];
+            p[2] = positions[a + 2];
+        } else if (error == error2) {
+            p[0] = positions[b];
+            p[1] = positions[b + 1];
+            p[2] = positions[b + 2];
+        } else {
+            p[0] = mx;
+            p[1] = my;
+            p[2] = mz;
+        }
+        return error;
+    }
+
+    private static double vertexError(double[] q, double x, double y, double z) {
+        return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                + q[7] * z * z + 2 * q[8] * z + q[9];
+    }
+
+    private static double det(double[] q, int a11, int a12, int a13, int a21, int a22, int a23,
+                              int a31, int a32, int a33) {
+        return q[a11] * q[a22] * q[a33] + q[a13] * q[a21] * q[a32] + q[a12] * q[a23] * q[a31]
+                - q[a13] * q[a22] * q[a31] - q[a11] * q[a23] * q[a32] - q[a12] * q[a21] * q[a33];
+    }
+
+    private static boolean[] ensureCapacity(boolean[] array, int capacity) {
+        return array.length >= capacity ? array : new boolean[Math.max(capacity, array.length * 2)];
+    }
+
+    /**
+     * Copies the remaining triangles and the vertices they use into a new mesh
+     */
+    private Mesh toMesh() {
+        int[] vertexMap = new int[vertexCount];
+        Arrays.fill(vertexMap, -1);
+        int usedVertices = 0;
+        int[] indices = new int[3 * remainingTriangles];
+        int[] triangleMaterials = new int[remainingTriangles];
+        int kept = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (deleted[t]) {
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[3 * t + corner];
+                if (vertexMap[v] == -1) {
+                    vertexMap[v] = usedVertices++;
+                }
+                indices[3 * kept + corner] = vertexMap[v];
+            }
+            triangleMaterials[kept] = materials[t];
+            kept++;
+        }
+
+        float[] meshPositions = new float[3 * usedVertices];
+        for (int v = 0; v < vertexCount; v++) {
+            int mapped = vertexMap[v];
+            if (mapped != -1) {
+                meshPositions[3 * mapped] = (float) positions[3 * v];
+                meshPositions[3 * mapped + 1] = (float) positions[3 * v + 1];
+                meshPositions[3 * mapped + 2] = (float) positions[3 * v + 2];
+            }
+        }
+        return new Mesh(meshPositions, indices, triangleMaterials, mesh.getMaterials(), mesh.getMaterialLibraries());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class CompactMeshWriterTest {
+
+    @Test
+    public void testWriteCube() throws Exception {
+        Path cube = Paths.get(CompactMeshWriterTest.class.getResource("cube.obj").toURI());
+        Mesh mesh = new GeometryParser(cube).readMesh();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long length = CompactMeshWriter.write(mesh, outputStream);
+        Assert.assertEquals(outputStream.size(), length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(outputStream.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Header
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        Assert.assertEquals("CMSH", new String(magic, "US-ASCII"));
+        Assert.assertEquals(CompactMeshWriter.VERSION, buffer.get());
+        Assert.assertEquals(1, buffer.get());
+        int groupCount = buffer.getShort();
+        Assert.assertEquals(mesh.getVertexCount(), buffer.getInt());
+        Assert.assertEquals(mesh.getTriangleCount(), buffer.getInt());
+        float[] box = new float[6];
+        for (int i = 0; i < box.length; i++) {
+            box[i] = buffer.getFloat();
+        }
+        int indexDataLength = buffer.getInt();
+        buffer.getInt();
+
+        // Quantized positions
+        float[] positions = mesh.getPositions();
+        for (int i = 0; i < positions.length; i++) {
+            int axis = i % 3;
+            float range = box[axis + 3] - box[axis];
+            float position = box[axis] + (buffer.getShort() & 0xFFFF) / 65535f * range;
+            Assert.assertEquals(positions[i], position, range / 65535f);
+        }
+
+        // Normals of a cube corner point outwards
+        for (int v = 0; v < mesh.getVertexCount(); v++) {
+            float x = buffer.get() / 127f;
+            float y = buffer.get() / 127f;
+            float z = 1 - Math.abs(x) - Math.abs(y);
+            if (z < 0) {
+                float fx = (1 - Math.abs(y)) * Math.signum(x);
+                y = (1 - Math.abs(x)) * Math.signum(y);
+                x = fx;
+            }
+            float dot = 0;
+            float[] normal = {x, y, z};
+            for (int axis = 0; axis < 3; axis++) {
+                dot += normal[axis] * (positions[3 * v + axis] - (box[axis] + box[axis + 3]) / 2);
+            }
+            Assert.assertTrue(dot > 0);
+        }
+
+        // Delta coded indices, in material order
+        int end = buffer.position() + indexDataLength;
+        int[] order = mesh.sortTrianglesByMaterial();
+        int previous = 0;
+        for (int t : order) {
+            for (int corner = 0; corner < 3; corner++) {
+                int zigzag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get();
+                    zigzag |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                Assert.assertEquals(mesh.getIndices()[3 * t + corner], previous);
+            }
+        }
+        Assert.assertEquals(end, buffer.position());
+
+        // Material groups cover every triangle
+        int triangles = 0;
+        for (int g = 0; g < groupCount; g++) {
+            Assert.assertEquals(triangles, buffer.getInt());
+            triangles += buffer.getInt();
+            int nameLength = buffer.getShort();
+            buffer.position(buffer.position() + nameLength);
+        }
+        Assert.assertEquals(mesh.getTriangleCount(), triangles);
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.docdoku.server.converters;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class GeometryParserTest {
+
+    private Path objFile;
+
+    @Before
+    public void setup() throws Exception {
+        objFile = Files.createTempFile("geometry", ".obj");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(objFile);
+    }
+
+    @Test
+    public void testBoxAndCounts() throws Exception {
+        write("# comment\n" +
+                "mtllib part.mtl\n" +
+                "o part\n" +
+                "v -1.5 2 3.25e1\n" +
+                "v 4 -0.125 -1E-2 1.0\n" +
+                "  v\t0.0   10 +7\r\n" +
+                "vn 100 100 100\n" +
+                "vt 0.5 0.5\n" +
+                "usemtl steel\n" +
+                "f 1 2 3\n" +
+                "f 1/1/1 2/1/1 3/1/1 1/1/1\n" +
+                "f 1//1 2//1 3//1");
+
+        GeometryParser parser = new GeometryParser(objFile);
+
+        Assert.assertArrayEquals(new double[]{-1.5, -0.125, -0.01, 4, 10, 32.5}, parser.calculateBox(), 1e-12);
+        Assert.assertEquals(3, parser.getVertexCount());
+        Assert.assertEquals(4, parser.getFaceCount());
+    }
+
+    @Test
+    public void testReadMesh() throws Exception {
+        write("mtllib part.mtl\n" +
+                "v 0 0 0\n" +
+                "v 1 0 0\n" +
+                "v 1 1 0\n" +
+                "v 0 1 0\n" +
+                "f 1 2 3\n" +
+                "usemtl steel\n" +
+                "f 1/1/1 2/1/1 3/1/1 4/1/1\n" +
+                "usemtl glass\n" +
+                "f -4//1 -2//1 -1//1\n" +
+                "f 1 2 9\n");
+
+        Mesh mesh = new GeometryParser(objFile).readMesh();
+
+        Assert.assertEquals(4, mesh.getVertexCount());
+        Assert.assertEquals(4, mesh.getTriangleCount());
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 0, 1, 2, 0, 2, 3, 0, 2, 3}, mesh.getIndices());
+        Assert.assertArrayEquals(new int[]{-1, 0, 0, 1}, mesh.getTriangleMaterials());
+        Assert.assertEquals(Arrays.asList("steel", "glass"), mesh.getMaterials());
+        Assert.assertEquals(Collections.singletonList("part.mtl"), mesh.getMaterialLibraries());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        write("# nothing\n");
+        GeometryParser parser = new GeometryParser(objFile);
+        Assert.assertArrayEquals(new double[6], parser.calculateBox(), 0);
+        Assert.assertEquals(0, parser.getVertexCount());
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(objFile, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.converters;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+public class MeshDecimatorTest {
+
+    @Test
+    public void testCube() throws Exception {
+        Path cube = Paths.get(MeshDecimatorTest.class.getResource("cube.obj").toURI());
+        Mesh mesh = new GeometryParser(cube).readMesh();
+
+        Assert.assertEquals(8, mesh.getVertexCount());
+        Assert.assertEquals(12, mesh.getTriangleCount());
+
+        Mesh lod = new MeshDecimator(mesh).simplify(6);
+
+        Assert.assertTrue(lod.getTriangleCount() <= mesh.getTriangleCount());
+        assertValid(lod, 0, 1);
+    }
+
+    @Test
+    public void testProgressiveLevelsOfDetail() throws Exception {
+        Mesh grid = createGrid(50);
+        Assert.assertEquals(2 * 49 * 49, grid.getTriangleCount());
+
+        MeshDecimator decimator = new MeshDecimator(grid);
+
+        int target1 = Math.round(grid.getTriangleCount() * 0.6f);
+        Mesh lod1 = decimator.simplify(target1);
+        Assert.assertTrue(lod1.getTriangleCount() <= target1);
+        assertValid(lod1, 0, 49);
+
+        int target2 = Math.round(grid.getTriangleCount() * 0.2f);
+        Mesh lod2 = decimator.simplify(target2);
+        Assert.assertTrue(lod2.getTriangleCount() <= target2);
+        Assert.assertTrue(lod2.getTriangleCount() > 0);
+        Assert.assertTrue(lod2.getVertexCount() < lod1.getVertexCount());
+        assertValid(lod2, 0, 49);
+
+        // A plane stays a plane
+        float[] positions = lod2.getPositions();
+        for (int i = 2; i < positions.length; i += 3) {
+            Assert.assertEquals(0, positions[i], 1e-5);
+        }
+    }
+
+    @Test
+    public void testWriteObj() throws Exception {
+        Mesh lod = new MeshDecimator(createGrid(10)).simplify(40);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long length = lod.writeObj(outputStream);
+        Assert.assertEquals(outputStream.size(), length);
+
+        Path objFile = Files.createTempFile("lod", ".obj");
+        try {
+            Files.write(objFile, outputStream.toByteArray());
+            Mesh read = new GeometryParser(objFile).readMesh();
+            Assert.assertEquals(lod.getVertexCount(), read.getVertexCount());
+            Assert.assertEquals(lod.getTriangleCount(), read.getTriangleCount());
+            Assert.assertArrayEquals(lod.getIndices(), read.getIndices());
+            Assert.assertArrayEquals(lod.getTriangleMaterials(), read.getTriangleMaterials());
+            Assert.assertEquals(lod.getMaterials(), read.getMaterials());
+            Assert.assertEquals(lod.getMaterialLibraries(), read.getMaterialLibraries());
+        } finally {
+            Files.deleteIfExists(objFile);
+        }
+    }
+
+    private static Mesh createGrid(int size) {
+        float[] positions = new float[3 * size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int v = 3 * (y * size + x);
+                positions[v] = x;
+                positions[v + 1] = y;
+            }
+        }
+        int[] indices = new int[6 * (size - 1) * (size - 1)];
+        int[] materials = new int[2 * (size - 1) * (size - 1)];
+        int i = 0;
+        for (int y = 0; y < size - 1; y++) {
+            for (int x = 0; x < size - 1; x++) {
+                int v = y * size + x;
+                indices[i++] = v;
+                indices[i++] = v + 1;
+                indices[i++] = v + size + 1;
+                indices[i++] = v;
+                indices[i++] = v + size + 1;
+                indices[i++] = v + size;
+            }
+        }
+        return new Mesh(positions, indices, materials, Collections.singletonList("plane"),
+                Collections.singletonList("grid.mtl"));
+    }
+
+    private static void assertValid(Mesh mesh, float min, float max) {
+        for (int index : mesh.getIndices()) {
+            Assert.assertTrue(index >= 0 && index < mesh.getVertexCount());
+        }
+        for (float coordinate : mesh.getPositions()) {
+            Assert.assertTrue(coordinate >= min - 1e-4 && coordinate <= max + 1e-4);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.docdoku.core.common.Account;
 import com.docdoku.core.security.UserGroupMapping;
 import com.docdoku.core.services.IAccountManagerLocal;
 import com.docdoku.server.rest.Tools;
+import com.docdoku.server.rest.util.PageCursor;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -103,7 +104,7 @@ public class AuthServices {
     public static void addCORSHeaders(HttpServletResponse response){
         response.setHeader("Access-Control-Allow-Origin", "*");
         response.setHeader("Access-Control-Allow-Headers", "origin, content-type, accept, authorization, jwt, x-accept-encoding");
-        response.setHeader("Access-Control-Expose-Headers", "jwt");
+        response.setHeader("Access-Control-Expose-Headers", "jwt, " + PageCursor.NEXT_CURSOR_HEADER);
         response.setHeader("Access-Control-Allow-Credentials", "true");
         response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, HEAD");
     }
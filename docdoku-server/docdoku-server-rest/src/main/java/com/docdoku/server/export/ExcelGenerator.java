@@ -29,6 +29,7 @@ import com.docdoku.core.meta.InstanceListOfValuesAttribute;
 import com.docdoku.core.product.PartIteration;
 import com.docdoku.core.product.PartLinkList;
 import com.docdoku.core.product.PartRevision;
+import com.docdoku.core.query.Query;
 import com.docdoku.core.query.QueryContext;
 import com.docdoku.core.query.QueryField;
 import com.docdoku.core.query.QueryResultRow;
@@ -37,177 +38,174 @@ import com.docdoku.core.util.Tools;
 import com.docdoku.server.helpers.LangHelper;
 import com.docdoku.server.rest.collections.QueryResult;
 import com.docdoku.server.rest.dto.InstanceAttributeDTO;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.dozer.DozerBeanMapperSingletonWrapper;
 import org.dozer.Mapper;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * @author Chadid Asmae
  */
 public class ExcelGenerator {
 
-    private static final Logger LOGGER = Logger.getLogger(ExcelGenerator.class.getName());
+    public static final String XLSX_MEDIA_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private static final String SHEET_NAME = "Parts Data";
+
+    private static final char CSV_SEPARATOR = ',';
+
+    private static final String CSV_FORMULA_PREFIXES = "=+-@\t\r";
 
     private Mapper mapper = DozerBeanMapperSingletonWrapper.getInstance();
-    public File generateXLSResponse(QueryResult queryResult, Locale locale, String baseURL) {
-        File excelFile = new File("export_parts.xls");
-        //Blank workbook
-        XSSFWorkbook workbook = new XSSFWorkbook();
-
-        //Create a blank sheet
-        XSSFSheet sheet = workbook.createSheet("Parts Data");
-
-        String header = String.join(";", queryResult.getQuery().getSelects());
-        String[] columns = header.split(";");
-
-        Map<Integer, String[]> data = new HashMap<>();
-        String[] headerFormatted = createXLSHeaderRow(header, columns, locale);
-        data.put(1, headerFormatted);
-
-        Map<Integer, String[]> commentsData = new HashMap<>();
-        String[] headerComments = createXLSHeaderRowComments(header, columns);
-        commentsData.put(1, headerComments);
-
-        List<String> selects = queryResult.getQuery().getSelects();
-        int i = 1;
-        for (QueryResultRow row : queryResult.getRows()) {
-            i++;
-            data.put(i, createXLSRow(selects, row, baseURL));
-            commentsData.put(i, createXLSRowComments(selects, row));
+
+    /**
+     * Open a writer exporting query result rows in the given format, the header row is written at once.
+     * Finishing the writer completes the export but leaves the output stream open.
+     */
+    public QueryResultRowWriter createWriter(QueryResult.ExportType exportType, Query query, Locale locale, String baseURL, OutputStream outputStream) throws IOException {
+        switch (exportType) {
+            case XLS:
+                return createXLSWriter(query, locale, baseURL, outputStream);
+            case CSV:
+                return createCSVWriter(query, locale, baseURL, outputStream);
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Stream the rows to an XLSX workbook. Part numbers and context columns get the header style, attribute
+     * cells get the attribute ids as comments.
+     */
+    public QueryResultRowWriter createXLSWriter(Query query, Locale locale, String baseURL, OutputStream outputStream) throws IOException {
+        List<String> selects = query.getSelects();
+
+        Set<Integer> allColumns = new HashSet<>();
+        Set<Integer> grayColumns = new HashSet<>();
+        for (int i = 0; i < selects.size(); i++) {
+            String column = selects.get(i);
+            allColumns.add(i);
+            if (column.equals(QueryField.CTX_PRODUCT_ID) || column.equals(QueryField.CTX_SERIAL_NUMBER) || column.equals(QueryField.PART_MASTER_NUMBER)) {
+                grayColumns.add(i);
+            }
         }
 
-        //Iterate over data and write to sheet
-        Set<Integer> keySet = data.keySet();
-        int rowNum = 0;
+        StreamingXLSXWriter xlsxWriter = new StreamingXLSXWriter(outputStream, SHEET_NAME);
+        xlsxWriter.writeRow(createXLSHeaderRow(selects, locale), createXLSHeaderRowComments(selects), allColumns);
 
-        for (Integer key : keySet) {
+        return new QueryResultRowWriter() {
+            @Override
+            public void write(QueryResultRow row) throws IOException {
+                xlsxWriter.writeRow(createXLSRow(selects, row, baseURL), createXLSRowComments(selects, row), grayColumns);
+            }
 
-            Row row = sheet.createRow(rowNum++);
-            String[] objArr = data.get(key);
-            int cellNum = 0;
-            for (String obj : objArr) {
-                Cell cell = row.createCell(cellNum++);
-                cell.setCellValue(obj);
+            @Override
+            public void finish() throws IOException {
+                xlsxWriter.finish();
             }
 
-            CreationHelper factory = workbook.getCreationHelper();
-            Drawing drawing = sheet.createDrawingPatriarch();
-            String[] commentsObjArr = commentsData.get(key);
-            cellNum = 0;
-            for (String commentsObj : commentsObjArr) {
-                if (commentsObj.length() > 0) {
-                    Cell cell = row.getCell(cellNum) != null ? row.getCell(cellNum) : row.createCell(cellNum);
-
-                    // When the comment box is visible, have it show in a 1x3 space
-                    ClientAnchor anchor = factory.createClientAnchor();
-                    anchor.setCol1(cell.getColumnIndex());
-                    anchor.setCol2(cell.getColumnIndex()+1);
-                    anchor.setRow1(row.getRowNum());
-                    anchor.setRow2(row.getRowNum()+1);
-
-                    Comment comment = drawing.createCellComment(anchor);
-                    RichTextString str = factory.createRichTextString(commentsObj);
-                    comment.setString(str);
-
-                    // Assign the comment to the cell
-                    cell.setCellComment(comment);
-                }
-                cellNum++;
+            @Override
+            public void close() throws IOException {
+                xlsxWriter.close();
             }
-        }
+        };
+    }
 
-        // Define header style
-        Font headerFont = workbook.createFont();
-        headerFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
-        headerFont.setFontHeightInPoints((short) 10);
-        headerFont.setFontName("Courier New");
-        headerFont.setItalic(true);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        CellStyle headerStyle = workbook.createCellStyle();
-        headerStyle.setFont(headerFont);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-        headerStyle.setFillPattern(CellStyle.SOLID_FOREGROUND);
-
-        // Set header style
-        for (int j=0; j<columns.length; j++) {
-            Cell cell = sheet.getRow(0).getCell(j);
-            cell.setCellStyle(headerStyle);
-
-            if (cell.getCellComment() != null) {
-                String comment = cell.getCellComment().getString().toString();
-
-                if (comment.equals(QueryField.CTX_PRODUCT_ID) || comment.equals(QueryField.CTX_SERIAL_NUMBER) || comment.equals(QueryField.PART_MASTER_NUMBER)) {
-                    for (int k=0; k<queryResult.getRows().size(); k++) {
-                        Cell grayCell = sheet.getRow(k+1).getCell(j) != null ? sheet.getRow(k+1).getCell(j) : sheet.getRow(k+1).createCell(j);
-                        grayCell.setCellStyle(headerStyle);
-                    }
-                }
+    /**
+     * Stream the rows as comma separated values, UTF-8 encoded with a byte order mark so spreadsheets detect it.
+     */
+    public QueryResultRowWriter createCSVWriter(Query query, Locale locale, String baseURL, OutputStream outputStream) throws IOException {
+        List<String> selects = query.getSelects();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write('\uFEFF');
+        writeCSVLine(writer, createXLSHeaderRow(selects, locale));
+
+        return new QueryResultRowWriter() {
+            @Override
+            public void write(QueryResultRow row) throws IOException {
+                writeCSVLine(writer, createXLSRow(selects, row, baseURL));
             }
-        }
 
-        try {
-            //Write the workbook in file system
-            FileOutputStream out = new FileOutputStream(excelFile);
-            workbook.write(out);
-            out.close();
-        } catch (Exception e) {
-            LOGGER.log(Level.FINEST, null, e);
+            @Override
+            public void finish() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void close() {
+                // The output stream belongs to the caller, buffered rows of an unfinished export are dropped
+            }
+        };
+    }
+
+    private void writeCSVLine(Writer writer, List<String> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(CSV_SEPARATOR);
+            }
+            String value = neutralizeFormula(values.get(i) != null ? values.get(i) : "");
+            if (value.indexOf(CSV_SEPARATOR) >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
         }
-        return excelFile;
+        writer.write("\r\n");
+    }
 
+    /**
+     * Spreadsheets evaluate cells starting with a formula sign, such cells are prefixed with a quote to be read as text.
+     */
+    static String neutralizeFormula(String value) {
+        if (!value.isEmpty() && CSV_FORMULA_PREFIXES.indexOf(value.charAt(0)) >= 0) {
+            return "'" + value;
+        }
+        return value;
     }
 
-    private String[] createXLSHeaderRow(String header, String[] columns, Locale locale) {
-        String[] headerFormatted = new String[header.split(";").length];
-        int headerIndex = 0;
+    private List<String> createXLSHeaderRow(List<String> columns, Locale locale) {
+        List<String> headerFormatted = new ArrayList<>();
 
         for (String column : columns) {
             String columnTranslated;
-            if (!column.isEmpty()) {
-                if (column.trim().startsWith(QueryField.PART_REVISION_ATTRIBUTES_PREFIX)) {
-                    columnTranslated = column.substring(column.indexOf(".") + 1);
-                }
-                else if (column.trim().startsWith(QueryField.PATH_DATA_ATTRIBUTES_PREFIX)) {
-                    columnTranslated = column.substring(column.indexOf(".") + 1);
-                }
-                else {
-                    columnTranslated = LangHelper.getLocalizedMessage(column.trim(), locale);
-                }
-                headerFormatted[headerIndex++] = columnTranslated != null ? columnTranslated : column;
+            if (column.trim().startsWith(QueryField.PART_REVISION_ATTRIBUTES_PREFIX)) {
+                columnTranslated = column.substring(column.indexOf(".") + 1);
+            } else if (column.trim().startsWith(QueryField.PATH_DATA_ATTRIBUTES_PREFIX)) {
+                columnTranslated = column.substring(column.indexOf(".") + 1);
+            } else if (!column.isEmpty()) {
+                columnTranslated = LangHelper.getLocalizedMessage(column.trim(), locale);
+            } else {
+                columnTranslated = null;
             }
+            headerFormatted.add(columnTranslated != null ? columnTranslated : column);
         }
 
         return headerFormatted;
     }
 
-    private String[] createXLSHeaderRowComments(String header, String[] columns) {
-        String[] headerComments = new String[header.split(";").length];
-        int headerIndex = 0;
+    private List<String> createXLSHeaderRowComments(List<String> columns) {
+        List<String> headerComments = new ArrayList<>();
 
         for (String column : columns) {
             if (column.equals(QueryField.CTX_PRODUCT_ID) || column.equals(QueryField.CTX_SERIAL_NUMBER) || column.equals(QueryField.PART_MASTER_NUMBER)) {
-                headerComments[headerIndex++] = column;
+                headerComments.add(column);
             } else if (column.startsWith(QueryField.PART_REVISION_ATTRIBUTES_PREFIX)) {
-                headerComments[headerIndex++] = column.substring(0, column.indexOf(".")).substring(QueryField.PART_REVISION_ATTRIBUTES_PREFIX.length());
+                headerComments.add(column.substring(0, column.indexOf(".")).substring(QueryField.PART_REVISION_ATTRIBUTES_PREFIX.length()));
             } else if (column.startsWith(QueryField.PATH_DATA_ATTRIBUTES_PREFIX)) {
-                headerComments[headerIndex++] = column.substring(0, column.indexOf(".")).substring(QueryField.PATH_DATA_ATTRIBUTES_PREFIX.length());
+                headerComments.add(column.substring(0, column.indexOf(".")).substring(QueryField.PATH_DATA_ATTRIBUTES_PREFIX.length()));
             } else {
-                headerComments[headerIndex++] = "";
+                headerComments.add("");
             }
         }
 
         return headerComments;
     }
 
-    private String[] createXLSRow(List<String> selects, QueryResultRow row, String baseURL) {
+    private List<String> createXLSRow(List<String> selects, QueryResultRow row, String baseURL) {
         List<String> data = new ArrayList<>();
         PartRevision part = row.getPartRevision();
         PartIteration lastCheckedInIteration = part.getLastCheckedInIteration();
@@ -311,7 +309,6 @@ public class ExcelGenerator {
                             if (attributes != null) {
                                 for (InstanceAttribute attribute : attributes) {
                                     InstanceAttributeDTO attrDTO = mapper.map(attribute, InstanceAttributeDTO.class);
-                                    mapper.map(attribute, InstanceAttributeDTO.class);
 
                                     if (attrDTO.getName().equals(attributeSelectName)
                                             && attrDTO.getType().name().equals(attributeSelectType)) {
@@ -333,8 +330,7 @@ public class ExcelGenerator {
                             content = content.substring(0, content.lastIndexOf("|"));
                         }
                         data.add(content);
-                    }
-                    if (select.startsWith(QueryField.PATH_DATA_ATTRIBUTES_PREFIX)) {
+                    } else if (select.startsWith(QueryField.PATH_DATA_ATTRIBUTES_PREFIX)) {
                         String attributeSelectType = select.substring(0, select.indexOf(".")).substring(QueryField.PATH_DATA_ATTRIBUTES_PREFIX.length());
                         String attributeSelectName = select.substring(select.indexOf(".") + 1);
                         String attributeValue;
@@ -366,16 +362,18 @@ public class ExcelGenerator {
                             content = content.substring(0, content.lastIndexOf("|"));
                         }
                         data.add(content);
+                    } else {
+                        // Keep cells aligned with the header
+                        data.add("");
                     }
             }
 
         }
 
-        String rowData = String.join(";", data);
-        return rowData.split(";");
+        return data;
     }
 
-    private String[] createXLSRowComments(List<String> selects, QueryResultRow row) {
+    private List<String> createXLSRowComments(List<String> selects, QueryResultRow row) {
         List<String> commentsData = new ArrayList<>();
         PartRevision part = row.getPartRevision();
         PartIteration lastIteration = part.getLastIteration();
@@ -384,9 +382,7 @@ public class ExcelGenerator {
 
             if (select.equals(QueryField.CTX_SERIAL_NUMBER)) {
                 String path = row.getPath();
-                if (path != null && !path.isEmpty()) {
-                    commentsData.add(path);
-                }
+                commentsData.add(path != null ? path : "");
 
             } else if (select.startsWith(QueryField.PART_REVISION_ATTRIBUTES_PREFIX)) {
                 String attributeSelectType = select.substring(0, select.indexOf(".")).substring(QueryField.PART_REVISION_ATTRIBUTES_PREFIX.length());
@@ -445,8 +441,7 @@ public class ExcelGenerator {
 
         }
 
-        String commentsRowData = String.join(";", commentsData);
-        return commentsRowData.split(";");
+        return commentsData;
     }
 
 }
\ No newline at end of file
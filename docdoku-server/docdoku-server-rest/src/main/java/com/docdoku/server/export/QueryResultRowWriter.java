@@ -0,0 +1,38 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.export;
+
+import com.docdoku.core.query.QueryResultRow;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Export of query results written row by row, as the rows are produced.
+ * The export is complete once finished, a writer closed before being finished leaves it truncated.
+ */
+public interface QueryResultRowWriter extends Closeable {
+
+    void write(QueryResultRow row) throws IOException;
+
+    void finish() throws IOException;
+
+}
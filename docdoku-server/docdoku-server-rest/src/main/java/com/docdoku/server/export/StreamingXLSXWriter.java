@@ -0,0 +1,323 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.export;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Write a single sheet XLSX workbook row by row, straight to an output stream.
+ *
+ * Unlike POI workbooks, nothing is kept on heap: rows are written to the sheet part as they are given, and cell
+ * comments are spooled to temporary files until the sheet is complete. Cells hold inline strings, header-styled
+ * cells use the bold, grey filled style of the query exports.
+ *
+ * The workbook is complete once {@link #finish()} has been called, {@link #close()} only releases the temporary files.
+ */
+public class StreamingXLSXWriter implements Closeable {
+
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final int HEADER_STYLE = 1;
+
+    // VML shape ids are allocated by blocks of 1024, the first block is reserved
+    private static final int SHAPES_PER_BLOCK = 1024;
+
+    private final ZipOutputStream zip;
+    private final Writer sheet;
+
+    private File commentsFile;
+    private File vmlFile;
+    private Writer comments;
+    private Writer vml;
+
+    private int rowCount;
+    private int commentCount;
+    private boolean finished;
+    private boolean closed;
+
+    public StreamingXLSXWriter(OutputStream outputStream, String sheetName) throws IOException {
+        zip = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+
+        writeEntry("_rels/.rels", XML_DECLARATION
+                + "<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        writeEntry("xl/workbook.xml", XML_DECLARATION
+                + "<workbook xmlns=\"" + MAIN_NS + "\" xmlns:r=\"" + RELATIONSHIPS_NS + "\">"
+                + "<sheets><sheet name=\"" + escape(sheetName) + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+                + "</workbook>");
+        writeEntry("xl/_rels/workbook.xml.rels", XML_DECLARATION
+                + "<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+                + "<Relationship Id=\"rId2\" Type=\"" + RELATIONSHIPS_NS + "/styles\" Target=\"styles.xml\"/>"
+                + "</Relationships>");
+        writeEntry("xl/styles.xml", XML_DECLARATION
+                + "<styleSheet xmlns=\"" + MAIN_NS + "\">"
+                + "<fonts count=\"2\">"
+                + "<font><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font>"
+                + "<font><b/><i/><sz val=\"10\"/><color indexed=\"9\"/><name val=\"Courier New\"/></font>"
+                + "</fonts>"
+                + "<fills count=\"3\">"
+                + "<fill><patternFill patternType=\"none\"/></fill>"
+                + "<fill><patternFill patternType=\"gray125\"/></fill>"
+                + "<fill><patternFill patternType=\"solid\"><fgColor indexed=\"22\"/></patternFill></fill>"
+                + "</fills>"
+                + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+                + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+                + "<cellXfs count=\"2\">"
+                + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+                + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"2\" borderId=\"0\" xfId=\"0\" applyFont=\"1\" applyFill=\"1\"/>"
+                + "</cellXfs>"
+                + "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+                + "</styleSheet>");
+
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        // Never closed, the zip entry is closed instead
+        sheet = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        sheet.write(XML_DECLARATION);
+        sheet.write("<worksheet xmlns=\"" + MAIN_NS + "\" xmlns:r=\"" + RELATIONSHIPS_NS + "\"><sheetData>");
+        sheet.flush();
+        zip.flush();
+    }
+
+    /**
+     * Append a row to the sheet.
+     *
+     * @param values        cell values, null values give empty cells
+     * @param cellComments  comments of the cells, may be null or shorter than the values; null or empty comments are skipped
+     * @param styledColumns indexes of the cells to render with the header style
+     */
+    public void writeRow(List<String> values, List<String> cellComments, Set<Integer> styledColumns) throws IOException {
+        int rowIndex = rowCount++;
+        int rowNumber = rowIndex + 1;
+
+        sheet.write("<row r=\"");
+        sheet.write(Integer.toString(rowNumber));
+        sheet.write("\">");
+        for (int column = 0; column < values.size(); column++) {
+            String reference = getColumnName(column) + rowNumber;
+            sheet.write("<c r=\"");
+            sheet.write(reference);
+            sheet.write('"');
+            if (styledColumns.contains(column)) {
+                sheet.write(" s=\"" + HEADER_STYLE + "\"");
+            }
+            String value = values.get(column);
+            if (value == null || value.isEmpty()) {
+                sheet.write("/>");
+            } else {
+                sheet.write(" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+                sheet.write(escape(value));
+                sheet.write("</t></is></c>");
+            }
+
+            String comment = cellComments != null && column < cellComments.size() ? cellComments.get(column) : null;
+            if (comment != null && !comment.isEmpty()) {
+                writeComment(reference, rowIndex, column, comment);
+            }
+        }
+        sheet.write("</row>");
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Complete the workbook: end the sheet, then write the comment parts and the content types.
+     * The output stream belongs to the caller, it is left open.
+     */
+    public void finish() throws IOException {
+        if (closed || finished) {
+            throw new IllegalStateException("The workbook has already been " + (closed ? "closed" : "finished"));
+        }
+        finished = true;
+
+        sheet.write("</sheetData>");
+        if (commentCount > 0) {
+            sheet.write("<legacyDrawing r:id=\"rId1\"/>");
+        }
+        sheet.write("</worksheet>");
+        sheet.flush();
+        zip.closeEntry();
+
+        if (commentCount > 0) {
+            writeCommentParts();
+        }
+
+        writeEntry("[Content_Types].xml", XML_DECLARATION
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Default Extension=\"vml\" ContentType=\"application/vnd.openxmlformats-officedocument.vmlDrawing\"/>"
+                + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+                + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+                + (commentCount > 0 ? "<Override PartName=\"/xl/comments1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.comments+xml\"/>" : "")
+                + "</Types>");
+
+        // Only the zip structure is completed, the response stream stays open
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Delete the temporary files. A workbook closed before being finished is left truncated on purpose:
+     * a failed export must not look like a complete one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        deleteSpoolFiles();
+    }
+
+    private void writeComment(String reference, int rowIndex, int column, String comment) throws IOException {
+        if (comments == null) {
+            commentsFile = Files.createTempFile("docdoku-xlsx-comments", ".xml").toFile();
+            vmlFile = Files.createTempFile("docdoku-xlsx-vml", ".vml").toFile();
+            comments = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(commentsFile), StandardCharsets.UTF_8));
+            vml = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(vmlFile), StandardCharsets.UTF_8));
+        }
+
+        comments.write("<comment ref=\"");
+        comments.write(reference);
+        comments.write("\" authorId=\"0\"><text><t xml:space=\"preserve\">");
+        comments.write(escape(comment));
+        comments.write("</t></text></comment>");
+
+        // Hidden note box of 2 x 3 cells next to the cell, as Excel draws them
+        int shapeId = SHAPES_PER_BLOCK + 1 + commentCount;
+        vml.write("<v:shape id=\"_x0000_s" + shapeId + "\" type=\"#_x0000_t202\""
+                + " style=\"position:absolute;visibility:hidden\" fillcolor=\"#ffffe1\" o:insetmode=\"auto\">"
+                + "<v:fill color2=\"#ffffe1\"/><v:shadow on=\"t\" color=\"black\" obscured=\"t\"/>"
+                + "<v:path o:connecttype=\"none\"/><v:textbox style=\"mso-direction-alt:auto\"><div style=\"text-align:left\"></div></v:textbox>"
+                + "<x:ClientData ObjectType=\"Note\"><x:MoveWithCells/><x:SizeWithCells/>"
+                + "<x:Anchor>" + (column + 1) + ", 15, " + rowIndex + ", 2, " + (column + 3) + ", 15, " + (rowIndex + 3) + ", 16</x:Anchor>"
+                + "<x:AutoFill>False</x:AutoFill><x:Row>" + rowIndex + "</x:Row><x:Column>" + column + "</x:Column>"
+                + "</x:ClientData></v:shape>");
+
+        commentCount++;
+    }
+
+    private void writeCommentParts() throws IOException {
+        comments.close();
+        vml.close();
+
+        writeEntry("xl/worksheets/_rels/sheet1.xml.rels", XML_DECLARATION
+                + "<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS_NS + "/vmlDrawing\" Target=\"../drawings/vmlDrawing1.vml\"/>"
+                + "<Relationship Id=\"rId2\" Type=\"" + RELATIONSHIPS_NS + "/comments\" Target=\"../comments1.xml\"/>"
+                + "</Relationships>");
+
+        zip.putNextEntry(new ZipEntry("xl/comments1.xml"));
+        writeText(XML_DECLARATION + "<comments xmlns=\"" + MAIN_NS + "\"><authors><author></author></authors><commentList>");
+        Files.copy(commentsFile.toPath(), zip);
+        writeText("</commentList></comments>");
+        zip.closeEntry();
+
+        StringBuilder idMap = new StringBuilder();
+        int blocks = (SHAPES_PER_BLOCK + commentCount) / SHAPES_PER_BLOCK;
+        for (int block = 1; block <= blocks; block++) {
+            idMap.append(block == 1 ? "" : ",").append(block);
+        }
+
+        zip.putNextEntry(new ZipEntry("xl/drawings/vmlDrawing1.vml"));
+        writeText("<xml xmlns:v=\"urn:schemas-microsoft-com:vml\" xmlns:o=\"urn:schemas-microsoft-com:office:office\" xmlns:x=\"urn:schemas-microsoft-com:office:excel\">"
+                + "<o:shapelayout v:ext=\"edit\"><o:idmap v:ext=\"edit\" data=\"" + idMap + "\"/></o:shapelayout>"
+                + "<v:shapetype id=\"_x0000_t202\" coordsize=\"21600,21600\" o:spt=\"202\" path=\"m,l,21600r21600,l21600,xe\">"
+                + "<v:stroke joinstyle=\"miter\"/><v:path gradientshapeok=\"t\" o:connecttype=\"rect\"/></v:shapetype>");
+        Files.copy(vmlFile.toPath(), zip);
+        writeText("</xml>");
+        zip.closeEntry();
+    }
+
+    private void deleteSpoolFiles() throws IOException {
+        if (comments != null) {
+            comments.close();
+            vml.close();
+            Files.deleteIfExists(commentsFile.toPath());
+            Files.deleteIfExists(vmlFile.toPath());
+        }
+    }
+
+    private void writeEntry(String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        writeText(content);
+        zip.closeEntry();
+    }
+
+    private void writeText(String text) throws IOException {
+        zip.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Column name from its zero based index: A, B, ..., Z, AA, AB...
+     */
+    static String getColumnName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int i = column + 1; i > 0; i = (i - 1) / 26) {
+            name.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Escape markup characters, and drop the characters XML 1.0 does not allow
+     */
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    if (c >= 0x20 && c != 0xFFFE && c != 0xFFFF || c == '\t' || c == '\n' || c == '\r') {
+                        escaped.append(c);
+                    }
+                    break;
+            }
+        }
+        return escaped.toString();
+    }
+}
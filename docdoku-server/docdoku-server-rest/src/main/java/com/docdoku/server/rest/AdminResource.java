@@ -21,10 +21,13 @@
 package com.docdoku.server.rest;
 
 import com.docdoku.core.common.Account;
+import com.docdoku.core.common.BinaryCacheStats;
 import com.docdoku.core.common.Workspace;
 import com.docdoku.core.exceptions.*;
 import com.docdoku.core.exceptions.NotAllowedException;
+import com.docdoku.core.product.ConversionQueueStats;
 import com.docdoku.core.security.UserGroupMapping;
+import com.docdoku.core.security.WorkspaceAccessStats;
 import com.docdoku.core.services.*;
 import com.docdoku.server.rest.dto.AccountDTO;
 import com.docdoku.server.rest.dto.PlatformOptionsDTO;
@@ -83,6 +86,12 @@ public class AdminResource implements Serializable {
     @Inject
     private IIndexerManagerLocal indexManager;
 
+    @Inject
+    private IConverterManagerLocal converterService;
+
+    @Inject
+    private IBinaryStorageManagerLocal storageManager;
+
     private Mapper mapper;
 
     public AdminResource() {
@@ -225,6 +234,79 @@ public class AdminResource implements Serializable {
         return partsStats.build();
     }
 
+    @GET
+    @Path("conversions-stats")
+    @ApiOperation(value = "Get conversion queues stats",
+            response = String.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of conversion queues statistics"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonObject getConversionsStats() {
+
+        JsonObjectBuilder conversionsStats = Json.createObjectBuilder();
+
+        for (ConversionQueueStats stats : converterService.getConversionQueueStats()) {
+            conversionsStats.add(stats.getName(), Json.createObjectBuilder()
+                    .add("workers", stats.getWorkers())
+                    .add("queued", stats.getQueued())
+                    .add("running", stats.getRunning())
+                    .add("completed", stats.getCompleted())
+                    .add("averageWaitTime", stats.getAverageWaitTime())
+                    .add("maxWaitTime", stats.getMaxWaitTime())
+                    .add("averageRunTime", stats.getAverageRunTime()));
+        }
+
+        return conversionsStats.build();
+    }
+
+    @GET
+    @Path("workspace-access-stats")
+    @ApiOperation(value = "Get workspace access checks stats",
+            response = String.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of workspace access checks statistics"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonObject getWorkspaceAccessStats() {
+        WorkspaceAccessStats stats = userManager.getWorkspaceAccessStats();
+        return Json.createObjectBuilder()
+                .add("hits", stats.getHits())
+                .add("misses", stats.getMisses())
+                .add("invalidations", stats.getInvalidations())
+                .add("hitRate", stats.getHitRate())
+                .build();
+    }
+
+    @GET
+    @Path("binary-cache-stats")
+    @ApiOperation(value = "Get binary cache stats",
+            response = String.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of binary cache statistics"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonObject getBinaryCacheStats() {
+        BinaryCacheStats stats = storageManager.getBinaryCacheStats();
+        return Json.createObjectBuilder()
+                .add("hits", stats.getHits())
+                .add("misses", stats.getMisses())
+                .add("hitRate", stats.getHitRate())
+                .add("admissions", stats.getAdmissions())
+                .add("rejections", stats.getRejections())
+                .add("evictions", stats.getEvictions())
+                .add("invalidations", stats.getInvalidations())
+                .add("servedBytes", stats.getServedBytes())
+                .add("cachedBytes", stats.getCachedBytes())
+                .add("capacity", stats.getCapacity())
+                .build();
+    }
 
     @PUT
     @ApiOperation(value = "Synchronize index for workspace",
@@ -257,6 +339,34 @@ public class AdminResource implements Serializable {
         return Response.status(Response.Status.ACCEPTED).build();
     }
 
+    @PUT
+    @ApiOperation(value = "Deduplicate the vault, files already stored are shared with their copies",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Accepted deduplication (asynchronous method)"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("vault-deduplication")
+    public Response deduplicateVault() {
+        storageManager.deduplicateVault();
+        return Response.status(Response.Status.ACCEPTED).build();
+    }
+
+    @PUT
+    @ApiOperation(value = "Index the path segments of existing path to path links",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Accepted indexing (asynchronous method)"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("path-to-path-links-index")
+    public Response indexPathToPathLinks() {
+        productService.indexPathToPathLinks();
+        return Response.status(Response.Status.ACCEPTED).build();
+    }
+
     @GET
     @Path("platform-options")
     @ApiOperation(value = "Get platform options",
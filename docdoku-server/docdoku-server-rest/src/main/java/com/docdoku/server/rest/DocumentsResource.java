@@ -29,6 +29,7 @@ import com.docdoku.core.services.IDocumentManagerLocal;
 import com.docdoku.core.services.IDocumentWorkflowManagerLocal;
 import com.docdoku.server.rest.dto.CountDTO;
 import com.docdoku.server.rest.dto.DocumentRevisionDTO;
+import com.docdoku.server.rest.util.PageCursor;
 import com.docdoku.server.rest.util.SearchQueryParser;
 import io.swagger.annotations.*;
 import org.dozer.DozerBeanMapperSingletonWrapper;
@@ -43,6 +44,7 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,6 +57,10 @@ import java.util.logging.Logger;
 public class DocumentsResource {
 
     private static final Logger LOGGER = Logger.getLogger(DocumentsResource.class.getName());
+
+    // Same cap as DocumentRevisionDAO
+    private static final int MAX_RESULTS = 500;
+
     @Inject
     private IDocumentManagerLocal documentService;
     @Inject
@@ -83,20 +89,42 @@ public class DocumentsResource {
             responseContainer = "List")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of DocumentRevisionDTO. It can be an empty list."),
+            @ApiResponse(code = 400, message = "Bad request, invalid cursor"),
             @ApiResponse(code = 401, message = "Unauthorized"),
             @ApiResponse(code = 500, message = "Internal server error")
     })
     @Produces(MediaType.APPLICATION_JSON)
-    public DocumentRevisionDTO[] getDocumentsInWorkspace(
+    public Response getDocumentsInWorkspace(
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
             @ApiParam(required = false, value = "Start offset", defaultValue = "0") @QueryParam("start") int start,
-            @ApiParam(required = false, value = "Max results", defaultValue = "20") @QueryParam("max") int max)
+            @ApiParam(required = false, value = "Max results", defaultValue = "20") @QueryParam("max") int max,
+            @ApiParam(required = false, value = "Cursor returned in the " + PageCursor.NEXT_CURSOR_HEADER + " header of the previous page, takes precedence over start") @QueryParam("cursor") String cursor)
             throws UserNotActiveException, WorkspaceNotFoundException, UserNotFoundException,
             BaselineNotFoundException, DocumentRevisionNotFoundException, WorkspaceNotEnabledException {
 
         int maxResult = max != 0 ? max : 20;
-        DocumentRevision[] docRs = documentService.getFilteredDocumentsInWorkspace(workspaceId, start, maxResult);
-        return mapToDTOs(docRs);
+        // Pages are capped by the DAO, a full page must be recognized as such
+        if (maxResult < 1 || maxResult > MAX_RESULTS) {
+            maxResult = MAX_RESULTS;
+        }
+        DocumentRevision[] docRs;
+
+        if (cursor != null) {
+            PageCursor pageCursor = PageCursor.decode(cursor);
+            if (pageCursor == null) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            docRs = documentService.getFilteredDocumentsInWorkspaceAfter(workspaceId, pageCursor.getId(), pageCursor.getVersion(), maxResult);
+        } else {
+            docRs = documentService.getFilteredDocumentsInWorkspace(workspaceId, start, maxResult);
+        }
+
+        Response.ResponseBuilder responseBuilder = Response.ok(mapToDTOs(docRs));
+        if (docRs.length == maxResult) {
+            DocumentRevision last = docRs[maxResult - 1];
+            responseBuilder.header(PageCursor.NEXT_CURSOR_HEADER, new PageCursor(last.getDocumentMasterId(), last.getVersion()).encode());
+        }
+        return responseBuilder.build();
     }
 
     @GET
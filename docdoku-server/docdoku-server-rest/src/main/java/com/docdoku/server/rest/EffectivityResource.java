@@ -26,6 +26,8 @@ import com.docdoku.core.security.UserGroupMapping;
 import com.docdoku.core.services.IEffectivityManagerLocal;
 import com.docdoku.core.services.IProductManagerLocal;
 import com.docdoku.server.rest.dto.EffectivityDTO;
+import com.docdoku.server.rest.dto.LightPartRevisionDTO;
+import com.docdoku.server.rest.dto.SerialNumberEffectivityDTO;
 import io.swagger.annotations.*;
 import org.dozer.DozerBeanMapperSingletonWrapper;
 import org.dozer.Mapper;
@@ -36,8 +38,13 @@ import javax.annotation.security.RolesAllowed;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RequestScoped
 @Api(hidden = true, value = "effectivity", description = "Operations about effectivities")
@@ -138,4 +145,39 @@ public class EffectivityResource {
         return Response.ok(returnedEffectivityDTO).build();
     }
 
+    @POST
+    @ApiOperation(value = "Resolve the part revisions effective for each serial number of a configuration item",
+            response = SerialNumberEffectivityDTO.class,
+            responseContainer = "List")
+    @Path("/configuration-items/{ciId}/serial-numbers")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of effective part revisions"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response resolveSerialNumbers(
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = true, value = "Configuration item id") @PathParam("ciId") String ciId,
+            @ApiParam(required = true, value = "Serial numbers to resolve") List<String> serialNumbers)
+            throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException,
+            WorkspaceNotEnabledException, ConfigurationItemNotFoundException {
+
+        Map<String, Set<PartRevisionKey>> partRevisionKeys = effectivityManager.resolveSerialNumbers(workspaceId, ciId, serialNumbers);
+
+        List<SerialNumberEffectivityDTO> serialNumberEffectivityDTOs = new ArrayList<>();
+        for (Map.Entry<String, Set<PartRevisionKey>> entry : partRevisionKeys.entrySet()) {
+            List<LightPartRevisionDTO> partRevisionDTOs = new ArrayList<>();
+            for (PartRevisionKey partRevisionKey : entry.getValue()) {
+                partRevisionDTOs.add(new LightPartRevisionDTO(partRevisionKey.getWorkspaceId(),
+                        partRevisionKey.getPartMasterNumber(), partRevisionKey.getVersion()));
+            }
+            serialNumberEffectivityDTOs.add(new SerialNumberEffectivityDTO(entry.getKey(), partRevisionDTOs));
+        }
+
+        return Response.ok(new GenericEntity<List<SerialNumberEffectivityDTO>>(serialNumberEffectivityDTOs) {
+        }).build();
+    }
+
 }
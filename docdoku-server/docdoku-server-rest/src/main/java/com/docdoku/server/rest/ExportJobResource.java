@@ -0,0 +1,326 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest;
+
+import com.docdoku.core.common.User;
+import com.docdoku.core.configuration.DocumentBaseline;
+import com.docdoku.core.exceptions.*;
+import com.docdoku.core.exceptions.NotAllowedException;
+import com.docdoku.core.query.Query;
+import com.docdoku.core.security.UserGroupMapping;
+import com.docdoku.core.services.IContextManagerLocal;
+import com.docdoku.core.services.IDocumentBaselineManagerLocal;
+import com.docdoku.core.services.IProductManagerLocal;
+import com.docdoku.core.services.IUserManagerLocal;
+import com.docdoku.core.util.FileChannelInputStream;
+import com.docdoku.server.export.ExcelGenerator;
+import com.docdoku.server.export.QueryResultRowWriter;
+import com.docdoku.server.rest.collections.QueryResult;
+import com.docdoku.server.rest.dto.ExportJobDTO;
+import com.docdoku.server.rest.dto.QueryDTO;
+import com.docdoku.server.rest.exceptions.RequestedRangeNotSatisfiableException;
+import com.docdoku.server.rest.file.util.BinaryResourceDownloadMeta;
+import com.docdoku.server.rest.file.util.BinaryResourceDownloadResponseBuilder;
+import com.docdoku.server.rest.util.*;
+import io.swagger.annotations.*;
+import org.dozer.DozerBeanMapperSingletonWrapper;
+import org.dozer.Mapper;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.security.DeclareRoles;
+import javax.annotation.security.RolesAllowed;
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous exports. An export is submitted, its progress polled, and the resulting
+ * file downloaded once done, with range support so that interrupted downloads can be resumed.
+ * Exports of baselines are cached and reused.
+ */
+@RequestScoped
+@Api(hidden = true, value = "exportJobs", description = "Operations about asynchronous exports")
+@DeclareRoles(UserGroupMapping.REGULAR_USER_ROLE_ID)
+@RolesAllowed(UserGroupMapping.REGULAR_USER_ROLE_ID)
+public class ExportJobResource {
+
+    private static final int RETRY_AFTER_SECONDS = 60;
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    @Inject
+    private ExportJobManager exportJobManager;
+
+    @Inject
+    private IContextManagerLocal contextManager;
+
+    @Inject
+    private IProductManagerLocal productService;
+
+    @Inject
+    private IDocumentBaselineManagerLocal documentBaselineService;
+
+    @Inject
+    private IUserManagerLocal userManager;
+
+    @Inject
+    private ProductResource productResource;
+
+    private Mapper mapper;
+
+    public ExportJobResource() {
+    }
+
+    @PostConstruct
+    public void init() {
+        mapper = DozerBeanMapperSingletonWrapper.getInstance();
+    }
+
+    @POST
+    @ApiOperation(value = "Export the files of a product",
+            response = ExportJobDTO.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Export job submitted"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 503, message = "Too many exports queued, retry later"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("products/{ciId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exportProductFiles(
+            @Context HttpServletRequest request,
+            @Context Providers providers,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = true, value = "Configuration item id") @PathParam("ciId") String ciId,
+            @ApiParam(required = false, value = "Config spec") @QueryParam("configSpecType") String configSpecType,
+            @ApiParam(required = false, value = "Export native cad files flag") @QueryParam("exportNativeCADFiles") boolean exportNativeCADFiles,
+            @ApiParam(required = false, value = "Export linked documents attached files flag") @QueryParam("exportDocumentLinks") boolean exportDocumentLinks)
+            throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, BaselineNotFoundException,
+            ProductInstanceMasterNotFoundException, WorkspaceNotEnabledException {
+
+        String configSpec = configSpecType != null ? configSpecType : "wip";
+        ProductFileExport productFileExport = productResource.createProductFileExport(workspaceId, ciId, configSpec, exportNativeCADFiles, exportDocumentLinks);
+
+        // Only baselines are immutable, product instances get new attached files over time
+        String cacheKey = null;
+        if (productFileExport.getBaselineId() != null && productFileExport.getSerialNumber() == null) {
+            cacheKey = "product/" + workspaceId + "/" + ciId + "/" + productFileExport.getBaselineId() + "/" + exportNativeCADFiles + "/" + exportDocumentLinks;
+        }
+
+        MessageBodyWriter<ProductFileExport> writer = providers.getMessageBodyWriter(ProductFileExport.class, ProductFileExport.class, NO_ANNOTATIONS, MediaType.APPLICATION_OCTET_STREAM_TYPE);
+
+        return submit(request, workspaceId, cacheKey, ciId + "-" + configSpec + "-export.zip",
+                outputStream -> writer.writeTo(productFileExport, ProductFileExport.class, ProductFileExport.class, NO_ANNOTATIONS,
+                        MediaType.APPLICATION_OCTET_STREAM_TYPE, new MultivaluedHashMap<>(), outputStream));
+    }
+
+    @POST
+    @ApiOperation(value = "Export the files of a document baseline",
+            response = ExportJobDTO.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Export job submitted"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 503, message = "Too many exports queued, retry later"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("document-baselines/{baselineId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exportDocumentBaselineFiles(
+            @Context HttpServletRequest request,
+            @Context Providers providers,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = true, value = "Baseline id") @PathParam("baselineId") int baselineId)
+            throws BaselineNotFoundException, WorkspaceNotFoundException, UserNotActiveException, UserNotFoundException, WorkspaceNotEnabledException {
+
+        DocumentBaseline documentBaseline = documentBaselineService.getBaselineLight(workspaceId, baselineId);
+        DocumentBaselineFileExport documentBaselineFileExport = new DocumentBaselineFileExport(workspaceId, baselineId);
+
+        MessageBodyWriter<DocumentBaselineFileExport> writer = providers.getMessageBodyWriter(DocumentBaselineFileExport.class, DocumentBaselineFileExport.class, NO_ANNOTATIONS, MediaType.APPLICATION_OCTET_STREAM_TYPE);
+
+        return submit(request, workspaceId, "document-baseline/" + workspaceId + "/" + baselineId, documentBaseline.getName() + "-export.zip",
+                outputStream -> writer.writeTo(documentBaselineFileExport, DocumentBaselineFileExport.class, DocumentBaselineFileExport.class, NO_ANNOTATIONS,
+                        MediaType.APPLICATION_OCTET_STREAM_TYPE, new MultivaluedHashMap<>(), outputStream));
+    }
+
+    @POST
+    @ApiOperation(value = "Export the result of a custom query to a spreadsheet",
+            response = ExportJobDTO.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 202, message = "Export job submitted"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 503, message = "Too many exports queued, retry later"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("queries")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exportQuery(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = false, value = "Resolve product breakdown structure in parallel", defaultValue = "false") @QueryParam("parallel") boolean parallel,
+            @ApiParam(required = false, value = "Choose export type, XLS or CSV", defaultValue = "XLS") @QueryParam("export") String exportType,
+            @ApiParam(required = true, value = "Query to export") QueryDTO queryDTO)
+            throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, WorkspaceNotEnabledException {
+
+        Query query = mapper.map(queryDTO, Query.class);
+        User user = userManager.whoAmI(workspaceId);
+        Locale locale = new Locale(user.getLanguage());
+        String url = request.getRequestURL().toString();
+        String baseURL = url.substring(0, url.length() - request.getRequestURI().length()) + request.getContextPath();
+
+        // Query results depend on the current state of the parts, they are never cached
+        QueryResult.ExportType type = "CSV".equalsIgnoreCase(exportType) ? QueryResult.ExportType.CSV : QueryResult.ExportType.XLS;
+        String fileName = type == QueryResult.ExportType.CSV ? "export_parts.csv" : "export_parts.xlsx";
+        return submit(request, workspaceId, null, fileName, outputStream -> {
+            try (QueryResultRowWriter rowWriter = new ExcelGenerator().createWriter(type, query, locale, baseURL, outputStream)) {
+                PartsResource.writeQueryResult(productService, workspaceId, query, parallel, rowWriter);
+                rowWriter.finish();
+            }
+        });
+    }
+
+    @GET
+    @ApiOperation(value = "Get the status and progress of an export job",
+            response = ExportJobDTO.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of the export job"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Export job not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public ExportJobDTO getExportJob(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = true, value = "Export job id") @PathParam("jobId") String jobId)
+            throws FileNotFoundException {
+
+        return toDTO(getJob(request, workspaceId, jobId));
+    }
+
+    @GET
+    @ApiOperation(value = "Download the file of a finished export job",
+            response = File.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Download success"),
+            @ApiResponse(code = 206, message = "Partial content"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Export job not found"),
+            @ApiResponse(code = 409, message = "Export not done yet"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("{jobId}/file")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response downloadExportFile(
+            @Context HttpServletRequest request,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = true, value = "Export job id") @PathParam("jobId") String jobId)
+            throws FileNotFoundException, RequestedRangeNotSatisfiableException {
+
+        ExportJob job = getJob(request, workspaceId, jobId);
+        ExportArtifact artifact = job.getArtifact();
+
+        if (artifact.getStatus() != ExportArtifact.Status.DONE) {
+            return Response.status(Response.Status.CONFLICT)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .entity(toDTO(job))
+                    .build();
+        }
+
+        try {
+            BinaryResourceDownloadMeta meta = new BinaryResourceDownloadMeta(artifact.getFileName(), artifact.getLength(), artifact.getCompletionDate(), "attachment");
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(new FileChannelInputStream(artifact.getFile().toFile()), meta, range, ifRange);
+        } catch (java.io.FileNotFoundException e) {
+            throw new FileNotFoundException(request.getLocale(), artifact.getFileName());
+        }
+    }
+
+    @DELETE
+    @ApiOperation(value = "Cancel an export job and remove its file",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "Export job removed"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Export job not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("{jobId}")
+    public Response removeExportJob(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
+            @ApiParam(required = true, value = "Export job id") @PathParam("jobId") String jobId)
+            throws FileNotFoundException {
+
+        exportJobManager.removeJob(getJob(request, workspaceId, jobId));
+        return Response.noContent().build();
+    }
+
+    private Response submit(HttpServletRequest request, String workspaceId, String cacheKey, String fileName, ExportJobManager.ExportTask task) {
+        ExportJob job;
+        try {
+            job = exportJobManager.submit(workspaceId, contextManager.getCallerPrincipalLogin(), cacheKey, fileName, task);
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", RETRY_AFTER_SECONDS)
+                    .build();
+        }
+
+        String uri = request.getRequestURI();
+        String jobsUri = uri.substring(0, uri.indexOf("/export-jobs/") + "/export-jobs/".length());
+        return Response.accepted(toDTO(job))
+                .location(URI.create(jobsUri + job.getId()))
+                .build();
+    }
+
+    private ExportJob getJob(HttpServletRequest request, String workspaceId, String jobId) throws FileNotFoundException {
+        ExportJob job = exportJobManager.getJob(workspaceId, contextManager.getCallerPrincipalLogin(), jobId);
+        if (job == null) {
+            throw new FileNotFoundException(request.getLocale(), jobId);
+        }
+        return job;
+    }
+
+    private ExportJobDTO toDTO(ExportJob job) {
+        ExportArtifact artifact = job.getArtifact();
+        ExportJobDTO dto = new ExportJobDTO();
+        dto.setId(job.getId());
+        dto.setStatus(artifact.getStatus().name());
+        dto.setFileName(artifact.getFileName());
+        dto.setBytesWritten(artifact.getBytesWritten());
+        dto.setLength(artifact.getLength());
+        dto.setCached(artifact.isCached());
+        dto.setCreationDate(job.getCreationDate());
+        dto.setCompletionDate(artifact.getCompletionDate());
+        dto.setError(artifact.getError());
+        return dto;
+    }
+}
@@ -52,6 +52,9 @@ public class FileResource {
     @Inject
     private ProductInstanceBinaryResource productInstanceBinaryResource;
 
+    @Inject
+    private UploadResource uploadResource;
+
     public FileResource() {
     }
 
@@ -88,4 +91,11 @@ public class FileResource {
         return productInstanceBinaryResource;
     }
 
+    @ApiOperation(value = "uploads")
+    @Path("/{workspaceId}/uploads")
+    @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
+    public UploadResource uploads() {
+        return uploadResource;
+    }
+
 }
\ No newline at end of file
@@ -35,9 +35,11 @@ import com.docdoku.core.services.IProductManagerLocal;
 import com.docdoku.core.services.IUserManagerLocal;
 import com.docdoku.core.util.FileIO;
 import com.docdoku.server.export.ExcelGenerator;
+import com.docdoku.server.export.QueryResultRowWriter;
 import com.docdoku.server.rest.collections.QueryResult;
 import com.docdoku.server.rest.dto.*;
 import com.docdoku.server.rest.file.util.BinaryResourceUpload;
+import com.docdoku.server.rest.util.PageCursor;
 import com.docdoku.server.rest.util.SearchQueryParser;
 import io.swagger.annotations.*;
 import org.dozer.DozerBeanMapperSingletonWrapper;
@@ -47,6 +49,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
@@ -56,6 +59,8 @@ import javax.ws.rs.core.*;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.util.*;
 
@@ -112,6 +117,7 @@ public class PartsResource {
             responseContainer = "List")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of PartRevisionDTOs. It can be an empty list."),
+            @ApiResponse(code = 400, message = "Bad request, invalid cursor"),
             @ApiResponse(code = 401, message = "Unauthorized"),
             @ApiResponse(code = 500, message = "Internal server error")
     })
@@ -119,10 +125,25 @@ public class PartsResource {
     public Response getPartRevisions(
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
             @ApiParam(required = false, value = "Start offset", defaultValue = "0") @QueryParam("start") int start,
-            @ApiParam(required = false, value = "Max results", defaultValue = "20") @QueryParam("length") int length)
+            @ApiParam(required = false, value = "Max results", defaultValue = "20") @QueryParam("length") int length,
+            @ApiParam(required = false, value = "Cursor returned in the " + PageCursor.NEXT_CURSOR_HEADER + " header of the previous page, takes precedence over start") @QueryParam("cursor") String cursor)
             throws EntityNotFoundException, AccessRightException, UserNotActiveException {
 
-        List<PartRevision> partRevisions = productService.getPartRevisions(Tools.stripTrailingSlash(workspaceId), start, length);
+        String id = Tools.stripTrailingSlash(workspaceId);
+        List<PartRevision> partRevisions;
+        // A zero length lists the whole workspace, unless paging through a cursor
+        int maxResults = cursor != null && length == 0 ? 20 : length;
+
+        if (cursor != null) {
+            PageCursor pageCursor = PageCursor.decode(cursor);
+            if (pageCursor == null) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            partRevisions = productService.getPartRevisionsAfter(id, pageCursor.getId(), pageCursor.getVersion(), maxResults);
+        } else {
+            partRevisions = productService.getPartRevisions(id, start, maxResults);
+        }
+
         List<PartRevisionDTO> partRevisionDTOs = new ArrayList<>();
 
         for (PartRevision partRevision : partRevisions) {
@@ -133,8 +154,14 @@ public class PartsResource {
 
             partRevisionDTOs.add(partRevisionDTO);
         }
-        return Response.ok(new GenericEntity<List<PartRevisionDTO>>((List<PartRevisionDTO>) partRevisionDTOs) {
-        }).build();
+
+        Response.ResponseBuilder responseBuilder = Response.ok(new GenericEntity<List<PartRevisionDTO>>((List<PartRevisionDTO>) partRevisionDTOs) {
+        });
+        if (maxResults > 0 && partRevisions.size() == maxResults) {
+            PartRevision last = partRevisions.get(maxResults - 1);
+            responseBuilder.header(PageCursor.NEXT_CURSOR_HEADER, new PageCursor(last.getPartNumber(), last.getVersion()).encode());
+        }
+        return responseBuilder.build();
     }
 
     @GET
@@ -274,12 +301,13 @@ public class PartsResource {
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
             @ApiParam(required = false, value = "Save the query flag", defaultValue = "false") @QueryParam("save") boolean save,
             @ApiParam(required = false, value = "Choose export type", defaultValue = "json") @QueryParam("export") String exportType,
+            @ApiParam(required = false, value = "Resolve product breakdown structure in parallel", defaultValue = "false") @QueryParam("parallel") boolean parallel,
             @ApiParam(required = true, value = "Query to run") QueryDTO queryDTO)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, CreationException,
             QueryAlreadyExistsException, EntityConstraintException, NotAllowedException {
 
         Query query = mapper.map(queryDTO, Query.class);
-        QueryResult queryResult = getQueryResult(workspaceId, query, exportType);
+        QueryResult queryResult = getQueryResult(workspaceId, query, exportType, parallel);
 
         if (save) {
             productService.createQuery(workspaceId, query);
@@ -715,19 +743,36 @@ public class PartsResource {
     }
 
 
-    private Response export(String workspaceId, Query query, HttpServletRequest request, String exportType, Locale locale)
-            throws BaselineNotFoundException, ProductInstanceMasterNotFoundException, EntityConstraintException, WorkspaceNotFoundException, UserNotFoundException, NotAllowedException, PartMasterNotFoundException, ConfigurationItemNotFoundException, UserNotActiveException, WorkspaceNotEnabledException {
-        QueryResult queryResult = getQueryResult(workspaceId, query, exportType);
+    private Response export(String workspaceId, Query query, HttpServletRequest request, String exportType, Locale locale) {
+        QueryResult.ExportType type = "CSV".equalsIgnoreCase(exportType) ? QueryResult.ExportType.CSV : QueryResult.ExportType.XLS;
         String url = request.getRequestURL().toString();
         String baseURL = url.substring(0, url.length() - request.getRequestURI().length()) + request.getContextPath();
-        return makeQueryResponse(queryResult, locale, baseURL);
+
+        StreamingOutput output = outputStream -> {
+            try (QueryResultRowWriter rowWriter = new ExcelGenerator().createWriter(type, query, locale, baseURL, outputStream)) {
+                writeQueryResult(productService, workspaceId, query, false, rowWriter);
+                rowWriter.finish();
+            } catch (EntityNotFoundException | UserNotActiveException | EntityConstraintException | NotAllowedException e) {
+                throw new WebApplicationException(e);
+            }
+        };
+
+        boolean csv = type == QueryResult.ExportType.CSV;
+        return Response.ok(output)
+                .header("Content-Type", csv ? "text/csv; charset=UTF-8" : ExcelGenerator.XLSX_MEDIA_TYPE)
+                .header("Content-Disposition", "attachment; filename=export_parts." + (csv ? "csv" : "xlsx"))
+                .build();
+    }
+
+    private QueryResult getQueryResult(String workspaceId, Query query, String pExportType, boolean parallel) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, EntityConstraintException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, NotAllowedException, ConfigurationItemNotFoundException, PartMasterNotFoundException, WorkspaceNotEnabledException {
+        return getQueryResult(productService, workspaceId, query, pExportType, parallel);
     }
 
-    private QueryResult getQueryResult(String workspaceId, Query query, String pExportType) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, EntityConstraintException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, NotAllowedException, ConfigurationItemNotFoundException, PartMasterNotFoundException, WorkspaceNotEnabledException {
+    static QueryResult getQueryResult(IProductManagerLocal productService, String workspaceId, Query query, String pExportType, boolean parallel) throws UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, EntityConstraintException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, NotAllowedException, ConfigurationItemNotFoundException, PartMasterNotFoundException, WorkspaceNotEnabledException {
         List<PartRevision> partRevisions = productService.searchPartRevisions(workspaceId, query);
         QueryResult queryResult = new QueryResult(partRevisions, query);
         if (query.hasContext()) {
-            List<QueryResultRow> rows = productService.filterProductBreakdownStructure(workspaceId, query);
+            List<QueryResultRow> rows = productService.filterProductBreakdownStructure(workspaceId, query, parallel);
             queryResult.mergeRows(rows);
         }
         String exportType = pExportType != null ? pExportType : "JSON";
@@ -735,19 +780,37 @@ public class PartsResource {
         return queryResult;
     }
 
-    private Response makeQueryResponse(QueryResult queryResult, Locale locale, String baseURL) {
-        ExcelGenerator excelGenerator = new ExcelGenerator();
-        String contentType = "application/vnd.ms-excel";
-        String contentDisposition = "attachment; filename=export_parts.xls";
-        Response.ResponseBuilder responseBuilder = Response.ok(excelGenerator.generateXLSResponse(queryResult, locale, baseURL));
-        responseBuilder
-                .header("Content-Type", contentType)
-                .header("Content-Disposition", contentDisposition);
+    /**
+     * Write the rows of a query to the given writer. Without product context, part revisions are written page by page
+     * while the query runs, so that large exports do not have to be held in memory.
+     */
+    static void writeQueryResult(IProductManagerLocal productService, String workspaceId, Query query, boolean parallel, QueryResultRowWriter rowWriter) throws IOException, UserNotFoundException, UserNotActiveException, WorkspaceNotFoundException, EntityConstraintException, BaselineNotFoundException, ProductInstanceMasterNotFoundException, NotAllowedException, ConfigurationItemNotFoundException, PartMasterNotFoundException, WorkspaceNotEnabledException {
+        if (query.hasContext()) {
+            QueryResult queryResult = getQueryResult(productService, workspaceId, query, null, parallel);
+            for (QueryResultRow row : queryResult.getRows()) {
+                rowWriter.write(row);
+            }
+            return;
+        }
 
-        return responseBuilder.build();
+        try {
+            productService.searchPartRevisions(workspaceId, query, partRevision -> {
+                try {
+                    rowWriter.write(new QueryResultRow(partRevision));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (EJBException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
     }
 
-
     /**
      * Return a list of ModificationNotificationDTO matching with a given PartRevision
      *
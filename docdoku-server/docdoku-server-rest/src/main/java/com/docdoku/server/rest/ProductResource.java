@@ -192,14 +192,15 @@ public class ProductResource {
             @ApiParam(required = true, value = "Configuration item id") @PathParam("ciId") String ciId,
             @ApiParam(required = false, value = "Config spec") @QueryParam("configSpec") String configSpecType,
             @ApiParam(required = false, value = "Complete path of part") @QueryParam("path") String path,
-            @ApiParam(required = false, value = "Discover substitute links") @QueryParam("diverge") boolean diverge)
+            @ApiParam(required = false, value = "Discover substitute links") @QueryParam("diverge") boolean diverge,
+            @ApiParam(required = false, value = "Resolve sibling subtrees in parallel") @QueryParam("parallel") boolean parallel)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException,
             EntityConstraintException {
 
         ConfigurationItemKey ciKey = new ConfigurationItemKey(workspaceId, ciId);
         ProductStructureFilter filter = psFilterService.getPSFilter(ciKey, configSpecType, diverge);
         List<PartLink> decodedPath = productService.decodePath(ciKey, path);
-        Component rootComponent = productService.filterProductStructure(ciKey, filter, decodedPath, 1);
+        Component rootComponent = productService.filterProductStructure(ciKey, filter, decodedPath, 1, parallel);
 
         List<Component> components = rootComponent.getComponents();
         List<PartRevisionDTO> partsRevisions = new ArrayList<>();
@@ -248,7 +249,8 @@ public class ProductResource {
             @ApiParam(required = false, value = "Complete path of part") @QueryParam("path") String path,
             @ApiParam(required = false, value = "Depth to stop at") @QueryParam("depth") Integer depth,
             @ApiParam(required = false, value = "Type link to filter") @QueryParam("linkType") String linkType,
-            @ApiParam(required = false, value = "Discover substitute links") @QueryParam("diverge") boolean diverge)
+            @ApiParam(required = false, value = "Discover substitute links") @QueryParam("diverge") boolean diverge,
+            @ApiParam(required = false, value = "Resolve sibling subtrees in parallel") @QueryParam("parallel") boolean parallel)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException,
             EntityConstraintException {
 
@@ -258,7 +260,7 @@ public class ProductResource {
 
         if (linkType == null) {
             List<PartLink> decodedPath = productService.decodePath(ciKey, path);
-            component = productService.filterProductStructure(ciKey, filter, decodedPath, depth);
+            component = productService.filterProductStructure(ciKey, filter, decodedPath, depth, parallel);
         } else {
             component = productService.filterProductStructureOnLinkType(ciKey, filter, configSpecType, path, linkType);
         }
@@ -588,6 +590,24 @@ public class ProductResource {
             configSpecType = "wip";
         }
 
+        ProductFileExport productFileExport = createProductFileExport(workspaceId, ciId, configSpecType, exportNativeCADFiles, exportDocumentLinks);
+
+        String fileName = FileDownloadTools.getFileName(ciId + "-" + configSpecType + "-export", "zip");
+        String contentDisposition = FileDownloadTools.getContentDisposition("attachment", fileName);
+
+        return Response.ok()
+                .header("Content-Type", "application/download")
+                .header("Content-Disposition", contentDisposition)
+                .entity(productFileExport).build();
+    }
+
+    /**
+     * Builds the context of a product files export, shared by the synchronous download and the export jobs.
+     */
+    public ProductFileExport createProductFileExport(String workspaceId, String ciId, String configSpecType, boolean exportNativeCADFiles, boolean exportDocumentLinks)
+            throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, BaselineNotFoundException,
+            ProductInstanceMasterNotFoundException, WorkspaceNotEnabledException {
+
         ProductFileExport productFileExport = new ProductFileExport();
         ConfigurationItemKey ciKey = new ConfigurationItemKey(workspaceId, ciId);
         ProductStructureFilter psFilter = psFilterService.getPSFilter(ciKey, configSpecType, false);
@@ -611,13 +631,7 @@ public class ProductResource {
             }
         }
 
-        String fileName = FileDownloadTools.getFileName(ciId + "-" + configSpecType + "-export", "zip");
-        String contentDisposition = FileDownloadTools.getContentDisposition("attachment", fileName);
-
-        return Response.ok()
-                .header("Content-Type", "application/download")
-                .header("Content-Disposition", contentDisposition)
-                .entity(productFileExport).build();
+        return productFileExport;
     }
 
     @POST
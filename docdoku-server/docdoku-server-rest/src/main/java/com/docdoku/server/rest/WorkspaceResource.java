@@ -77,6 +77,9 @@ public class WorkspaceResource {
     @Inject
     private ProductResource products;
 
+    @Inject
+    private ExportJobResource exportJobs;
+
     @Inject
     private ProductConfigurationsResource productConfigurations;
 
@@ -774,6 +777,12 @@ public class WorkspaceResource {
         return products;
     }
 
+    @ApiOperation(value = "ExportJobResource")
+    @Path("/{workspaceId}/export-jobs")
+    public ExportJobResource exportJobs() {
+        return exportJobs;
+    }
+
     @ApiOperation(value = "ProductConfigurationResource")
     @Path("/{workspaceId}/product-configurations")
     public ProductConfigurationsResource productConfigurations() {
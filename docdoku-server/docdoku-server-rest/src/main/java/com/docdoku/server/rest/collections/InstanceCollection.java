@@ -70,6 +70,21 @@ public class InstanceCollection {
         return false;
     }
 
+    /**
+     * Tells whether the current path leads to, or is under, one of the requested paths.
+     * Branches not matching can be skipped when walking the structure.
+     */
+    public boolean isOnFilteredPath(List<PartLink> currentPath) {
+        String currentPathAsString = Tools.getPathAsString(currentPath);
+        for (List<PartLink> path : paths) {
+            String pathAsString = Tools.getPathAsString(path);
+            if (currentPathAsString.startsWith(pathAsString) || pathAsString.startsWith(currentPathAsString)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean filter(List<PartLink> path, List<PartLink> currentPath) {
         return Tools.getPathAsString(currentPath).startsWith(Tools.getPathAsString(path));
     }
@@ -25,7 +25,9 @@ import com.docdoku.core.query.Query;
 import com.docdoku.core.query.QueryResultRow;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Morgan Guimard
@@ -80,12 +82,13 @@ public class QueryResult {
     public void mergeRows(List<QueryResultRow> rows) {
         List<QueryResultRow> mergedRows = new ArrayList<>();
         if (rows != null && !rows.isEmpty()) {
+            Set<PartRevision> filteredPartRevisions = new HashSet<>();
+            for (QueryResultRow filteredRow : this.rows) {
+                filteredPartRevisions.add(filteredRow.getPartRevision());
+            }
             for (QueryResultRow row : rows) {
-                for (QueryResultRow filteredRow : this.rows) {
-                    if (filteredRow.getPartRevision().equals(row.getPartRevision())) {
-                        mergedRows.add(row);
-                        break;
-                    }
+                if (filteredPartRevisions.contains(row.getPartRevision())) {
+                    mergedRows.add(row);
                 }
             }
         }
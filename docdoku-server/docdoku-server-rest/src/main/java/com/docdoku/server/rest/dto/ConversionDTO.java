@@ -34,6 +34,9 @@ public class ConversionDTO implements Serializable {
     @ApiModelProperty(value = "Conversion end date")
     private Date endDate;
 
+    @ApiModelProperty(value = "Conversion queue date")
+    private Date queueDate;
+
     @ApiModelProperty(value = "Conversion start date")
     private Date startDate;
 
@@ -43,6 +46,9 @@ public class ConversionDTO implements Serializable {
     @ApiModelProperty(value = "Pending flag")
     private boolean pending;
 
+    @ApiModelProperty(value = "Conversion priority")
+    private int priority;
+
     public ConversionDTO() {
     }
 
@@ -61,6 +67,14 @@ public class ConversionDTO implements Serializable {
         this.endDate = endDate;
     }
 
+    public Date getQueueDate() {
+        return queueDate;
+    }
+
+    public void setQueueDate(Date queueDate) {
+        this.queueDate = queueDate;
+    }
+
     public Date getStartDate() {
         return startDate;
     }
@@ -84,4 +98,12 @@ public class ConversionDTO implements Serializable {
     public void setPending(boolean pending) {
         this.pending = pending;
     }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.Serializable;
+import java.util.List;
+
+@XmlRootElement
+@ApiModel(value="SerialNumberEffectivityDTO", description="This class holds the part revisions effective for a serial number of a {@link com.docdoku.core.product.ConfigurationItem}")
+public class SerialNumberEffectivityDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @ApiModelProperty(value = "Serial number")
+    private String serialNumber;
+
+    @ApiModelProperty(value = "Effective part revisions")
+    private List<LightPartRevisionDTO> partRevisions;
+
+    public SerialNumberEffectivityDTO() {
+    }
+
+    public SerialNumberEffectivityDTO(String serialNumber, List<LightPartRevisionDTO> partRevisions) {
+        this.serialNumber = serialNumber;
+        this.partRevisions = partRevisions;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public List<LightPartRevisionDTO> getPartRevisions() {
+        return partRevisions;
+    }
+
+    public void setPartRevisions(List<LightPartRevisionDTO> partRevisions) {
+        this.partRevisions = partRevisions;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+@XmlRootElement
+@ApiModel(value="UploadSessionDTO", description="This class is the representation of a resumable chunked upload")
+public class UploadSessionDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @ApiModelProperty(value = "Upload id")
+    private String id;
+    @ApiModelProperty(value = "Uploaded file name")
+    private String fileName;
+    @ApiModelProperty(value = "Uploaded file size")
+    private long length;
+    @ApiModelProperty(value = "Size of the chunks, the last one may be shorter")
+    private int chunkSize;
+    @ApiModelProperty(value = "Number of bytes received so far")
+    private long receivedLength;
+    @ApiModelProperty(value = "Offsets of the chunks still to send")
+    private List<Long> missingOffsets = new ArrayList<>();
+
+    public UploadSessionDTO() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public long getReceivedLength() {
+        return receivedLength;
+    }
+
+    public void setReceivedLength(long receivedLength) {
+        this.receivedLength = receivedLength;
+    }
+
+    public List<Long> getMissingOffsets() {
+        return missingOffsets;
+    }
+
+    public void setMissingOffsets(List<Long> missingOffsets) {
+        this.missingOffsets = missingOffsets;
+    }
+}
@@ -20,6 +20,7 @@
 package com.docdoku.server.rest.file;
 
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.UploadSession;
 import com.docdoku.core.document.DocumentIteration;
 import com.docdoku.core.document.DocumentIterationKey;
 import com.docdoku.core.document.DocumentRevision;
@@ -80,6 +81,8 @@ public class DocumentBinaryResource {
     private IShareManagerLocal shareService;
     @Inject
     private IPublicEntityManagerLocal publicEntityManager;
+    @Inject
+    private IUploadManagerLocal uploadManager;
 
     public DocumentBinaryResource() {
     }
@@ -127,6 +130,44 @@ public class DocumentBinaryResource {
         }
     }
 
+    @POST
+    @ApiOperation(value = "Commit a chunked upload as a document file",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Upload success"),
+            @ApiResponse(code = 400, message = "Bad request, the upload is not complete"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Upload session not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("/{iteration}/uploads/{uploadId}")
+    @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
+    public Response commitDocumentFileUpload(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "Document master id") @PathParam("documentId") final String documentId,
+            @ApiParam(required = true, value = "Workspace version") @PathParam("version") final String version,
+            @ApiParam(required = true, value = "Document iteration") @PathParam("iteration") final int iteration,
+            @ApiParam(required = true, value = "Upload id") @PathParam("uploadId") final String uploadId)
+            throws EntityNotFoundException, EntityAlreadyExistsException, UserNotActiveException, AccessRightException,
+            NotAllowedException, CreationException {
+
+        try {
+            DocumentIterationKey docPK = new DocumentIterationKey(workspaceId, documentId, version, iteration);
+            UploadSession upload = uploadManager.getUpload(workspaceId, uploadId);
+            String fileName = upload.getFileName();
+
+            BinaryResource binaryResource = documentService.saveFileInDocument(docPK, fileName, upload.getLength());
+            uploadManager.commitUpload(workspaceId, uploadId, binaryResource);
+
+            String uri = request.getRequestURI();
+            return BinaryResourceUpload.tryToRespondCreated(uri.substring(0, uri.lastIndexOf("/uploads/") + 1) + URLEncoder.encode(fileName, "UTF-8"));
+
+        } catch (IOException | StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
     // TODO use uuid as QueryParam
     @GET
     @ApiOperation(value = "Download document file",
@@ -142,6 +183,7 @@ public class DocumentBinaryResource {
     public Response downloadDocumentFile(
             @Context Request request,
             @ApiParam(required = false, value = "Range") @HeaderParam("Range") String range,
+            @ApiParam(required = false, value = "If-Range") @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = false, value = "referer") @HeaderParam("Referer") String referer,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Document master id") @PathParam("documentId") final String documentId,
@@ -202,7 +244,7 @@ public class DocumentBinaryResource {
                 binaryContentInputStream = storageManager.getBinaryResourceInputStream(binaryResource);
             }
 
-            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range);
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range, ifRange);
 
         } catch (StorageException | FileConversionException e) {
             Streams.close(binaryContentInputStream);
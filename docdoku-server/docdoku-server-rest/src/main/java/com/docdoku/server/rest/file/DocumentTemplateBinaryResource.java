@@ -137,6 +137,7 @@ public class DocumentTemplateBinaryResource {
     public Response downloadDocumentTemplateFile(
             @Context Request request,
             @ApiParam(required = false, value = "Range") @HeaderParam("Range") String range,
+            @ApiParam(required = false, value = "If-Range") @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Template id") @PathParam("templateId") final String templateId,
             @ApiParam(required = true, value = "File name") @PathParam("fileName") final String fileName,
@@ -166,7 +167,7 @@ public class DocumentTemplateBinaryResource {
             } else {
                 binaryContentInputStream = storageManager.getBinaryResourceInputStream(binaryResource);
             }
-            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range);
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range, ifRange);
         } catch (StorageException | FileConversionException e) {
             Streams.close(binaryContentInputStream);
             return BinaryResourceDownloadResponseBuilder.downloadError(e, fullName);
@@ -20,8 +20,11 @@
 package com.docdoku.server.rest.file;
 
 import com.docdoku.core.common.BinaryResource;
+import com.docdoku.core.common.UploadSession;
 import com.docdoku.core.exceptions.*;
 import com.docdoku.core.exceptions.NotAllowedException;
+import com.docdoku.core.product.Conversion;
+import com.docdoku.core.product.Geometry;
 import com.docdoku.core.product.PartIteration;
 import com.docdoku.core.product.PartIterationKey;
 import com.docdoku.core.product.PartRevision;
@@ -34,6 +37,10 @@ import com.docdoku.server.rest.exceptions.*;
 import com.docdoku.server.rest.file.util.BinaryResourceDownloadMeta;
 import com.docdoku.server.rest.file.util.BinaryResourceDownloadResponseBuilder;
 import com.docdoku.server.rest.file.util.BinaryResourceUpload;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
 import io.swagger.annotations.*;
 
 import javax.annotation.security.DeclareRoles;
@@ -81,6 +88,8 @@ public class PartBinaryResource {
     private IPublicEntityManagerLocal publicEntityManager;
     @Inject
     private IOnDemandConverterManagerLocal onDemandConverterManager;
+    @Inject
+    private IUploadManagerLocal uploadManager;
 
 
     public PartBinaryResource() {
@@ -105,7 +114,8 @@ public class PartBinaryResource {
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
             @ApiParam(required = true, value = "Part version") @PathParam("version") final String version,
-            @ApiParam(required = true, value = "Part iteration") @PathParam("iteration") final int iteration)
+            @ApiParam(required = true, value = "Part iteration") @PathParam("iteration") final int iteration,
+            @ApiParam(required = false, value = "Batch import flag, lowers the conversion priority", defaultValue = "false") @QueryParam("batch") boolean batch)
             throws EntityNotFoundException, EntityAlreadyExistsException, UserNotActiveException,
             AccessRightException, NotAllowedException, CreationException {
 
@@ -121,10 +131,12 @@ public class PartBinaryResource {
             Part part = parts.iterator().next();
             String fileName = part.getSubmittedFileName();
             BinaryResource binaryResource = productService.saveNativeCADInPartIteration(partPK, fileName, 0);
-            OutputStream outputStream = storageManager.getBinaryResourceOutputStream(binaryResource);
+            // Hash the content on the fly, identical files are converted only once
+            HashingOutputStream outputStream = new HashingOutputStream(Hashing.sha256(),
+                    storageManager.getBinaryResourceOutputStream(binaryResource));
             long length = BinaryResourceUpload.uploadBinary(outputStream, part);
-            productService.saveNativeCADInPartIteration(partPK, fileName, length);
-            tryToConvertCADFileToOBJ(partPK, binaryResource);
+            productService.saveNativeCADInPartIteration(partPK, fileName, length, outputStream.hash().toString());
+            tryToConvertCADFileToOBJ(partPK, binaryResource, batch ? Conversion.BATCH_PRIORITY : Conversion.INTERACTIVE_PRIORITY);
 
             return BinaryResourceUpload.tryToRespondCreated(request.getRequestURI() + URLEncoder.encode(fileName, UTF8_ENCODING));
 
@@ -133,6 +145,92 @@ public class PartBinaryResource {
         }
     }
 
+    @POST
+    @ApiOperation(value = "Commit a chunked upload as the CAD file",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Upload success"),
+            @ApiResponse(code = 400, message = "Bad request, the upload is not complete"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Upload session not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("/{iteration}/" + NATIVE_CAD_SUBTYPE + "/uploads/{uploadId}")
+    @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
+    public Response commitNativeCADUpload(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
+            @ApiParam(required = true, value = "Part version") @PathParam("version") final String version,
+            @ApiParam(required = true, value = "Part iteration") @PathParam("iteration") final int iteration,
+            @ApiParam(required = true, value = "Upload id") @PathParam("uploadId") final String uploadId,
+            @ApiParam(required = false, value = "Batch import flag, lowers the conversion priority", defaultValue = "false") @QueryParam("batch") boolean batch)
+            throws EntityNotFoundException, EntityAlreadyExistsException, UserNotActiveException,
+            AccessRightException, NotAllowedException, CreationException {
+
+        try {
+
+            PartIterationKey partPK = new PartIterationKey(workspaceId, partNumber, version, iteration);
+            UploadSession upload = uploadManager.getUpload(workspaceId, uploadId);
+            String fileName = upload.getFileName();
+
+            BinaryResource binaryResource = productService.saveNativeCADInPartIteration(partPK, fileName, upload.getLength());
+            uploadManager.commitUpload(workspaceId, uploadId, binaryResource);
+
+            // Chunks arrive out of order, the content is hashed once assembled
+            HashingInputStream inputStream = new HashingInputStream(Hashing.sha256(),
+                    storageManager.getBinaryResourceInputStream(binaryResource));
+            try (InputStream in = inputStream) {
+                ByteStreams.copy(in, ByteStreams.nullOutputStream());
+            }
+            productService.saveNativeCADInPartIteration(partPK, fileName, upload.getLength(), inputStream.hash().toString());
+            tryToConvertCADFileToOBJ(partPK, binaryResource, batch ? Conversion.BATCH_PRIORITY : Conversion.INTERACTIVE_PRIORITY);
+
+            return BinaryResourceUpload.tryToRespondCreated(getUploadedFileURI(request, fileName));
+
+        } catch (IOException | StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
+    @POST
+    @ApiOperation(value = "Commit a chunked upload as an attached file",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Upload success"),
+            @ApiResponse(code = 400, message = "Bad request, the upload is not complete"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Upload session not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("/{iteration}/" + ATTACHED_FILES_SUBTYPE + "/uploads/{uploadId}")
+    @RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
+    public Response commitAttachedFileUpload(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
+            @ApiParam(required = true, value = "Part version") @PathParam("version") final String version,
+            @ApiParam(required = true, value = "Part iteration") @PathParam("iteration") final int iteration,
+            @ApiParam(required = true, value = "Upload id") @PathParam("uploadId") final String uploadId)
+            throws EntityNotFoundException, EntityAlreadyExistsException, UserNotActiveException,
+            AccessRightException, NotAllowedException, CreationException {
+
+        try {
+
+            PartIterationKey partPK = new PartIterationKey(workspaceId, partNumber, version, iteration);
+            UploadSession upload = uploadManager.getUpload(workspaceId, uploadId);
+            String fileName = upload.getFileName();
+
+            BinaryResource binaryResource = productService.saveFileInPartIteration(partPK, fileName, ATTACHED_FILES_SUBTYPE, upload.getLength());
+            uploadManager.commitUpload(workspaceId, uploadId, binaryResource);
+
+            return BinaryResourceUpload.tryToRespondCreated(getUploadedFileURI(request, fileName));
+
+        } catch (IOException | StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
     @POST
     @ApiOperation(value = "Upload attached file",
             response = Response.class)
@@ -196,18 +294,19 @@ public class PartBinaryResource {
     public Response downloadDirectPartFile(
             @Context Request request,
             @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
             @ApiParam(required = true, value = "Part version") @PathParam("version") final String version,
             @ApiParam(required = true, value = "Part iteration") @PathParam("iteration") final int iteration,
             @ApiParam(required = true, value = "File name") @PathParam("fileName") final String fileName,
             @ApiParam(required = false, value = "Type") @QueryParam("type") String type,
-            @ApiParam(required = false, value = "Output") @QueryParam("output") String output)
+            @ApiParam(required = false, value = "Output format, cmesh for the compact binary encoding of a geometry") @QueryParam("output") String output)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException,
             PreconditionFailedException, NotModifiedException, RequestedRangeNotSatisfiableException,
             UnMatchingUuidException, ExpiredLinkException {
 
-        return downloadPartFile(request, range, null, workspaceId, partNumber, version, iteration, null, fileName, type, output, null);
+        return downloadPartFile(request, range, ifRange, null, workspaceId, partNumber, version, iteration, null, fileName, type, output, null);
     }
 
     @GET
@@ -223,6 +322,7 @@ public class PartBinaryResource {
     public Response downloadPartFileWithUuid(
             @Context Request request,
             @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
             @HeaderParam("Referer") String referer,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
@@ -230,13 +330,13 @@ public class PartBinaryResource {
             @ApiParam(required = true, value = "Part iteration") @PathParam("iteration") final int iteration,
             @ApiParam(required = true, value = "File name") @PathParam("fileName") final String fileName,
             @ApiParam(required = false, value = "Type") @QueryParam("type") String type,
-            @ApiParam(required = false, value = "Output") @QueryParam("output") String output,
+            @ApiParam(required = false, value = "Output format, cmesh for the compact binary encoding of a geometry") @QueryParam("output") String output,
             @ApiParam(required = true, value = "Resource token") @PathParam("uuid") final String uuid)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException,
             PreconditionFailedException, NotModifiedException, RequestedRangeNotSatisfiableException,
             UnMatchingUuidException, ExpiredLinkException {
 
-        return downloadPartFile(request, range, referer, workspaceId, partNumber, version, iteration, null, fileName, type, output, uuid);
+        return downloadPartFile(request, range, ifRange, referer, workspaceId, partNumber, version, iteration, null, fileName, type, output, uuid);
     }
 
     @GET
@@ -252,6 +352,7 @@ public class PartBinaryResource {
     public Response downloadPartFileWithSubtype(
             @Context Request request,
             @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
             @ApiParam(required = true, value = "Part version") @PathParam("version") final String version,
@@ -259,12 +360,12 @@ public class PartBinaryResource {
             @ApiParam(required = true, value = "Sub type") @PathParam("subType") final String subType,
             @ApiParam(required = true, value = "File name") @PathParam("fileName") final String fileName,
             @ApiParam(required = false, value = "Type") @QueryParam("type") String type,
-            @ApiParam(required = false, value = "Output") @QueryParam("output") String output)
+            @ApiParam(required = false, value = "Output format, cmesh for the compact binary encoding of a geometry") @QueryParam("output") String output)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException,
             PreconditionFailedException, NotModifiedException, RequestedRangeNotSatisfiableException,
             UnMatchingUuidException, ExpiredLinkException {
 
-        return downloadPartFile(request, range, null, workspaceId, partNumber, version, iteration, subType, fileName, type, output, null);
+        return downloadPartFile(request, range, ifRange, null, workspaceId, partNumber, version, iteration, subType, fileName, type, output, null);
     }
 
 
@@ -281,6 +382,7 @@ public class PartBinaryResource {
     public Response downloadPartFile(
             @Context Request request,
             @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
             @HeaderParam("Referer") String referer,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Part number") @PathParam("partNumber") final String partNumber,
@@ -289,7 +391,7 @@ public class PartBinaryResource {
             @ApiParam(required = true, value = "Sub type") @PathParam("subType") final String subType,
             @ApiParam(required = true, value = "File name") @PathParam("fileName") final String fileName,
             @ApiParam(required = false, value = "Type") @QueryParam("type") String type,
-            @ApiParam(required = false, value = "Output") @QueryParam("output") String output,
+            @ApiParam(required = false, value = "Output format, cmesh for the compact binary encoding of a geometry") @QueryParam("output") String output,
             @PathParam("uuid") final String pUuid)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException,
             PreconditionFailedException, NotModifiedException, RequestedRangeNotSatisfiableException,
@@ -330,11 +432,11 @@ public class PartBinaryResource {
 
         fullName += (subType != null && !subType.isEmpty()) ? subType + "/" + decodedFileName : decodedFileName;
 
-        return downloadPartFile(request, range, fullName, subType, type, output, pUuid);
+        return downloadPartFile(request, range, ifRange, fullName, subType, type, output, pUuid);
     }
 
 
-    private Response downloadPartFile(Request request, String range, String fullName, String subType, String type, String output, String uuid)
+    private Response downloadPartFile(Request request, String range, String ifRange, String fullName, String subType, String type, String output, String uuid)
             throws EntityNotFoundException, UserNotActiveException, AccessRightException, NotAllowedException, PreconditionFailedException, NotModifiedException, RequestedRangeNotSatisfiableException {
 
         BinaryResource binaryResource;
@@ -356,7 +458,16 @@ public class PartBinaryResource {
 
         InputStream binaryContentInputStream = null;
         try {
-            if (ATTACHED_FILES_SUBTYPE.equals(subType) && output != null && !output.isEmpty()) {
+            if (binaryResource instanceof Geometry && Geometry.COMPACT_MESH_FORMAT.equals(output)) {
+                Geometry geometry = (Geometry) binaryResource;
+                if (!storageManager.exists(geometry, geometry.getCompactMeshName())) {
+                    // Converted before the compact format was introduced, the viewer falls back to the OBJ file
+                    return Response.status(Response.Status.NOT_FOUND).build();
+                }
+                binaryContentInputStream = storageManager.getGeneratedFileInputStream(geometry, geometry.getCompactMeshName());
+                binaryResourceDownloadMeta.setLength(0);
+                return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, null, null);
+            } else if (ATTACHED_FILES_SUBTYPE.equals(subType) && output != null && !output.isEmpty()) {
                 binaryContentInputStream = getConvertedBinaryResource(binaryResource, output, uuid);
                 if(range == null || range.isEmpty()){
                     binaryResourceDownloadMeta.setLength(0);
@@ -364,7 +475,7 @@ public class PartBinaryResource {
             } else {
                 binaryContentInputStream = storageManager.getBinaryResourceInputStream(binaryResource);
             }
-            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range);
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range, ifRange);
         } catch (StorageException | FileConversionException e) {
             Streams.close(binaryContentInputStream);
             return BinaryResourceDownloadResponseBuilder.downloadError(e, fullName);
@@ -394,10 +505,15 @@ public class PartBinaryResource {
         }
     }
 
-    private void tryToConvertCADFileToOBJ(PartIterationKey partPK, BinaryResource binaryResource) {
+    private String getUploadedFileURI(HttpServletRequest request, String fileName) throws UnsupportedEncodingException {
+        String uri = request.getRequestURI();
+        return uri.substring(0, uri.lastIndexOf("/uploads/") + 1) + URLEncoder.encode(fileName, UTF8_ENCODING);
+    }
+
+    private void tryToConvertCADFileToOBJ(PartIterationKey partPK, BinaryResource binaryResource, int priority) {
         try {
             //TODO: Should be put in a DocumentPostUploader plugin
-            converterService.convertCADFileToOBJ(partPK, binaryResource);
+            converterService.convertCADFileToOBJ(partPK, binaryResource, priority);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "A CAD file conversion can not be done", e);
         }
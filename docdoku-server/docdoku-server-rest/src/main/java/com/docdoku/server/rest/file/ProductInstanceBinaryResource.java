@@ -136,6 +136,7 @@ public class ProductInstanceBinaryResource {
     public Response downloadFileFromProductInstance(
             @Context Request request,
             @ApiParam(required = false, value = "Range") @HeaderParam("Range") String range,
+            @ApiParam(required = false, value = "If-Range") @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
             @ApiParam(required = true, value = "Configuration item id") @PathParam("ciId") String configurationItemId,
             @ApiParam(required = true, value = "Serial number") @PathParam("serialNumber") String serialNumber,
@@ -160,7 +161,7 @@ public class ProductInstanceBinaryResource {
         InputStream binaryContentInputStream = null;
         try {
             binaryContentInputStream = storageManager.getBinaryResourceInputStream(binaryResource);
-            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range);
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range, ifRange);
         } catch (StorageException e) {
             Streams.close(binaryContentInputStream);
             return BinaryResourceDownloadResponseBuilder.downloadError(e, fullName);
@@ -224,6 +225,7 @@ public class ProductInstanceBinaryResource {
     public Response downloadFileFromPathData(
             @Context Request request,
             @ApiParam(required = false, value = "Range") @HeaderParam("Range") String range,
+            @ApiParam(required = false, value = "If-Range") @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") String workspaceId,
             @ApiParam(required = true, value = "Serial number") @PathParam("serialNumber") String serialNumber,
             @ApiParam(required = true, value = "Configuration item id") @PathParam("ciId") String configurationItemId,
@@ -249,7 +251,7 @@ public class ProductInstanceBinaryResource {
         InputStream binaryContentInputStream = null;
         try {
             binaryContentInputStream = storageManager.getBinaryResourceInputStream(binaryResource);
-            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range);
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range, ifRange);
         } catch (StorageException e) {
             Streams.close(binaryContentInputStream);
             return BinaryResourceDownloadResponseBuilder.downloadError(e, fullName);
@@ -269,6 +271,7 @@ public class ProductInstanceBinaryResource {
     public Response downloadFileFromPathDataIteration(
             @Context Request request,
             @ApiParam(required = false, value = "Range") @HeaderParam("Range") String range,
+            @ApiParam(required = false, value = "If-Range") @HeaderParam("If-Range") String ifRange,
             @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
             @ApiParam(required = true, value = "Serial number") @PathParam("serialNumber") final String serialNumber,
             @ApiParam(required = true, value = "Configuration item id") @PathParam("ciId") String configurationItemId,
@@ -296,7 +299,7 @@ public class ProductInstanceBinaryResource {
 
         try {
             binaryContentInputStream = storageManager.getBinaryResourceInputStream(binaryResource);
-            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range);
+            return BinaryResourceDownloadResponseBuilder.prepareResponse(binaryContentInputStream, binaryResourceDownloadMeta, range, ifRange);
         } catch (StorageException e) {
             Streams.close(binaryContentInputStream);
             return BinaryResourceDownloadResponseBuilder.downloadError(e, fullName);
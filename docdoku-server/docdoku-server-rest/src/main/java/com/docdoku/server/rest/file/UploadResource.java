@@ -0,0 +1,177 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.file;
+
+import com.docdoku.core.common.UploadSession;
+import com.docdoku.core.exceptions.*;
+import com.docdoku.core.exceptions.NotAllowedException;
+import com.docdoku.core.security.UserGroupMapping;
+import com.docdoku.core.services.IUploadManagerLocal;
+import com.docdoku.server.rest.dto.UploadSessionDTO;
+import com.docdoku.server.rest.file.util.BinaryResourceUpload;
+import io.swagger.annotations.*;
+
+import javax.annotation.security.DeclareRoles;
+import javax.annotation.security.RolesAllowed;
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.net.URI;
+import java.text.Normalizer;
+
+/**
+ * Resumable chunked uploads. A session is created for a file, its chunks are sent
+ * with <code>PUT</code> at their offset, in any order, and the missing ones can be
+ * queried after a failure. The upload is then committed by the resource the file
+ * belongs to.
+ */
+@RequestScoped
+@Api(hidden = true, value = "uploads", description = "Operations about resumable uploads")
+@DeclareRoles({UserGroupMapping.REGULAR_USER_ROLE_ID})
+@RolesAllowed({UserGroupMapping.REGULAR_USER_ROLE_ID})
+public class UploadResource {
+
+    @Inject
+    private IUploadManagerLocal uploadManager;
+
+    public UploadResource() {
+    }
+
+    @POST
+    @ApiOperation(value = "Create an upload session",
+            response = UploadSessionDTO.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Upload session created"),
+            @ApiResponse(code = 400, message = "Bad request, invalid sizes"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response createUpload(
+            @Context HttpServletRequest request,
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "File name") @QueryParam("fileName") final String fileName,
+            @ApiParam(required = true, value = "File size") @QueryParam("length") final long length,
+            @ApiParam(required = false, value = "Chunk size, defaults to 8 MB") @QueryParam("chunkSize") final int chunkSize)
+            throws EntityNotFoundException, AccessRightException, NotAllowedException {
+
+        try {
+            String name = fileName != null ? Normalizer.normalize(fileName, Normalizer.Form.NFC) : null;
+            UploadSession session = uploadManager.createUpload(workspaceId, name, length, chunkSize);
+            String uri = request.getRequestURI();
+            return Response.created(URI.create((uri.endsWith("/") ? uri : uri + "/") + session.getId()))
+                    .entity(toDTO(session))
+                    .build();
+        } catch (StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
+    @GET
+    @ApiOperation(value = "Get an upload session and its missing chunks",
+            response = UploadSessionDTO.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of the upload session"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Upload session not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("{uploadId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getUpload(
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "Upload id") @PathParam("uploadId") final String uploadId)
+            throws EntityNotFoundException, AccessRightException {
+
+        try {
+            return Response.ok(toDTO(uploadManager.getUpload(workspaceId, uploadId))).build();
+        } catch (StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
+    @PUT
+    @ApiOperation(value = "Upload a chunk at its offset",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "Chunk received"),
+            @ApiResponse(code = 400, message = "Bad request, wrong offset, length or checksum"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Upload session not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("{uploadId}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response uploadChunk(
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "Upload id") @PathParam("uploadId") final String uploadId,
+            @ApiParam(required = true, value = "Chunk offset") @QueryParam("offset") final long offset,
+            @ApiParam(required = false, value = "Base64 encoded MD5 of the chunk") @HeaderParam("Content-MD5") final String md5,
+            @ApiParam(required = true, value = "Chunk content") final InputStream in)
+            throws EntityNotFoundException, AccessRightException, NotAllowedException {
+
+        try {
+            uploadManager.writeChunk(workspaceId, uploadId, offset, in, md5);
+            return Response.noContent().build();
+        } catch (StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
+    @DELETE
+    @ApiOperation(value = "Abort an upload session",
+            response = Response.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "Upload session removed"),
+            @ApiResponse(code = 401, message = "Unauthorized"),
+            @ApiResponse(code = 404, message = "Upload session not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    @Path("{uploadId}")
+    public Response abortUpload(
+            @ApiParam(required = true, value = "Workspace id") @PathParam("workspaceId") final String workspaceId,
+            @ApiParam(required = true, value = "Upload id") @PathParam("uploadId") final String uploadId)
+            throws EntityNotFoundException, AccessRightException {
+
+        try {
+            uploadManager.abortUpload(workspaceId, uploadId);
+            return Response.noContent().build();
+        } catch (StorageException e) {
+            return BinaryResourceUpload.uploadError(e);
+        }
+    }
+
+    private UploadSessionDTO toDTO(UploadSession session) {
+        UploadSessionDTO dto = new UploadSessionDTO();
+        dto.setId(session.getId());
+        dto.setFileName(session.getFileName());
+        dto.setLength(session.getLength());
+        dto.setChunkSize(session.getChunkSize());
+        dto.setReceivedLength(session.getReceivedLength());
+        dto.setMissingOffsets(session.getMissingOffsets());
+        return dto;
+    }
+}
@@ -20,6 +20,7 @@
 
 package com.docdoku.server.rest.file.util;
 
+import com.docdoku.core.util.FileChannelInputStream;
 import com.docdoku.server.rest.exceptions.InterruptedStreamException;
 import com.google.common.io.ByteStreams;
 
@@ -27,17 +28,59 @@ import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class BinaryResourceBinaryStreamingOutput implements StreamingOutput {
     private static final Logger LOGGER = Logger.getLogger(BinaryResourceBinaryStreamingOutput.class.getName());
+    private static final long TRANSFER_SIZE = 1024 * 1024;
     private final InputStream binaryContentInputStream;
-    private final Range fullRange;
+    private final List<Range> ranges;
+    private final long total;
+    private final String contentType;
+    private final String boundary;
 
     public BinaryResourceBinaryStreamingOutput(InputStream binaryContentInputStream, long start, long end, long length) {
+        this(binaryContentInputStream, Collections.singletonList(new Range(start, end)), length, null, null);
+    }
+
+    /**
+     * Stream several ranges of a content as a multipart/byteranges body.
+     *
+     * @param ranges      The ranges to send, sorted and not overlapping
+     * @param length      The length of the whole content
+     * @param contentType The content type of each part
+     * @param boundary    The boundary of the parts, null to send a single range as is
+     */
+    public BinaryResourceBinaryStreamingOutput(InputStream binaryContentInputStream, List<Range> ranges, long length, String contentType, String boundary) {
         this.binaryContentInputStream = binaryContentInputStream;
-        this.fullRange = new Range(start, end, length);
+        this.ranges = ranges;
+        this.total = length;
+        this.contentType = contentType;
+        this.boundary = boundary;
+    }
+
+    /**
+     * @return The length of the body, parts headers included
+     */
+    public long getContentLength() {
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            contentLength += ranges.get(i).getLength();
+            if (boundary != null) {
+                contentLength += getPartHeader(i).length;
+            }
+        }
+        if (boundary != null) {
+            contentLength += getClosingBoundary().length;
+        }
+        return contentLength;
     }
 
     @Override
@@ -46,7 +89,7 @@ public class BinaryResourceBinaryStreamingOutput implements StreamingOutput {
             if (binaryContentInputStream == null) {
                 LOGGER.log(Level.SEVERE, "The file input stream is null");
             } else {
-                copy(binaryContentInputStream, outputStream, fullRange.start, fullRange.length);
+                copy(binaryContentInputStream, outputStream);
             }
         } catch (InterruptedStreamException e) {
             LOGGER.log(Level.WARNING, "Downloading file interrupted");
@@ -54,25 +97,28 @@ public class BinaryResourceBinaryStreamingOutput implements StreamingOutput {
         }
     }
 
-    private void copy(final InputStream input, OutputStream output, long start, long length) throws InterruptedStreamException {
-        // Slice the input stream considering offset and length
+    private void copy(final InputStream input, OutputStream output) throws InterruptedStreamException {
         try (InputStream in = input) {
-            if (length > 0) {
-                in.skip(start);
-                byte[] data = new byte[1024 * 8];
-                long remaining = length;
-                int nr;
-                while (remaining > 0) {
-                    nr = in.read(data);
-                    if (nr < 0) {
-                        break;
-                    }
-                    remaining -= nr;
-                    output.write(data, 0, nr);
+            long position = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                if (boundary != null) {
+                    output.write(getPartHeader(i));
+                }
+                if (range.getLength() <= 0) {
+                    // Unknown length, send the whole content
+                    ByteStreams.copy(in, output);
+                } else if (in instanceof FileChannelInputStream) {
+                    transfer(((FileChannelInputStream) in).getChannel(), output, range.start, range.getLength());
+                } else {
+                    // Ranges are sorted, the stream only moves forward
+                    ByteStreams.skipFully(in, range.start - position);
+                    ByteStreams.copy(ByteStreams.limit(in, range.getLength()), output);
+                    position = range.end + 1;
                 }
             }
-            else{
-                ByteStreams.copy(in, output);
+            if (boundary != null) {
+                output.write(getClosingBoundary());
             }
         } catch (IOException e) {
             // may be caused by a client side cancel
@@ -81,15 +127,59 @@ public class BinaryResourceBinaryStreamingOutput implements StreamingOutput {
         }
     }
 
-    private static class Range {
-        long start;
-        long length;
-        long total;
+    private void transfer(FileChannel channel, OutputStream output, long start, long length) throws IOException {
+        // Positional transfers neither skip through the file nor move the stream
+        WritableByteChannel target = Channels.newChannel(output);
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, Math.min(remaining, TRANSFER_SIZE), target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private byte[] getPartHeader(int index) {
+        Range range = ranges.get(index);
+        String header = (index == 0 ? "" : "\r\n") + "--" + boundary + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Range: " + range.toContentRange(total) + "\r\n\r\n";
+        return header.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private byte[] getClosingBoundary() {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
 
-        public Range(long start, long end, long total) {
+    /**
+     * Range of bytes, bounds included.
+     */
+    public static class Range {
+        private final long start;
+        private final long end;
+
+        public Range(long start, long end) {
             this.start = start;
-            this.length = end - start + 1;
-            this.total = total;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start + 1;
+        }
+
+        public String toContentRange(long total) {
+            return String.format("bytes %d-%d/%d", start, end, total);
         }
     }
 }
@@ -57,6 +57,16 @@ public class BinaryResourceDownloadMeta {
         this(binaryResource, null, null);
     }
 
+    public BinaryResourceDownloadMeta(String fileName, long length, Date lastModified, String downloadType) {
+        this.fullName = fileName;
+        this.downloadType = downloadType;
+        this.length = length;
+        this.lastModified = lastModified;
+        if (fileTypeMap == null) {
+            BinaryResourceDownloadMeta.initFileTypeMap();
+        }
+    }
+
     private static void initFileTypeMap() {
         fileTypeMap = new MimetypesFileTypeMap();
 
@@ -140,7 +150,9 @@ public class BinaryResourceDownloadMeta {
     public EntityTag getETag() {
         //Todo add iteration and version
         //Todo remove special char from full Name
-        return new EntityTag(fullName + "_" + length + "_" + lastModified.getTime());
+        String eTag = fullName + "_" + length + "_" + lastModified.getTime();
+        // Each output format is a different representation of the file
+        return new EntityTag(isConverted() ? eTag + "_" + outputFormat : eTag);
     }
 
 
@@ -20,16 +20,20 @@
 package com.docdoku.server.rest.file.util;
 
 import com.docdoku.server.rest.exceptions.RequestedRangeNotSatisfiableException;
+import com.docdoku.server.rest.file.util.BinaryResourceBinaryStreamingOutput.Range;
 
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
-import java.util.Calendar;
-import java.util.Date;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  *
@@ -40,6 +44,8 @@ public class BinaryResourceDownloadResponseBuilder {
 
     private static final Logger LOGGER = Logger.getLogger(BinaryResourceDownloadResponseBuilder.class.getName());
     private static final int CACHE_SECOND = 60 * 60 * 24;
+    private static final int MAX_RANGES = 16;
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=\\s*\\d*-\\d*(\\s*,\\s*\\d*-\\d*)*\\s*$");
 
 
     private BinaryResourceDownloadResponseBuilder() {
@@ -53,60 +59,147 @@ public class BinaryResourceDownloadResponseBuilder {
      * @param binaryContentInputStream   The stream of the binary content to download.
      * @param binaryResourceDownloadMeta The header parameters for the binary content download.
      * @param range                      The string of the queried range. Null if no range are specified
+     * @param ifRange                    The If-Range header, the range is ignored if it does not match the content
      * @return A response builder with the header & the content.
      * @throws RequestedRangeNotSatisfiableException If the range is not satisfiable.
      */
-    public static Response prepareResponse(InputStream binaryContentInputStream, BinaryResourceDownloadMeta binaryResourceDownloadMeta, String range)
+    public static Response prepareResponse(InputStream binaryContentInputStream, BinaryResourceDownloadMeta binaryResourceDownloadMeta, String range, String ifRange)
             throws RequestedRangeNotSatisfiableException {
 
         Response.ResponseBuilder responseBuilder;
+        long length = binaryResourceDownloadMeta.getLength();
+
+        List<Range> ranges = null;
+
+        if (length > 0 && range != null && !range.isEmpty() && isIfRangeMatching(ifRange, binaryResourceDownloadMeta)) {
+            ranges = parseRanges(range, length);
+        }
 
-        if (range == null || range.isEmpty()) {
-            long length = binaryResourceDownloadMeta.getLength();
+        if (ranges == null) {
             responseBuilder = Response.ok()
                     .header("Content-Disposition", binaryResourceDownloadMeta.getContentDisposition())
                     .header("Content-Type", binaryResourceDownloadMeta.getContentType())
                     .entity(new BinaryResourceBinaryStreamingOutput(binaryContentInputStream, 0, length - 1, length));
 
             // Converting files modify its length so we don't specify the length on converted content
-            if (!binaryResourceDownloadMeta.isConverted()) {
-                responseBuilder.header("Content-Length", length);
+            if (!binaryResourceDownloadMeta.isConverted() && length > 0) {
+                responseBuilder.header("Accept-Ranges", "bytes")
+                        .header("Content-Length", length);
             }
         } else {
-            responseBuilder = prepareStreamingDownloadResponse(binaryResourceDownloadMeta, binaryContentInputStream, range);
+            responseBuilder = prepareStreamingDownloadResponse(binaryResourceDownloadMeta, binaryContentInputStream, ranges);
         }
 
         responseBuilder = applyCachePolicyToResponse(responseBuilder, binaryResourceDownloadMeta.getETag(), binaryResourceDownloadMeta.getLastModified());
         return responseBuilder.build();
     }
 
-    private static Response.ResponseBuilder prepareStreamingDownloadResponse(BinaryResourceDownloadMeta binaryResourceDownloadMeta, InputStream binaryContentInputStream, String range) throws RequestedRangeNotSatisfiableException {
+    private static Response.ResponseBuilder prepareStreamingDownloadResponse(BinaryResourceDownloadMeta binaryResourceDownloadMeta, InputStream binaryContentInputStream, List<Range> ranges) {
         long length = binaryResourceDownloadMeta.getLength();
+        String contentType = binaryResourceDownloadMeta.getContentType();
+
+        Response.ResponseBuilder responseBuilder = Response.status(Response.Status.PARTIAL_CONTENT)
+                .header("Content-Disposition", binaryResourceDownloadMeta.getContentDisposition())
+                .header("Accept-Ranges", "bytes");
+
+        BinaryResourceBinaryStreamingOutput streamingOutput;
+        if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            streamingOutput = new BinaryResourceBinaryStreamingOutput(binaryContentInputStream, ranges, length, contentType, null);
+            responseBuilder.header("Content-Range", range.toContentRange(length))
+                    .header("Content-Type", contentType);
+        } else {
+            String boundary = UUID.randomUUID().toString();
+            streamingOutput = new BinaryResourceBinaryStreamingOutput(binaryContentInputStream, ranges, length, contentType, boundary);
+            responseBuilder.header("Content-Type", "multipart/byteranges; boundary=" + boundary);
+        }
 
+        return responseBuilder.header("Content-Length", streamingOutput.getContentLength())
+                .entity(streamingOutput);
+    }
+
+    /**
+     * Parse a Range header into sorted ranges, overlapping or adjacent ranges being merged.
+     *
+     * @return The ranges to send, or null if the whole content should be sent instead
+     * @throws RequestedRangeNotSatisfiableException If the header is malformed or no range is satisfiable.
+     */
+    static List<Range> parseRanges(String range, long length) throws RequestedRangeNotSatisfiableException {
         // Range header should match format "bytes=n-n,n-n,n-n...". If not, then return 416.
-        if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
+        if (!RANGE_PATTERN.matcher(range).matches()) {
             throw new RequestedRangeNotSatisfiableException("", length);
         }
 
-        String[] ranges = range.split("=")[1].split("-");
-        final long from = Integer.parseInt(ranges[0]);
-        long to;
-        if (ranges.length > 1) {
-            to = Integer.parseInt(ranges[1]);
-            to = (to > length - 1) ? length - 1 : to;
-        } else {
-            to = length - 1;
+        List<Range> ranges = new ArrayList<>();
+        for (String spec : range.substring(range.indexOf('=') + 1).split(",")) {
+            String[] bounds = spec.trim().split("-", -1);
+            long from;
+            long to;
+            try {
+                if (bounds[0].isEmpty()) {
+                    // Suffix range, the last n bytes
+                    if (bounds[1].isEmpty()) {
+                        throw new RequestedRangeNotSatisfiableException("", length);
+                    }
+                    from = Math.max(0, length - Long.parseLong(bounds[1]));
+                    to = length - 1;
+                } else {
+                    from = Long.parseLong(bounds[0]);
+                    long last = bounds[1].isEmpty() ? length - 1 : Long.parseLong(bounds[1]);
+                    if (last < from && !bounds[1].isEmpty()) {
+                        throw new RequestedRangeNotSatisfiableException("", length);
+                    }
+                    to = Math.min(last, length - 1);
+                }
+            } catch (NumberFormatException e) {
+                throw new RequestedRangeNotSatisfiableException("", length);
+            }
+            if (from < length && from <= to) {
+                ranges.add(new Range(from, to));
+            }
         }
 
-        final String responseRange = String.format("bytes %d-%d/%d", from, to, length);
+        if (ranges.isEmpty()) {
+            throw new RequestedRangeNotSatisfiableException("", length);
+        }
 
-        return Response.status(Response.Status.PARTIAL_CONTENT)
-                .header("Content-Disposition", binaryResourceDownloadMeta.getContentDisposition())
-                .header("Accept-Ranges", "bytes")
-                .header("Content-Length", length - from)
-                .header("Content-Range", responseRange)
-                .header("Content-Type", binaryResourceDownloadMeta.getContentType())
-                .entity(new BinaryResourceBinaryStreamingOutput(binaryContentInputStream, from, length - 1, length));
+        ranges.sort(Comparator.comparingLong(Range::getStart));
+        List<Range> merged = new ArrayList<>();
+        Range current = ranges.get(0);
+        for (Range next : ranges.subList(1, ranges.size())) {
+            if (next.getStart() <= current.getEnd() + 1) {
+                current = new Range(current.getStart(), Math.max(current.getEnd(), next.getEnd()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+
+        // Too many distinct ranges cost more than the whole content
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    /**
+     * Tell whether the ranges can be served, the If-Range header holding either the entity tag or
+     * the last modified date of the content the client already has.
+     */
+    static boolean isIfRangeMatching(String ifRange, BinaryResourceDownloadMeta binaryResourceDownloadMeta) {
+        if (ifRange == null || ifRange.isEmpty()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // Strong comparison, weak tags never match
+            EntityTag eTag = binaryResourceDownloadMeta.getETag();
+            return !value.startsWith("W/") && !eTag.isWeak() && value.equals("\"" + eTag.getValue() + "\"");
+        }
+        try {
+            long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().getEpochSecond();
+            return date == binaryResourceDownloadMeta.getLastModified().getTime() / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
     /**
@@ -0,0 +1,140 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The file produced by an export job. Artifacts of immutable exports are cached and shared by every job
+ * asking for the same content, see {@link ExportJobManager}.
+ */
+public class ExportArtifact {
+
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final String cacheKey;
+    private final String fileName;
+    private final Path file;
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private volatile Status status = Status.PENDING;
+    private volatile long length;
+    private volatile Date completionDate;
+    private volatile String error;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private Future<?> future;
+
+    public ExportArtifact(String id, String cacheKey, String fileName, Path file) {
+        this.id = id;
+        this.cacheKey = cacheKey;
+        this.fileName = fileName;
+        this.file = file;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the key under which this artifact is shared, null if it belongs to a single job
+     */
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public boolean isCached() {
+        return cacheKey != null;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    void addBytesWritten(long count) {
+        bytesWritten.addAndGet(count);
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    public Date getCompletionDate() {
+        return completionDate == null ? null : (Date) completionDate.clone();
+    }
+
+    void setCompletionDate(Date completionDate) {
+        this.completionDate = completionDate;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    synchronized Future<?> getFuture() {
+        return future;
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+}
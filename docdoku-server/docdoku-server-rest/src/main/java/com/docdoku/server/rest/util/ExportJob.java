@@ -0,0 +1,63 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import java.util.Date;
+
+/**
+ * An export requested by a user. Several jobs may share the same {@link ExportArtifact}.
+ */
+public class ExportJob {
+
+    private final String id;
+    private final String workspaceId;
+    private final String login;
+    private final Date creationDate;
+    private final ExportArtifact artifact;
+
+    public ExportJob(String id, String workspaceId, String login, ExportArtifact artifact) {
+        this.id = id;
+        this.workspaceId = workspaceId;
+        this.login = login;
+        this.artifact = artifact;
+        this.creationDate = new Date();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getWorkspaceId() {
+        return workspaceId;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public Date getCreationDate() {
+        return (Date) creationDate.clone();
+    }
+
+    public ExportArtifact getArtifact() {
+        return artifact;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ContextService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs exports in the background and keeps their artifacts on disk so they can be downloaded later, with range
+ * support, instead of being built inside the HTTP response.
+ * <p>
+ * Exports run on a small dedicated pool with a bounded queue so that they cannot starve interactive requests.
+ * Each task runs with the security context of the user who submitted it. Artifacts of immutable exports are
+ * cached by key and shared by every job asking for the same content, as long as they are downloaded from time to time.
+ */
+@ApplicationScoped
+public class ExportJobManager {
+
+    /**
+     * Writes the content of an export.
+     */
+    @FunctionalInterface
+    public interface ExportTask {
+        void write(OutputStream outputStream) throws Exception;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ExportJobManager.class.getName());
+
+    private static final int MAX_RUNNING_EXPORTS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    private static final int MAX_QUEUED_EXPORTS = 32;
+    private static final long JOB_TTL = TimeUnit.HOURS.toMillis(24);
+    private static final long CACHED_ARTIFACT_TTL = TimeUnit.DAYS.toMillis(7);
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    @Resource
+    private ContextService contextService;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, ExportArtifact> cachedArtifacts = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+    private Path exportFolder;
+
+    @PostConstruct
+    public void init() {
+        exportFolder = Paths.get(System.getProperty("java.io.tmpdir"), "docdoku-exports");
+        try {
+            Files.createDirectories(exportFolder);
+            // Jobs do not survive a restart, neither do their artifacts
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(exportFolder)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot prepare export folder " + exportFolder, e);
+        }
+        executor = new ThreadPoolExecutor(MAX_RUNNING_EXPORTS, MAX_RUNNING_EXPORTS, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(MAX_QUEUED_EXPORTS), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits an export on behalf of a user.
+     *
+     * @param workspaceId the workspace the export belongs to
+     * @param login       the user requesting the export
+     * @param cacheKey    identifies immutable content whose artifact can be shared, null to always run the export
+     * @param fileName    the name of the artifact when downloaded
+     * @param task        writes the export content
+     * @return the new job, possibly already done if a cached artifact was found
+     * @throws RejectedExecutionException if too many exports are queued
+     */
+    public ExportJob submit(String workspaceId, String login, String cacheKey, String fileName, ExportTask task) {
+        purge();
+
+        ExportArtifact artifact;
+        if (cacheKey != null) {
+            artifact = cachedArtifacts.compute(cacheKey, (key, cached) ->
+                    cached != null && isReusable(cached) ? cached : schedule(key, fileName, task));
+        } else {
+            artifact = schedule(null, fileName, task);
+        }
+        artifact.touch();
+
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), workspaceId, login, artifact);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * @return the job, or null if it does not exist or belongs to another user or workspace
+     */
+    public ExportJob getJob(String workspaceId, String login, String jobId) {
+        ExportJob job = jobs.get(jobId);
+        if (job == null || !job.getWorkspaceId().equals(workspaceId) || !job.getLogin().equals(login)) {
+            return null;
+        }
+        job.getArtifact().touch();
+        return job;
+    }
+
+    /**
+     * Removes a job. Its export is cancelled unless the artifact is shared.
+     */
+    public void removeJob(ExportJob job) {
+        jobs.remove(job.getId());
+        ExportArtifact artifact = job.getArtifact();
+        if (!artifact.isCached()) {
+            discard(artifact);
+        }
+    }
+
+    private boolean isReusable(ExportArtifact artifact) {
+        return !artifact.isFinished() || artifact.getStatus() == ExportArtifact.Status.DONE && Files.exists(artifact.getFile());
+    }
+
+    private ExportArtifact schedule(String cacheKey, String fileName, ExportTask task) {
+        String id = UUID.randomUUID().toString();
+        ExportArtifact artifact = new ExportArtifact(id, cacheKey, fileName, exportFolder.resolve(id));
+
+        Callable<Void> callable = () -> {
+            run(artifact, task);
+            return null;
+        };
+        @SuppressWarnings("unchecked")
+        Callable<Void> contextualCallable = contextService.createContextualProxy(callable, Callable.class);
+
+        FutureTask<Void> future = new FutureTask<>(contextualCallable);
+        artifact.setFuture(future);
+        executor.execute(future);
+        return artifact;
+    }
+
+    private void run(ExportArtifact artifact, ExportTask task) {
+        if (artifact.isFinished()) {
+            return;
+        }
+        artifact.setStatus(ExportArtifact.Status.RUNNING);
+        Path partialFile = artifact.getFile().resolveSibling(artifact.getId() + PARTIAL_SUFFIX);
+
+        try {
+            try (OutputStream outputStream = new ProgressOutputStream(Files.newOutputStream(partialFile), artifact)) {
+                task.write(outputStream);
+            }
+            Files.move(partialFile, artifact.getFile(), StandardCopyOption.REPLACE_EXISTING);
+            artifact.setLength(Files.size(artifact.getFile()));
+            artifact.setStatus(ExportArtifact.Status.DONE);
+
+        } catch (Exception e) {
+            boolean cancelled = artifact.getStatus() == ExportArtifact.Status.CANCELLED || Thread.currentThread().isInterrupted();
+            if (cancelled) {
+                LOGGER.log(Level.FINE, "Export " + artifact.getId() + " cancelled", e);
+            } else {
+                LOGGER.log(Level.SEVERE, "Export " + artifact.getId() + " failed", e);
+                artifact.setError(e.getMessage());
+            }
+            artifact.setStatus(cancelled ? ExportArtifact.Status.CANCELLED : ExportArtifact.Status.FAILED);
+            if (artifact.isCached()) {
+                cachedArtifacts.remove(artifact.getCacheKey(), artifact);
+            }
+            deleteQuietly(partialFile);
+
+        } finally {
+            artifact.setCompletionDate(new Date());
+        }
+    }
+
+    private void discard(ExportArtifact artifact) {
+        if (!artifact.isFinished()) {
+            artifact.setStatus(ExportArtifact.Status.CANCELLED);
+        }
+        Future<?> future = artifact.getFuture();
+        if (future != null) {
+            future.cancel(true);
+        }
+        deleteQuietly(artifact.getFile());
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+
+        jobs.values().removeIf(job -> {
+            Date completionDate = job.getArtifact().getCompletionDate();
+            boolean expired = completionDate != null && now - completionDate.getTime() > JOB_TTL;
+            if (expired && !job.getArtifact().isCached()) {
+                discard(job.getArtifact());
+            }
+            return expired;
+        });
+
+        cachedArtifacts.values().removeIf(artifact -> {
+            boolean expired = artifact.isFinished() && now - artifact.getLastAccess() > CACHED_ARTIFACT_TTL;
+            if (expired) {
+                discard(artifact);
+            }
+            return expired;
+        });
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot delete export file " + file, e);
+        }
+    }
+
+    private static class ProgressOutputStream extends FilterOutputStream {
+
+        private final ExportArtifact artifact;
+        private boolean closed;
+
+        ProgressOutputStream(OutputStream outputStream, ExportArtifact artifact) {
+            super(outputStream);
+            this.artifact = artifact;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkCancelled();
+            out.write(b);
+            artifact.addBytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            out.write(b, off, len);
+            artifact.addBytesWritten(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Export writers usually close the stream themselves
+            if (!closed) {
+                closed = true;
+                super.close();
+            }
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted() || artifact.getStatus() == ExportArtifact.Status.CANCELLED) {
+                throw new InterruptedIOException("Export cancelled");
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@
 package com.docdoku.server.rest.util;
 
 import com.docdoku.core.configuration.ProductStructureFilter;
+import com.docdoku.core.configuration.ProductStructureVisitor;
 import com.docdoku.core.exceptions.*;
 import com.docdoku.core.meta.InstanceAttribute;
 import com.docdoku.core.product.*;
@@ -49,60 +50,24 @@ public class InstanceBodyWriterTools {
     private static final Logger LOGGER = Logger.getLogger(InstanceBodyWriterTools.class.getName());
     private static Mapper mapper = DozerBeanMapperSingletonWrapper.getInstance();
 
-    public static void generateInstanceStreamWithGlobalMatrix(IProductManagerLocal productService, List<PartLink> currentPath, Matrix4d matrix, InstanceCollection instanceCollection, List<Integer> instanceIds, JsonGenerator jg) {
+    public static void generateInstanceStream(IProductManagerLocal productService, InstanceCollection instanceCollection, JsonGenerator jg) {
 
         try {
 
-            if (currentPath == null) {
-                PartLink rootPartUsageLink = productService.getRootPartUsageLink(instanceCollection.getCiKey());
-                currentPath = new ArrayList<>();
-                currentPath.add(rootPartUsageLink);
-            }
-
-            Component component = productService.filterProductStructure(instanceCollection.getCiKey(),
-                    instanceCollection.getFilter(), currentPath, 1);
-
-            PartLink partLink = component.getPartLink();
-            PartIteration partI = component.getRetainedIteration();
-
-            // Filter ACL on part
-            if (!productService.canAccess(partI.getPartRevision().getKey())) {
-                return;
-            }
-
-            for (CADInstance instance : partLink.getCadInstances()) {
-
-                List<Integer> copyInstanceIds = new ArrayList<>(instanceIds);
-                copyInstanceIds.add(instance.getId());
-                Vector3d instanceTranslation = new Vector3d(instance.getTx(), instance.getTy(), instance.getTz());
-                Matrix4d combinedMatrix;
-                switch (instance.getRotationType()) {
-                    case ANGLE:
-                        Vector3d instanceRotation = new Vector3d(instance.getRx(), instance.getRy(), instance.getRz());
-                        combinedMatrix = combineTransformation(matrix, instanceTranslation, instanceRotation);
-                        break;
-                    case MATRIX:
-                        Matrix4d rotationMatrix = new Matrix4d(new Matrix3d(instance.getRotationMatrix().getValues()), instanceTranslation, 1);
-                        combinedMatrix = combineTransformation(matrix, rotationMatrix);
-                        break;
-                    default:
-                        LOGGER.log(Level.SEVERE, "Unknown rotation Type, matrix not calculated");
-                        combinedMatrix = matrix;
-                }
+            PartLink rootPartUsageLink = productService.getRootPartUsageLink(instanceCollection.getCiKey());
+            List<PartLink> rootPath = new ArrayList<>();
+            rootPath.add(rootPartUsageLink);
 
+            Matrix4d gM = new Matrix4d();
+            gM.setIdentity();
 
-                if (!partI.isAssembly() && !partI.getGeometries().isEmpty() && instanceCollection.isFiltered(currentPath)) {
-                    writeLeaf(currentPath, copyInstanceIds, partI, combinedMatrix, jg);
-                } else {
-                    for (Component subComponent : component.getComponents()) {
-                        generateInstanceStreamWithGlobalMatrix(productService, subComponent.getPath(), combinedMatrix, instanceCollection, copyInstanceIds, jg);
-                    }
-                }
-            }
+            // Single walk of the structure, leaves are written as soon as they are resolved
+            productService.walkProductStructure(instanceCollection.getCiKey(), instanceCollection.getFilter(), rootPath,
+                    new InstanceStreamVisitor(instanceCollection, rootPath.size(), gM, jg));
 
-        } catch (PartMasterNotFoundException | PartRevisionNotFoundException | PartUsageLinkNotFoundException | UserNotFoundException | WorkspaceNotFoundException | WorkspaceNotEnabledException | ConfigurationItemNotFoundException e) {
+        } catch (PartMasterNotFoundException | UserNotFoundException | WorkspaceNotFoundException | WorkspaceNotEnabledException | ConfigurationItemNotFoundException e) {
             LOGGER.log(Level.SEVERE, null, e);
-        } catch (AccessRightException | EntityConstraintException | NotAllowedException | UserNotActiveException e) {
+        } catch (EntityConstraintException | NotAllowedException | UserNotActiveException e) {
             LOGGER.log(Level.FINEST, null, e);
         }
 
@@ -151,6 +116,21 @@ public class InstanceBodyWriterTools {
 
     }
 
+    private static Matrix4d combineTransformation(Matrix4d matrix, CADInstance instance) {
+        Vector3d instanceTranslation = new Vector3d(instance.getTx(), instance.getTy(), instance.getTz());
+        switch (instance.getRotationType()) {
+            case ANGLE:
+                Vector3d instanceRotation = new Vector3d(instance.getRx(), instance.getRy(), instance.getRz());
+                return combineTransformation(matrix, instanceTranslation, instanceRotation);
+            case MATRIX:
+                Matrix4d rotationMatrix = new Matrix4d(new Matrix3d(instance.getRotationMatrix().getValues()), instanceTranslation, 1);
+                return combineTransformation(matrix, rotationMatrix);
+            default:
+                LOGGER.log(Level.SEVERE, "Unknown rotation Type, matrix not calculated");
+                return matrix;
+        }
+    }
+
     private static Matrix4d combineTransformation(Matrix4d matrix, Vector3d translation, Vector3d rotation) {
         Matrix4d gM = new Matrix4d(matrix);
         Matrix4d m = new Matrix4d();
@@ -246,4 +226,73 @@ public class InstanceBodyWriterTools {
         jg.writeEnd();
     }
 
+    /**
+     * Receives the components of the structure in depth-first order and keeps, for each depth
+     * of the current branch, the placements (instance ids and global matrix) of the component.
+     */
+    private static class InstanceStreamVisitor implements ProductStructureVisitor {
+
+        private final InstanceCollection instanceCollection;
+        private final int rootDepth;
+        private final List<Placement> rootPlacements = new ArrayList<>();
+        private final List<List<Placement>> placementsByDepth = new ArrayList<>();
+        private final JsonGenerator jg;
+
+        InstanceStreamVisitor(InstanceCollection instanceCollection, int rootDepth, Matrix4d matrix, JsonGenerator jg) {
+            this.instanceCollection = instanceCollection;
+            this.rootDepth = rootDepth;
+            this.jg = jg;
+            rootPlacements.add(new Placement(new ArrayList<>(), matrix));
+        }
+
+        @Override
+        public boolean visit(Component component) {
+
+            List<PartLink> currentPath = component.getPath();
+            PartIteration partI = component.getRetainedIteration();
+            int depth = currentPath.size() - rootDepth;
+
+            // Drop the placements of the previous branches
+            while (placementsByDepth.size() > depth) {
+                placementsByDepth.remove(placementsByDepth.size() - 1);
+            }
+
+            List<Placement> parentPlacements = depth == 0 ? rootPlacements : placementsByDepth.get(depth - 1);
+            List<Placement> placements = new ArrayList<>();
+
+            for (Placement parentPlacement : parentPlacements) {
+                for (CADInstance instance : component.getPartLink().getCadInstances()) {
+                    List<Integer> copyInstanceIds = new ArrayList<>(parentPlacement.instanceIds);
+                    copyInstanceIds.add(instance.getId());
+                    placements.add(new Placement(copyInstanceIds, combineTransformation(parentPlacement.matrix, instance)));
+                }
+            }
+
+            if (!partI.isAssembly() && !partI.getGeometries().isEmpty() && instanceCollection.isFiltered(currentPath)) {
+                for (Placement placement : placements) {
+                    writeLeaf(currentPath, placement.instanceIds, partI, placement.matrix, jg);
+                }
+                return false;
+            }
+
+            if (!partI.isAssembly() || !instanceCollection.isOnFilteredPath(currentPath)) {
+                return false;
+            }
+
+            placementsByDepth.add(placements);
+            return true;
+        }
+    }
+
+    private static class Placement {
+
+        private final List<Integer> instanceIds;
+        private final Matrix4d matrix;
+
+        Placement(List<Integer> instanceIds, Matrix4d matrix) {
+            this.instanceIds = instanceIds;
+            this.matrix = matrix;
+        }
+    }
+
 }
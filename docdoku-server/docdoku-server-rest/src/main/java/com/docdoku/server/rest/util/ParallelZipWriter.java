@@ -0,0 +1,544 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Zip archive writer which prepares entries on an executor and streams them in submission order.
+ * <p>
+ * Workers compute the CRC and deflate each entry into a spool (memory for small entries, a temporary
+ * file otherwise), so the calling thread only copies bytes to the output stream. Entries whose name denotes
+ * an already compressed format, or which do not shrink when deflated, are written as STORED and streamed
+ * straight from their source. Entries sharing a content key are prepared only once while they are pending,
+ * and the outcome is remembered for the rest of the archive when it is cheap to keep: stored content (CRC and size
+ * only) and, within a memory budget, small deflated entries.
+ * <p>
+ * The archive switches to ZIP64 records when sizes, offsets or the entry count require it.
+ * Instances are not thread safe: entries must be added from a single thread.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    /**
+     * Opens the content of an entry. May be called more than once for the same entry.
+     */
+    @FunctionalInterface
+    public interface EntrySource {
+        InputStream open() throws IOException;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelZipWriter.class.getName());
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "avi", "mov", "webm", "ogg",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar", "pdf",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "3dxml", "glb", "kmz"));
+
+    private static final int SPOOL_IN_MEMORY_THRESHOLD = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long RETAINED_BYTES_LIMIT = 64L * 1024 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private final OutputStream out;
+    private final ExecutorService executorService;
+    private final int parallelism;
+
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+    private final Map<String, Preparation> preparations = new HashMap<>();
+    private final Map<String, Payload> retainedPayloads = new HashMap<>();
+    private final Set<String> entryNames = new HashSet<>();
+    private final List<CentralEntry> centralEntries = new ArrayList<>();
+
+    private long written;
+    private long retainedBytes;
+    private boolean closed;
+
+    public ParallelZipWriter(OutputStream outputStream, ExecutorService executorService, int parallelism) {
+        this.out = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+        this.executorService = executorService;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Queues an entry. Entries are written in the order they are added; an entry whose name was already
+     * added is ignored. Ready entries are flushed to the output stream before returning, and the call
+     * blocks when too many entries are being prepared.
+     *
+     * @param name         the entry path inside the archive
+     * @param time         the last modification time, in milliseconds
+     * @param contentKey   identifies the content, entries with the same key are prepared once
+     * @param lengthHint   the expected content length, or -1 if unknown
+     * @param source       opens the entry content
+     * @return false if the entry was ignored as a duplicate
+     */
+    public boolean addEntry(String name, long time, String contentKey, long lengthHint, EntrySource source) throws IOException {
+        if (closed) {
+            throw new IOException("Zip writer is closed");
+        }
+        if (!entryNames.add(name)) {
+            return false;
+        }
+
+        String key = contentKey != null ? contentKey : name;
+        Preparation preparation;
+        Payload retained = retainedPayloads.get(key);
+
+        if (retained != null) {
+            preparation = new Preparation(key, CompletableFuture.completedFuture(retained));
+        } else {
+            preparation = preparations.get(key);
+            if (preparation == null) {
+                boolean compressed = isCompressedFormat(name);
+                preparation = new Preparation(key, executorService.submit(() -> prepare(source, compressed, lengthHint)));
+                preparations.put(key, preparation);
+            }
+        }
+
+        preparation.references++;
+        pendingEntries.add(new PendingEntry(name, time, source, preparation));
+
+        writeReadyEntries(parallelism * 2);
+        return true;
+    }
+
+    /**
+     * Writes every pending entry and the central directory, then closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeReadyEntries(0);
+            writeCentralDirectory();
+            out.flush();
+        } finally {
+            closed = true;
+            // Only reached with pending entries when writing failed: wait for in-flight preparations to drop their spools
+            for (PendingEntry pendingEntry : pendingEntries) {
+                discard(pendingEntry.preparation);
+            }
+            pendingEntries.clear();
+            out.close();
+        }
+    }
+
+    static boolean isCompressedFormat(String name) {
+        int slash = name.lastIndexOf('/');
+        int dot = name.lastIndexOf('.');
+        if (dot <= slash + 1 || dot == name.length() - 1) {
+            return false;
+        }
+        return COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    private void writeReadyEntries(int maxPending) throws IOException {
+        while (!pendingEntries.isEmpty()) {
+            PendingEntry head = pendingEntries.peek();
+            if (pendingEntries.size() <= maxPending && !head.preparation.future.isDone()) {
+                return;
+            }
+            pendingEntries.poll();
+            try {
+                writeEntry(head, head.preparation.future.get());
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.SEVERE, "Cannot add " + head.name + " to zip", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while preparing " + head.name, e);
+            } finally {
+                release(head.preparation);
+            }
+        }
+    }
+
+    private void release(Preparation preparation) {
+        if (--preparation.references > 0) {
+            return;
+        }
+        if (preparations.get(preparation.key) == preparation) {
+            preparations.remove(preparation.key);
+        }
+        if (preparation.future.isDone()) {
+            try {
+                Payload payload = preparation.future.get();
+                if (retainedPayloads.get(preparation.key) == payload) {
+                    return;
+                }
+                if (payload.file == null && retainedBytes + payload.retainedSize() <= RETAINED_BYTES_LIMIT) {
+                    retainedBytes += payload.retainedSize();
+                    retainedPayloads.put(preparation.key, payload);
+                } else {
+                    payload.dispose();
+                }
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINEST, null, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void discard(Preparation preparation) {
+        if (--preparation.references > 0) {
+            return;
+        }
+        try {
+            preparation.future.get().dispose();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINEST, null, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Payload prepare(EntrySource source, boolean compressed, long lengthHint) throws IOException {
+        if (compressed) {
+            return checksum(source);
+        }
+
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        boolean spoolToFile = lengthHint > SPOOL_IN_MEMORY_THRESHOLD;
+        Path spoolFile = spoolToFile ? Files.createTempFile("zip-entry", ".tmp") : null;
+        ByteArrayOutputStream spoolBuffer = spoolToFile ? null : new ByteArrayOutputStream();
+        long size = 0;
+        boolean done = false;
+
+        try {
+            try (InputStream in = source.open();
+                 OutputStream spool = spoolToFile ? Files.newOutputStream(spoolFile) : spoolBuffer;
+                 DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(spool, deflater, BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, length);
+                    deflaterOutputStream.write(buffer, 0, length);
+                    size += length;
+                }
+                deflaterOutputStream.finish();
+            }
+
+            long compressedSize = deflater.getBytesWritten();
+            if (compressedSize >= size) {
+                return new Payload(STORED, crc.getValue(), size, size, null, null);
+            }
+
+            done = true;
+            return new Payload(DEFLATED, crc.getValue(), size, compressedSize,
+                    spoolToFile ? null : spoolBuffer.toByteArray(), spoolFile);
+
+        } finally {
+            deflater.end();
+            if (!done && spoolFile != null) {
+                Files.deleteIfExists(spoolFile);
+            }
+        }
+    }
+
+    private static Payload checksum(EntrySource source) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = source.open()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, length);
+                size += length;
+            }
+        }
+        return new Payload(STORED, crc.getValue(), size, size, null, null);
+    }
+
+    private void writeEntry(PendingEntry entry, Payload payload) throws IOException {
+        // Open the source before writing the header so that an unreadable entry can still be skipped
+        InputStream data;
+        try {
+            data = payload.method == STORED ? entry.source.open() : payload.openData();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Cannot add " + entry.name + " to zip", e);
+            return;
+        }
+
+        try (InputStream in = data) {
+            byte[] nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+            boolean zip64 = payload.size >= ZIP64_MAGIC || payload.compressedSize >= ZIP64_MAGIC;
+            CentralEntry centralEntry = new CentralEntry(nameBytes, payload, toDosTime(entry.time), written);
+
+            writeInt(LOCAL_HEADER_SIGNATURE);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(UTF8_FLAG);
+            writeShort(payload.method);
+            writeInt(centralEntry.dosTime);
+            writeInt(payload.crc);
+            writeInt(zip64 ? ZIP64_MAGIC : payload.compressedSize);
+            writeInt(zip64 ? ZIP64_MAGIC : payload.size);
+            writeShort(nameBytes.length);
+            writeShort(zip64 ? 20 : 0);
+            writeBytes(nameBytes, 0, nameBytes.length);
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(16);
+                writeLong(payload.size);
+                writeLong(payload.compressedSize);
+            }
+
+            long copied = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                writeBytes(buffer, 0, length);
+                copied += length;
+            }
+            if (copied != payload.compressedSize) {
+                throw new IOException("Content of " + entry.name + " changed while writing zip");
+            }
+
+            centralEntries.add(centralEntry);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = written;
+
+        for (CentralEntry entry : centralEntries) {
+            Payload payload = entry.payload;
+            boolean sizeZip64 = payload.size >= ZIP64_MAGIC || payload.compressedSize >= ZIP64_MAGIC;
+            boolean offsetZip64 = entry.offset >= ZIP64_MAGIC;
+            int extraLength = (sizeZip64 ? 16 : 0) + (offsetZip64 ? 8 : 0);
+
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(VERSION_ZIP64);
+            writeShort(extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(UTF8_FLAG);
+            writeShort(payload.method);
+            writeInt(entry.dosTime);
+            writeInt(payload.crc);
+            writeInt(sizeZip64 ? ZIP64_MAGIC : payload.compressedSize);
+            writeInt(sizeZip64 ? ZIP64_MAGIC : payload.size);
+            writeShort(entry.name.length);
+            writeShort(extraLength > 0 ? extraLength + 4 : 0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(offsetZip64 ? ZIP64_MAGIC : entry.offset);
+            writeBytes(entry.name, 0, entry.name.length);
+            if (extraLength > 0) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(extraLength);
+                if (sizeZip64) {
+                    writeLong(payload.size);
+                    writeLong(payload.compressedSize);
+                }
+                if (offsetZip64) {
+                    writeLong(entry.offset);
+                }
+            }
+        }
+
+        long centralDirectorySize = written - centralDirectoryOffset;
+        int count = centralEntries.size();
+
+        if (count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC) {
+            long zip64EndOffset = written;
+            writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeLong(44);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralDirectorySize);
+            writeLong(centralDirectoryOffset);
+
+            writeInt(ZIP64_LOCATOR_SIGNATURE);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+
+        writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(centralDirectorySize, ZIP64_MAGIC));
+        writeInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        writeShort(0);
+    }
+
+    private static long toDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (date.getYear() - 1980) << 25)
+                | ((long) date.getMonthValue() << 21)
+                | ((long) date.getDayOfMonth() << 16)
+                | ((long) date.getHour() << 11)
+                | ((long) date.getMinute() << 5)
+                | ((long) date.getSecond() >> 1);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & 0xFFFFFFFFL);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    private static final class Payload {
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final byte[] data;
+        private final Path file;
+
+        private Payload(int method, long crc, long size, long compressedSize, byte[] data, Path file) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+            this.file = file;
+        }
+
+        private long retainedSize() {
+            return data != null ? data.length : 0;
+        }
+
+        private InputStream openData() throws IOException {
+            return file != null ? Files.newInputStream(file) : new ByteArrayInputStream(data);
+        }
+
+        private void dispose() {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot delete zip spool file " + file, e);
+                }
+            }
+        }
+    }
+
+    private static final class Preparation {
+        private final String key;
+        private final Future<Payload> future;
+        private int references;
+
+        private Preparation(String key, Future<Payload> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+
+    private static final class PendingEntry {
+        private final String name;
+        private final long time;
+        private final EntrySource source;
+        private final Preparation preparation;
+
+        private PendingEntry(String name, long time, EntrySource source, Preparation preparation) {
+            this.name = name;
+            this.time = time;
+            this.source = source;
+            this.preparation = preparation;
+        }
+    }
+
+    private static final class CentralEntry {
+        private final byte[] name;
+        private final Payload payload;
+        private final long dosTime;
+        private final long offset;
+
+        private CentralEntry(byte[] name, Payload payload, long dosTime, long offset) {
+            this.name = name;
+            this.payload = payload;
+            this.dosTime = dosTime;
+            this.offset = offset;
+        }
+    }
+}
@@ -26,7 +26,6 @@ import com.docdoku.server.rest.util.InstanceBodyWriterTools;
 import javax.inject.Inject;
 import javax.json.Json;
 import javax.json.stream.JsonGenerator;
-import javax.vecmath.Matrix4d;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
@@ -37,7 +36,6 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
 
 /**
  * @author Florent Garin
@@ -65,9 +63,7 @@ public class InstanceCollectionMessageBodyWriter implements MessageBodyWriter<In
         JsonGenerator jg = Json.createGenerator(new OutputStreamWriter(entityStream, charSet));
         jg.writeStartArray();
 
-        Matrix4d gM = new Matrix4d();
-        gM.setIdentity();
-        InstanceBodyWriterTools.generateInstanceStreamWithGlobalMatrix(productService, null, gM, instanceCollection, new ArrayList<>(), jg);
+        InstanceBodyWriterTools.generateInstanceStream(productService, instanceCollection, jg);
         jg.writeEnd();
         jg.flush();
     }
@@ -29,9 +29,11 @@ import com.docdoku.core.product.ConfigurationItemKey;
 import com.docdoku.core.services.IBinaryStorageManagerLocal;
 import com.docdoku.core.services.IProductInstanceManagerLocal;
 import com.docdoku.core.services.IProductManagerLocal;
+import com.docdoku.server.rest.util.ParallelZipWriter;
 import com.docdoku.server.rest.util.ProductFileExport;
-import com.docdoku.server.rest.util.FileExportTools;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
@@ -39,28 +41,39 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipOutputStream;
 
+/**
+ * Streams the files of a product structure as a zip archive.
+ * <p>
+ * The structure is walked on a managed thread while the request thread writes the archive, so the first
+ * entries are sent before the walk completes. Entries are prepared in parallel by {@link ParallelZipWriter},
+ * which stores already compressed formats and prepares binaries shared by several parts only once.
+ */
 @Provider
 public class ProductFileExportMessageBodyWriter implements MessageBodyWriter<ProductFileExport> {
 
     private static final Logger LOGGER = Logger.getLogger(ProductFileExportMessageBodyWriter.class.getName());
+    private static final TreeEntry END_OF_TREE = new TreeEntry(null, null);
+
     @Inject
     private IBinaryStorageManagerLocal storageManager;
     @Inject
     private IProductManagerLocal productService;
     @Inject
     private IProductInstanceManagerLocal productInstanceService;
+    @Resource
+    private ManagedExecutorService executorService;
 
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
@@ -75,12 +88,21 @@ public class ProductFileExportMessageBodyWriter implements MessageBodyWriter<Pro
     @Override
     public void writeTo(ProductFileExport productFileExport, Class<?> aClass, Type type, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> multivaluedMap, OutputStream outputStream) throws IOException, WebApplicationException {
 
-        ZipOutputStream zs = new ZipOutputStream(outputStream);
+        BlockingQueue<TreeEntry> treeEntries = new LinkedBlockingQueue<>();
+        Future<Void> walk = null;
 
-        try {
+        try (ParallelZipWriter zipWriter = new ParallelZipWriter(outputStream, executorService, Runtime.getRuntime().availableProcessors())) {
+
+            walk = executorService.submit(() -> {
+                try {
+                    productService.walkBinariesInTree(productFileExport.getBaselineId(), productFileExport.getConfigurationItemKey().getWorkspace(), productFileExport.getConfigurationItemKey(), productFileExport.getPsFilter(), productFileExport.isExportNativeCADFile(), productFileExport.isExportDocumentLinks(),
+                            (folderName, binaryResource) -> treeEntries.add(new TreeEntry(folderName, binaryResource)));
+                } finally {
+                    treeEntries.add(END_OF_TREE);
+                }
+                return null;
+            });
 
-            Map<String, Set<BinaryResource>> binariesInTree = productService.getBinariesInTree(productFileExport.getBaselineId(), productFileExport.getConfigurationItemKey().getWorkspace(), productFileExport.getConfigurationItemKey(), productFileExport.getPsFilter(), productFileExport.isExportNativeCADFile(), productFileExport.isExportDocumentLinks());
-            Set<Map.Entry<String, Set<BinaryResource>>> entries = binariesInTree.entrySet();
             List<String> baselinedSourcesName = new ArrayList<>();
 
             if (productFileExport.isExportDocumentLinks() && productFileExport.getBaselineId() != null) {
@@ -90,50 +112,51 @@ public class ProductFileExportMessageBodyWriter implements MessageBodyWriter<Pro
                     String[] parts = binaryResource.getFullName().split("/");
                     String folderName = parts[2] + "-" + parts[3] + "-" + parts[4];
                     baselinedSourcesName.add(folderName);
-                    addToZipFile(binaryResource, "links/" + folderName, zs);
+                    addToZipFile(binaryResource, "links/" + folderName, zipWriter);
                 }
             }
 
-            for (Map.Entry<String, Set<BinaryResource>> entry : entries) {
-                String partNumberFolderName = entry.getKey();
-
-                Set<BinaryResource> files = entry.getValue();
-
-                for (BinaryResource binaryResource : files) {
-                    addToZip(binaryResource, partNumberFolderName, zs);
-                }
+            for (TreeEntry entry = treeEntries.take(); entry != END_OF_TREE; entry = treeEntries.take()) {
+                addToZip(entry.binaryResource, entry.folderName, zipWriter);
             }
 
+            walk.get();
+
             if (productFileExport.getSerialNumber() != null) {
-                addProductInstanceDataToZip(zs, productFileExport.getConfigurationItemKey(), productFileExport.getSerialNumber(), baselinedSourcesName);
+                addProductInstanceDataToZip(zipWriter, productFileExport.getConfigurationItemKey(), productFileExport.getSerialNumber(), baselinedSourcesName);
             }
 
-        } catch (UserNotFoundException | UserNotActiveException | WorkspaceNotFoundException | ConfigurationItemNotFoundException |
-                NotAllowedException | EntityConstraintException | PartMasterNotFoundException | ProductInstanceMasterNotFoundException |
-                StorageException | WorkspaceNotEnabledException e) {
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            LOGGER.log(Level.FINEST, null, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (UserNotFoundException | UserNotActiveException | WorkspaceNotFoundException | ProductInstanceMasterNotFoundException |
+                WorkspaceNotEnabledException e) {
             LOGGER.log(Level.FINEST, null, e);
+        } finally {
+            if (walk != null) {
+                walk.cancel(true);
+            }
         }
 
-        zs.close();
-
     }
 
-    private void addToZip(BinaryResource binaryResource, String partNumberFolderName, ZipOutputStream zs) {
-        try {
-            String fileType = binaryResource.getFileType();
-            String folderName = partNumberFolderName + (fileType == null ? "" : "/" + fileType);
-            addToZipFile(binaryResource, folderName, zs);
-        } catch (IOException | StorageException e) {
-            LOGGER.log(Level.SEVERE, "Something went wrong while adding file to zip", e);
-        }
+    private void addToZip(BinaryResource binaryResource, String partNumberFolderName, ParallelZipWriter zipWriter) throws IOException {
+        String fileType = binaryResource.getFileType();
+        String folderName = partNumberFolderName + (fileType == null ? "" : "/" + fileType);
+        addToZipFile(binaryResource, folderName, zipWriter);
     }
 
-    private void addProductInstanceDataToZip(ZipOutputStream zs, ConfigurationItemKey configurationItemKey, String serialNumber, List<String> baselinedSourcesName) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, ProductInstanceMasterNotFoundException, IOException, StorageException, WorkspaceNotEnabledException {
+    private void addProductInstanceDataToZip(ParallelZipWriter zipWriter, ConfigurationItemKey configurationItemKey, String serialNumber, List<String> baselinedSourcesName) throws UserNotFoundException, WorkspaceNotFoundException, UserNotActiveException, ProductInstanceMasterNotFoundException, IOException, WorkspaceNotEnabledException {
         ProductInstanceMaster productInstanceMaster = productInstanceService.getProductInstanceMaster(new ProductInstanceMasterKey(serialNumber, configurationItemKey));
         ProductInstanceIteration lastIteration = productInstanceMaster.getLastIteration();
 
         for (BinaryResource attachedFile : lastIteration.getAttachedFiles()) {
-            addToZipFile(attachedFile, "attachedfiles", zs);
+            addToZipFile(attachedFile, "attachedfiles", zipWriter);
         }
 
         for (DocumentLink docLink : lastIteration.getLinkedDocuments()) {
@@ -141,16 +164,33 @@ public class ProductFileExportMessageBodyWriter implements MessageBodyWriter<Pro
                 String folderName = docLink.getTargetDocument().getLastIteration().toString();
 
                 if (!baselinedSourcesName.contains(folderName)) {
-                    addToZipFile(linkedFile, "links/" + folderName, zs);
+                    addToZipFile(linkedFile, "links/" + folderName, zipWriter);
                 }
             }
         }
     }
 
-    public void addToZipFile(BinaryResource binaryResource, String folderName, ZipOutputStream zos) throws IOException, StorageException {
+    public void addToZipFile(BinaryResource binaryResource, String folderName, ParallelZipWriter zipWriter) throws IOException {
+        // Binaries with the same content hash (or the same vault file) are read and compressed once
+        String contentKey = binaryResource.getContentHash() != null ? binaryResource.getContentHash() : binaryResource.getFullName();
+        long lastModified = binaryResource.getLastModified() != null ? binaryResource.getLastModified().getTime() : System.currentTimeMillis();
+
+        zipWriter.addEntry(folderName + "/" + binaryResource.getName(), lastModified, contentKey, binaryResource.getContentLength(), () -> {
+            try {
+                return storageManager.getBinaryResourceInputStream(binaryResource);
+            } catch (StorageException e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
+    private static class TreeEntry {
+        private final String folderName;
+        private final BinaryResource binaryResource;
 
-        try (InputStream binaryResourceInputStream = storageManager.getBinaryResourceInputStream(binaryResource)) {
-            FileExportTools.addToZipFile(binaryResourceInputStream, binaryResource.getName(), folderName, zos);
+        TreeEntry(String folderName, BinaryResource binaryResource) {
+            this.folderName = folderName;
+            this.binaryResource = binaryResource;
         }
     }
 
@@ -39,6 +39,7 @@ import com.docdoku.core.services.IProductInstanceManagerLocal;
 import com.docdoku.core.util.DateUtils;
 import com.docdoku.core.util.Tools;
 import com.docdoku.server.export.ExcelGenerator;
+import com.docdoku.server.export.QueryResultRowWriter;
 import com.docdoku.server.rest.collections.QueryResult;
 import com.docdoku.server.rest.dto.InstanceAttributeDTO;
 import org.dozer.DozerBeanMapperSingletonWrapper;
@@ -100,15 +101,29 @@ public class QueryResultMessageBodyWriter implements MessageBodyWriter<QueryResu
             httpHeaders.putSingle("Content-Disposition", "inline");
             generateJSONResponse(outputStream, queryResult);
         } else if (queryResult.getExportType().equals(QueryResult.ExportType.XLS)) {
-            httpHeaders.putSingle("Content-Type", "application/octet-stream");
-            httpHeaders.putSingle("Content-Disposition", "attachment; filename=\"TSR.csv\"");
-            excelGenerator.generateXLSResponse(queryResult, new Locale(queryResult.getQuery().getAuthor().getLanguage()), "");
+            httpHeaders.putSingle("Content-Type", ExcelGenerator.XLSX_MEDIA_TYPE);
+            httpHeaders.putSingle("Content-Disposition", "attachment; filename=\"export_parts.xlsx\"");
+            generateSpreadsheetResponse(outputStream, queryResult);
+        } else if (queryResult.getExportType().equals(QueryResult.ExportType.CSV)) {
+            httpHeaders.putSingle("Content-Type", "text/csv; charset=UTF-8");
+            httpHeaders.putSingle("Content-Disposition", "attachment; filename=\"export_parts.csv\"");
+            generateSpreadsheetResponse(outputStream, queryResult);
         } else {
             throw new IllegalArgumentException();
         }
 
     }
 
+    private void generateSpreadsheetResponse(OutputStream outputStream, QueryResult queryResult) throws IOException {
+        Locale locale = new Locale(queryResult.getQuery().getAuthor().getLanguage());
+        try (QueryResultRowWriter rowWriter = excelGenerator.createWriter(queryResult.getExportType(), queryResult.getQuery(), locale, "", outputStream)) {
+            for (QueryResultRow row : queryResult.getRows()) {
+                rowWriter.write(row);
+            }
+            rowWriter.finish();
+        }
+    }
+
     private void generateJSONResponse(OutputStream outputStream, QueryResult queryResult) throws UnsupportedEncodingException {
 
         String charSet = "UTF-8";
@@ -0,0 +1,43 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server.ws;
+
+/**
+ * A web socket module whose messages are addressed to rooms.
+ * <p>
+ * A room lives on the node it was created on. Messages for a room held by another node are
+ * forwarded to every node through the {@link com.docdoku.server.ws.bus.WebSocketMessageBus}, and
+ * processed by the one holding the room, its members being reached by their {@link SessionAddress}.
+ */
+public interface RoomWebSocketModule extends WebSocketModule {
+
+    /**
+     * @return true if the room the message is addressed to is held by this node, or is created by the message
+     */
+    boolean holdsRoom(WebSocketMessage webSocketMessage);
+
+    /**
+     * Process a message sent from a session of this node or, through the bus, of another node.
+     * Only called when this node {@link #holdsRoom holds the room}.
+     */
+    void process(SessionAddress sender, WebSocketMessage webSocketMessage);
+}
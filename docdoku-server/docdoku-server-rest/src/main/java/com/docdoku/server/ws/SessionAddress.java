@@ -0,0 +1,78 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server.ws;
+
+import java.io.Serializable;
+
+/**
+ * Address of a web socket session opened on any node: the node holding it, its id on that node
+ * and the user it belongs to. Rooms keep their members as addresses, so that a member connected
+ * to another node can be reached through the {@link com.docdoku.server.ws.bus.WebSocketMessageBus}.
+ */
+public class SessionAddress implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String nodeId;
+    private final String sessionId;
+    private final String login;
+
+    public SessionAddress(String nodeId, String sessionId, String login) {
+        this.nodeId = nodeId;
+        this.sessionId = sessionId;
+        this.login = login;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    @Override
+    public boolean equals(Object pObj) {
+        if (this == pObj) {
+            return true;
+        }
+        if (!(pObj instanceof SessionAddress)) {
+            return false;
+        }
+        SessionAddress address = (SessionAddress) pObj;
+        return address.nodeId.equals(nodeId) && address.sessionId.equals(sessionId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * nodeId.hashCode() + sessionId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return login + "@" + nodeId + "/" + sessionId;
+    }
+}
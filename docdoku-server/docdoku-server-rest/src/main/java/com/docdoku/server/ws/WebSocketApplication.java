@@ -31,8 +31,6 @@ import javax.inject.Inject;
 import javax.websocket.*;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -64,8 +62,6 @@ public class WebSocketApplication {
     @Inject
     private WebSocketSessionsManager webSocketSessionsManager;
 
-    private List<Session> unAuthenticatedSessions = new ArrayList<>();
-
     private static final String AUTH = "AUTH";
 
     @Inject
@@ -87,12 +83,12 @@ public class WebSocketApplication {
 
     @OnOpen
     public void open(Session session) {
-        unAuthenticatedSessions.add(session);
+        webSocketSessionsManager.addUnauthenticatedSession(session);
     }
 
     @OnMessage
     public void message(Session session, WebSocketMessage message) {
-        if(unAuthenticatedSessions.contains(session)){
+        if(!webSocketSessionsManager.isAuthenticated(session)){
             authenticateOrClose(session,message);
             return;
         }
@@ -123,7 +119,6 @@ public class WebSocketApplication {
             if(null != userGroupMapping){
                 String login = userGroupMapping.getLogin();
                 if (login != null) {
-                    unAuthenticatedSessions.remove(session);
                     webSocketSessionsManager.addSession(login, session);
                     return;
                 }
@@ -154,11 +149,7 @@ public class WebSocketApplication {
     }
 
     private void unTrackSession(Session session) {
-        if(unAuthenticatedSessions.contains(session)){
-            unAuthenticatedSessions.remove(session);
-        }else {
-            webSocketSessionsManager.removeSession(session);
-        }
+        webSocketSessionsManager.removeSession(session);
     }
 
 
@@ -21,18 +21,33 @@
 package com.docdoku.server.ws;
 
 import com.docdoku.core.services.IUserManagerLocal;
+import com.docdoku.server.ws.bus.WebSocketBusMessage;
+import com.docdoku.server.ws.bus.WebSocketMessageBus;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import javax.json.Json;
 import javax.websocket.Session;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * The aim of this class is to maintain active sockets
+ * <p>
+ * Sessions are indexed both ways, by user and by session, so that connections and disconnections
+ * do not depend on the number of connected users. Users connected to other nodes are reached through
+ * the {@link WebSocketMessageBus}: each node announces the users it holds, and messages for a user
+ * are forwarded to the nodes holding them. Rooms go the same way: messages for a room held by another
+ * node are forwarded to it, and members connected to other nodes are reached by their {@link SessionAddress}.
  *
  * @author Morgan Guimard
  * */
@@ -42,63 +57,163 @@ public class WebSocketSessionsManager {
     @Inject
     private IUserManagerLocal userManager;
 
+    @Inject
+    private WebSocketMessageBus messageBus;
+
+    @Inject
+    @Any
+    private Instance<WebSocketModule> webSocketModules;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * Users WebSockets map, store the sessions opened on this node for each user
+     */
+    private final ConcurrentMap<String, Set<Session>> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Reverse index, the user holding each session
+     */
+    private final ConcurrentMap<Session, String> holders = new ConcurrentHashMap<>();
+
     /**
-     * Users WebSockets map, store a list af sessions for each user
+     * Authenticated sessions by id, for messages addressed to a single session from another node
      */
-    private static final ConcurrentMap<String, List<Session>> CHANNELS = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Session> sessionsById = new ConcurrentHashMap<>();
+
+    /**
+     * Sessions opened but not authenticated yet
+     */
+    private final Set<Session> unauthenticatedSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Users connected to other nodes, with the nodes they are connected to
+     */
+    private final ConcurrentMap<String, Set<String>> remoteUsers = new ConcurrentHashMap<>();
+
+    public WebSocketSessionsManager() {
+    }
+
+    WebSocketSessionsManager(IUserManagerLocal userManager, WebSocketMessageBus messageBus) {
+        this(userManager, messageBus, null);
+    }
 
+    WebSocketSessionsManager(IUserManagerLocal userManager, WebSocketMessageBus messageBus, Instance<WebSocketModule> webSocketModules) {
+        this.userManager = userManager;
+        this.messageBus = messageBus;
+        this.webSocketModules = webSocketModules;
+    }
+
+    @PostConstruct
+    public void init() {
+        messageBus.subscribe(nodeId, this::onBusMessage);
+        messageBus.publish(WebSocketBusMessage.presenceRequest(nodeId));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (String login : channels.keySet()) {
+            messageBus.publish(WebSocketBusMessage.presence(nodeId, login, false));
+        }
+        messageBus.unsubscribe(nodeId);
+    }
+
+    public void addUnauthenticatedSession(Session session) {
+        unauthenticatedSessions.add(session);
+    }
+
+    public boolean isAuthenticated(Session session) {
+        return holders.containsKey(session);
+    }
+
+    /**
+     * @return true if the user has sessions on this node or on another one
+     */
     public boolean hasSessions(String login) {
-        List<Session> sessions = getSessions(login);
-        return sessions != null && !sessions.isEmpty();
+        return hasLocalSessions(login) || remoteUsers.containsKey(login);
     }
 
-    public List<Session> getSessions(String userLogin) {
-        return CHANNELS.get(userLogin);
+    public boolean hasLocalSessions(String login) {
+        return channels.containsKey(login);
     }
 
-    public String getHolder(Session session){
-        return CHANNELS.entrySet().stream().
-                filter(stringListEntry -> stringListEntry.getValue().contains(session))
-                .map(Map.Entry::getKey)
-                .findFirst()
-                .orElse(null);
+    /**
+     * @return the sessions of the user opened on this node
+     */
+    public Set<Session> getSessions(String userLogin) {
+        Set<Session> sessions = channels.get(userLogin);
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
     }
 
-    public void removeSession(Session session) {
+    public String getHolder(Session session) {
+        return holders.get(session);
+    }
 
-        String login = getHolder(session);
+    public String getNodeId() {
+        return nodeId;
+    }
 
-        if(null != login){
-            List<Session> sessions = getSessions(login);
-            if(null != sessions){
-                sessions.remove(session);
-                if(sessions.isEmpty()){
-                    CHANNELS.remove(login);
-                }
-            }
+    public SessionAddress getAddress(Session session) {
+        return new SessionAddress(nodeId, session.getId(), holders.get(session));
+    }
+
+    public void removeSession(Session session) {
+        unauthenticatedSessions.remove(session);
+
+        String login = holders.remove(session);
+        if (null == login) {
+            return;
         }
+        sessionsById.remove(session.getId(), session);
+
+        boolean[] lastSession = {false};
+        channels.computeIfPresent(login, (key, sessions) -> {
+            sessions.remove(session);
+            lastSession[0] = sessions.isEmpty();
+            return lastSession[0] ? null : sessions;
+        });
 
+        if (lastSession[0]) {
+            messageBus.publish(WebSocketBusMessage.presence(nodeId, login, false));
+        }
     }
 
     public void addSession(String login, Session session) {
-        List<Session> sessions = getSessions(login);
-        if(null == sessions){
-            sessions = new ArrayList<>();
-            CHANNELS.put(login,sessions);
+        unauthenticatedSessions.remove(session);
+        holders.put(session, login);
+        sessionsById.put(session.getId(), session);
+
+        boolean[] firstSession = {false};
+        channels.compute(login, (key, sessions) -> {
+            Set<Session> userSessions = sessions;
+            if (null == userSessions) {
+                userSessions = ConcurrentHashMap.newKeySet();
+                firstSession[0] = true;
+            }
+            userSessions.add(session);
+            return userSessions;
+        });
+
+        if (firstSession[0]) {
+            messageBus.publish(WebSocketBusMessage.presence(nodeId, login, true));
         }
-        sessions.add(session);
     }
 
     public boolean isAllowedToReachUser(String sender, String remoteUser){
         return userManager.hasCommonWorkspace(sender,remoteUser);
     }
 
+    /**
+     * Sends the message to every session of the user, on this node and on the other ones
+     */
     public void broadcast(String userLogin, WebSocketMessage webSocketMessage){
-        List<Session> sessions = getSessions(userLogin);
-        send(sessions,webSocketMessage);
+        send(getSessions(userLogin), webSocketMessage);
+        if (remoteUsers.containsKey(userLogin)) {
+            messageBus.publish(WebSocketBusMessage.userMessage(nodeId, userLogin, webSocketMessage.getObject().toString()));
+        }
     }
 
-    public void send(List<Session> sessions, WebSocketMessage webSocketMessage){
+    public void send(Collection<Session> sessions, WebSocketMessage webSocketMessage){
         for(Session session : sessions){
             send(session,webSocketMessage);
         }
@@ -109,4 +224,88 @@ public class WebSocketSessionsManager {
             session.getAsyncRemote().sendObject(webSocketMessage);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sends the message to a single session, opened on this node or on another one
+     */
+    public void send(SessionAddress address, WebSocketMessage webSocketMessage) {
+        if (address == null) {
+            return;
+        }
+        if (nodeId.equals(address.getNodeId())) {
+            send(sessionsById.get(address.getSessionId()), webSocketMessage);
+        } else {
+            messageBus.publish(WebSocketBusMessage.sessionMessage(nodeId, address.getNodeId(), address.getSessionId(), webSocketMessage.getObject().toString()));
+        }
+    }
+
+    /**
+     * Processes a room message sent from a session of this node, here if this node holds the room,
+     * on the node holding it otherwise
+     */
+    public void process(RoomWebSocketModule module, Session session, WebSocketMessage webSocketMessage) {
+        SessionAddress sender = getAddress(session);
+        if (module.holdsRoom(webSocketMessage)) {
+            module.process(sender, webSocketMessage);
+        } else {
+            messageBus.publish(WebSocketBusMessage.roomMessage(nodeId, sender.getLogin(), sender.getSessionId(), webSocketMessage.getObject().toString()));
+        }
+    }
+
+    private void onBusMessage(WebSocketBusMessage busMessage) {
+        switch (busMessage.getKind()) {
+            case USER_MESSAGE:
+                WebSocketMessage webSocketMessage = new WebSocketMessage(Json.createReader(new StringReader(busMessage.getPayload())).readObject());
+                send(getSessions(busMessage.getLogin()), webSocketMessage);
+                break;
+
+            case PRESENCE:
+                String origin = busMessage.getOriginNodeId();
+                if (busMessage.isOnline()) {
+                    remoteUsers.computeIfAbsent(busMessage.getLogin(), key -> ConcurrentHashMap.newKeySet()).add(origin);
+                } else {
+                    remoteUsers.computeIfPresent(busMessage.getLogin(), (key, nodes) -> {
+                        nodes.remove(origin);
+                        return nodes.isEmpty() ? null : nodes;
+                    });
+                }
+                break;
+
+            case PRESENCE_REQUEST:
+                for (String login : channels.keySet()) {
+                    messageBus.publish(WebSocketBusMessage.presence(nodeId, login, true));
+                }
+                break;
+
+            case ROOM_MESSAGE:
+                onRoomMessage(new SessionAddress(busMessage.getOriginNodeId(), busMessage.getSessionId(), busMessage.getLogin()),
+                        new WebSocketMessage(Json.createReader(new StringReader(busMessage.getPayload())).readObject()));
+                break;
+
+            case SESSION_MESSAGE:
+                if (nodeId.equals(busMessage.getTargetNodeId())) {
+                    send(sessionsById.get(busMessage.getSessionId()), new WebSocketMessage(Json.createReader(new StringReader(busMessage.getPayload())).readObject()));
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void onRoomMessage(SessionAddress sender, WebSocketMessage webSocketMessage) {
+        if (webSocketModules == null) {
+            return;
+        }
+        for (WebSocketModule webSocketModule : webSocketModules) {
+            if (webSocketModule instanceof RoomWebSocketModule && webSocketModule.canDecode(webSocketMessage)) {
+                RoomWebSocketModule roomModule = (RoomWebSocketModule) webSocketModule;
+                // Every node receives the message, only the one holding the room processes it
+                if (roomModule.holdsRoom(webSocketMessage)) {
+                    roomModule.process(sender, webSocketMessage);
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.ws.bus;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bus linking the nodes of a single JVM. Messages are delivered synchronously on the publishing thread.
+ * <p>
+ * With a single node it has nothing to deliver, which is the standalone deployment. Tests use it
+ * to run several session managers side by side.
+ */
+@ApplicationScoped
+public class InProcessWebSocketMessageBus implements WebSocketMessageBus {
+
+    private static final Logger LOGGER = Logger.getLogger(InProcessWebSocketMessageBus.class.getName());
+
+    private final Map<String, Consumer<WebSocketBusMessage>> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void subscribe(String nodeId, Consumer<WebSocketBusMessage> listener) {
+        listeners.put(nodeId, listener);
+    }
+
+    @Override
+    public void unsubscribe(String nodeId) {
+        listeners.remove(nodeId);
+    }
+
+    @Override
+    public void publish(WebSocketBusMessage message) {
+        listeners.forEach((nodeId, listener) -> {
+            if (!nodeId.equals(message.getOriginNodeId())) {
+                try {
+                    listener.accept(message);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Node " + nodeId + " failed to process a bus message", e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.ws.bus;
+
+import java.io.Serializable;
+
+/**
+ * A message exchanged between nodes on the {@link WebSocketMessageBus}.
+ * Web socket payloads are carried as their JSON text.
+ */
+public class WebSocketBusMessage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        /** Deliver the payload to every session of the user */
+        USER_MESSAGE,
+        /** The user got a first session, or lost the last one, on the origin node */
+        PRESENCE,
+        /** A node joined and asks the others for the users they hold */
+        PRESENCE_REQUEST,
+        /** Process the payload sent by a session of the origin node on the node holding its room */
+        ROOM_MESSAGE,
+        /** Deliver the payload to a single session of the target node */
+        SESSION_MESSAGE
+    }
+
+    private final Kind kind;
+    private final String originNodeId;
+    private final String login;
+    private final String payload;
+    private final boolean online;
+    private final String targetNodeId;
+    private final String sessionId;
+
+    private WebSocketBusMessage(Kind kind, String originNodeId, String login, String payload, boolean online, String targetNodeId, String sessionId) {
+        this.kind = kind;
+        this.originNodeId = originNodeId;
+        this.login = login;
+        this.payload = payload;
+        this.online = online;
+        this.targetNodeId = targetNodeId;
+        this.sessionId = sessionId;
+    }
+
+    public static WebSocketBusMessage userMessage(String originNodeId, String login, String payload) {
+        return new WebSocketBusMessage(Kind.USER_MESSAGE, originNodeId, login, payload, true, null, null);
+    }
+
+    public static WebSocketBusMessage presence(String originNodeId, String login, boolean online) {
+        return new WebSocketBusMessage(Kind.PRESENCE, originNodeId, login, null, online, null, null);
+    }
+
+    public static WebSocketBusMessage presenceRequest(String originNodeId) {
+        return new WebSocketBusMessage(Kind.PRESENCE_REQUEST, originNodeId, null, null, false, null, null);
+    }
+
+    /**
+     * @param login     the user holding the sending session
+     * @param sessionId the id of the sending session on the origin node
+     */
+    public static WebSocketBusMessage roomMessage(String originNodeId, String login, String sessionId, String payload) {
+        return new WebSocketBusMessage(Kind.ROOM_MESSAGE, originNodeId, login, payload, true, null, sessionId);
+    }
+
+    public static WebSocketBusMessage sessionMessage(String originNodeId, String targetNodeId, String sessionId, String payload) {
+        return new WebSocketBusMessage(Kind.SESSION_MESSAGE, originNodeId, null, payload, true, targetNodeId, sessionId);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOriginNodeId() {
+        return originNodeId;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public String getTargetNodeId() {
+        return targetNodeId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+}
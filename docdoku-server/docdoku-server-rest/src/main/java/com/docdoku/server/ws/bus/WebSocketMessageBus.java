@@ -0,0 +1,45 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.ws.bus;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries web socket traffic between the application server nodes, so that users
+ * connected to another node can be reached.
+ * <p>
+ * The default implementation, {@link InProcessWebSocketMessageBus}, only links the nodes living
+ * in the same JVM. A clustered deployment provides its own transport as a CDI alternative.
+ */
+public interface WebSocketMessageBus {
+
+    /**
+     * Registers a node. The listener receives every message published by the other nodes.
+     */
+    void subscribe(String nodeId, Consumer<WebSocketBusMessage> listener);
+
+    void unsubscribe(String nodeId);
+
+    /**
+     * Sends a message to every node but the one it originates from.
+     */
+    void publish(WebSocketBusMessage message);
+}
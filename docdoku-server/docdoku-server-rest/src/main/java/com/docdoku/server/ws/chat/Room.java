@@ -20,7 +20,8 @@
 
 package com.docdoku.server.ws.chat;
 
-import javax.websocket.Session;
+import com.docdoku.server.ws.SessionAddress;
+
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -28,19 +29,32 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 
+/**
+ * A room of WebRTC Module, living on the node it was created on. Its participants may be
+ * connected to any node.
+ */
 public class Room {
 
     private static final ConcurrentMap<String, Room> DB = new ConcurrentHashMap<>();
 
     private String keyName;
+    private String nodeId;
     private RoomSession userSession1;
     private RoomSession userSession2;
 
-    public Room(String roomKey) {
+    public Room(String roomKey, String nodeId) {
         keyName = roomKey;
+        this.nodeId = nodeId;
         put();
     }
 
+    /**
+     * @return the id of the node holding the room
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
     public String getUser1Login() {
         return userSession1.getLogin();
     }
@@ -92,7 +106,7 @@ public class Room {
     /**
      * @return the name of the other participant, null if none
      */
-    public Session getOtherUserSession(Session userSession) {
+    public SessionAddress getOtherUserSession(SessionAddress userSession) {
         if (isUser1Session(userSession)) {
             return userSession2.getUserSession();
         } else if (isUser2Session(userSession)) {
@@ -120,7 +134,7 @@ public class Room {
     /**
      * @return true if one the participant is named as the input parameter, false otherwise
      */
-    public Session getUserSession(String user) {
+    public SessionAddress getUserSession(String user) {
 
         if (user != null) {
             if (userSession1 != null && user.equals(getUser1Login())) {
@@ -141,7 +155,7 @@ public class Room {
      *
      * @return if participant is found
      */
-    public boolean addUserSession(Session userSession, String login) {
+    public boolean addUserSession(SessionAddress userSession, String login) {
         boolean success = true;
 
         // avoid a user to be added in the room many times.
@@ -161,19 +175,19 @@ public class Room {
         return success;
     }
 
-    private boolean isUser1Session(Session userSession) {
+    private boolean isUser1Session(SessionAddress userSession) {
         return userSession != null && userSession1 != null && userSession.equals(userSession1.getUserSession());
     }
 
 
-    private boolean isUser2Session(Session userSession) {
+    private boolean isUser2Session(SessionAddress userSession) {
         return userSession != null && userSession2 != null && userSession.equals(userSession2.getUserSession());
     }
 
     /**
      * Removed a participant form current room
      */
-    public void removeSession(Session userSession) {
+    public void removeSession(SessionAddress userSession) {
 
         if (isUser2Session(userSession)) {
             userSession2 = null;
@@ -232,7 +246,7 @@ public class Room {
         return null;
     }
 
-    public Session getSessionForUserLogin(String userLogin) {
+    public SessionAddress getSessionForUserLogin(String userLogin) {
         RoomSession roomSession = getRoomSessionForUserLogin(userLogin);
         if (roomSession != null) {
             return roomSession.getUserSession();
@@ -243,7 +257,7 @@ public class Room {
     public static void removeUserFromAllRoom(String callerLogin) {
         Set<Map.Entry<String, Room>> roomsEntries = new HashSet<>(DB.entrySet());
         for (Map.Entry<String, Room> entry : roomsEntries) {
-            Session session = entry.getValue().getSessionForUserLogin(callerLogin);
+            SessionAddress session = entry.getValue().getSessionForUserLogin(callerLogin);
             if (session != null) {
                 entry.getValue().removeSession(session);
             }
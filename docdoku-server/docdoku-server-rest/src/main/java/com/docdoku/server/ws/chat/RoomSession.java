@@ -20,14 +20,14 @@
 
 package com.docdoku.server.ws.chat;
 
-import javax.websocket.Session;
+import com.docdoku.server.ws.SessionAddress;
 
 public class RoomSession {
 
     private String login;
-    private Session userSession;
+    private SessionAddress userSession;
 
-    public RoomSession(String login, Session userSession) {
+    public RoomSession(String login, SessionAddress userSession) {
         this.login = login;
         this.userSession = userSession;
     }
@@ -36,7 +36,7 @@ public class RoomSession {
         return login;
     }
 
-    public Session getUserSession() {
+    public SessionAddress getUserSession() {
         return userSession;
     }
 }
\ No newline at end of file
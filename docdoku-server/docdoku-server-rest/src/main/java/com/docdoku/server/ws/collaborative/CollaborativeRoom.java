@@ -21,10 +21,10 @@
 package com.docdoku.server.ws.collaborative;
 
 
+import com.docdoku.server.ws.SessionAddress;
 import com.docdoku.server.ws.chat.Room;
 
 import javax.json.*;
-import javax.websocket.Session;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -32,6 +32,9 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * A room of Collaboration Module
  *
+ * The room lives on the node of the session that created it. Its members are kept as
+ * {@link SessionAddress}es, and may be connected to any node.
+ *
  * @author Arthur FRIN
  * @version 1.0, 30/06/14
  * @since   V2.0
@@ -39,15 +42,17 @@ import java.util.concurrent.ConcurrentMap;
 public class CollaborativeRoom {
     private static final ConcurrentMap<String, CollaborativeRoom> DB = new ConcurrentHashMap<>();
     private String key;
-    private Session master;
-    private List<Session> slaves;
+    private String nodeId;
+    private SessionAddress master;
+    private List<SessionAddress> slaves;
     private List<String> pendingUsers;
     private Date creationDate;
     private JsonObjectBuilder saveJsonCommands;
     private String lastMaster;
 
-    public CollaborativeRoom(Session master) {
+    public CollaborativeRoom(SessionAddress master) {
         this.key = UUID.randomUUID().toString();
+        this.nodeId = (master==null)?null:master.getNodeId();
         this.master = master;
         this.pendingUsers = new LinkedList<>();
         this.creationDate = new Date();
@@ -86,8 +91,8 @@ public class CollaborativeRoom {
 
     public JsonObject getContext() {
         JsonArrayBuilder contextSlaves = Json.createArrayBuilder();
-        for (Session s : this.getSlaves()) {
-            contextSlaves.add(s.getUserPrincipal().getName());
+        for (SessionAddress s : this.getSlaves()) {
+            contextSlaves.add(s.getLogin());
         }
 
         JsonArrayBuilder contextPendingUsers = Json.createArrayBuilder();
@@ -115,15 +120,22 @@ public class CollaborativeRoom {
         }
     }
 
-    public Session getMaster() {
+    /**
+     * @return the id of the node holding the room
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public SessionAddress getMaster() {
         return master;
     }
 
     public String getMasterName() {
-        return (master==null)?"":master.getUserPrincipal().getName();
+        return (master==null)?"":master.getLogin();
     }
 
-    public void setMaster(Session master) {
+    public void setMaster(SessionAddress master) {
         this.master = master;
     }
 
@@ -135,15 +147,15 @@ public class CollaborativeRoom {
         this.key = key;
     }
 
-    public List<Session> getSlaves() {
+    public List<SessionAddress> getSlaves() {
         return slaves;
     }
 
-    public void addSlave(Session slave) {
+    public void addSlave(SessionAddress slave) {
         this.slaves.add(slave);
     }
 
-    public boolean removeSlave(Session slave) {
+    public boolean removeSlave(SessionAddress slave) {
         return this.slaves.remove(slave);
     }
 
@@ -163,10 +175,10 @@ public class CollaborativeRoom {
         return (creationDate!=null) ? (Date) creationDate.clone() : null;
     }
 
-    public Session findUserSession(String user){
-        Session userSession = null;
-        for (Session s : this.getSlaves()) {
-            if (s.getUserPrincipal().getName().equals(user)) {
+    public SessionAddress findUserSession(String user){
+        SessionAddress userSession = null;
+        for (SessionAddress s : this.getSlaves()) {
+            if (s.getLogin().equals(user)) {
                 userSession = s;
             }
         }
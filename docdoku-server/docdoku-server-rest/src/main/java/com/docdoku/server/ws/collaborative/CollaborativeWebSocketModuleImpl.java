@@ -21,8 +21,9 @@
 package com.docdoku.server.ws.collaborative;
 
 
+import com.docdoku.server.ws.RoomWebSocketModule;
+import com.docdoku.server.ws.SessionAddress;
 import com.docdoku.server.ws.WebSocketMessage;
-import com.docdoku.server.ws.WebSocketModule;
 import com.docdoku.server.ws.WebSocketSessionsManager;
 
 import javax.inject.Inject;
@@ -40,7 +41,7 @@ import java.util.List;
  * @author Morgan Guimard
  */
 @CollaborativeWebSocketModule
-public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
+public class CollaborativeWebSocketModuleImpl implements RoomWebSocketModule {
 
 
     @Inject
@@ -82,8 +83,22 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     @Override
     public void process(Session session, WebSocketMessage webSocketMessage) {
+        webSocketSessionsManager.process(this, session, webSocketMessage);
+    }
 
-        String sender = webSocketSessionsManager.getHolder(session);
+    @Override
+    public boolean holdsRoom(WebSocketMessage webSocketMessage) {
+        if (COLLABORATIVE_CREATE.equals(webSocketMessage.getType())) {
+            return true;
+        }
+        CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
+        return room != null && room.getNodeId().equals(webSocketSessionsManager.getNodeId());
+    }
+
+    @Override
+    public void process(SessionAddress session, WebSocketMessage webSocketMessage) {
+
+        String sender = session.getLogin();
         String type = webSocketMessage.getType();
 
         switch (type) {
@@ -131,7 +146,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeWithdrawInvitationMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeWithdrawInvitationMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
         JsonObject broadcastMessage = webSocketMessage.getJsonObject("broadcastMessage");
@@ -157,7 +172,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeKickUserMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeKickUserMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
 
@@ -165,7 +180,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
         if (room.getMasterName().equals(sender)) {
             // the master sent the kick
-            Session userSession = room.findUserSession(kickedUser);
+            SessionAddress userSession = room.findUserSession(kickedUser);
             if (room.removeSlave(userSession)) {
                 webSocketSessionsManager.send(userSession, webSocketMessage);
                 broadcastNewContext(room);
@@ -174,7 +189,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeGiveHandMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeGiveHandMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
 
@@ -183,7 +198,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
         if (room.getMasterName().equals(sender)) {
             // the master sent the invitation
             room.addSlave(room.getMaster());
-            Session userSession = room.findUserSession(promotedUser);
+            SessionAddress userSession = room.findUserSession(promotedUser);
             if (room.removeSlave(userSession)) {
                 room.setMaster(userSession);
                 broadcastNewContext(room);
@@ -192,7 +207,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeKillMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeKillMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
 
@@ -200,9 +215,9 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
             // the master sent the invitation
             String roomKey = room.getKey();
 
-            for (Session slave : room.getSlaves()) {
+            for (SessionAddress slave : room.getSlaves()) {
                 WebSocketMessage message = createMessage(COLLABORATIVE_KICK_USER, roomKey,
-                        JsonValue.NULL, webSocketSessionsManager.getHolder(slave));
+                        JsonValue.NULL, slave.getLogin());
                 webSocketSessionsManager.send(slave, message);
             }
             room.delete();
@@ -210,7 +225,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeExitMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeExitMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
 
@@ -230,7 +245,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeCommandsMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeCommandsMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
 
@@ -241,13 +256,15 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
             room.saveCommand(command);
 
-            webSocketSessionsManager.send(room.getSlaves(), webSocketMessage);
+            for (SessionAddress slave : room.getSlaves()) {
+                webSocketSessionsManager.send(slave, webSocketMessage);
+            }
 
         }
 
     }
 
-    private void onCollaborativeJoinMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeJoinMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         CollaborativeRoom room = CollaborativeRoom.getByKeyName(webSocketMessage.getString("key"));
 
@@ -278,7 +295,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onCollaborativeInviteMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeInviteMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         String invitedUser = webSocketMessage.getString("remoteUser");
         JsonObject broadcastMessage = webSocketMessage.getJsonObject("broadcastMessage");
@@ -314,7 +331,7 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
         }
     }
 
-    private void onCollaborativeCreateMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onCollaborativeCreateMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
         CollaborativeRoom room = new CollaborativeRoom(session);
 
         WebSocketMessage message = createMessage(COLLABORATIVE_CREATE, room.getKey(),
@@ -331,16 +348,16 @@ public class CollaborativeWebSocketModuleImpl implements WebSocketModule {
 
         webSocketSessionsManager.broadcast(master, message);
 
-        for (Session slave : room.getSlaves()) {
+        for (SessionAddress slave : room.getSlaves()) {
             WebSocketMessage slaveMessage = createMessage(COLLABORATIVE_CONTEXT, room.getKey(),
-                    room.getContext(), webSocketSessionsManager.getHolder(slave));
+                    room.getContext(), slave.getLogin());
             webSocketSessionsManager.send(slave, slaveMessage);
         }
     }
 
-    public void sendAllCommands(Session session, CollaborativeRoom room) {
+    public void sendAllCommands(SessionAddress session, CollaborativeRoom room) {
         WebSocketMessage message = createMessage(COLLABORATIVE_JOIN, room.getKey(),
-                room.getCommands(), webSocketSessionsManager.getHolder(session));
+                room.getCommands(), session.getLogin());
         webSocketSessionsManager.send(session, message);
     }
 
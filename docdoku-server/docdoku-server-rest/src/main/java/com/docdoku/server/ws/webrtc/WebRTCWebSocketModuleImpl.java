@@ -21,8 +21,9 @@
 package com.docdoku.server.ws.webrtc;
 
 
+import com.docdoku.server.ws.RoomWebSocketModule;
+import com.docdoku.server.ws.SessionAddress;
 import com.docdoku.server.ws.WebSocketMessage;
-import com.docdoku.server.ws.WebSocketModule;
 import com.docdoku.server.ws.WebSocketSessionsManager;
 import com.docdoku.server.ws.chat.Room;
 
@@ -39,7 +40,7 @@ import java.util.List;
  * @author Morgan Guimard
  */
 @WebRTCWebSocketModule
-public class WebRTCWebSocketModuleImpl implements WebSocketModule {
+public class WebRTCWebSocketModuleImpl implements RoomWebSocketModule {
 
     private static final String WEBRTC_INVITE = "WEBRTC_INVITE";
     private static final String WEBRTC_ACCEPT = "WEBRTC_ACCEPT";
@@ -69,8 +70,23 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
 
     @Override
     public void process(Session session, WebSocketMessage webSocketMessage) {
+        webSocketSessionsManager.process(this, session, webSocketMessage);
+    }
+
+    @Override
+    public boolean holdsRoom(WebSocketMessage webSocketMessage) {
+        // The room of an invitation is created on the node of the caller
+        if (WEBRTC_INVITE.equals(webSocketMessage.getType())) {
+            return true;
+        }
+        Room room = Room.getByKeyName(webSocketMessage.getString("roomKey"));
+        return room != null && room.getNodeId().equals(webSocketSessionsManager.getNodeId());
+    }
+
+    @Override
+    public void process(SessionAddress session, WebSocketMessage webSocketMessage) {
 
-        String sender = webSocketSessionsManager.getHolder(session);
+        String sender = session.getLogin();
 
         switch (webSocketMessage.getType()) {
 
@@ -103,7 +119,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
     }
 
 
-    private void processP2P(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void processP2P(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
         // webRTC P2P signaling messages
         // These messages are forwarded to the remote peer(s) in the room
 
@@ -112,7 +128,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
 
         if (room != null && room.hasUser(sender)) {
             // forward the message to the other peer
-            Session otherSession = room.getOtherUserSession(session);
+            SessionAddress otherSession = room.getOtherUserSession(session);
 
             // on bye message, remove the user from the room
             if (WEBRTC_BYE.equals(webSocketMessage.getType())) {
@@ -126,12 +142,12 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
 
     }
 
-    private void onWebRTCHangupMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onWebRTCHangupMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
         String roomKey = webSocketMessage.getString("roomKey");
         Room room = Room.getByKeyName(roomKey);
 
         if (room != null) {
-            Session otherSession = room.getOtherUserSession(session);
+            SessionAddress otherSession = room.getOtherUserSession(session);
             room.removeSession(session);
 
             WebSocketMessage message = createMessage(WEBRTC_HANGUP, sender, roomKey, null, null, 0, null, null, null, null, null);
@@ -140,7 +156,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
         }
     }
 
-    private void onWebRTCRejectMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onWebRTCRejectMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
         String roomKey = webSocketMessage.getString("roomKey");
         String reason = webSocketMessage.getString("reason");
         Room room = Room.getByKeyName(roomKey);
@@ -152,7 +168,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
             WebSocketMessage message = createMessage(WEBRTC_ROOM_REJECT_EVENT, null, roomKey, reason, null, room.getOccupancy(), sender, null, null, null, null);
             webSocketSessionsManager.broadcast(sender, message);
 
-            Session otherSession = room.getUserSession(remoteUser);
+            SessionAddress otherSession = room.getUserSession(remoteUser);
             if (otherSession != null) {
                 WebSocketMessage otherMessage = createMessage(WEBRTC_REJECT, sender, roomKey, reason, null, 0, null, null, null, null, null);
                 webSocketSessionsManager.send(otherSession, otherMessage);
@@ -160,7 +176,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
         }
     }
 
-    private void onWebRTCAcceptMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onWebRTCAcceptMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
         String roomKey = webSocketMessage.getString("roomKey");
         Room room = Room.getByKeyName(roomKey);
 
@@ -172,7 +188,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
             webSocketSessionsManager.broadcast(sender, message);
 
             // send room join event to the other user in room
-            Session otherSession = room.getOtherUserSession(session);
+            SessionAddress otherSession = room.getOtherUserSession(session);
 
             if (otherSession != null) {
                 WebSocketMessage otherMessage = createMessage(WEBRTC_ACCEPT, sender, roomKey, null, null, 0, null, null, null, null, null);
@@ -182,7 +198,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
     }
 
 
-    private void onWebRTCInviteMessage(String sender, Session session, WebSocketMessage webSocketMessage) {
+    private void onWebRTCInviteMessage(String sender, SessionAddress session, WebSocketMessage webSocketMessage) {
 
         String remoteUser = webSocketMessage.getString("remoteUser");
         String roomKey = sender + "-" + remoteUser;
@@ -197,7 +213,7 @@ public class WebRTCWebSocketModuleImpl implements WebSocketModule {
         Room room = Room.getByKeyName(roomKey);
 
         if (room == null) {
-            room = new Room(roomKey);
+            room = new Room(roomKey, webSocketSessionsManager.getNodeId());
         }
         //else :  multiple invitations, caller is spamming or something goes wrong.
         // the room is ready to receive user sessions.
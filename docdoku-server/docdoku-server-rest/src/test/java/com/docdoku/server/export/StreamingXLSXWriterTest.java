@@ -0,0 +1,98 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.export;
+
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class StreamingXLSXWriterTest {
+
+    @Test
+    public void rowsCanBeReadBackTest() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (StreamingXLSXWriter writer = new StreamingXLSXWriter(outputStream, "Parts Data")) {
+            writer.writeRow(Arrays.asList("Part number", "Name"), Arrays.asList("", ""), Collections.singleton(0));
+            for (int i = 0; i < 1000; i++) {
+                writer.writeRow(Arrays.asList("PART-" + i, "<name> & \"quotes\""), Arrays.asList(i == 42 ? "Serial\nnumbers" : "", ""), Collections.emptySet());
+            }
+            Assert.assertEquals(1001, writer.getRowCount());
+            writer.finish();
+        }
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            XSSFSheet sheet = workbook.getSheet("Parts Data");
+            Assert.assertNotNull(sheet);
+            Assert.assertEquals(1000, sheet.getLastRowNum());
+
+            XSSFCell header = sheet.getRow(0).getCell(0);
+            Assert.assertEquals("Part number", header.getStringCellValue());
+            Assert.assertTrue(header.getCellStyle().getFont().getBold());
+            Assert.assertFalse(sheet.getRow(0).getCell(1).getCellStyle().getFont().getBold());
+
+            Assert.assertEquals("PART-999", sheet.getRow(1000).getCell(0).getStringCellValue());
+            Assert.assertEquals("<name> & \"quotes\"", sheet.getRow(1).getCell(1).getStringCellValue());
+
+            Comment comment = sheet.getCellComment(43, 0);
+            Assert.assertNotNull(comment);
+            Assert.assertEquals("Serial\nnumbers", comment.getString().getString());
+            Assert.assertNull(sheet.getCellComment(1, 0));
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void unfinishedWorkbookIsUnreadableTest() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (StreamingXLSXWriter writer = new StreamingXLSXWriter(outputStream, "Parts Data")) {
+            writer.writeRow(Arrays.asList("Part number", "Name"), Arrays.asList("", ""), Collections.singleton(0));
+        }
+
+        new XSSFWorkbook(new ByteArrayInputStream(outputStream.toByteArray())).close();
+    }
+
+    @Test
+    public void csvFormulasAreNeutralizedTest() {
+        Assert.assertEquals("'=HYPERLINK(\"http://evil\")", ExcelGenerator.neutralizeFormula("=HYPERLINK(\"http://evil\")"));
+        Assert.assertEquals("'+1", ExcelGenerator.neutralizeFormula("+1"));
+        Assert.assertEquals("'-1", ExcelGenerator.neutralizeFormula("-1"));
+        Assert.assertEquals("'@SUM(A1)", ExcelGenerator.neutralizeFormula("@SUM(A1)"));
+        Assert.assertEquals("'\tcmd", ExcelGenerator.neutralizeFormula("\tcmd"));
+        Assert.assertEquals("PART-1", ExcelGenerator.neutralizeFormula("PART-1"));
+        Assert.assertEquals("", ExcelGenerator.neutralizeFormula(""));
+    }
+
+    @Test
+    public void columnNamesTest() {
+        Assert.assertEquals("A", StreamingXLSXWriter.getColumnName(0));
+        Assert.assertEquals("Z", StreamingXLSXWriter.getColumnName(25));
+        Assert.assertEquals("AA", StreamingXLSXWriter.getColumnName(26));
+        Assert.assertEquals("AZ", StreamingXLSXWriter.getColumnName(51));
+        Assert.assertEquals("BA", StreamingXLSXWriter.getColumnName(52));
+    }
+}
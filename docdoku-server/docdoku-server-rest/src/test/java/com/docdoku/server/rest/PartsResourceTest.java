@@ -0,0 +1,96 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server.rest;
+
+import com.docdoku.core.product.PartRevision;
+import com.docdoku.core.services.IProductManagerLocal;
+import com.docdoku.server.rest.util.PageCursor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Base64;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class PartsResourceTest {
+
+    private static final String WORKSPACE_ID = "TestWorkspace";
+
+    @InjectMocks
+    private PartsResource partsResource = new PartsResource();
+    @Mock
+    private IProductManagerLocal productService;
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+        Mockito.when(productService.getPartRevisionsAfter(anyString(), anyString(), anyString(), anyInt())).thenReturn(new ArrayList<PartRevision>());
+    }
+
+    @Test
+    public void validCursorSeeksAfterItsKey() throws Exception {
+        String cursor = new PageCursor("PART-001", "A").encode();
+
+        Response response = partsResource.getPartRevisions(WORKSPACE_ID, 0, 0, cursor);
+
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+        Mockito.verify(productService).getPartRevisionsAfter(WORKSPACE_ID, "PART-001", "A", 20);
+    }
+
+    @Test
+    public void invalidCursorIsABadRequest() throws Exception {
+        String[] cursors = {
+                "not a cursor!",
+                encode("PART-001"),
+                encode("PART-001\n"),
+                encode("\nA")
+        };
+        for (String cursor : cursors) {
+            Response response = partsResource.getPartRevisions(WORKSPACE_ID, 0, 20, cursor);
+            Assert.assertEquals(cursor, Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        }
+        Mockito.verify(productService, Mockito.never()).getPartRevisionsAfter(anyString(), anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void truncatedCursorIsABadRequest() throws Exception {
+        String cursor = new PageCursor("PART-001", "A").encode();
+
+        for (int length = 0; length < cursor.length(); length++) {
+            Response response = partsResource.getPartRevisions(WORKSPACE_ID, 0, 20, cursor.substring(0, length));
+            Assert.assertEquals(cursor.substring(0, length), Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus());
+        }
+        Mockito.verify(productService, Mockito.never()).getPartRevisionsAfter(anyString(), anyString(), anyString(), anyInt());
+    }
+
+    private static String encode(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.file.util;
+
+import com.docdoku.core.common.BinaryResource;
+import com.docdoku.server.rest.exceptions.RequestedRangeNotSatisfiableException;
+import com.docdoku.server.rest.file.util.BinaryResourceBinaryStreamingOutput.Range;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+
+public class BinaryResourceDownloadResponseBuilderTest {
+
+    private static final long LARGE_FILE_SIZE = 6L * 1024 * 1024 * 1024;
+
+    @Test
+    public void parseRangesAbove2GBTest() throws Exception {
+        List<Range> ranges = BinaryResourceDownloadResponseBuilder.parseRanges("bytes=3000000000-", LARGE_FILE_SIZE);
+        Assert.assertEquals(1, ranges.size());
+        Assert.assertEquals(3000000000L, ranges.get(0).getStart());
+        Assert.assertEquals(LARGE_FILE_SIZE - 1, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void parseRangesMergeTest() throws Exception {
+        List<Range> ranges = BinaryResourceDownloadResponseBuilder.parseRanges("bytes=500-599, 0-99,-100,90-199", 1000);
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertEquals(0, ranges.get(0).getStart());
+        Assert.assertEquals(199, ranges.get(0).getEnd());
+        Assert.assertEquals(500, ranges.get(1).getStart());
+        Assert.assertEquals(900, ranges.get(2).getStart());
+        Assert.assertEquals(999, ranges.get(2).getEnd());
+    }
+
+    @Test(expected = RequestedRangeNotSatisfiableException.class)
+    public void parseUnsatisfiableRangeTest() throws Exception {
+        BinaryResourceDownloadResponseBuilder.parseRanges("bytes=1000-", 1000);
+    }
+
+    @Test
+    public void multipartRangesTest() throws Exception {
+        byte[] content = "0123456789".getBytes(StandardCharsets.ISO_8859_1);
+        BinaryResource binaryResource = new BinaryResource("w/documents/d/A/1/file.txt", content.length, new Date());
+        BinaryResourceDownloadMeta meta = new BinaryResourceDownloadMeta(binaryResource);
+
+        Response response = BinaryResourceDownloadResponseBuilder.prepareResponse(new ByteArrayInputStream(content), meta, "bytes=0-1,5-6", null);
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertTrue(response.getHeaderString("Content-Type").startsWith("multipart/byteranges"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryResourceBinaryStreamingOutput entity = (BinaryResourceBinaryStreamingOutput) response.getEntity();
+        entity.write(output);
+        String body = new String(output.toByteArray(), StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(entity.getContentLength(), output.size());
+        Assert.assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+        Assert.assertTrue(body.contains("Content-Range: bytes 5-6/10\r\n\r\n56\r\n"));
+    }
+
+    @Test
+    public void ifRangeMismatchTest() throws Exception {
+        byte[] content = "0123456789".getBytes(StandardCharsets.ISO_8859_1);
+        BinaryResource binaryResource = new BinaryResource("w/documents/d/A/1/file.txt", content.length, new Date());
+        BinaryResourceDownloadMeta meta = new BinaryResourceDownloadMeta(binaryResource);
+
+        Response response = BinaryResourceDownloadResponseBuilder.prepareResponse(new ByteArrayInputStream(content), meta, "bytes=5-", "\"outdated\"");
+        Assert.assertEquals(200, response.getStatus());
+
+        String eTag = "\"" + meta.getETag().getValue() + "\"";
+        response = BinaryResourceDownloadResponseBuilder.prepareResponse(new ByteArrayInputStream(content), meta, "bytes=5-", eTag);
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertEquals("bytes 5-9/10", response.getHeaderString("Content-Range"));
+    }
+}
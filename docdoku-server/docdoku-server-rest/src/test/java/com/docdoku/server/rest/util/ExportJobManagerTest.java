@@ -0,0 +1,138 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+
+import javax.enterprise.concurrent.ContextService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ExportJobManagerTest {
+
+    @InjectMocks
+    private ExportJobManager exportJobManager = new ExportJobManager();
+    @Mock
+    private ManagedThreadFactory threadFactory;
+    @Mock
+    private ContextService contextService;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        Mockito.when(threadFactory.newThread(Matchers.any(Runnable.class))).thenAnswer(invocation -> new Thread((Runnable) invocation.getArguments()[0]));
+        Mockito.when(contextService.createContextualProxy(Matchers.any(), Matchers.any(Class.class))).thenAnswer(invocation -> invocation.getArguments()[0]);
+        exportJobManager.init();
+    }
+
+    @After
+    public void tearDown() {
+        exportJobManager.destroy();
+    }
+
+    @Test
+    public void cachedArtifactIsSharedTest() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        ExportJobManager.ExportTask task = outputStream -> {
+            runs.incrementAndGet();
+            outputStream.write("content".getBytes(StandardCharsets.UTF_8));
+        };
+
+        ExportJob first = exportJobManager.submit("ws", "user1", "baseline/1", "export.zip", task);
+        waitFor(first.getArtifact());
+        ExportJob second = exportJobManager.submit("ws", "user2", "baseline/1", "export.zip", task);
+
+        Assert.assertNotEquals(first.getId(), second.getId());
+        Assert.assertSame(first.getArtifact(), second.getArtifact());
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(ExportArtifact.Status.DONE, second.getArtifact().getStatus());
+        Assert.assertEquals(7, second.getArtifact().getLength());
+        Assert.assertEquals("content", new String(Files.readAllBytes(second.getArtifact().getFile()), StandardCharsets.UTF_8));
+
+        ExportJob uncached = exportJobManager.submit("ws", "user1", null, "export.zip", task);
+        waitFor(uncached.getArtifact());
+        Assert.assertNotSame(first.getArtifact(), uncached.getArtifact());
+        Assert.assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void failedArtifactIsNotReusedTest() throws Exception {
+        ExportJob failed = exportJobManager.submit("ws", "user1", "baseline/2", "export.zip", outputStream -> {
+            throw new IOException("vault unavailable");
+        });
+        waitFor(failed.getArtifact());
+        Assert.assertEquals(ExportArtifact.Status.FAILED, failed.getArtifact().getStatus());
+        Assert.assertEquals("vault unavailable", failed.getArtifact().getError());
+        Assert.assertFalse(Files.exists(failed.getArtifact().getFile()));
+
+        ExportJob retried = exportJobManager.submit("ws", "user1", "baseline/2", "export.zip", outputStream -> outputStream.write(1));
+        waitFor(retried.getArtifact());
+        Assert.assertEquals(ExportArtifact.Status.DONE, retried.getArtifact().getStatus());
+    }
+
+    @Test
+    public void jobsAreVisibleToTheirOwnerOnlyTest() throws Exception {
+        ExportJob job = exportJobManager.submit("ws", "user1", null, "export.zip", outputStream -> outputStream.write(1));
+        Assert.assertSame(job, exportJobManager.getJob("ws", "user1", job.getId()));
+        Assert.assertNull(exportJobManager.getJob("ws", "user2", job.getId()));
+        Assert.assertNull(exportJobManager.getJob("other", "user1", job.getId()));
+    }
+
+    @Test
+    public void removedJobIsCancelledTest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        ExportJob job = exportJobManager.submit("ws", "user1", null, "export.zip", outputStream -> {
+            started.countDown();
+            while (true) {
+                outputStream.write(new byte[1024]);
+            }
+        });
+
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        exportJobManager.removeJob(job);
+        waitFor(job.getArtifact());
+
+        Assert.assertEquals(ExportArtifact.Status.CANCELLED, job.getArtifact().getStatus());
+        Assert.assertNull(exportJobManager.getJob("ws", "user1", job.getId()));
+    }
+
+    private static void waitFor(ExportArtifact artifact) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (artifact.getCompletionDate() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertNotNull(artifact.getCompletionDate());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import com.docdoku.core.common.Account;
+import com.docdoku.core.common.User;
+import com.docdoku.core.common.Workspace;
+import com.docdoku.core.configuration.ProductStructureVisitor;
+import com.docdoku.core.product.*;
+import com.docdoku.core.services.IProductManagerLocal;
+import com.docdoku.server.rest.collections.InstanceCollection;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.*;
+
+public class InstanceBodyWriterToolsTest {
+
+    private final Workspace workspace = new Workspace("workspace");
+    private final ConfigurationItemKey ciKey = new ConfigurationItemKey("workspace", "product");
+    private User user;
+    private IProductManagerLocal productService;
+    private PartUsageLink rootLink;
+    private PartUsageLink assemblyLink;
+    private PartUsageLink leafLink;
+    private PartUsageLink otherLeafLink;
+    private Component root;
+    private final List<String> visitedPaths = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        user = new User(workspace, new Account("user1", "user1", "user1@docdoku.com", "en", new Date(), null));
+
+        // root -> (assembly -> leaf, otherLeaf), the assembly being placed twice
+        PartIteration rootIteration = createIteration("ROOT", false);
+        PartIteration assemblyIteration = createIteration("ASSEMBLY", false);
+        PartIteration leafIteration = createIteration("LEAF", true);
+        PartIteration otherLeafIteration = createIteration("OTHER-LEAF", true);
+
+        rootLink = createLink(rootIteration, 1, new CADInstance(1, 0, 0, 0, 0, 0));
+        assemblyLink = createLink(assemblyIteration, 2, new CADInstance(10, 0, 0, 0, 0, 0), new CADInstance(20, 0, 0, 0, 0, 0));
+        leafLink = createLink(leafIteration, 3, new CADInstance(0, 5, 0, 0, 0, 0));
+        otherLeafLink = createLink(otherLeafIteration, 4, new CADInstance(0, 0, 7, 0, 0, 0));
+        rootIteration.getComponents().addAll(Arrays.asList(assemblyLink, otherLeafLink));
+        assemblyIteration.getComponents().add(leafLink);
+
+        Component leaf = createComponent(leafIteration, Collections.emptyList(), rootLink, assemblyLink, leafLink);
+        Component assembly = createComponent(assemblyIteration, Collections.singletonList(leaf), rootLink, assemblyLink);
+        Component otherLeaf = createComponent(otherLeafIteration, Collections.emptyList(), rootLink, otherLeafLink);
+        root = createComponent(rootIteration, Arrays.asList(assembly, otherLeaf), rootLink);
+
+        productService = Mockito.mock(IProductManagerLocal.class);
+        Mockito.when(productService.getRootPartUsageLink(ciKey)).thenReturn(rootLink);
+        Mockito.doAnswer(invocation -> {
+            walk(root, (ProductStructureVisitor) invocation.getArguments()[3]);
+            return null;
+        }).when(productService).walkProductStructure(Matchers.eq(ciKey), Matchers.any(), Matchers.any(), Matchers.any());
+    }
+
+    @Test
+    public void instancesAreWrittenFromASingleWalk() throws Exception {
+        InstanceCollection instanceCollection = new InstanceCollection(ciKey, null, Collections.singletonList(Collections.singletonList(rootLink)));
+
+        JsonArray instances = generate(instanceCollection);
+
+        Assert.assertEquals(3, instances.size());
+        Assert.assertEquals("u1-0-u2-0-u3-0", instances.getJsonObject(0).getString("id"));
+        Assert.assertEquals("u1-0-u2-1-u3-0", instances.getJsonObject(1).getString("id"));
+        Assert.assertEquals("u1-0-u4-0", instances.getJsonObject(2).getString("id"));
+
+        // Placements of each instance are combined down the branch
+        assertTranslation(instances.getJsonObject(0), 11, 5, 0);
+        assertTranslation(instances.getJsonObject(1), 21, 5, 0);
+        assertTranslation(instances.getJsonObject(2), 1, 0, 7);
+
+        Mockito.verify(productService, Mockito.times(1)).walkProductStructure(Matchers.eq(ciKey), Matchers.any(), Matchers.any(), Matchers.any());
+    }
+
+    @Test
+    public void branchesOutOfTheRequestedPathsAreSkipped() throws Exception {
+        InstanceCollection instanceCollection = new InstanceCollection(ciKey, null, Collections.singletonList(Arrays.asList(rootLink, otherLeafLink)));
+
+        JsonArray instances = generate(instanceCollection);
+
+        Assert.assertEquals(1, instances.size());
+        Assert.assertEquals("u1-0-u4-0", instances.getJsonObject(0).getString("id"));
+        Assert.assertEquals(Arrays.asList("u1", "u1-u2", "u1-u4"), visitedPaths);
+    }
+
+    private JsonArray generate(InstanceCollection instanceCollection) {
+        StringWriter writer = new StringWriter();
+        JsonGenerator jg = Json.createGenerator(writer);
+        jg.writeStartArray();
+        InstanceBodyWriterTools.generateInstanceStream(productService, instanceCollection, jg);
+        jg.writeEnd();
+        jg.close();
+        return Json.createReader(new StringReader(writer.toString())).readArray();
+    }
+
+    private void assertTranslation(JsonObject instance, double tx, double ty, double tz) {
+        JsonArray matrix = instance.getJsonArray("matrix");
+        Assert.assertEquals(tx, matrix.getJsonNumber(3).doubleValue(), 1e-9);
+        Assert.assertEquals(ty, matrix.getJsonNumber(7).doubleValue(), 1e-9);
+        Assert.assertEquals(tz, matrix.getJsonNumber(11).doubleValue(), 1e-9);
+    }
+
+    private void walk(Component component, ProductStructureVisitor visitor) {
+        StringBuilder path = new StringBuilder();
+        for (PartLink link : component.getPath()) {
+            path.append(path.length() == 0 ? "" : "-").append(link.getFullId());
+        }
+        visitedPaths.add(path.toString());
+        if (visitor.visit(component)) {
+            for (Component child : component.getComponents()) {
+                walk(child, visitor);
+            }
+        }
+    }
+
+    private PartIteration createIteration(String number, boolean withGeometry) {
+        PartMaster partMaster = new PartMaster(workspace, number);
+        PartRevision partRevision = new PartRevision(partMaster, "A", user);
+        PartIteration partIteration = new PartIteration(partRevision, user);
+        if (withGeometry) {
+            partIteration.addGeometry(new Geometry(0, "workspace/parts/" + number + "/A/1/" + number + ".obj", 0, new Date()));
+        }
+        return partIteration;
+    }
+
+    private PartUsageLink createLink(PartIteration partIteration, int id, CADInstance... instances) {
+        PartUsageLink link = new PartUsageLink(partIteration.getPartRevision().getPartMaster(), 1, null, false);
+        link.setId(id);
+        for (int i = 0; i < instances.length; i++) {
+            instances[i].setId(i);
+            link.getCadInstances().add(instances[i]);
+        }
+        return link;
+    }
+
+    private Component createComponent(PartIteration partIteration, List<Component> children, PartLink... path) {
+        Component component = new Component(user, partIteration.getPartRevision().getPartMaster(), Arrays.asList(path), children);
+        component.setRetainedIteration(partIteration);
+        return component;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.rest.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class ParallelZipWriterTest {
+
+    private ExecutorService executorService;
+    private Path archive;
+
+    @Before
+    public void setup() throws IOException {
+        executorService = Executors.newFixedThreadPool(4);
+        archive = Files.createTempFile("parallel-zip", ".zip");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executorService.shutdownNow();
+        Files.deleteIfExists(archive);
+    }
+
+    @Test
+    public void writeReadableArchiveTest() throws Exception {
+        byte[] text = repeat("DocDokuPLM ", 10000);
+        byte[] random = new byte[200000];
+        new Random(42).nextBytes(random);
+
+        try (OutputStream out = Files.newOutputStream(archive);
+             ParallelZipWriter zipWriter = new ParallelZipWriter(out, executorService, 2)) {
+            zipWriter.addEntry("part-A-1/notes.txt", System.currentTimeMillis(), null, text.length, () -> new ByteArrayInputStream(text));
+            zipWriter.addEntry("part-A-1/picture.jpg", System.currentTimeMillis(), null, text.length, () -> new ByteArrayInputStream(text));
+            zipWriter.addEntry("part-A-1/random.bin", System.currentTimeMillis(), null, random.length, () -> new ByteArrayInputStream(random));
+            for (int i = 0; i < 20; i++) {
+                byte[] content = ("entry " + i).getBytes(StandardCharsets.UTF_8);
+                zipWriter.addEntry("parts/é-" + i + ".txt", 0, null, -1, () -> new ByteArrayInputStream(content));
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile(), StandardCharsets.UTF_8)) {
+            Assert.assertEquals(23, zipFile.size());
+
+            ZipEntry notes = zipFile.getEntry("part-A-1/notes.txt");
+            Assert.assertEquals(ZipEntry.DEFLATED, notes.getMethod());
+            Assert.assertTrue(notes.getCompressedSize() < text.length / 10);
+            Assert.assertArrayEquals(text, read(zipFile, notes));
+
+            ZipEntry picture = zipFile.getEntry("part-A-1/picture.jpg");
+            Assert.assertEquals(ZipEntry.STORED, picture.getMethod());
+            Assert.assertArrayEquals(text, read(zipFile, picture));
+
+            ZipEntry randomEntry = zipFile.getEntry("part-A-1/random.bin");
+            Assert.assertEquals(ZipEntry.STORED, randomEntry.getMethod());
+            Assert.assertArrayEquals(random, read(zipFile, randomEntry));
+
+            for (int i = 0; i < 20; i++) {
+                ZipEntry entry = zipFile.getEntry("parts/é-" + i + ".txt");
+                Assert.assertArrayEquals(("entry " + i).getBytes(StandardCharsets.UTF_8), read(zipFile, entry));
+            }
+        }
+    }
+
+    @Test
+    public void duplicatedContentIsPreparedOnceTest() throws Exception {
+        byte[] content = repeat("shared ", 1000);
+        AtomicInteger opened = new AtomicInteger();
+        ParallelZipWriter.EntrySource source = () -> {
+            opened.incrementAndGet();
+            return new ByteArrayInputStream(content);
+        };
+
+        try (OutputStream out = Files.newOutputStream(archive);
+             ParallelZipWriter zipWriter = new ParallelZipWriter(out, executorService, 4)) {
+            Assert.assertTrue(zipWriter.addEntry("a/shared.txt", 0, "hash", content.length, source));
+            Assert.assertTrue(zipWriter.addEntry("b/shared.txt", 0, "hash", content.length, source));
+            Assert.assertFalse(zipWriter.addEntry("a/shared.txt", 0, "other", content.length, source));
+            Assert.assertTrue(zipWriter.addEntry("c/shared.txt", 0, "hash", content.length, source));
+        }
+
+        Assert.assertEquals(1, opened.get());
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            Assert.assertEquals(3, zipFile.size());
+            Assert.assertArrayEquals(content, read(zipFile, zipFile.getEntry("b/shared.txt")));
+            Assert.assertArrayEquals(content, read(zipFile, zipFile.getEntry("c/shared.txt")));
+        }
+    }
+
+    @Test
+    public void unreadableEntryIsSkippedTest() throws Exception {
+        try (OutputStream out = Files.newOutputStream(archive);
+             ParallelZipWriter zipWriter = new ParallelZipWriter(out, executorService, 2)) {
+            zipWriter.addEntry("missing.txt", 0, null, -1, () -> {
+                throw new IOException("missing");
+            });
+            zipWriter.addEntry("present.txt", 0, null, -1, () -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        }
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            Assert.assertEquals(1, zipFile.size());
+            Assert.assertNotNull(zipFile.getEntry("present.txt"));
+        }
+    }
+
+    @Test
+    public void compressedFormatTest() {
+        Assert.assertTrue(ParallelZipWriter.isCompressedFormat("part/nativecad/model.PDF"));
+        Assert.assertTrue(ParallelZipWriter.isCompressedFormat("model.3dxml"));
+        Assert.assertFalse(ParallelZipWriter.isCompressedFormat("model.stl"));
+        Assert.assertFalse(ParallelZipWriter.isCompressedFormat("folder.zip/file"));
+        Assert.assertFalse(ParallelZipWriter.isCompressedFormat(".jpg"));
+    }
+
+    private static byte[] repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+    }
+}
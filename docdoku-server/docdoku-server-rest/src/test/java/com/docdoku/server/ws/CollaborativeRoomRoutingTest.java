@@ -0,0 +1,143 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.docdoku.server.ws;
+
+import com.docdoku.core.services.IUserManagerLocal;
+import com.docdoku.server.ws.bus.InProcessWebSocketMessageBus;
+import com.docdoku.server.ws.collaborative.CollaborativeRoom;
+import com.docdoku.server.ws.collaborative.CollaborativeWebSocketModuleImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import javax.enterprise.inject.Instance;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.websocket.Session;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class CollaborativeRoomRoutingTest {
+
+    private WebSocketSessionsManager node1;
+    private WebSocketSessionsManager node2;
+    private CollaborativeWebSocketModuleImpl module1;
+    private CollaborativeWebSocketModuleImpl module2;
+    private CollaborativeRoom room;
+
+    @Before
+    public void setup() throws Exception {
+        InProcessWebSocketMessageBus messageBus = new InProcessWebSocketMessageBus();
+        IUserManagerLocal userManager = Mockito.mock(IUserManagerLocal.class);
+        Mockito.when(userManager.hasCommonWorkspace(Mockito.anyString(), Mockito.anyString())).thenReturn(true);
+
+        module1 = new CollaborativeWebSocketModuleImpl();
+        module2 = new CollaborativeWebSocketModuleImpl();
+        node1 = createNode(userManager, messageBus, module1);
+        node2 = createNode(userManager, messageBus, module2);
+    }
+
+    @After
+    public void tearDown() {
+        if (room != null) {
+            room.delete();
+        }
+        node1.destroy();
+        node2.destroy();
+    }
+
+    @Test
+    public void membersOfOtherNodesJoinThroughTheBusTest() {
+        Session master = WebSocketSessionsManagerTest.mockSession();
+        Session guest = WebSocketSessionsManagerTest.mockSession();
+        node1.addSession("user1", master);
+        node2.addSession("user2", guest);
+
+        module1.process(master, build(message(CollaborativeWebSocketModuleImpl.COLLABORATIVE_CREATE, null)));
+        room = CollaborativeRoom.getAllCollaborativeRooms().stream()
+                .filter(r -> "user1".equals(r.getMasterName())).findFirst().orElse(null);
+        Assert.assertNotNull(room);
+        Assert.assertEquals(node1.getNodeId(), room.getNodeId());
+
+        JsonObjectBuilder invitation = Json.createObjectBuilder().add("context", "context").add("url", "url");
+        module1.process(master, build(message(CollaborativeWebSocketModuleImpl.COLLABORATIVE_INVITE, room.getKey())
+                .add("remoteUser", "user2").add("broadcastMessage", invitation)));
+        Assert.assertEquals(Collections.singletonList(CollaborativeWebSocketModuleImpl.CHAT_MESSAGE), sentTypes(guest));
+
+        // Node 2 does not hold the room, the join is processed by node 1
+        Assert.assertFalse(module2.holdsRoom(build(message(CollaborativeWebSocketModuleImpl.COLLABORATIVE_JOIN, room.getKey()))));
+        module2.process(guest, build(message(CollaborativeWebSocketModuleImpl.COLLABORATIVE_JOIN, room.getKey())));
+
+        Assert.assertEquals(Collections.singletonList(node2.getAddress(guest)), room.getSlaves());
+        Assert.assertTrue(room.getPendingUsers().isEmpty());
+
+        module1.process(master, build(message(CollaborativeWebSocketModuleImpl.COLLABORATIVE_COMMANDS, room.getKey())
+                .add("broadcastMessage", Json.createObjectBuilder().add("explode", "10"))));
+
+        Assert.assertEquals(Arrays.asList(
+                CollaborativeWebSocketModuleImpl.CHAT_MESSAGE,
+                CollaborativeWebSocketModuleImpl.COLLABORATIVE_JOIN,
+                CollaborativeWebSocketModuleImpl.COLLABORATIVE_CONTEXT,
+                CollaborativeWebSocketModuleImpl.COLLABORATIVE_COMMANDS), sentTypes(guest));
+    }
+
+    private static JsonObjectBuilder message(String type, String key) {
+        JsonObjectBuilder message = Json.createObjectBuilder().add("type", type);
+        if (key != null) {
+            message.add("key", key);
+        }
+        return message;
+    }
+
+    private static WebSocketMessage build(JsonObjectBuilder message) {
+        return new WebSocketMessage(message.build());
+    }
+
+    private static List<String> sentTypes(Session session) {
+        ArgumentCaptor<Object> messages = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(session.getAsyncRemote(), Mockito.atLeast(0)).sendObject(messages.capture());
+        return messages.getAllValues().stream()
+                .map(message -> ((WebSocketMessage) message).getType())
+                .collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WebSocketSessionsManager createNode(IUserManagerLocal userManager, InProcessWebSocketMessageBus messageBus,
+                                                       CollaborativeWebSocketModuleImpl module) throws Exception {
+        Instance<WebSocketModule> modules = Mockito.mock(Instance.class);
+        Mockito.when(modules.iterator()).thenAnswer(invocation -> Collections.<WebSocketModule>singletonList(module).iterator());
+
+        WebSocketSessionsManager node = new WebSocketSessionsManager(userManager, messageBus, modules);
+        node.init();
+
+        Field field = CollaborativeWebSocketModuleImpl.class.getDeclaredField("webSocketSessionsManager");
+        field.setAccessible(true);
+        field.set(module, node);
+        return node;
+    }
+}
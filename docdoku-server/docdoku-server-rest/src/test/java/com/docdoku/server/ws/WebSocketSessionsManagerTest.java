@@ -0,0 +1,146 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.server.ws;
+
+import com.docdoku.core.services.IUserManagerLocal;
+import com.docdoku.server.ws.bus.InProcessWebSocketMessageBus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import javax.json.Json;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WebSocketSessionsManagerTest {
+
+    private static final AtomicInteger SESSION_IDS = new AtomicInteger();
+
+    private InProcessWebSocketMessageBus messageBus;
+    private WebSocketSessionsManager node1;
+    private WebSocketSessionsManager node2;
+
+    @Before
+    public void setup() {
+        messageBus = new InProcessWebSocketMessageBus();
+        IUserManagerLocal userManager = Mockito.mock(IUserManagerLocal.class);
+        node1 = new WebSocketSessionsManager(userManager, messageBus);
+        node1.init();
+        node2 = new WebSocketSessionsManager(userManager, messageBus);
+        node2.init();
+    }
+
+    @After
+    public void tearDown() {
+        node1.destroy();
+        node2.destroy();
+    }
+
+    @Test
+    public void sessionsAreIndexedByUserAndBySessionTest() {
+        Session first = mockSession();
+        Session second = mockSession();
+
+        node1.addUnauthenticatedSession(first);
+        Assert.assertFalse(node1.isAuthenticated(first));
+
+        node1.addSession("user1", first);
+        node1.addSession("user1", second);
+        Assert.assertTrue(node1.isAuthenticated(first));
+        Assert.assertEquals("user1", node1.getHolder(second));
+        Assert.assertEquals(2, node1.getSessions("user1").size());
+
+        node1.removeSession(first);
+        Assert.assertNull(node1.getHolder(first));
+        Assert.assertTrue(node1.hasLocalSessions("user1"));
+
+        node1.removeSession(second);
+        Assert.assertFalse(node1.hasSessions("user1"));
+        Assert.assertTrue(node1.getSessions("user1").isEmpty());
+    }
+
+    @Test
+    public void presenceIsSharedBetweenNodesTest() {
+        Session session = mockSession();
+        node1.addSession("user1", session);
+
+        Assert.assertTrue(node2.hasSessions("user1"));
+        Assert.assertFalse(node2.hasLocalSessions("user1"));
+
+        // A node joining later asks the others for their users
+        WebSocketSessionsManager node3 = new WebSocketSessionsManager(Mockito.mock(IUserManagerLocal.class), messageBus);
+        node3.init();
+        Assert.assertTrue(node3.hasSessions("user1"));
+
+        node1.removeSession(session);
+        Assert.assertFalse(node2.hasSessions("user1"));
+        Assert.assertFalse(node3.hasSessions("user1"));
+        node3.destroy();
+    }
+
+    @Test
+    public void broadcastReachesUsersOnOtherNodesTest() {
+        Session local = mockSession();
+        Session remote = mockSession();
+        node1.addSession("user1", local);
+        node2.addSession("user1", remote);
+
+        node1.broadcast("user1", new WebSocketMessage(Json.createObjectBuilder().add("type", "CHAT_MESSAGE").build()));
+
+        Mockito.verify(local.getAsyncRemote()).sendObject(Matchers.any(WebSocketMessage.class));
+        Mockito.verify(remote.getAsyncRemote()).sendObject(Matchers.argThat(new ArgumentMatcher<Object>() {
+            @Override
+            public boolean matches(Object argument) {
+                return "CHAT_MESSAGE".equals(((WebSocketMessage) argument).getType());
+            }
+        }));
+    }
+
+    @Test
+    public void sessionAddressReachesSessionOnOtherNodeTest() {
+        Session target = mockSession();
+        Session other = mockSession();
+        node2.addSession("user1", target);
+        node2.addSession("user1", other);
+
+        SessionAddress address = node2.getAddress(target);
+        Assert.assertEquals(node2.getNodeId(), address.getNodeId());
+        Assert.assertEquals("user1", address.getLogin());
+
+        node1.send(address, new WebSocketMessage(Json.createObjectBuilder().add("type", "COLLABORATIVE_CONTEXT").build()));
+
+        Mockito.verify(target.getAsyncRemote()).sendObject(Matchers.any(WebSocketMessage.class));
+        Mockito.verify(other.getAsyncRemote(), Mockito.never()).sendObject(Matchers.any(WebSocketMessage.class));
+    }
+
+    static Session mockSession() {
+        Session session = Mockito.mock(Session.class);
+        RemoteEndpoint.Async async = Mockito.mock(RemoteEndpoint.Async.class);
+        Mockito.when(session.getAsyncRemote()).thenReturn(async);
+        Mockito.when(session.getId()).thenReturn(String.valueOf(SESSION_IDS.incrementAndGet()));
+        return session;
+    }
+}
@@ -21,10 +21,10 @@
 package com.docdoku.server.ws.collaborative;
 
 
+import com.docdoku.server.ws.SessionAddress;
 import com.docdoku.server.ws.WebSocketMessage;
 import org.junit.After;
 import org.junit.Assert;
-import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -33,34 +33,16 @@ import org.mockito.runners.MockitoJUnitRunner;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
-import javax.websocket.Session;
 import java.io.StringReader;
-import java.security.Principal;
 
 /**
  * @author Asmae CHADID
  */
 @RunWith(MockitoJUnitRunner.class)
 public class CollaborativeRoomTest {
-    private static Session master = Mockito.mock(Session.class);
-    private static Session slave1 = Mockito.mock(Session.class);
-    private static Session slave2 = Mockito.mock(Session.class);
-
-    private static Principal principalMaster = Mockito.mock(Principal.class);
-    private static Principal principal1 = Mockito.mock(Principal.class);
-    private static Principal principal2 = Mockito.mock(Principal.class);
-
-
-    @BeforeClass
-    public static void init() {
-        Mockito.when(master.getUserPrincipal()).thenReturn(principalMaster);
-        Mockito.when(slave1.getUserPrincipal()).thenReturn(principal1);
-        Mockito.when(slave2.getUserPrincipal()).thenReturn(principal2);
-
-        Mockito.when(master.getUserPrincipal().getName()).thenReturn("master1");
-        Mockito.when(slave1.getUserPrincipal().getName()).thenReturn("slave1");
-        Mockito.when(slave2.getUserPrincipal().getName()).thenReturn("slave2");
-    }
+    private static SessionAddress master = new SessionAddress("node1", "0", "master1");
+    private static SessionAddress slave1 = new SessionAddress("node1", "1", "slave1");
+    private static SessionAddress slave2 = new SessionAddress("node2", "2", "slave2");
 
     @Test
     public void shouldReturnEmptyMasterName() {
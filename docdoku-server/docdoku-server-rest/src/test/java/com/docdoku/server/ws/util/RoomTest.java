@@ -19,6 +19,7 @@
  */
 package com.docdoku.server.ws.util;
 
+import com.docdoku.server.ws.SessionAddress;
 import com.docdoku.server.ws.chat.Room;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -28,8 +29,6 @@ import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
-import javax.websocket.Session;
-import java.security.Principal;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -45,14 +44,11 @@ public class RoomTest {
     @SuppressWarnings("unchecked")
     private static ConcurrentMap<String, Room> DB = Mockito.mock(ConcurrentHashMap.class);
 
-    private static Session userSession1 = Mockito.mock(Session.class);
-    private static Session userSession2 = Mockito.mock(Session.class);
-    private static Principal principal1 = Mockito.mock(Principal.class);
-    private static Principal principal2 = Mockito.mock(Principal.class);
-    private static Principal principal3 = Mockito.mock(Principal.class);
-    private static Room secondRoom = Mockito.spy(new Room("PLMRoom"));
-    private static Room thirdRoom = Mockito.spy(new Room("ChatRoom"));
-    private static Session userSession3 = Mockito.mock(Session.class);
+    private static SessionAddress userSession1 = new SessionAddress("node1", "1", "user1");
+    private static SessionAddress userSession2 = new SessionAddress("node1", "2", "user2");
+    private static Room secondRoom = Mockito.spy(new Room("PLMRoom", "node1"));
+    private static Room thirdRoom = Mockito.spy(new Room("ChatRoom", "node1"));
+    private static SessionAddress userSession3 = new SessionAddress("node2", "3", "user3");
 
     @BeforeClass
     public static void setUp() {
@@ -61,19 +57,11 @@ public class RoomTest {
         Mockito.when(room.addUserSession(userSession2, "user2")).thenCallRealMethod();
         Mockito.when(room.key()).thenReturn("plm");
 
-        Mockito.when(userSession1.getUserPrincipal()).thenReturn(principal1);
-        Mockito.when(principal1.getName()).thenReturn("user1");
         Mockito.when(room.getUser1Login()).thenCallRealMethod();
-
-        Mockito.when(userSession2.getUserPrincipal()).thenReturn(principal2);
-        Mockito.when(principal2.getName()).thenReturn("user2");
         Mockito.when(room.getUser2Login()).thenCallRealMethod();
 
-        Mockito.when(principal3.getName()).thenReturn("user3");
-        Mockito.when(userSession3.getUserPrincipal()).thenReturn(principal3);
-
         Mockito.when(room.getUserSession(Matchers.anyString())).thenCallRealMethod();
-        Mockito.when(room.getOtherUserSession(Matchers.any(Session.class))).thenCallRealMethod();
+        Mockito.when(room.getOtherUserSession(Matchers.any(SessionAddress.class))).thenCallRealMethod();
         Mockito.when(RoomTest.DB.get(Matchers.anyString())).thenReturn(room);
         Mockito.when(RoomTest.DB.put(Matchers.anyString(), Matchers.any(Room.class))).thenReturn(room);
         Mockito.when(RoomTest.DB.get("plm").getSessionForUserLogin(Matchers.anyString())).thenCallRealMethod();
@@ -135,7 +123,7 @@ public class RoomTest {
 
     @Test
     public void testGetOtherUserSession() {
-        Session userSession3 = Mockito.mock(Session.class);
+        SessionAddress userSession3 = new SessionAddress("node2", "4", "user4");
         Assert.assertEquals(DB.get("plm").getOtherUserSession(userSession1), userSession2);
         Assert.assertEquals(DB.get("plm").getOtherUserSession(userSession2), userSession1);
         Assert.assertEquals(DB.get("plm").getOtherUserSession(userSession3), null);